@@ -0,0 +1,160 @@
+package nusri.fyp.demo.service.img_sender;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <b>Measures the encode time and payload size of each {@link FrameEncoder} on frames of a real video.</b>
+ * <br>
+ * <p>It samples {@code frames} frames spread over the {@code video}, then encodes them in turn with each encoding (PNG
+ * at levels 1 and 3, JPEG at 75 and 90, WebP at 75 and 90), at the original resolution ({@code width} 0) and at 1280
+ * pixels wide, the common model input size. The time is per encoded frame; the {@code payloadBytes} counter divided
+ * by the {@code encodedFrames} counter gives the mean payload size per frame.</p>
+ * <p>The figures depend on the footage and the machine, so run it on the cameras and hosts in use before choosing an
+ * encoding with {@code PUT /config/encoding}, e.g. with
+ * {@code java -jar build/libs/*-jmh.jar FrameEncoderBenchmark -p video=/path/to/clip.mp4}. It needs the OpenCV
+ * native library on {@code java.library.path}.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncoderBenchmark {
+
+    /**
+     * The path of the video to sample frames from.
+     */
+    @Param("")
+    public String video;
+
+    /**
+     * The number of frames sampled from the video.
+     */
+    @Param("20")
+    public int frames;
+
+    /**
+     * The encoding specification, see {@link FrameEncoder#parse(String)}.
+     */
+    @Param({"png:1", "png:3", "jpeg:75", "jpeg:90", "webp:75", "webp:90"})
+    public String encoding;
+
+    /**
+     * The width frames are scaled down to before encoding, or {@code 0} to keep the original resolution.
+     */
+    @Param({"0", "1280"})
+    public int width;
+
+    private final List<Mat> sampled = new ArrayList<>();
+    private FrameEncoder encoder;
+    private int next;
+
+    /**
+     * The payload size of the frames encoded by one thread, reported per iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long payloadBytes;
+        public long encodedFrames;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            payloadBytes = 0;
+            encodedFrames = 0;
+        }
+    }
+
+    /**
+     * Samples and scales the frames.
+     */
+    @Setup
+    public void setUp() {
+        if (video.isEmpty()) {
+            throw new IllegalArgumentException("Set the video to sample with -p video=<path>");
+        }
+        System.loadLibrary("opencv_java460");
+        encoder = FrameEncoder.parse(encoding);
+        for (Mat frame : sample(video, frames)) {
+            if (width > 0 && frame.cols() > width) {
+                Mat small = new Mat();
+                double factor = (double) width / frame.cols();
+                Imgproc.resize(frame, small, new Size(width, Math.round(frame.rows() * factor)),
+                        0, 0, Imgproc.INTER_AREA);
+                frame.release();
+                frame = small;
+            }
+            sampled.add(frame);
+        }
+        if (sampled.isEmpty()) {
+            throw new IllegalArgumentException("No frame could be read from " + video);
+        }
+    }
+
+    /**
+     * Releases the frames.
+     */
+    @TearDown
+    public void tearDown() {
+        sampled.forEach(Mat::release);
+        sampled.clear();
+    }
+
+    /**
+     * Encodes the next sampled frame.
+     *
+     * @param payload counts the payload size
+     * @return the encoded frame
+     */
+    @Benchmark
+    public byte[] encode(Payload payload) {
+        byte[] bytes = encoder.encode(sampled.get(Math.floorMod(next++, sampled.size())));
+        payload.payloadBytes += bytes.length;
+        payload.encodedFrames++;
+        return bytes;
+    }
+
+    /**
+     * Reads frames spread evenly over a video.
+     *
+     * @param path  the video path
+     * @param count the number of frames to read
+     * @return the frames, to be released by the caller
+     */
+    private static List<Mat> sample(String path, int count) {
+        VideoCapture capture = new VideoCapture(path);
+        List<Mat> frames = new ArrayList<>();
+        try {
+            if (!capture.isOpened()) {
+                throw new IllegalArgumentException("Cannot open " + path);
+            }
+            long frameCount = (long) capture.get(Videoio.CAP_PROP_FRAME_COUNT);
+            long step = Math.max(1, frameCount / count);
+            for (long position = 0; frames.size() < count && position < Math.max(frameCount, 1); position += step) {
+                capture.set(Videoio.CAP_PROP_POS_FRAMES, position);
+                Mat frame = new Mat();
+                if (!capture.read(frame) || frame.empty()) {
+                    frame.release();
+                    break;
+                }
+                frames.add(frame);
+            }
+        } finally {
+            capture.release();
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,125 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nusri.fyp.demo.state_machine.ActionObservation;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <b>Compares the ways of turning a Python server response into {@link ActionObservation}s.</b>
+ * <br>
+ * <ul>
+ *   <li>{@link #stringMapping()}: the former path, reading the body into a string, stripping quotes and mapping it
+ *       with an {@link ObjectMapper}.</li>
+ *   <li>{@link #streamingJson()}: {@link ObservationParser} on the same JSON.</li>
+ *   <li>{@link #binary()}: {@link ObservationParser} on the same observations in the binary format.</li>
+ * </ul>
+ * <p>Run with {@code ./gradlew jmh}; add {@code -Pjmh.profilers=gc} to compare the allocation per response.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObservationParserBenchmark {
+
+    /**
+     * The number of observations per response.
+     */
+    @Param({"5", "50"})
+    public int observations;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final ObservationParser parser = new ObservationParser(objectMapper.getFactory());
+
+    private byte[] json;
+    private byte[] binary;
+
+    /**
+     * Builds the responses, with labels repeating as they do across the actions of a preset.
+     *
+     * @throws IOException never
+     */
+    @Setup
+    public void setUp() throws IOException {
+        String[] labels = {"pick up screw", "tighten screw", "place lid", "open box", "inspect part"};
+        StringBuilder builder = new StringBuilder("{\"actionObservations\": [");
+        for (int i = 0; i < observations; i++) {
+            builder.append(i == 0 ? "" : ", ")
+                    .append("{\"actionAndObject\": \"").append(labels[i % labels.length])
+                    .append("\", \"probability\": ").append(1.0 / (i + 2)).append('}');
+        }
+        json = builder.append("], \"t\": 1700000000}").toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("EOB1");
+        out.writeShort(labels.length);
+        for (String label : labels) {
+            byte[] utf8 = label.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(utf8.length);
+            out.write(utf8);
+        }
+        out.writeShort(1);
+        out.writeShort(observations);
+        for (int i = 0; i < observations; i++) {
+            out.writeShort(i % labels.length);
+            out.writeFloat((float) (1.0 / (i + 2)));
+        }
+        binary = bytes.toByteArray();
+    }
+
+    /**
+     * @return the observations
+     * @throws IOException never
+     */
+    @Benchmark
+    public List<ActionObservation> stringMapping() throws IOException {
+        String body = new String(new ByteArrayInputStream(json).readAllBytes(), StandardCharsets.UTF_8);
+        return objectMapper.readValue(body.replace("'", ""), Result.class).actionObservations;
+    }
+
+    /**
+     * @return the observations
+     * @throws IOException never
+     */
+    @Benchmark
+    public List<ActionObservation> streamingJson() throws IOException {
+        return parser.parseFrame("application/json", new ByteArrayInputStream(json));
+    }
+
+    /**
+     * @return the observations
+     * @throws IOException never
+     */
+    @Benchmark
+    public List<ActionObservation> binary() throws IOException {
+        return parser.parseFrame(ObservationParser.BINARY_TYPE, new ByteArrayInputStream(binary));
+    }
+
+    /**
+     * The response shape the former path mapped to.
+     */
+    public static class Result {
+        @JsonProperty("actionObservations")
+        public List<ActionObservation> actionObservations = new ArrayList<>();
+
+        @JsonProperty("t")
+        public Long t;
+    }
+}
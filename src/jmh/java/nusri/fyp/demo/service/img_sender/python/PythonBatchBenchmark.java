@@ -0,0 +1,177 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <b>Compares single-frame and batched requests against a local stand-in Python worker.</b>
+ * <br>
+ * <p>The stand-in serves {@code /process_image} and {@code /process_images} with the same contract as a real worker,
+ * answering an empty list of observations per frame after sleeping a fixed per-request overhead plus a per-frame
+ * cost. Each benchmark thread sends one frame at a time, either alone ({@link #single()}, 8 threads) or through a
+ * shared {@link FrameBatcher} ({@link #batched()}, 64 threads, so that batches of up to 8 frames can fill while 8
+ * requests are in flight). The throughput and the frame latency percentiles are reported.</p>
+ * <p>Run with {@code ./gradlew jmh}.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see FrameBatcher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PythonBatchBenchmark {
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    /**
+     * The size of each frame, in bytes.
+     */
+    @Param("20000")
+    public int frameBytes;
+
+    /**
+     * The fixed cost of a request to the stand-in worker, in milliseconds.
+     */
+    @Param("8")
+    public int overheadMs;
+
+    /**
+     * The cost of each frame of a request, in milliseconds.
+     */
+    @Param("2")
+    public int perFrameMs;
+
+    /**
+     * The largest batch.
+     */
+    @Param("8")
+    public int maxBatch;
+
+    private HttpServer server;
+    private OkHttpClient client;
+    private String url;
+    private byte[] frame;
+    private FrameBatcher<String> batcher;
+
+    /**
+     * Starts the stand-in worker and the client.
+     *
+     * @throws IOException if the stand-in worker cannot start
+     */
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/process_image", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            sleep(overheadMs + perFrameMs);
+            respond(exchange, "{\"actionObservations\": []}");
+        });
+        server.createContext("/process_images", exchange -> {
+            int count = countParts(exchange);
+            sleep(overheadMs + (long) perFrameMs * count);
+            respond(exchange, "{\"results\": [" + String.join(", ",
+                    Collections.nCopies(count, "{\"actionObservations\": []}")) + "]}");
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(256);
+        dispatcher.setMaxRequestsPerHost(256);
+        client = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+        frame = new byte[frameBytes];
+        batcher = new FrameBatcher<>(() -> maxBatch, () -> 5, () -> 1000, batch ->
+                CompletableFuture.supplyAsync(() -> {
+                    MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM);
+                    for (int i = 0; i < batch.size(); i++) {
+                        body.addFormDataPart("frames", "frame" + i, RequestBody.create(batch.get(i), OCTET_STREAM));
+                    }
+                    String response = call(url + "/process_images", body.build());
+                    return Collections.nCopies(batch.size(), response);
+                }));
+    }
+
+    /**
+     * Stops the stand-in worker and the client.
+     */
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    /**
+     * @return the response to one frame sent alone
+     */
+    @Benchmark
+    @Threads(8)
+    public String single() {
+        return call(url + "/process_image", RequestBody.create(frame, OCTET_STREAM));
+    }
+
+    /**
+     * @return the response to the batch one frame was sent in
+     */
+    @Benchmark
+    @Threads(64)
+    public String batched() {
+        return batcher.submit(frame).join();
+    }
+
+    private String call(String url, RequestBody body) {
+        try (Response response = client.newCall(new Request.Builder().url(url).post(body).build()).execute()) {
+            ResponseBody responseBody = response.body();
+            return responseBody != null ? responseBody.string() : "";
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Counts the {@code frames} parts of a multipart request by their {@code Content-Disposition} headers.
+     */
+    private static int countParts(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1);
+        int count = 0;
+        for (int i = body.indexOf("name=\"frames\""); i >= 0; i = body.indexOf("name=\"frames\"", i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
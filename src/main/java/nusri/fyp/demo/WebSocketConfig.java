@@ -0,0 +1,41 @@
+package nusri.fyp.demo;
+
+import nusri.fyp.demo.service.push.PushEventHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Configuration class registering the WebSocket endpoints of the application.
+ * <br> The push channel at {@code /ws/events} accepts the same origins as the REST API (see {@link WebConfig}).
+ * @author Liu Binghong
+ * @since 1.0
+ */
+@SuppressWarnings("HttpUrlsUsage")
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final PushEventHandler pushEventHandler;
+
+    /**
+     * Constructs the {@link WebSocketConfig}.
+     *
+     * @param pushEventHandler the handler of the push channel
+     */
+    public WebSocketConfig(PushEventHandler pushEventHandler) {
+        this.pushEventHandler = pushEventHandler;
+    }
+
+    /**
+     * Registers the push channel handler.
+     *
+     * @param registry The registry of WebSocket handlers.
+     */
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(pushEventHandler, "/ws/events")
+                .setAllowedOriginPatterns("https://test.ltseed.cn", "http://192.168.*.*:*", "http://localhost:*");
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.entity.PreprocessConfig;
 import nusri.fyp.demo.entity.QuotaConfig;
 import nusri.fyp.demo.service.ConfigService;
 import org.springframework.http.HttpStatus;
@@ -101,6 +102,58 @@ public class ConfigController {
         }
     }
 
+    /**
+     * Retrieves the Python servers frames can be sent to.
+     *
+     * @return ResponseEntity containing the servers, as "host@port".
+     */
+    @GetMapping("/python-servers")
+    public ResponseEntity<?> getPythonServers() {
+        return ResponseEntity.ok(configService.getPythonServers().stream()
+                .map(Object::toString)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Adds a Python server at runtime; frames can be sent to it within a few seconds, without a restart.
+     * <br>Example:
+     * <pre>
+     *  POST /config/python-servers
+     *  Body: {"host": "http://127.0.0.1", "port": "8080"}
+     * </pre>
+     *
+     * @param request The request body containing the host and port of the server's main process.
+     * @return ResponseEntity indicating the result of the operation.
+     */
+    @PostMapping("/python-servers")
+    public ResponseEntity<?> addPythonServer(@RequestBody HostAndPort request) {
+        try {
+            return ResponseEntity.ok("python server added: " + configService.addPythonServer(request.getHost(), request.getPort()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("fail when python server adding: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a Python server at runtime.
+     *
+     * @param request The request body containing the host and port of the server's main process.
+     * @return ResponseEntity indicating the result of the operation.
+     */
+    @DeleteMapping("/python-servers")
+    public ResponseEntity<?> removePythonServer(@RequestBody HostAndPort request) {
+        try {
+            if (configService.removePythonServer(request.getHost(), request.getPort())) {
+                return ResponseEntity.ok("python server removed");
+            }
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("python server not found");
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("fail when python server removing: " + e.getMessage());
+        }
+    }
+
     /**
      * A simple DTO class used to encapsulate host and port values for server configurations.
      */
@@ -244,4 +297,65 @@ public class ConfigController {
         }
     }
 
+    /**
+     * Endpoint for getting the frame preprocessing (resize and region of interest) of a model preset.
+     *
+     * @param presetName The preset name, or {@code default}.
+     * @return ResponseEntity containing the {@link PreprocessConfig} applied to the preset.
+     */
+    @GetMapping("/preprocess/preset/{presetName}")
+    public ResponseEntity<PreprocessConfig> getPreprocessConfigPreset(@PathVariable("presetName") String presetName) {
+        return ResponseEntity.ok(configService.getPreprocessConfig(presetName));
+    }
+
+    /**
+     * Endpoint for updating the frame preprocessing (resize and region of interest) of a model preset.
+     * <br>Example:
+     * <pre>
+     *  PUT /config/preprocess/preset/{presetName}
+     *  Body: {"targetWidth": 1280, "targetHeight": 720, "autoRoi": true}
+     * </pre>
+     * <br>Use {@code default} as the preset name to update the preprocessing of presets without their own.
+     *
+     * @param presetName The preset name whose preprocessing is to be updated.
+     * @param preprocessConfig The new preprocessing configuration for the preset.
+     * @return ResponseEntity indicating the success or failure of the operation.
+     */
+    @PutMapping("/preprocess/preset/{presetName}")
+    public ResponseEntity<?> updatePreprocessConfigPreset(@PathVariable("presetName") String presetName,
+                                                          @RequestBody PreprocessConfig preprocessConfig) {
+        try {
+            configService.addPreprocessConfig(presetName, preprocessConfig);
+            return ResponseEntity.ok("model " + presetName + " preprocessing update to " + preprocessConfig);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("fail when updating model preprocessing: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Endpoint for updating the frame encoding of a model.
+     * <br>Example:
+     * <pre>
+     *  PUT /config/encoding?model=python@http://localhost
+     *  Body: "jpeg:90"
+     * </pre>
+     * <br>The body is {@code format[:quality]}, with format {@code png}, {@code jpeg} or {@code webp}. Use
+     * {@code default} as the model to update the encoding of models without their own.
+     *
+     * @param model    The model descriptor (see {@link ConfigService#getUseModel(String)}), or {@code default}.
+     * @param encoding The new encoding of the model.
+     * @return ResponseEntity indicating the success or failure of the operation.
+     */
+    @PutMapping("/encoding")
+    public ResponseEntity<?> updateFrameEncoding(@RequestParam("model") String model,
+                                                 @RequestBody String encoding) {
+        try {
+            configService.addFrameEncoding(model, encoding.replace("\"", ""));
+            return ResponseEntity.ok("model " + model + " encoding update to " + configService.getFrameEncoding(model));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("fail when updating model encoding: " + e.getMessage());
+        }
+    }
 }
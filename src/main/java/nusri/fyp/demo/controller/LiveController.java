@@ -0,0 +1,77 @@
+package nusri.fyp.demo.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.LiveStreamStatusDto;
+import nusri.fyp.demo.service.VideoService;
+import nusri.fyp.demo.service.live.LiveStreamService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller for server-side live ingestion: a camera, an RTSP/HTTP stream or a video file replayed at real-time
+ * speed is read by the server and fed continuously into the user's state machine.
+ * <br> Results, progress bars and alarms are pushed over the {@code /ws/events} WebSocket as frames are processed.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/live")
+public class LiveController {
+
+    private final VideoService videoService;
+    private final LiveStreamService liveStreamService;
+
+    /**
+     * Constructs the {@link LiveController} with the required services.
+     *
+     * @param videoService The service resolving the preset's model and starting sessions.
+     * @param liveStreamService The service running live ingestion sessions.
+     */
+    LiveController(VideoService videoService, LiveStreamService liveStreamService) {
+        this.videoService = videoService;
+        this.liveStreamService = liveStreamService;
+    }
+
+    /**
+     * Endpoint to start a live ingestion session, replacing the user's previous one.
+     *
+     * @param user The user identifier.
+     * @param preset The preset name the state machine is started with.
+     * @param source A camera index (e.g. {@code 0}), a stream URL (e.g. {@code rtsp://...}) or a video file path.
+     * @param fps The number of frames inferred per second; defaults to the configured live target rate.
+     * @param replay Whether the source is a video file to replay at real-time speed.
+     * @return A 202 response containing the {@link LiveStreamStatusDto}, or an error if the session cannot start.
+     */
+    @PostMapping("/{user}/start")
+    public ResponseEntity<?> start(@PathVariable("user") String user,
+                                   @RequestParam("preset") String preset,
+                                   @RequestParam("source") String source,
+                                   @RequestParam(value = "fps", required = false) Double fps,
+                                   @RequestParam(value = "replay", defaultValue = "false") boolean replay) {
+        return videoService.startLiveStream(user, preset, source, fps, replay);
+    }
+
+    /**
+     * Endpoint to stop the user's live ingestion session. The state machine keeps its observations.
+     *
+     * @param user The user identifier.
+     * @return A response entity containing the final {@link LiveStreamStatusDto}, or 404 if no session was running.
+     */
+    @PostMapping("/{user}/stop")
+    public ResponseEntity<LiveStreamStatusDto> stop(@PathVariable("user") String user) {
+        if (!liveStreamService.stop(user)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.of(liveStreamService.status(user));
+    }
+
+    /**
+     * Endpoint to get the state and frame counters of the user's latest live ingestion session.
+     *
+     * @param user The user identifier.
+     * @return A response entity containing the {@link LiveStreamStatusDto}, or 404 if the user never started one.
+     */
+    @GetMapping("/{user}")
+    public ResponseEntity<LiveStreamStatusDto> status(@PathVariable("user") String user) {
+        return ResponseEntity.of(liveStreamService.status(user));
+    }
+}
@@ -0,0 +1,70 @@
+package nusri.fyp.demo.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.PythonWorkerHeartbeatDto;
+import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller the Python workers call to join and leave the load balancing at runtime, without a restart of this
+ * application or of the server's main process.
+ * <br> A worker sends a heartbeat every few seconds; it receives frames from its first heartbeat on and is dropped once
+ * no heartbeat came for {@link nusri.fyp.demo.service.ConfigService#getPythonWorkerHeartbeatTtlMs()}.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+@Slf4j
+@RestController
+@RequestMapping("/python/workers")
+public class PythonWorkerController {
+
+    private final ImageSenderService imageSenderService;
+
+    /**
+     * Constructs the {@link PythonWorkerController} with the required service.
+     *
+     * @param imageSenderService The service owning the Python load balancers.
+     */
+    PythonWorkerController(ImageSenderService imageSenderService) {
+        this.imageSenderService = imageSenderService;
+    }
+
+    /**
+     * Endpoint a worker calls to register itself, then periodically as its heartbeat.
+     * <br>Example:
+     * <pre>
+     *  POST /python/workers
+     *  Body: {"host": "http://127.0.0.1", "port": "8080", "workerPort": 5003, "queueSize": "2"}
+     * </pre>
+     *
+     * @param heartbeat The worker and the server it belongs to.
+     * @return ResponseEntity indicating the result of the registration.
+     */
+    @PostMapping
+    public ResponseEntity<?> heartbeat(@RequestBody PythonWorkerHeartbeatDto heartbeat) {
+        if (heartbeat.getHost() == null || heartbeat.getPort() == null || heartbeat.getWorkerPort() <= 0) {
+            return ResponseEntity.badRequest().body("host, port and workerPort are required");
+        }
+        imageSenderService.registerPythonWorker(heartbeat.getHost(), heartbeat.getPort(), heartbeat.getWorkerPort(),
+                heartbeat.getQueueSize());
+        return ResponseEntity.ok("worker registered");
+    }
+
+    /**
+     * Endpoint a worker calls when it shuts down, so that no more frames are sent to it.
+     *
+     * @param heartbeat The worker and the server it belongs to; {@code queueSize} is ignored.
+     * @return ResponseEntity indicating whether the worker was registered.
+     */
+    @DeleteMapping
+    public ResponseEntity<?> deregister(@RequestBody PythonWorkerHeartbeatDto heartbeat) {
+        if (imageSenderService.deregisterPythonWorker(heartbeat.getHost(), heartbeat.getPort(),
+                heartbeat.getWorkerPort())) {
+            return ResponseEntity.ok("worker deregistered");
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("worker not registered");
+    }
+}
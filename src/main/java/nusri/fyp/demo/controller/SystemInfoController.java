@@ -1,7 +1,15 @@
 package nusri.fyp.demo.controller;
 
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.dto.FrameBatchStatsDto;
+import nusri.fyp.demo.dto.HedgeStatsDto;
+import nusri.fyp.demo.dto.HttpClientStatsDto;
+import nusri.fyp.demo.dto.InferenceExecutorStatsDto;
+import nusri.fyp.demo.dto.InferenceLaneStatsDto;
 import nusri.fyp.demo.dto.JvmInfoDto;
+import nusri.fyp.demo.dto.MatPoolStatsDto;
+import nusri.fyp.demo.dto.PythonInstanceHealthDto;
 import nusri.fyp.demo.dto.SystemInfoDto;
 import nusri.fyp.demo.service.SystemInfoService;
 import org.springframework.boot.SpringApplication;
@@ -11,6 +19,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 /**
  * Controller class that provides management endpoints for fetching system and JVM resource information.
  * <br> This controller offers APIs to retrieve system resource metrics (such as CPU, memory, disk usage)
@@ -57,6 +67,110 @@ public class SystemInfoController {
         return systemInfoService.getJvmInfo();
     }
 
+    /**
+     * Endpoint to retrieve the counters of the frame {@code Mat} pool, to track native memory held by frames.
+     * <br> This endpoint calls {@link SystemInfoService#getMatPoolStats()}.
+     *
+     * @return A {@link MatPoolStatsDto} containing the pool counters.
+     */
+    @GetMapping("/mat-pool")
+    public MatPoolStatsDto getMatPoolStats() {
+        return systemInfoService.getMatPoolStats();
+    }
+
+    /**
+     * Endpoint to retrieve the connection pool utilisation of the HTTP client used for the Python servers.
+     * <br> This endpoint calls {@link SystemInfoService#getPythonHttpStats()}.
+     *
+     * @return A {@link HttpClientStatsDto} containing the pool counters.
+     */
+    @GetMapping("/python-http")
+    public HttpClientStatsDto getPythonHttpStats() {
+        return systemInfoService.getPythonHttpStats();
+    }
+
+    /**
+     * Endpoint to retrieve the queue depth and latency of the live and batch inference lanes of each backend.
+     * <br> This endpoint calls {@link SystemInfoService#getInferenceLaneStats()}.
+     *
+     * @return A list of {@link InferenceLaneStatsDto}, two per backend.
+     */
+    @GetMapping("/inference-lanes")
+    public List<InferenceLaneStatsDto> getInferenceLaneStats() {
+        return systemInfoService.getInferenceLaneStats();
+    }
+
+    /**
+     * Endpoint to retrieve how often live frames were hedged to a second Python instance, and how often the hedge won.
+     * <br> This endpoint calls {@link SystemInfoService#getHedgeStats()}.
+     *
+     * @return A {@link HedgeStatsDto} containing the hedge counters.
+     */
+    @GetMapping("/hedging")
+    public HedgeStatsDto getHedgeStats() {
+        return systemInfoService.getHedgeStats();
+    }
+
+    /**
+     * Endpoint to retrieve the active threads and queue depth of the executor running the blocking inference requests.
+     * <br> This endpoint calls {@link SystemInfoService#getInferenceExecutorStats()}.
+     *
+     * @return A {@link InferenceExecutorStatsDto} containing the executor counters.
+     */
+    @GetMapping("/inference-executor")
+    public InferenceExecutorStatsDto getInferenceExecutorStats() {
+        return systemInfoService.getInferenceExecutorStats();
+    }
+
+    /**
+     * Endpoint to retrieve the active threads of the executor running the hedges of live frames, and the hedges not
+     * sent because all of them were busy.
+     * <br> This endpoint calls {@link SystemInfoService#getHedgeExecutorStats()}.
+     *
+     * @return A {@link InferenceExecutorStatsDto} containing the executor counters.
+     */
+    @GetMapping("/hedge-executor")
+    public InferenceExecutorStatsDto getHedgeExecutorStats() {
+        return systemInfoService.getHedgeExecutorStats();
+    }
+
+    /**
+     * Endpoint to retrieve the adaptive concurrency limit of every inference instance, its requests in flight and the
+     * time requests waited for it.
+     * <br> This endpoint calls {@link SystemInfoService#getConcurrencyLimits()}.
+     *
+     * @return A list of {@link ConcurrencyLimitDto}, one per instance.
+     */
+    @GetMapping("/concurrency-limits")
+    public List<ConcurrencyLimitDto> getConcurrencyLimits() {
+        return systemInfoService.getConcurrencyLimits();
+    }
+
+    /**
+     * Endpoint to retrieve the frame batchers of every Python server: live frames of every session grouped within
+     * their latency budget, and video-job frames, with histograms of the batch sizes, batch latencies and frame
+     * latencies.
+     * <br> This endpoint calls {@link SystemInfoService#getFrameBatchStats()}.
+     *
+     * @return A list of {@link FrameBatchStatsDto}, one per server and lane.
+     */
+    @GetMapping("/frame-batches")
+    public List<FrameBatchStatsDto> getFrameBatchStats() {
+        return systemInfoService.getFrameBatchStats();
+    }
+
+    /**
+     * Endpoint to retrieve the health of every Python instance: its circuit state, requests in flight and latency.
+     * <br> This endpoint calls {@link SystemInfoService#getPythonInstanceHealth()}; the same data is reported by the
+     * {@code pythonInstances} component of {@code /actuator/health}.
+     *
+     * @return A list of {@link PythonInstanceHealthDto}, one per instance.
+     */
+    @GetMapping("/python-instances")
+    public List<PythonInstanceHealthDto> getPythonInstanceHealth() {
+        return systemInfoService.getPythonInstanceHealth();
+    }
+
     /**
      * Endpoint to test connection.
      *
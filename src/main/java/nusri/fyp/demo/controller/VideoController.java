@@ -1,18 +1,29 @@
 package nusri.fyp.demo.controller;
 
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ProgressDetailsDto;
+import nusri.fyp.demo.dto.UploadSessionDto;
+import nusri.fyp.demo.dto.VideoJobDto;
+import nusri.fyp.demo.service.ChunkedUploadService;
 import nusri.fyp.demo.service.VideoService;
+import nusri.fyp.demo.service.job.VideoJob;
+import nusri.fyp.demo.service.job.VideoJobService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
  * Controller class for handling video-related API requests, including uploading, processing, and downloading video files.
  * <br> This class exposes endpoints for uploading videos, processing videos frame by frame, retrieving processing progress,
  * and downloading the processed video.
+ * <br> Large videos can be uploaded as resumable chunks, each verified with a SHA-256 checksum.
+ * <br> Videos can also be processed as background jobs, which are submitted, polled, fetched and cancelled by job id.
  */
 @Slf4j
 @RestController
@@ -20,14 +31,21 @@ import java.io.*;
 public class VideoController {
 
     private final VideoService videoService;
+    private final VideoJobService videoJobService;
+    private final ChunkedUploadService chunkedUploadService;
 
     /**
-     * Constructs the {@link VideoController} with the required {@link VideoService}.
+     * Constructs the {@link VideoController} with the required {@link VideoService}, {@link VideoJobService} and
+     * {@link ChunkedUploadService}.
      *
      * @param videoService The service responsible for handling video processing and uploads.
+     * @param videoJobService The service running video-processing jobs in the background.
+     * @param chunkedUploadService The service receiving resumable, chunked uploads.
      */
-    VideoController(VideoService videoService) {
+    VideoController(VideoService videoService, VideoJobService videoJobService, ChunkedUploadService chunkedUploadService) {
         this.videoService = videoService;
+        this.videoJobService = videoJobService;
+        this.chunkedUploadService = chunkedUploadService;
     }
 
     /**
@@ -48,20 +66,171 @@ public class VideoController {
         return ResponseEntity.ok("File uploaded and processed successfully");
     }
 
+    /**
+     * Endpoint for opening a resumable, chunked upload of a video file.
+     *
+     * @param user The user identifier to associate the video with a specific user session.
+     * @param size The total size of the video, in bytes.
+     * @param chunkSize The size of every chunk but the last, in bytes.
+     * @return A response entity containing the {@link UploadSessionDto}, or 400 if a parameter is invalid.
+     * @throws IOException If the part file cannot be created.
+     */
+    @PostMapping("/uploads/{user}")
+    public ResponseEntity<?> openUpload(@PathVariable("user") String user,
+                                        @RequestParam("size") long size,
+                                        @RequestParam("chunkSize") int chunkSize) throws IOException {
+        return chunkedUploadService.createSession(user, size, chunkSize);
+    }
+
+    /**
+     * Endpoint to get the state of a chunked upload, listing the chunks received so far.
+     * <br> After a dropped connection, the client resends only the chunks missing from this list.
+     *
+     * @param uploadId The upload identifier.
+     * @return A response entity containing the {@link UploadSessionDto}, or 404 if the upload is unknown.
+     */
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<?> getUpload(@PathVariable("uploadId") String uploadId) {
+        return chunkedUploadService.getSession(uploadId);
+    }
+
+    /**
+     * Endpoint for sending one chunk of a chunked upload as the raw request body.
+     *
+     * @param uploadId The upload identifier.
+     * @param index The 0-based chunk index.
+     * @param sha256 The hex-encoded SHA-256 checksum of the chunk.
+     * @param body The chunk bytes.
+     * @return A response entity containing the updated {@link UploadSessionDto}, or an error if the chunk was rejected.
+     * @throws IOException If the chunk cannot be read or written.
+     */
+    @PutMapping("/uploads/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(@PathVariable("uploadId") String uploadId,
+                                         @PathVariable("index") int index,
+                                         @RequestHeader("X-Chunk-SHA256") String sha256,
+                                         InputStream body) throws IOException {
+        return chunkedUploadService.writeChunk(uploadId, index, sha256, body);
+    }
+
+    /**
+     * Endpoint for completing a chunked upload once all chunks have been received.
+     *
+     * @param uploadId The upload identifier.
+     * @return A response entity indicating whether the video was saved, or 409 if chunks are still missing.
+     * @throws IOException If the video cannot be moved into place.
+     */
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<String> completeUpload(@PathVariable("uploadId") String uploadId) throws IOException {
+        return videoService.completeChunkedUpload(uploadId);
+    }
+
     /**
      * Endpoint for processing the uploaded video based on a preset configuration.
      * <br> This method initiates the processing of the video, where each frame is sent to the model for recognition.
-     * The processing result is returned once the video has been processed.
+     * The processing result is returned once the video has been processed; the request is handled asynchronously,
+     * so no servlet thread is held while waiting.
      *
      * @param user The user identifier to associate the video processing with the correct user session.
      * @param presetName The preset name related to the model used for video processing.
-     * @return A response entity containing the result of the video processing, including any errors.
+     * @return A future of the response entity containing the result of the video processing, including any errors.
      */
     @GetMapping("/proc/{user}")
-    public ResponseEntity<?> procVideo(@PathVariable("user") final String user, @RequestParam("preset") String presetName) {
+    public CompletableFuture<ResponseEntity<?>> procVideo(@PathVariable("user") final String user, @RequestParam("preset") String presetName) {
         return videoService.processVideo(user, presetName);
     }
 
+    /**
+     * Endpoint for submitting a background job processing the uploaded video based on a preset configuration.
+     * <br> This method returns immediately with the job identifier; use the other {@code /jobs} endpoints to follow it.
+     *
+     * @param user The user identifier to associate the video processing with the correct user session.
+     * @param presetName The preset name related to the model used for video processing.
+     * @return A 202 response containing the {@link VideoJobDto}, or 404 if no video was uploaded.
+     */
+    @PostMapping("/jobs/{user}")
+    public ResponseEntity<?> submitJob(@PathVariable("user") String user, @RequestParam("preset") String presetName) {
+        return videoService.submitVideoJob(user, presetName);
+    }
+
+    /**
+     * Endpoint for submitting a batch of videos, processed as one background job per video based on a preset configuration.
+     * <br> The videos are processed alongside the user's current video without replacing it. Jobs of all users share
+     * the job slots fairly, so a large batch does not delay other users' jobs until it is done.
+     *
+     * @param user The user identifier the jobs belong to.
+     * @param presetName The preset name related to the model used for video processing.
+     * @param videoFiles The videos to process, in order.
+     * @return A 202 response containing one {@link VideoJobDto} per video, or 400 if a video is empty.
+     * @throws IOException If a video cannot be saved.
+     */
+    @PostMapping("/batch/{user}")
+    public ResponseEntity<?> submitBatch(@PathVariable("user") String user, @RequestParam("preset") String presetName,
+                                         @RequestParam("videos") MultipartFile[] videoFiles) throws IOException {
+        return videoService.submitBatch(user, presetName, videoFiles);
+    }
+
+    /**
+     * Endpoint to get the status of a video-processing job.
+     *
+     * @param jobId The job identifier returned on submission.
+     * @return A response entity containing the {@link VideoJobDto}, or 404 if the job is unknown or has been evicted.
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<VideoJobDto> getJob(@PathVariable("jobId") String jobId) {
+        return videoJobService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(new VideoJobDto(job)))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Endpoint to get the result of a video-processing job.
+     * <br> The result stays available after completion until the job is evicted.
+     *
+     * @param jobId The job identifier returned on submission.
+     * @return A response entity containing the observations keyed by frame timestamp, 409 with the job status if the
+     * job has not succeeded, or 404 if the job is unknown or has been evicted.
+     */
+    @GetMapping("/jobs/{jobId}/result")
+    public ResponseEntity<?> getJobResult(@PathVariable("jobId") String jobId) {
+        Optional<VideoJob> job = videoJobService.getJob(jobId);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.get().getStatus() != VideoJob.Status.SUCCEEDED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new VideoJobDto(job.get()));
+        }
+        return ResponseEntity.ok(job.get().getResult());
+    }
+
+    /**
+     * Endpoint to get the detailed progress of a video-processing job, including a batch job.
+     *
+     * @param jobId The job identifier returned on submission.
+     * @return A response entity containing the {@link ProgressDetailsDto}, or 404 if the job is unknown, has been
+     * evicted or has not started processing frames yet.
+     */
+    @GetMapping("/jobs/{jobId}/progress")
+    public ResponseEntity<ProgressDetailsDto> getJobProgress(@PathVariable("jobId") String jobId) {
+        return videoService.getJobProgressDetails(jobId);
+    }
+
+    /**
+     * Endpoint to cancel a queued or running video-processing job.
+     *
+     * @param jobId The job identifier returned on submission.
+     * @return A response entity containing the {@link VideoJobDto}, 409 if the job had already finished, or 404 if the
+     * job is unknown or has been evicted.
+     */
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<VideoJobDto> cancelJob(@PathVariable("jobId") String jobId) {
+        Optional<VideoJob> job = videoJobService.getJob(jobId);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        HttpStatus status = videoJobService.cancel(jobId) ? HttpStatus.OK : HttpStatus.CONFLICT;
+        return ResponseEntity.status(status).body(new VideoJobDto(job.get()));
+    }
+
     /**
      * Endpoint to get the progress of video processing by user.
      * <br> This method provides the processing progress of the video, returning a value between 0 and 1
@@ -76,6 +245,20 @@ public class VideoController {
         return ResponseEntity.ok(progress);
     }
 
+    /**
+     * Endpoint to get the detailed progress of video processing by user.
+     * <br> This method reports, for the latest video job of the user, how many frames each stage has handled, the
+     * frames per second of each stage, the moving-average encode and inference latencies and the estimated time
+     * remaining, so the bottleneck stage can be identified while the job runs.
+     *
+     * @param user The user identifier to track the video processing progress.
+     * @return A response entity containing the {@link ProgressDetailsDto}, or 404 if the user has no video job.
+     */
+    @GetMapping("/progress/{user}/details")
+    public ResponseEntity<ProgressDetailsDto> getProgressDetails(@PathVariable("user") String user) {
+        return videoService.getProgressDetails(user);
+    }
+
     /**
      * Endpoint for downloading the processed video file for a specific user.
      * <br> This method retrieves the processed video file and provides it for download or streaming.
@@ -100,13 +283,19 @@ public class VideoController {
      * @param img The Base64 encoded image data to be processed.
      * @param user The user identifier to associate the image processing with the correct user session.
      * @param timestamp The timestamp or identifier for the image frame.
-     * @return A response entity indicating whether the image was successfully processed or if no image was uploaded.
+     * @return A response entity indicating whether the image was successfully processed or if no image was uploaded,
+     * or 503 if its inference failed; the frame is skipped then, and the client simply sends the next one.
      */
     @PostMapping("/img")
     public ResponseEntity<?> procImg(@RequestParam("img") String img,
                                      @RequestParam("user") String user,
                                      @RequestParam("t") String timestamp) {
-        boolean No_img_file_uploaded = !videoService.processImage(img, user, timestamp);
+        boolean No_img_file_uploaded;
+        try {
+            No_img_file_uploaded = !videoService.processImage(img, user, timestamp);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Frame skipped: " + e.getMessage());
+        }
         if (No_img_file_uploaded) return ResponseEntity.badRequest().body("No img file uploaded");
 
         return ResponseEntity.ok("Video uploaded and processed successfully");
@@ -7,6 +7,7 @@ import nusri.fyp.demo.dto.ProgressBar;
 import nusri.fyp.demo.roboflow.data.entity.workflow.SinglePrediction;
 import nusri.fyp.demo.service.StateMachineService;
 import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import nusri.fyp.demo.service.live.LiveStreamService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -25,6 +26,7 @@ public class WorkInfoController {
 
     private final StateMachineService stateMachineService;
     private final ImageSenderService imageSenderService;
+    private final LiveStreamService liveStreamService;
 
     /**
      * Endpoint to get the progress of a work session.
@@ -87,12 +89,14 @@ public class WorkInfoController {
 
     /**
      * Endpoint to interrupt a specific work session.
-     * <br> This method stops the state machine and interrupts the associated image sender service.
+     * <br> This method stops the live ingestion session and the state machine, and interrupts the associated image
+     * sender service.
      *
      * @param user The user identifier for the work session to interrupt.
      */
     @GetMapping("/interrupt")
     public void interruptStateMachine(@RequestParam String user) {
+        liveStreamService.stop(user);
         stateMachineService.stopAndLogStateMachine(user);
         imageSenderService.interrupt(user);
     }
@@ -142,10 +146,13 @@ public class WorkInfoController {
      *
      * @param stateMachineService The state machine service.
      * @param imageSenderService  The image sender service.
+     * @param liveStreamService   The live ingestion service.
      */
     WorkInfoController(StateMachineService stateMachineService,
-                       ImageSenderService imageSenderService) {
+                       ImageSenderService imageSenderService,
+                       LiveStreamService liveStreamService) {
         this.stateMachineService = stateMachineService;
         this.imageSenderService = imageSenderService;
+        this.liveStreamService = liveStreamService;
     }
 }
@@ -40,7 +40,7 @@ public class ActionObservationConverter implements AttributeConverter<Map<Long,
      *
      * @param mapper The {@link ObjectMapper} used for JSON serialization and deserialization.
      */
-    ActionObservationConverter (ObjectMapper mapper) {
+    public ActionObservationConverter(ObjectMapper mapper) {
         this.objectMapper = mapper;
     }
 
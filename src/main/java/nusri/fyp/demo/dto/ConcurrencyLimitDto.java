@@ -0,0 +1,66 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the adaptive concurrency limit of one inference instance.
+ * <br> {@code queueWaitMs} growing while {@code limit} stays low means the instance is saturated; frames waiting
+ * longer than the configured queue timeout are shed and counted in {@code shed}.
+ */
+@Data
+public class ConcurrencyLimitDto {
+    /**
+     * The backend, e.g. {@code python}.
+     */
+    private String backend;
+
+    /**
+     * The server the instance belongs to, as {@code host:port} of its main server, or the backend for Roboflow.
+     */
+    private String server;
+
+    /**
+     * The instance, e.g. the base URL of a Python worker.
+     */
+    private String instance;
+
+    /**
+     * Whether the limit is enforced.
+     */
+    private boolean enabled;
+
+    /**
+     * The number of requests that may be in flight to the instance.
+     */
+    private int limit;
+
+    /**
+     * The number of requests in flight to the instance.
+     */
+    private int inFlight;
+
+    /**
+     * The number of requests waiting for an instance of the server below its limit.
+     */
+    private int waiting;
+
+    /**
+     * The number of requests of the server shed after waiting too long.
+     */
+    private long shed;
+
+    /**
+     * The moving average of the time requests waited for the limit, in milliseconds.
+     */
+    private double queueWaitMs;
+
+    /**
+     * The moving average of the request latency, in milliseconds.
+     */
+    private double latencyMs;
+
+    /**
+     * The latency of the instance when it is not overloaded, in milliseconds.
+     */
+    private double baselineLatencyMs;
+}
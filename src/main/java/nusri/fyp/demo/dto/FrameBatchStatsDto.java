@@ -0,0 +1,61 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the state of the frame batcher of one Python server and lane.
+ * <br> Frames of the {@code live} lane from every session are grouped within their latency budget; frames of the
+ * {@code batch} lane come from video jobs.
+ */
+@Data
+public class FrameBatchStatsDto {
+    /**
+     * The server, as {@code host:port} of its main process.
+     */
+    private String server;
+
+    /**
+     * The lane whose frames are grouped, {@code live} or {@code batch}.
+     */
+    private String lane;
+
+    /**
+     * Whether frames are grouped, i.e. the configured maximum batch exceeds one frame.
+     */
+    private boolean enabled;
+
+    /**
+     * The current batch size, adapted to the batch latency.
+     */
+    private int batchSize;
+
+    /**
+     * The number of batches sent.
+     */
+    private long batches;
+
+    /**
+     * The number of frames sent in those batches.
+     */
+    private long frames;
+
+    /**
+     * The number of frames cancelled before their batch was sent, and left out of it.
+     */
+    private long dropped;
+
+    /**
+     * The number of frames per batch.
+     */
+    private HistogramDto batchSizes;
+
+    /**
+     * The time from sending a batch to its answer, in milliseconds.
+     */
+    private HistogramDto batchLatencyMs;
+
+    /**
+     * The time from submitting a frame to its result, in milliseconds, including the wait for its batch.
+     */
+    private HistogramDto frameLatencyMs;
+}
@@ -0,0 +1,56 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning how often inference requests of a backend were hedged, and how often the hedge answered first.
+ * <br> A high {@code hedgeWinRate} means the hedges do cut the tail latency; a high {@code budgetDenied} means the
+ * budget is too small for the current share of slow requests.
+ */
+@Data
+public class HedgeStatsDto {
+    /**
+     * The backend, e.g. {@code python}.
+     */
+    private String backend;
+
+    /**
+     * Whether hedging is enabled.
+     */
+    private boolean enabled;
+
+    /**
+     * The time after which a request is hedged, in milliseconds, or {@code -1} while too few latencies are known.
+     */
+    private long delayMs;
+
+    /**
+     * The number of requests that could have been hedged.
+     */
+    private long requests;
+
+    /**
+     * The number of hedges sent.
+     */
+    private long hedges;
+
+    /**
+     * The number of hedges that answered before the original request.
+     */
+    private long hedgeWins;
+
+    /**
+     * The number of hedges not sent because the budget was spent.
+     */
+    private long budgetDenied;
+
+    /**
+     * The share of requests that were hedged.
+     */
+    private double hedgeRate;
+
+    /**
+     * The share of hedges that answered first.
+     */
+    private double hedgeWinRate;
+}
@@ -0,0 +1,38 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO for returning a histogram, e.g. of batch sizes or latencies.
+ * <br> {@code counts} has one more entry than {@code upperBounds}: {@code counts[i]} counts the samples up to
+ * {@code upperBounds[i]} and above the previous bound, and the last entry counts the samples above every bound.
+ */
+@Data
+public class HistogramDto {
+    /**
+     * The inclusive upper bound of every bucket but the last.
+     */
+    private List<Long> upperBounds;
+
+    /**
+     * The number of samples in each bucket.
+     */
+    private List<Long> counts;
+
+    /**
+     * The number of samples.
+     */
+    private long count;
+
+    /**
+     * The mean of the samples.
+     */
+    private double mean;
+
+    /**
+     * The largest sample.
+     */
+    private long max;
+}
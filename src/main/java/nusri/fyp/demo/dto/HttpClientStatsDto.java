@@ -0,0 +1,68 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * DTO for returning the connection pool utilisation and counters of the HTTP client used for the Python servers.
+ * <br> With keep-alive working, {@code connectionsOpened} stays close to the number of workers and
+ * {@code connectionReuseRatio} close to {@code 1}.
+ */
+@Data
+public class HttpClientStatsDto {
+    /**
+     * The number of open connections, idle or in use.
+     */
+    private int connections;
+
+    /**
+     * The number of idle connections kept alive for reuse.
+     */
+    private int idleConnections;
+
+    /**
+     * The maximum number of idle connections kept alive.
+     */
+    private int maxIdleConnections;
+
+    /**
+     * The number of requests in flight to each route, keyed by {@code host:port}.
+     */
+    private Map<String, Integer> inFlightPerRoute;
+
+    /**
+     * The number of requests sent.
+     */
+    private long requests;
+
+    /**
+     * The number of requests that failed, timed out or got a non-2xx status.
+     */
+    private long failures;
+
+    /**
+     * The number of TCP connections opened.
+     */
+    private long connectionsOpened;
+
+    /**
+     * The number of TLS handshakes performed.
+     */
+    private long tlsHandshakes;
+
+    /**
+     * The share of requests served on an already open connection.
+     */
+    private double connectionReuseRatio;
+
+    /**
+     * The average time spent opening a connection, TCP and TLS setup included, in milliseconds.
+     */
+    private double averageConnectMs;
+
+    /**
+     * The moving average of the request latency, in milliseconds.
+     */
+    private double latencyMs;
+}
@@ -0,0 +1,51 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the state of the executor running the blocking inference requests.
+ * <br> A growing {@code queueDepth} or any {@code rejected} task means the pool is smaller than the inference lanes
+ * allow; in {@code virtual} mode every request has its own thread and nothing queues.
+ */
+@Data
+public class InferenceExecutorStatsDto {
+    /**
+     * The thread mode: {@code platform} or {@code virtual}.
+     */
+    private String mode;
+
+    /**
+     * The number of platform threads currently in the pool.
+     */
+    private int poolSize;
+
+    /**
+     * The configured number of platform threads.
+     */
+    private int maxPoolSize;
+
+    /**
+     * The number of requests running.
+     */
+    private int activeTasks;
+
+    /**
+     * The number of requests waiting for a thread.
+     */
+    private int queueDepth;
+
+    /**
+     * The number of requests that may wait for a thread.
+     */
+    private int queueCapacity;
+
+    /**
+     * The number of requests run.
+     */
+    private long completed;
+
+    /**
+     * The number of requests rejected because the queue was full.
+     */
+    private long rejected;
+}
@@ -0,0 +1,61 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the state of one priority lane of an inference backend (Python servers or Roboflow).
+ * <br> Live frames go through the {@code LIVE} lane and always start before waiting video-job frames of the
+ * {@code BATCH} lane, which only uses the leftover request slots plus its reserved share.
+ */
+@Data
+public class InferenceLaneStatsDto {
+    /**
+     * The backend the lane belongs to, e.g. {@code python}.
+     */
+    private String backend;
+
+    /**
+     * The lane: LIVE or BATCH.
+     */
+    private String lane;
+
+    /**
+     * The number of requests the backend may run at the same time, across both lanes.
+     */
+    private int capacity;
+
+    /**
+     * The number of request slots kept for the batch lane while it has work, even when live frames are waiting.
+     */
+    private int reserved;
+
+    /**
+     * The number of requests waiting for a slot in this lane.
+     */
+    private int waiting;
+
+    /**
+     * The number of requests of this lane currently running.
+     */
+    private int running;
+
+    /**
+     * The number of requests submitted to this lane.
+     */
+    private long submitted;
+
+    /**
+     * The number of requests of this lane that finished, successfully or not.
+     */
+    private long completed;
+
+    /**
+     * The moving average of the time a request waited for a slot, in milliseconds.
+     */
+    private double waitMs;
+
+    /**
+     * The moving average of the time a request ran once started, in milliseconds.
+     */
+    private double latencyMs;
+}
@@ -57,4 +57,11 @@ public class JvmInfoDto {
      *
      */
     private long unloadedClassCount;
+
+    /**
+     * The resident set size of the process, in bytes, including native memory such as OpenCV frame buffers.
+     * <br> This value is {@code -1} where the operating system does not expose it.
+     *
+     */
+    private long residentMemory;
 }
@@ -0,0 +1,76 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the state of a live ingestion session: its source, status and frame counters.
+ * <br> A growing number of dropped frames means inference is slower than the target rate; the state machine then
+ * receives the freshest frames only.
+ */
+@Data
+public class LiveStreamStatusDto {
+    /**
+     * The user the session belongs to.
+     */
+    private String user;
+
+    /**
+     * The preset the state machine was started with.
+     */
+    private String preset;
+
+    /**
+     * The camera index, stream URL or file path read by the session.
+     */
+    private String source;
+
+    /**
+     * The number of frames inferred per second.
+     */
+    private double targetFps;
+
+    /**
+     * Whether the source is a file replayed at real-time speed.
+     */
+    private boolean replay;
+
+    /**
+     * The session status: RUNNING, ENDED, STOPPED or FAILED.
+     */
+    private String status;
+
+    /**
+     * The reason the session failed, if it did.
+     */
+    private String error;
+
+    /**
+     * The epoch millisecond at which the session started.
+     */
+    private long startedAt;
+
+    /**
+     * The number of frames read from the source.
+     */
+    private long grabbedFrames;
+
+    /**
+     * The number of frames sampled at the target rate.
+     */
+    private long sampledFrames;
+
+    /**
+     * The number of sampled frames replaced by a fresher one before they could be inferred.
+     */
+    private long droppedFrames;
+
+    /**
+     * The number of frames inferred and applied to the state machine.
+     */
+    private long processedFrames;
+
+    /**
+     * The number of frames whose inference failed.
+     */
+    private long failedFrames;
+}
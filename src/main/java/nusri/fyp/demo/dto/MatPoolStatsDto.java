@@ -0,0 +1,51 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the counters of the pool of frame {@code Mat}s shared by the video pipeline and live streams.
+ * <br> With no job or live stream running, {@code outstanding} must be {@code 0}; if it keeps growing, frames are
+ * being dropped without being handed back and their native memory leaks.
+ */
+@Data
+public class MatPoolStatsDto {
+    /**
+     * The maximum number of idle {@code Mat}s kept for reuse.
+     */
+    private int capacity;
+
+    /**
+     * The number of idle {@code Mat}s currently kept.
+     */
+    private int idle;
+
+    /**
+     * The native memory held by the idle {@code Mat}s, in bytes.
+     */
+    private long idleBytes;
+
+    /**
+     * The number of {@code Mat}s created because the pool was empty.
+     */
+    private long created;
+
+    /**
+     * The number of acquisitions served by an idle {@code Mat}.
+     */
+    private long reused;
+
+    /**
+     * The number of {@code Mat}s handed back and kept for reuse.
+     */
+    private long returned;
+
+    /**
+     * The number of {@code Mat}s handed back and freed because the pool was full.
+     */
+    private long discarded;
+
+    /**
+     * The number of {@code Mat}s acquired and not handed back yet.
+     */
+    private long outstanding;
+}
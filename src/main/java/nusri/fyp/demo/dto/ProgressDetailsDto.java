@@ -0,0 +1,106 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the detailed progress of a video-processing job: per-stage counters and throughput, moving-average
+ * latencies, backlogs between stages and the estimated time remaining.
+ * <br> The stage whose backlog keeps growing, or whose throughput is lowest, is the bottleneck of the job.
+ */
+@Data
+public class ProgressDetailsDto {
+    /**
+     * The number of frames the job samples from the video.
+     */
+    private long totalFrames;
+
+    /**
+     * The number of frames whose result was served from the inference cache.
+     */
+    private long cachedFrames;
+
+    /**
+     * The number of frames decoded.
+     */
+    private long decodedFrames;
+
+    /**
+     * The number of frames encoded.
+     */
+    private long encodedFrames;
+
+    /**
+     * The number of frames sent for inference.
+     */
+    private long sentFrames;
+
+    /**
+     * The number of frames whose inference result was collected.
+     */
+    private long completedFrames;
+
+    /**
+     * The number of frames whose inference failed.
+     */
+    private long failedFrames;
+
+    /**
+     * The number of decoded frames waiting for, or being, encoded.
+     */
+    private long encodeBacklog;
+
+    /**
+     * The number of encoded frames waiting to be sent.
+     */
+    private long sendBacklog;
+
+    /**
+     * The number of frames sent and waiting for their result.
+     */
+    private long inFlight;
+
+    /**
+     * The decode throughput since the job started, in frames per second.
+     */
+    private double decodeFps;
+
+    /**
+     * The encode throughput since the job started, in frames per second.
+     */
+    private double encodeFps;
+
+    /**
+     * The inference throughput since the job started, in frames per second.
+     */
+    private double inferFps;
+
+    /**
+     * The moving-average time to encode a frame, in milliseconds.
+     */
+    private double encodeLatencyMs;
+
+    /**
+     * The moving-average time from sending a frame to receiving its result, in milliseconds.
+     */
+    private double inferLatencyMs;
+
+    /**
+     * The time since the job started, in milliseconds.
+     */
+    private long elapsedMs;
+
+    /**
+     * The estimated time remaining, in milliseconds, or {@code -1} while unknown.
+     */
+    private long etaMs;
+
+    /**
+     * Whether the job has finished.
+     */
+    private boolean finished;
+
+    /**
+     * The fraction of frames done, between 0 and 1.
+     */
+    private double progress;
+}
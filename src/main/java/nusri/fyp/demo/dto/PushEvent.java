@@ -0,0 +1,33 @@
+package nusri.fyp.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * An event pushed to the WebSocket clients of a user.
+ * <br> Sequence numbers are per user and increase by one with every event, so a client that reconnects with the last
+ * sequence number it saw receives exactly the events it missed.
+ */
+@Data
+@AllArgsConstructor
+public class PushEvent {
+    /**
+     * The sequence number of the event within the user's channel, starting at 1.
+     */
+    private long seq;
+
+    /**
+     * The event type, e.g. "frame", "job", "state" or "reset".
+     */
+    private String type;
+
+    /**
+     * The time the event was published, in epoch milliseconds.
+     */
+    private long time;
+
+    /**
+     * The event content, whose shape depends on {@link #type}.
+     */
+    private Object payload;
+}
@@ -0,0 +1,71 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for returning the health of one Python instance as seen by the load balancer of its server.
+ * <br> {@code state} is {@code HEALTHY}, {@code EJECTED} (no frames are sent to it) or {@code RECOVERING} (it gets a
+ * growing share of the frames, {@code admitWeight}).
+ */
+@Data
+public class PythonInstanceHealthDto {
+    /**
+     * The Python server the instance belongs to, as {@code host:port} of its main server.
+     */
+    private String server;
+
+    /**
+     * The base URL of the instance.
+     */
+    private String url;
+
+    /**
+     * The circuit state of the instance.
+     */
+    private String state;
+
+    /**
+     * The share of the frames the instance may receive, from 0 to 1.
+     */
+    private double admitWeight;
+
+    /**
+     * The number of requests in flight to the instance.
+     */
+    private int inFlight;
+
+    /**
+     * The queue size last reported by the instance.
+     */
+    private int queueHint;
+
+    /**
+     * The number of failures in a row, requests and health checks included.
+     */
+    private int consecutiveFailures;
+
+    /**
+     * The number of requests sent to the instance.
+     */
+    private long requests;
+
+    /**
+     * The number of those requests that failed.
+     */
+    private long failures;
+
+    /**
+     * The number of times the instance was ejected.
+     */
+    private long ejections;
+
+    /**
+     * The time left before an ejected instance is checked again, in milliseconds.
+     */
+    private long ejectedForMs;
+
+    /**
+     * The moving average of the request latency, in milliseconds.
+     */
+    private double latencyMs;
+}
@@ -0,0 +1,31 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+
+/**
+ * DTO for the heartbeat a Python worker sends to register itself with the load balancer of its server.
+ * <br> The worker is reachable at {@code host:workerPort}; {@code host} and {@code port} identify its server as stored
+ * in the {@code python_server} table.
+ */
+@Data
+public class PythonWorkerHeartbeatDto {
+    /**
+     * The host of the server's main process, e.g. {@code http://127.0.0.1}.
+     */
+    private String host;
+
+    /**
+     * The port of the server's main process.
+     */
+    private String port;
+
+    /**
+     * The port the worker listens on.
+     */
+    private int workerPort;
+
+    /**
+     * The number of frames queued at the worker, if it reports it.
+     */
+    private String queueSize;
+}
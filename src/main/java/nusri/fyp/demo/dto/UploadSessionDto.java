@@ -0,0 +1,44 @@
+package nusri.fyp.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO for returning the state of a resumable, chunked video upload.
+ * <br> After a dropped connection, a client resends only the chunks missing from {@link #receivedChunks}.
+ */
+@Data
+@AllArgsConstructor
+public class UploadSessionDto {
+    /**
+     * The upload identifier, used for sending chunks and completing the upload.
+     */
+    private String uploadId;
+
+    /**
+     * The user the video is uploaded for.
+     */
+    private String user;
+
+    /**
+     * The total size of the video, in bytes.
+     */
+    private long size;
+
+    /**
+     * The size of every chunk but the last, in bytes.
+     */
+    private int chunkSize;
+
+    /**
+     * The number of chunks the video is split into.
+     */
+    private int chunkCount;
+
+    /**
+     * The indices of the chunks received and verified so far, in ascending order.
+     */
+    private List<Integer> receivedChunks;
+}
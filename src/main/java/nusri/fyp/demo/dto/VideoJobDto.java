@@ -0,0 +1,73 @@
+package nusri.fyp.demo.dto;
+
+import lombok.Data;
+import nusri.fyp.demo.service.job.VideoJob;
+
+/**
+ * DTO for returning the status of a background video-processing job.
+ * <br> The result itself is not included; it is retrieved separately once the job has succeeded.
+ */
+@Data
+public class VideoJobDto {
+    /**
+     * The job identifier, used to poll, fetch the result of, or cancel the job.
+     */
+    private String id;
+
+    /**
+     * The user the job belongs to.
+     */
+    private String user;
+
+    /**
+     * The preset the job runs with.
+     */
+    private String preset;
+
+    /**
+     * Whether the job is part of a batch of videos.
+     */
+    private boolean batch;
+
+    /**
+     * The job status: QUEUED, RUNNING, SUCCEEDED, FAILED or CANCELLED.
+     */
+    private String status;
+
+    /**
+     * The submission time, in epoch milliseconds.
+     */
+    private long submittedAt;
+
+    /**
+     * The start time, in epoch milliseconds, or {@code 0} if the job has not started.
+     */
+    private long startedAt;
+
+    /**
+     * The end time, in epoch milliseconds, or {@code 0} if the job has not finished.
+     */
+    private long finishedAt;
+
+    /**
+     * The failure message if the job failed, otherwise {@code null}.
+     */
+    private String error;
+
+    /**
+     * Creates a DTO from the current state of a job.
+     *
+     * @param job the job to describe
+     */
+    public VideoJobDto(VideoJob job) {
+        this.id = job.getId();
+        this.user = job.getUser();
+        this.preset = job.getPreset();
+        this.batch = job.isBatch();
+        this.status = job.getStatus().name();
+        this.submittedAt = job.getSubmittedAt();
+        this.startedAt = job.getStartedAt();
+        this.finishedAt = job.getFinishedAt();
+        this.error = job.getError();
+    }
+}
@@ -0,0 +1,122 @@
+package nusri.fyp.demo.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+
+import java.io.IOException;
+
+/**
+ * Frame preprocessing configuration of a {@link Preset}, applied to every frame before it is encoded and sent to the
+ * model.
+ * <br> A frame is first cropped to the region of interest, either the fixed {@code roi*} rectangle or, with
+ * {@code autoRoi}, the area where motion was seen over the first {@code autoRoiFrames} frames. It is then scaled down
+ * to fit {@code targetWidth} x {@code targetHeight}, keeping its aspect ratio.
+ * <br> Prediction coordinates are mapped back to the original frame, so downstream consumers never see the change.
+ */
+@Data
+public class PreprocessConfig {
+
+    /**
+     * The maximum width of the frame sent to the model, or {@code 0} to keep the width.
+     */
+    private int targetWidth;
+
+    /**
+     * The maximum height of the frame sent to the model, or {@code 0} to keep the height.
+     */
+    private int targetHeight;
+
+    /**
+     * The left edge of the fixed region of interest, in original frame pixels.
+     */
+    private int roiX;
+
+    /**
+     * The top edge of the fixed region of interest, in original frame pixels.
+     */
+    private int roiY;
+
+    /**
+     * The width of the fixed region of interest, or {@code 0} for no fixed region.
+     */
+    private int roiWidth;
+
+    /**
+     * The height of the fixed region of interest, or {@code 0} for no fixed region.
+     */
+    private int roiHeight;
+
+    /**
+     * Whether the region of interest is detected from motion instead of fixed. Ignored when a fixed region is set.
+     */
+    private boolean autoRoi;
+
+    /**
+     * The number of frames, sent uncropped, over which motion is accumulated before the region is detected.
+     */
+    private int autoRoiFrames = 30;
+
+    /**
+     * The margin added around the detected region on each side, as a fraction of its size.
+     */
+    private double autoRoiMargin = 0.1;
+
+    /**
+     * No-argument constructor; the default configuration leaves frames untouched.
+     */
+    public PreprocessConfig() {
+    }
+
+    /**
+     * Parses a preprocessing configuration from a JSON string using the given {@link ObjectMapper}.
+     *
+     * @param json   A JSON string containing preprocessing configuration information.
+     * @param mapper Jackson's object mapper for deserialization.
+     * @throws RuntimeException If parsing fails.
+     */
+    public PreprocessConfig(String json, ObjectMapper mapper) {
+        try {
+            PreprocessConfig tmp = mapper.readValue(json, PreprocessConfig.class);
+            this.targetWidth = tmp.targetWidth;
+            this.targetHeight = tmp.targetHeight;
+            this.roiX = tmp.roiX;
+            this.roiY = tmp.roiY;
+            this.roiWidth = tmp.roiWidth;
+            this.roiHeight = tmp.roiHeight;
+            this.autoRoi = tmp.autoRoi;
+            this.autoRoiFrames = tmp.autoRoiFrames;
+            this.autoRoiMargin = tmp.autoRoiMargin;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse PreprocessConfig from JSON.", e);
+        }
+    }
+
+    /**
+     * @return {@code true} if a fixed region of interest is set
+     */
+    @JsonIgnore
+    public boolean hasFixedRoi() {
+        return roiWidth > 0 && roiHeight > 0;
+    }
+
+    /**
+     * @return {@code true} if frames are changed in any way before encoding
+     */
+    @JsonIgnore
+    public boolean isEnabled() {
+        return targetWidth > 0 || targetHeight > 0 || hasFixedRoi() || autoRoi;
+    }
+
+    /**
+     * Serializes the current object into a JSON string.
+     *
+     * @param mapper The Jackson object mapper for serialization.
+     * @return The JSON string.
+     * @throws JsonProcessingException If serialization fails.
+     */
+    public String serialize(ObjectMapper mapper) throws JsonProcessingException {
+        return mapper.writeValueAsString(this);
+    }
+}
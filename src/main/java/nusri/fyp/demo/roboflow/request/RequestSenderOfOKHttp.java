@@ -129,6 +129,7 @@ public class RequestSenderOfOKHttp implements RequestSender {
     /**
      * Helper method to process the HTTP response asynchronously.
      * <br> It processes the response and returns the result by deserializing it into the expected response type (success or failure).
+     * <br> Cancelling the future cancels the HTTP call, which releases its connection right away.
      *
      * @param log The logger to log request details.
      * @param success The expected success response type.
@@ -137,10 +138,20 @@ public class RequestSenderOfOKHttp implements RequestSender {
      * @param request The HTTP request to be sent.
      */
     private void getFuture(Logger log, Class<? extends RoboflowResponseData> success, @Nullable Class<? extends RoboflowResponseData> failure, CompletableFuture<RoboflowResponseData> future, Request request) {
-        httpClient.newCall(request).enqueue(new Callback() {
+        Call httpCall = httpClient.newCall(request);
+        future.whenComplete((response, e) -> {
+            if (future.isCancelled()) {
+                httpCall.cancel();
+            }
+        });
+        httpCall.enqueue(new Callback() {
             @Override
             public void onFailure(@Nonnull Call call, @Nonnull IOException e) {
-                log.error("Request failed: {}", e.getMessage(), e);
+                if (call.isCanceled()) {
+                    log.debug("Request cancelled: {}", request.url());
+                } else {
+                    log.error("Request failed: {}", e.getMessage(), e);
+                }
                 future.completeExceptionally(e);
             }
 
@@ -0,0 +1,295 @@
+package nusri.fyp.demo.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.UploadSessionDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <b>Service class for resumable, chunked video uploads.</b>
+ * <br> A client uploads a large video as a sequence of fixed-size chunks:
+ * <ol>
+ *     <li>It opens an upload session with the total size and the chunk size ({@link #createSession(String, long, int)}).</li>
+ *     <li>It sends each chunk with its SHA-256 checksum ({@link #writeChunk(String, int, String, InputStream)}), in any
+ *         order and possibly in parallel. A chunk whose size or checksum does not match is rejected and can be resent.</li>
+ *     <li>After a dropped connection, it reads the session ({@link #getSession(String)}) and resends only the chunks
+ *         that are not listed as received.</li>
+ *     <li>It completes the upload through {@link VideoService#completeChunkedUpload(String)}.</li>
+ * </ol>
+ * <br> Every chunk is streamed from the request straight to its offset in a part file, so memory use does not depend
+ * on the chunk or video size. Sessions idle for longer than {@link ConfigService#getUploadSessionTtlMinutes()} are
+ * discarded together with their part file.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see VideoService
+ * @see UploadSessionDto
+ */
+@Service
+@Slf4j
+public class ChunkedUploadService {
+
+    private final ConfigService configService;
+
+    /**
+     * The open upload sessions, keyed by upload identifier.
+     */
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the {@link ChunkedUploadService}.
+     *
+     * @param configService the configuration service providing the video path and the session time-to-live
+     */
+    public ChunkedUploadService(ConfigService configService) {
+        this.configService = configService;
+    }
+
+    /**
+     * Opens an upload session for the given user.
+     *
+     * @param user      the user identifier
+     * @param size      the total size of the video, in bytes
+     * @param chunkSize the size of every chunk but the last, in bytes
+     * @return a {@link ResponseEntity} containing the {@link UploadSessionDto}, or 400 if a parameter is invalid
+     * @throws IOException if the part file cannot be created
+     */
+    public ResponseEntity<?> createSession(String user, long size, int chunkSize) throws IOException {
+        if (!VideoService.isValidFilename(user)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid video file name");
+        }
+        if (size <= 0 || chunkSize <= 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Size and chunk size must be positive");
+        }
+        Path partFile = Files.createTempFile(Path.of(configService.getVideoPath()), user + "-", ".part");
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), user, size, chunkSize, partFile);
+        sessions.put(session.getId(), session);
+        log.info("Opened upload {} for user {}: {} bytes in {} chunks", session.getId(), user, size, session.getChunkCount());
+        return ResponseEntity.ok(session.toDto());
+    }
+
+    /**
+     * Retrieves the state of an upload session, including the chunks received so far.
+     *
+     * @param uploadId the upload identifier
+     * @return a {@link ResponseEntity} containing the {@link UploadSessionDto}, or 404 if the session is unknown
+     */
+    public ResponseEntity<?> getSession(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown upload");
+        }
+        return ResponseEntity.ok(session.toDto());
+    }
+
+    /**
+     * Streams one chunk from the request body to its offset in the part file and verifies it.
+     * <br> The chunk is unmarked before it is written, since a resent chunk overwrites the bytes received before, and
+     * only marked as received again once its size and SHA-256 checksum both match; otherwise the client has to send it
+     * again. A chunk already being written by another request is rejected, so that two writers cannot mix their bytes.
+     *
+     * @param uploadId the upload identifier
+     * @param index    the 0-based chunk index
+     * @param sha256   the hex-encoded SHA-256 checksum of the chunk
+     * @param body     the request body containing the chunk bytes
+     * @return a {@link ResponseEntity} containing the updated {@link UploadSessionDto}; 404 if the session is unknown,
+     * 400 if the index or size is wrong, 409 if the chunk is being written or the upload completed, or 422 if the
+     * checksum does not match
+     * @throws IOException if the chunk cannot be read or written
+     */
+    public ResponseEntity<?> writeChunk(String uploadId, int index, String sha256, InputStream body) throws IOException {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown upload");
+        }
+        if (index < 0 || index >= session.getChunkCount()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Chunk index out of range");
+        }
+        long offset = (long) index * session.getChunkSize();
+        long expected = Math.min(session.getChunkSize(), session.getSize() - offset);
+
+        // Writers share the lock so chunks can be written in parallel; completion takes it exclusively
+        session.lock.readLock().lock();
+        try {
+            if (session.completed) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("Upload already completed");
+            }
+            if (!session.beginWrite(index)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("Chunk " + index + " is already being written");
+            }
+            boolean verified = false;
+            try {
+                MessageDigest digest = newSha256();
+                DigestInputStream digestStream = new DigestInputStream(body, digest);
+                long written = 0;
+                try (ReadableByteChannel source = Channels.newChannel(digestStream);
+                     FileChannel destination = FileChannel.open(session.getPartFile(), StandardOpenOption.WRITE)) {
+                    long transferred;
+                    while (written < expected
+                            && (transferred = destination.transferFrom(source, offset + written, expected - written)) > 0) {
+                        written += transferred;
+                    }
+                    // Never write past the chunk, so an oversized chunk cannot corrupt its neighbour
+                    if (written != expected || digestStream.read() != -1) {
+                        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                                .body("Chunk " + index + " must be " + expected + " bytes");
+                    }
+                }
+                if (!HexFormat.of().formatHex(digest.digest()).equalsIgnoreCase(sha256)) {
+                    log.warn("Checksum mismatch for chunk {} of upload {}", index, uploadId);
+                    return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body("Checksum mismatch for chunk " + index);
+                }
+                verified = true;
+            } finally {
+                session.endWrite(index, verified);
+            }
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        return ResponseEntity.ok(session.toDto());
+    }
+
+    /**
+     * Closes an upload session whose chunks have all been received, handing its part file over to the caller.
+     *
+     * @param uploadId the upload identifier
+     * @return the completed session, or {@code null} if the session is unknown
+     * @throws IllegalStateException if some chunks are still missing; the session stays open
+     */
+    UploadSession complete(String uploadId) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return null;
+        }
+        session.lock.writeLock().lock();
+        try {
+            if (session.getReceivedCount() < session.getChunkCount()) {
+                throw new IllegalStateException((session.getChunkCount() - session.getReceivedCount())
+                        + " chunks of upload " + uploadId + " are missing");
+            }
+            session.completed = true;
+            sessions.remove(uploadId);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+        return session;
+    }
+
+    /**
+     * A scheduled task that discards upload sessions idle for longer than the configured time-to-live every 60 seconds.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictIdleSessions() {
+        long deadline = System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(Long.parseLong(configService.getUploadSessionTtlMinutes()));
+        for (UploadSession session : sessions.values()) {
+            if (session.getLastActivity() < deadline && sessions.remove(session.getId(), session)) {
+                log.info("Discarding idle upload {} of user {}", session.getId(), session.getUser());
+                try {
+                    Files.deleteIfExists(session.getPartFile());
+                } catch (IOException e) {
+                    log.warn("Cannot delete part file {}", session.getPartFile(), e);
+                }
+            }
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The state of one chunked upload.
+     */
+    @Getter
+    static class UploadSession {
+        private final String id;
+        private final String user;
+        private final long size;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final Path partFile;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private final BitSet received = new BitSet();
+
+        /**
+         * The chunks being written by a request, not yet verified.
+         */
+        private final BitSet writing = new BitSet();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private boolean completed;
+
+        private UploadSession(String id, String user, long size, int chunkSize, Path partFile) {
+            this.id = id;
+            this.user = user;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.partFile = partFile;
+        }
+
+        /**
+         * Starts writing a chunk, unmarking it: its bytes in the part file are about to be overwritten.
+         *
+         * @param index the chunk index
+         * @return {@code false} if another request is writing the chunk
+         */
+        private synchronized boolean beginWrite(int index) {
+            if (writing.get(index)) {
+                return false;
+            }
+            writing.set(index);
+            received.clear(index);
+            lastActivity = System.currentTimeMillis();
+            return true;
+        }
+
+        /**
+         * Finishes writing a chunk, marking it as received only if its size and checksum matched.
+         *
+         * @param index    the chunk index
+         * @param verified whether the chunk was verified
+         */
+        private synchronized void endWrite(int index, boolean verified) {
+            writing.clear(index);
+            if (verified) {
+                received.set(index);
+            }
+            lastActivity = System.currentTimeMillis();
+        }
+
+        private synchronized int getReceivedCount() {
+            return received.cardinality();
+        }
+
+        private synchronized UploadSessionDto toDto() {
+            return new UploadSessionDto(id, user, size, chunkSize, chunkCount, received.stream().boxed().toList());
+        }
+    }
+}
@@ -8,13 +8,16 @@ import lombok.extern.slf4j.Slf4j;
 import nusri.fyp.demo.annotation.Config;
 import nusri.fyp.demo.entity.ConfigChangeLog;
 import nusri.fyp.demo.entity.PythonServer;
+import nusri.fyp.demo.entity.PreprocessConfig;
 import nusri.fyp.demo.entity.QuotaConfig;
 import nusri.fyp.demo.entity.RoboflowWorkflow;
 import nusri.fyp.demo.repository.ConfigChangeLogRepository;
 import nusri.fyp.demo.repository.PresetRepository;
 import nusri.fyp.demo.repository.PythonServerRepository;
 import nusri.fyp.demo.repository.RoboflowWorkflowRepository;
+import nusri.fyp.demo.service.img_sender.FrameEncoder;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
@@ -139,6 +142,353 @@ public class ConfigService implements InitializingBean {
     @Config(defaultValue = "\"10\"")
     private String frameInterval;
 
+    /**
+     * The number of segments a video is split into and decoded in parallel, each with its own reader.
+     * <br> {@code "1"} decodes the whole video sequentially. Defaults to {@code "1"}.
+     */
+    @Config(defaultValue = "\"1\"")
+    private String decodeParallelism;
+
+    /**
+     * The frame interval from which video readers seek straight to each sampled frame instead of grabbing the frames
+     * in between. Seeking only pays off when the interval spans more than a keyframe distance.
+     * <br> {@code "0"} never seeks. Defaults to {@code "60"}.
+     */
+    @Config(defaultValue = "\"60\"")
+    private String frameSeekThreshold;
+
+    /**
+     * The capacity of each bounded queue between the decode, encode and infer stages of the frame pipeline.
+     * <br> A full queue blocks the stage before it, so decoding slows down when inference falls behind.
+     * <br> Defaults to {@code "8"}.
+     */
+    @Config(defaultValue = "\"8\"")
+    private String pipelineQueueCapacity;
+
+    /**
+     * The number of frames each video job encodes concurrently in the encode stage.
+     * <br> Defaults to {@code "2"}.
+     */
+    @Config(defaultValue = "\"2\"")
+    private String pipelineEncodeParallelism;
+
+    /**
+     * The maximum number of frames waiting for an inference result, across all users.
+     * <br> Defaults to {@code "16"}.
+     */
+    @Config(defaultValue = "\"16\"")
+    private String pipelineInferInFlight;
+
+    /**
+     * The maximum number of frames waiting for an inference result for a single user.
+     * <br> Defaults to {@code "8"}.
+     */
+    @Config(defaultValue = "\"8\"")
+    private String pipelineInferInFlightPerUser;
+
+    /**
+     * The number of idle frame buffers kept for reuse by video jobs and live streams (see {@code MatPool}).
+     * <br> Defaults to {@code "16"}.
+     */
+    @Config(defaultValue = "\"16\"")
+    private String matPoolCapacity;
+
+    /**
+     * The timeout for opening a connection to a Python server, in milliseconds.
+     * <br> Defaults to {@code "2000"}.
+     */
+    @Config(defaultValue = "\"2000\"")
+    private String pythonHttpConnectTimeoutMs;
+
+    /**
+     * The timeout for reading the response of a Python server, in milliseconds.
+     * <br> Defaults to {@code "30000"}.
+     */
+    @Config(defaultValue = "\"30000\"")
+    private String pythonHttpReadTimeoutMs;
+
+    /**
+     * The maximum number of idle connections to the Python servers kept alive for reuse; read at startup.
+     * <br> Defaults to {@code "32"}.
+     */
+    @Config(defaultValue = "\"32\"")
+    private String pythonHttpMaxIdleConnections;
+
+    /**
+     * The number of seconds an idle connection to a Python server is kept alive; read at startup.
+     * <br> Defaults to {@code "300"}.
+     */
+    @Config(defaultValue = "\"300\"")
+    private String pythonHttpKeepAliveSeconds;
+
+    /**
+     * The maximum number of requests in flight to a single Python server ({@code host:port}).
+     * <br> Defaults to {@code "16"}.
+     */
+    @Config(defaultValue = "\"16\"")
+    private String pythonHttpMaxPerRoute;
+
+    /**
+     * The maximum number of video-job frames sent to a Python server in one request to its batch endpoint.
+     * <br> {@code "1"} sends every frame alone. Defaults to {@code "1"}.
+     */
+    @Config(defaultValue = "\"1\"")
+    private String pythonBatchMaxFrames;
+
+    /**
+     * The time the first frame of a batch waits for more frames before the batch is sent, in milliseconds.
+     * <br> Defaults to {@code "10"}.
+     */
+    @Config(defaultValue = "\"10\"")
+    private String pythonBatchWindowMs;
+
+    /**
+     * The batch latency, in milliseconds, above which the batch size is halved; below it, full batches grow by one
+     * frame up to {@link #pythonBatchMaxFrames}.
+     * <br> Defaults to {@code "1000"}.
+     */
+    @Config(defaultValue = "\"1000\"")
+    private String pythonBatchTargetLatencyMs;
+
+    /**
+     * The maximum number of live frames, from every session, sent to a Python server in one request to its batch
+     * endpoint.
+     * <br> {@code "1"} sends every live frame alone. Defaults to {@code "1"}.
+     */
+    @Config(defaultValue = "\"1\"")
+    private String pythonLiveBatchMaxFrames;
+
+    /**
+     * The latency budget of live batching: the time the first live frame of a batch waits for frames of other
+     * sessions before the batch is sent, in milliseconds.
+     * <br> Defaults to {@code "5"}.
+     */
+    @Config(defaultValue = "\"5\"")
+    private String pythonLiveBatchWindowMs;
+
+    /**
+     * The live batch latency, in milliseconds, above which the live batch size is halved; below it, full batches grow
+     * by one frame up to {@link #pythonLiveBatchMaxFrames}.
+     * <br> Defaults to {@code "200"}.
+     */
+    @Config(defaultValue = "\"200\"")
+    private String pythonLiveBatchTargetLatencyMs;
+
+    /**
+     * Whether the Python servers are asked for the compact binary response format; servers that do not support it
+     * keep answering JSON. See {@link nusri.fyp.demo.service.img_sender.python.ObservationParser}.
+     * <br> Defaults to {@code "false"}.
+     */
+    @Config(defaultValue = "\"false\"")
+    private String pythonBinaryResponses;
+
+    /**
+     * The path requested on each Python instance by the health check, e.g. {@code "/health"}.
+     * <br> Any answer below 500, a 404 included, shows the instance is responsive. Defaults to {@code "/health"}.
+     */
+    @Config(defaultValue = "\"/health\"")
+    private String pythonHealthCheckPath;
+
+    /**
+     * The time a health check may take before the instance counts as failing, in milliseconds.
+     * <br> Defaults to {@code "1000"}.
+     */
+    @Config(defaultValue = "\"1000\"")
+    private String pythonHealthCheckTimeoutMs;
+
+    /**
+     * The number of failures in a row, requests and health checks included, after which a Python instance is ejected.
+     * <br> Defaults to {@code "5"}.
+     */
+    @Config(defaultValue = "\"5\"")
+    private String pythonEjectionConsecutiveFailures;
+
+    /**
+     * How many times slower than the median of the healthy instances a Python instance must be to be ejected.
+     * <br> Only applies with three or more healthy instances. Defaults to {@code "3"}.
+     */
+    @Config(defaultValue = "\"3\"")
+    private String pythonEjectionLatencyFactor;
+
+    /**
+     * The time a Python instance is ejected for, in milliseconds; doubled for each ejection in a row.
+     * <br> Defaults to {@code "10000"}.
+     */
+    @Config(defaultValue = "\"10000\"")
+    private String pythonEjectionBaseMs;
+
+    /**
+     * The largest share of the instances of a Python server, in percent, that may be ejected at the same time.
+     * <br> Defaults to {@code "50"}.
+     */
+    @Config(defaultValue = "\"50\"")
+    private String pythonMaxEjectionPercent;
+
+    /**
+     * The time over which a re-admitted Python instance goes from 10% to 100% of its share of the frames, in
+     * milliseconds.
+     * <br> Defaults to {@code "30000"}.
+     */
+    @Config(defaultValue = "\"30000\"")
+    private String pythonRecoveryRampMs;
+
+    /**
+     * The time after which a Python worker registered through {@code POST /python/workers} is dropped if it sent no
+     * heartbeat, in milliseconds.
+     * <br> Defaults to {@code "10000"}.
+     */
+    @Config(defaultValue = "\"10000\"")
+    private String pythonWorkerHeartbeatTtlMs;
+
+    /**
+     * Whether live frames are hedged: a frame slower than {@link #inferenceHedgePercentile} of the recent latencies is
+     * also sent to a second Python instance, and the first answer wins.
+     * <br> Defaults to {@code "false"}.
+     */
+    @Config(defaultValue = "\"false\"")
+    private String inferenceHedgingEnabled;
+
+    /**
+     * The latency percentile, from 50 to 99.9, after which a live frame is hedged.
+     * <br> Defaults to {@code "95"}.
+     */
+    @Config(defaultValue = "\"95\"")
+    private String inferenceHedgePercentile;
+
+    /**
+     * The largest number of hedges, in percent of the live frames sent.
+     * <br> Defaults to {@code "5"}.
+     */
+    @Config(defaultValue = "\"5\"")
+    private String inferenceHedgeBudgetPercent;
+
+    /**
+     * The largest number of hedges running at the same time, see
+     * {@link nusri.fyp.demo.service.img_sender.HedgeExecutor}; further ones are not sent. Read at startup.
+     * <br> Defaults to {@code "8"}.
+     */
+    @Config(defaultValue = "\"8\"")
+    private String inferenceHedgeThreads;
+
+    /**
+     * Whether the requests in flight to each inference instance are bounded by an adaptive limit, see
+     * {@link nusri.fyp.demo.service.img_sender.ConcurrencyLimit}. Requests above the limit wait for an instance below
+     * it.
+     * <br> Defaults to {@code "true"}.
+     */
+    @Config(defaultValue = "\"true\"")
+    private String inferenceLimitEnabled;
+
+    /**
+     * The lowest adaptive limit of an inference instance, also the limit while its baseline latency is measured again.
+     * <br> Defaults to {@code "1"}.
+     */
+    @Config(defaultValue = "\"1\"")
+    private String inferenceLimitMin;
+
+    /**
+     * The highest adaptive limit of an inference instance.
+     * <br> Defaults to {@code "32"}.
+     */
+    @Config(defaultValue = "\"32\"")
+    private String inferenceLimitMax;
+
+    /**
+     * How many times slower than its unloaded latency an instance may answer before its limit shrinks.
+     * <br> Defaults to {@code "2"}.
+     */
+    @Config(defaultValue = "\"2\"")
+    private String inferenceLimitTolerance;
+
+    /**
+     * The longest time a live Python request waits for an instance below its limit before it is shed, in milliseconds;
+     * {@code "0"} waits indefinitely. Video-job requests are never shed, and Roboflow requests wait in their lane instead.
+     * <br> Defaults to {@code "1000"}.
+     */
+    @Config(defaultValue = "\"1000\"")
+    private String inferenceLimitQueueTimeoutMs;
+
+    /**
+     * The maximum number of inference requests running at the same time on each backend (Python servers, Roboflow),
+     * shared by live frames and video jobs.
+     * <br> Defaults to {@code "16"}.
+     */
+    @Config(defaultValue = "\"16\"")
+    private String inferenceLaneCapacity;
+
+    /**
+     * The share of {@link #inferenceLaneCapacity}, from 0 to 1, that video jobs keep while live frames are waiting.
+     * <br> Live frames take every other free slot first. Defaults to {@code "0.25"}.
+     */
+    @Config(defaultValue = "\"0.25\"")
+    private String inferenceBatchReservedShare;
+
+    /**
+     * The number of platform threads running the blocking inference requests, see
+     * {@link nusri.fyp.demo.service.img_sender.InferenceExecutor}.
+     * <br> Defaults to {@code "32"}.
+     */
+    @Config(defaultValue = "\"32\"")
+    private String inferenceIoThreads;
+
+    /**
+     * The number of inference requests that may wait for a thread; further ones fail. Read at startup.
+     * <br> Defaults to {@code "1024"}.
+     */
+    @Config(defaultValue = "\"1024\"")
+    private String inferenceIoQueueCapacity;
+
+    /**
+     * Whether every inference request runs on its own virtual thread instead, on a JDK 21 or later runtime. Read at
+     * startup.
+     * <br> Defaults to {@code "false"}.
+     */
+    @Config(defaultValue = "\"false\"")
+    private String inferenceIoVirtualThreads;
+
+    /**
+     * The number of video-processing jobs that run at the same time; further jobs wait queued.
+     * <br> Defaults to {@code "2"}.
+     */
+    @Config(defaultValue = "\"2\"")
+    private String videoJobParallelism;
+
+    /**
+     * The number of minutes a finished video-processing job, and its result, stays retrievable.
+     * <br> Defaults to {@code "60"}.
+     */
+    @Config(defaultValue = "\"60\"")
+    private String videoJobRetentionMinutes;
+
+    /**
+     * The number of minutes a chunked upload may stay idle before it is discarded with its received chunks.
+     * <br> Defaults to {@code "60"}.
+     */
+    @Config(defaultValue = "\"60\"")
+    private String uploadSessionTtlMinutes;
+
+    /**
+     * The maximum size of the on-disk inference result cache, in megabytes; least recently used entries are evicted
+     * beyond it.
+     * <br> {@code "0"} disables the cache. Defaults to {@code "1024"}.
+     */
+    @Config(defaultValue = "\"1024\"")
+    private String inferenceCacheMaxMb;
+
+    /**
+     * The number of recent events kept per user for replay to WebSocket clients that reconnect.
+     * <br> Defaults to {@code "512"}.
+     */
+    @Config(defaultValue = "\"512\"")
+    private String pushReplayBufferSize;
+
+    /**
+     * The default number of frames inferred per second by a live ingestion session.
+     * <br> Defaults to {@code "5"}.
+     */
+    @Config(defaultValue = "\"5\"")
+    private String liveTargetFps;
+
     /**
      * The API key used when interacting with Roboflow.
      */
@@ -151,6 +501,28 @@ public class ConfigService implements InitializingBean {
     @Config(defaultValue = "{}")
     private Map<String, String> modelQuotaConfig;
 
+    /**
+     * A map of frame preprocessing configurations (resize, region of interest) indexed by preset name.
+     * <br> The {@code "default"} entry, if any, applies to presets without their own entry.
+     */
+    @Config(defaultValue = "{}")
+    private Map<String, String> preprocessConfig;
+
+    /**
+     * A map of frame encodings (e.g. {@code "jpeg:90"}, see {@link FrameEncoder}) indexed by model descriptor.
+     * <br> The {@code "default"} entry, if any, applies to models without their own entry; otherwise frames are PNG.
+     */
+    @Config(defaultValue = "{}")
+    private Map<String, String> frameEncoding;
+
+    /**
+     * A map of video job scheduling weights indexed by user identifier: a user of weight {@code n} starts up to
+     * {@code n} jobs for every job of a user of weight {@code 1} when both have jobs waiting.
+     * <br> The {@code "default"} entry, if any, applies to users without their own entry; otherwise the weight is 1.
+     */
+    @Config(defaultValue = "{}")
+    private Map<String, String> videoJobUserWeights;
+
     /**
      * Constructs a {@link ConfigService} with all necessary repositories and the JSON object mapper.
      *
@@ -185,6 +557,8 @@ public class ConfigService implements InitializingBean {
             try {
                 log.info("Latest config: {}", latestLog.getConfig());
                 this.loadConfig(this, latestLog.getConfig());
+                // Fields added after the latest snapshot was saved fall back to their defaults
+                this.useDefaults();
                 log.info("quota config: {}", this.modelQuotaConfig);
             } catch (Exception e) {
                 this.useDefaults();
@@ -284,6 +658,46 @@ public class ConfigService implements InitializingBean {
         return useModel.getOrDefault(presetName, useModel.get("default"));
     }
 
+    /**
+     * Retrieves the frame encoding of a model.
+     *
+     * @param model the model descriptor, see {@link #getUseModel(String)}
+     * @return the encoding specification, or {@code null} for the default PNG encoding
+     * @see FrameEncoder#of(String)
+     */
+    public String getFrameEncoding(String model) {
+        return frameEncoding.getOrDefault(model, frameEncoding.get("default"));
+    }
+
+    /**
+     * Adds or updates the frame encoding of a model, then persists the configuration.
+     *
+     * @param model    the model descriptor, or {@code "default"}
+     * @param encoding the encoding specification, e.g. {@code "webp:80"}
+     * @throws IllegalArgumentException if the specification is invalid
+     * @throws Exception if serialization or database write fails
+     */
+    public void addFrameEncoding(String model, String encoding) throws Exception {
+        this.frameEncoding.put(model, FrameEncoder.parse(encoding).toString());
+        updateConfig();
+    }
+
+    /**
+     * Retrieves the video job scheduling weight of a user.
+     *
+     * @param user the user identifier
+     * @return the weight, at least {@code 1}
+     */
+    public int getVideoJobUserWeight(String user) {
+        String weight = videoJobUserWeights.getOrDefault(user, videoJobUserWeights.get("default"));
+        try {
+            return weight == null ? 1 : Math.max(1, Integer.parseInt(weight.trim()));
+        } catch (NumberFormatException e) {
+            log.warn("Invalid video job weight '{}' for user {}", weight, user);
+            return 1;
+        }
+    }
+
     /**
      * Retrieves a list of all available model descriptors (for both Python servers and Roboflow workflows).
      * <br> This method is cacheable to improve performance.
@@ -302,6 +716,55 @@ public class ConfigService implements InitializingBean {
         return models;
     }
 
+    /**
+     * @return the Python servers stored in the database
+     */
+    public List<PythonServer> getPythonServers() {
+        return pythonServerRepository.findAll();
+    }
+
+    /**
+     * Stores a Python server, unless it is stored already. Its load balancer is created by the next
+     * {@link nusri.fyp.demo.service.img_sender.ImageSenderService#syncPythonServers()}, without a restart.
+     *
+     * @param host the host of the server's main process (e.g., "http://localhost")
+     * @param port the port of the server's main process
+     * @return the stored server
+     */
+    @CacheEvict(value = "getAllLegalModel", allEntries = true)
+    public synchronized PythonServer addPythonServer(String host, String port) {
+        PythonServer existing = pythonServerRepository.findByHostAndPort(host, port);
+        if (existing != null) {
+            return existing;
+        }
+        PythonServer pythonServer = new PythonServer();
+        // The id is not generated by the database
+        pythonServer.setId(pythonServerRepository.findAll().stream().mapToLong(PythonServer::getId).max().orElse(0) + 1);
+        pythonServer.setHost(host);
+        pythonServer.setPort(port);
+        log.info("Python server {} added", pythonServer);
+        return pythonServerRepository.save(pythonServer);
+    }
+
+    /**
+     * Removes a stored Python server. Its load balancer is removed by the next
+     * {@link nusri.fyp.demo.service.img_sender.ImageSenderService#syncPythonServers()}.
+     *
+     * @param host the host of the server's main process
+     * @param port the port of the server's main process
+     * @return {@code true} if the server was stored
+     */
+    @CacheEvict(value = "getAllLegalModel", allEntries = true)
+    public synchronized boolean removePythonServer(String host, String port) {
+        PythonServer existing = pythonServerRepository.findByHostAndPort(host, port);
+        if (existing == null) {
+            return false;
+        }
+        pythonServerRepository.delete(existing);
+        log.info("Python server {} removed", existing);
+        return true;
+    }
+
     /**
      * Retrieves a {@link QuotaConfig} for the specified preset, either from {@link #modelQuotaConfig} (cached)
      * or by constructing it from the preset information in the database.
@@ -350,4 +813,28 @@ public class ConfigService implements InitializingBean {
         quotaConfigs.put("default", value);
         return quotaConfigs;
     }
+
+    /**
+     * Retrieves the frame preprocessing configuration of a preset.
+     * <br> Falls back to the {@code "default"} entry, then to a configuration leaving frames untouched.
+     *
+     * @param presetName the name of the preset
+     * @return the {@link PreprocessConfig} of the preset
+     */
+    public PreprocessConfig getPreprocessConfig(String presetName) {
+        String json = preprocessConfig.getOrDefault(presetName, preprocessConfig.get("default"));
+        return json == null ? new PreprocessConfig() : new PreprocessConfig(json, objectMapper);
+    }
+
+    /**
+     * Adds or updates the frame preprocessing configuration of a preset, then persists the configuration.
+     *
+     * @param presetName the name of the preset, or {@code "default"}
+     * @param config     the new preprocessing configuration
+     * @throws Exception if serialization or database write fails
+     */
+    public void addPreprocessConfig(String presetName, PreprocessConfig config) throws Exception {
+        this.preprocessConfig.put(presetName, config.serialize(objectMapper));
+        updateConfig();
+    }
 }
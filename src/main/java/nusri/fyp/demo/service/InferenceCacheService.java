@@ -0,0 +1,259 @@
+package nusri.fyp.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.converter.ActionObservationConverter;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * <b>Persistent, content-addressed cache of video inference results.</b>
+ * <br> Results are keyed by the SHA-256 hash of the video content, the model descriptor (see
+ * {@link ConfigService#getUseModel(String)}), the frame interval and the frame timestamp. Each
+ * (video, model, interval) triple is stored as one JSON file mapping frame timestamps to observations. The frame interval
+ * is part of the key because the same timestamp refers to a different frame under a different interval.
+ * <br>
+ * <ul>
+ *     <li><b>Storage:</b> files live in {@code <videoPath>/inference-cache} and survive restarts.</li>
+ *     <li><b>Eviction:</b> the total size is bounded by {@link ConfigService#getInferenceCacheMaxMb()}; the least
+ *         recently used files are deleted first. Recency is the file modification time, refreshed on every hit, so the
+ *         order is kept across restarts.</li>
+ *     <li><b>Hashing:</b> video hashes are remembered per path, size and modification time, so a video is only read
+ *         once to be hashed.</li>
+ * </ul>
+ * Setting the maximum size to {@code "0"} disables the cache.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ActionObservationConverter
+ */
+@Service
+@Slf4j
+public class InferenceCacheService {
+
+    private final ConfigService configService;
+
+    /**
+     * The codec used for cache files, the same one used to store observations in the database.
+     */
+    private final ActionObservationConverter codec;
+
+    /**
+     * Known video hashes, keyed by absolute path, size and modification time.
+     */
+    private final Map<String, String> videoHashes = new ConcurrentHashMap<>();
+
+    /**
+     * The cache files in least recently used order, with their sizes in bytes.
+     * <br> Loaded from disk on first use; guarded by {@code this}.
+     */
+    private LinkedHashMap<Path, Long> entries;
+
+    /**
+     * The total size of {@link #entries}, in bytes.
+     */
+    private long totalBytes;
+
+    /**
+     * Constructs the {@link InferenceCacheService}.
+     *
+     * @param configService the configuration service providing the video path and the size limit
+     * @param objectMapper  the JSON mapper used to read cache files
+     */
+    public InferenceCacheService(ConfigService configService, ObjectMapper objectMapper) {
+        this.configService = configService;
+        this.codec = new ActionObservationConverter(objectMapper);
+    }
+
+    /**
+     * @return {@code true} if the cache has a non-zero size limit
+     */
+    public boolean isEnabled() {
+        return maxBytes() > 0;
+    }
+
+    /**
+     * Computes the SHA-256 hash of a video file, reusing the last result if the file has not changed.
+     *
+     * @param file the video file
+     * @return the hex-encoded hash
+     * @throws IOException if the file cannot be read
+     */
+    public String hashVideo(File file) throws IOException {
+        String fileKey = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+        String known = videoHashes.get(fileKey);
+        if (known != null) {
+            return known;
+        }
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        videoHashes.put(fileKey, hash);
+        return hash;
+    }
+
+    /**
+     * Loads the cached observations of a video processed with a given model and frame interval.
+     *
+     * @param videoHash     the video hash, see {@link #hashVideo(File)}
+     * @param model         the model descriptor
+     * @param frameInterval the frame interval
+     * @return the cached observations keyed by frame timestamp, or an empty map on a miss
+     */
+    public Map<Long, List<AbstractActionObservation>> load(String videoHash, String model, int frameInterval) {
+        if (!isEnabled()) {
+            return Collections.emptyMap();
+        }
+        Path path = entryPath(videoHash, model, frameInterval);
+        synchronized (this) {
+            if (loadEntries().get(path) == null) {
+                return Collections.emptyMap();
+            }
+        }
+        try {
+            Map<Long, List<AbstractActionObservation>> cached = codec.convertToEntityAttribute(Files.readString(path));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return cached != null ? cached : Collections.emptyMap();
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Dropping unreadable cache entry {}: {}", path, e.toString());
+            remove(path);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Stores the observations of a video processed with a given model and frame interval, replacing any previous entry,
+     * then evicts the least recently used entries beyond the size limit.
+     *
+     * @param videoHash     the video hash, see {@link #hashVideo(File)}
+     * @param model         the model descriptor
+     * @param frameInterval the frame interval
+     * @param observations  the observations keyed by frame timestamp
+     */
+    public void store(String videoHash, String model, int frameInterval,
+                      Map<Long, ? extends List<? extends AbstractActionObservation>> observations) {
+        if (!isEnabled() || observations.isEmpty()) {
+            return;
+        }
+        Map<Long, List<AbstractActionObservation>> sorted = new TreeMap<>();
+        observations.forEach((timestamp, list) -> sorted.put(timestamp, new ArrayList<>(list)));
+        Path path = entryPath(videoHash, model, frameInterval);
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            Files.writeString(temp, codec.convertToDatabaseColumn(sorted));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(path);
+            synchronized (this) {
+                Long previous = loadEntries().put(path, size);
+                totalBytes += size - (previous != null ? previous : 0);
+                evict();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot store cache entry {}: {}", path, e.toString());
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits its size limit. Must hold {@code this}.
+     */
+    private void evict() {
+        long maxBytes = maxBytes();
+        Iterator<Map.Entry<Path, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Path, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(eldest.getKey());
+                log.info("Evicted cache entry {}", eldest.getKey());
+            } catch (IOException e) {
+                log.warn("Cannot delete cache entry {}", eldest.getKey(), e);
+            }
+        }
+    }
+
+    private synchronized void remove(Path path) {
+        Long size = loadEntries().remove(path);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Cannot delete cache entry {}", path, e);
+        }
+    }
+
+    /**
+     * Lists the cache directory on first use, oldest entries first. Must hold {@code this}.
+     *
+     * @return the entries in least recently used order
+     */
+    private LinkedHashMap<Path, Long> loadEntries() {
+        if (entries != null) {
+            return entries;
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        totalBytes = 0;
+        Path dir = cacheDir();
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(file -> file.toString().endsWith(".json"))
+                        .sorted(Comparator.comparing(file -> file.toFile().lastModified()))
+                        .forEach(file -> {
+                            long size = file.toFile().length();
+                            entries.put(file, size);
+                            totalBytes += size;
+                        });
+            } catch (IOException e) {
+                log.warn("Cannot list cache directory {}", dir, e);
+            }
+        }
+        log.info("Inference cache holds {} entries, {} bytes", entries.size(), totalBytes);
+        return entries;
+    }
+
+    private Path entryPath(String videoHash, String model, int frameInterval) {
+        MessageDigest digest = newSha256();
+        digest.update((videoHash + '\n' + model + '\n' + frameInterval).getBytes(StandardCharsets.UTF_8));
+        return cacheDir().resolve(HexFormat.of().formatHex(digest.digest()) + ".json");
+    }
+
+    private Path cacheDir() {
+        return Path.of(configService.getVideoPath(), "inference-cache");
+    }
+
+    private long maxBytes() {
+        return Long.parseLong(configService.getInferenceCacheMaxMb()) * 1024 * 1024;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
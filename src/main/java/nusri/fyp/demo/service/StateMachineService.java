@@ -14,6 +14,7 @@ import nusri.fyp.demo.repository.PresetRepository;
 import nusri.fyp.demo.repository.StateMachineLogRepository;
 import nusri.fyp.demo.roboflow.data.entity.workflow.SinglePrediction;
 import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import nusri.fyp.demo.service.job.VideoJobService;
 import nusri.fyp.demo.state_machine.AbstractActionObservation;
 import nusri.fyp.demo.state_machine.Node;
 import nusri.fyp.demo.state_machine.StateMachine;
@@ -33,7 +34,7 @@ import java.util.stream.Collectors;
  * <br>
  * <ul>
  *   <li>Uses {@link #stateMachineMap} to store state machines by user name.</li>
- *   <li>Uses {@link #processes} to store and potentially interrupt threads associated with the state machines.</li>
+ *   <li>Cancels the user's video-processing job through {@link VideoJobService} when the state machine is stopped.</li>
  *   <li>Caches the results of {@link Preset} retrieval in {@link #presetsCache} for performance.</li>
  * </ul>
  *
@@ -57,13 +58,6 @@ public class StateMachineService {
      */
     private final Map<String, StateMachine> stateMachineMap = new HashMap<>();
 
-    /**
-     * Holds user-specific {@link Thread} instances for interruption (e.g., video processing).
-     * <br> Key: user identifier
-     * <br> Value: corresponding running {@link Thread}
-     */
-    private final Map<String, Thread> processes = new HashMap<>();
-
     private final ReviewService reviewService;
     private final ConfigService configService;
     private final ActionRepository actionRepository;
@@ -76,6 +70,7 @@ public class StateMachineService {
      */
     private static final List<Preset> presetsCache = new ArrayList<>();
     private final ImageSenderService imageSenderService;
+    private final VideoJobService videoJobService;
 
     /**
      * Constructor injecting required repositories and services.
@@ -88,6 +83,7 @@ public class StateMachineService {
      * @param actionRepository        the repository for action entities
      * @param objectRepository        the repository for object entities
      * @param imageSenderService      the image sender service.
+     * @param videoJobService         the service running video-processing jobs
      * @see PresetRepository
      * @see StateMachineLogRepository
      * @see ReviewService
@@ -101,7 +97,8 @@ public class StateMachineService {
                                ReviewService reviewService,
                                ConfigService configService,
                                ActionRepository actionRepository,
-                               ObjectRepository objectRepository, ImageSenderService imageSenderService) {
+                               ObjectRepository objectRepository, ImageSenderService imageSenderService,
+                               VideoJobService videoJobService) {
         this.presetRepository = presetRepository;
         this.stateMachineLogRepository = stateMachineLogRepository;
         this.reviewService = reviewService;
@@ -109,6 +106,7 @@ public class StateMachineService {
         this.actionRepository = actionRepository;
         this.objectRepository = objectRepository;
         this.imageSenderService = imageSenderService;
+        this.videoJobService = videoJobService;
     }
 
     /**
@@ -297,29 +295,23 @@ public class StateMachineService {
 
     /**
      * Stops and removes the {@link StateMachine} for the specified user, without logging.
-     * <br> Also removes the corresponding thread from {@link #processes} if it exists.
      *
      * @param user the user identifier
      * @see #stateMachineMap
-     * @see #processes
      */
     public void stopByName(String user) {
         this.stateMachineMap.remove(user);
-        this.processes.remove(user);
     }
 
     /**
-     * Stops the user's {@link StateMachine} by removing it from the map and interrupting any associated thread.
+     * Stops the user's {@link StateMachine} by removing it from the map and cancelling the user's video-processing job.
      *
      * @param user the user identifier
-     * @see #processes
+     * @see VideoJobService#cancelActive(String)
      */
     public void stopStateMachine(String user) {
         stateMachineMap.remove(user);
-        if (processes.containsKey(user)) {
-            processes.get(user).interrupt();
-            processes.remove(user);
-        }
+        videoJobService.cancelActive(user);
     }
 
     /**
@@ -374,17 +366,6 @@ public class StateMachineService {
         return presetRepository.findAll().stream().map(o->new PresetDto(o, configService.getQuotaConfig(o.getName()))).toList();
     }
 
-    /**
-     * Adds a process thread associated with a user for future interrupt or management.
-     *
-     * @param user   the user identifier
-     * @param thread the {@link Thread} to manage
-     * @see #processes
-     */
-    public void addProcess(String user, Thread thread) {
-        this.processes.put(user, thread);
-    }
-
     /**
      * Helper method to build a {@link ResponseEntity} related to starting a {@link StateMachine} for a user.
      * <br> It stops any existing machine, interrupts any ongoing image sending, and then starts a new machine.
@@ -2,12 +2,26 @@ package nusri.fyp.demo.service;
 
 import com.sun.management.OperatingSystemMXBean;
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.dto.FrameBatchStatsDto;
+import nusri.fyp.demo.dto.HedgeStatsDto;
+import nusri.fyp.demo.dto.HttpClientStatsDto;
+import nusri.fyp.demo.dto.InferenceExecutorStatsDto;
+import nusri.fyp.demo.dto.InferenceLaneStatsDto;
 import nusri.fyp.demo.dto.JvmInfoDto;
+import nusri.fyp.demo.dto.MatPoolStatsDto;
+import nusri.fyp.demo.dto.PythonInstanceHealthDto;
 import nusri.fyp.demo.dto.SystemInfoDto;
+import nusri.fyp.demo.service.img_sender.ImageSenderService;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.lang.management.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Service class for fetching system-level and JVM-level resource information, including CPU, memory, and thread statistics.
@@ -19,6 +33,17 @@ import java.lang.management.*;
 @Slf4j
 public class SystemInfoService {
 
+    private final ImageSenderService imageSenderService;
+
+    /**
+     * Constructs a {@link SystemInfoService}.
+     *
+     * @param imageSenderService the service owning the frame {@code Mat} pool.
+     */
+    public SystemInfoService(ImageSenderService imageSenderService) {
+        this.imageSenderService = imageSenderService;
+    }
+
     /**
      * Retrieves system resource information, including CPU usage, memory usage, and disk space.
      * <br> This method uses the {@link OperatingSystemMXBean} to collect details on the system's hardware.
@@ -95,6 +120,116 @@ public class SystemInfoService {
         dto.setTotalLoadedClassCount(classLoadingMXBean.getTotalLoadedClassCount());
         dto.setUnloadedClassCount(classLoadingMXBean.getUnloadedClassCount());
 
+        // Native memory, e.g. OpenCV frame buffers, only shows in the resident set size
+        dto.setResidentMemory(readResidentMemory());
+
         return dto;
     }
+
+    /**
+     * Retrieves the counters of the pool of frame {@code Mat}s shared by video jobs and live streams.
+     * <br> With nothing running, {@code outstanding} must be {@code 0}; a growing value means frames leak.
+     *
+     * @return A {@link MatPoolStatsDto} containing the pool counters.
+     */
+    public MatPoolStatsDto getMatPoolStats() {
+        return imageSenderService.matPool.toDto();
+    }
+
+    /**
+     * Retrieves the connection pool utilisation of the HTTP client used for the Python servers, and how many
+     * connections it had to open.
+     *
+     * @return A {@link HttpClientStatsDto} containing the pool counters.
+     */
+    public HttpClientStatsDto getPythonHttpStats() {
+        return imageSenderService.pythonHttpClient.toDto();
+    }
+
+    /**
+     * Retrieves the state of the priority lanes of each inference backend: the requests waiting and running in the
+     * live and batch lanes, and their moving-average wait and latency.
+     *
+     * @return A list of {@link InferenceLaneStatsDto}, two per backend.
+     */
+    public List<InferenceLaneStatsDto> getInferenceLaneStats() {
+        List<InferenceLaneStatsDto> stats = new ArrayList<>();
+        imageSenderService.inferenceLanes.forEach((backend, lanes) -> stats.addAll(lanes.toDto(backend)));
+        return stats;
+    }
+
+    /**
+     * Retrieves how often live frames sent to the Python servers were hedged, and how often the hedge answered first.
+     *
+     * @return A {@link HedgeStatsDto} containing the hedge counters.
+     */
+    public HedgeStatsDto getHedgeStats() {
+        return imageSenderService.pythonHedgePolicy.toDto("python");
+    }
+
+    /**
+     * Retrieves the thread usage and queue depth of the executor running the blocking inference requests.
+     *
+     * @return A {@link InferenceExecutorStatsDto} containing the executor counters.
+     */
+    public InferenceExecutorStatsDto getInferenceExecutorStats() {
+        return imageSenderService.inferenceExecutor.toDto();
+    }
+
+    /**
+     * Retrieves the thread usage of the executor running the hedges of live frames; its rejected count is the hedges
+     * not sent because every hedge thread was busy.
+     *
+     * @return A {@link InferenceExecutorStatsDto} containing the executor counters.
+     */
+    public InferenceExecutorStatsDto getHedgeExecutorStats() {
+        return imageSenderService.pythonHedgeExecutor.toDto();
+    }
+
+    /**
+     * Retrieves the adaptive concurrency limit of every inference instance, with the requests queued and shed.
+     *
+     * @return A list of {@link ConcurrencyLimitDto}, one per Python instance, then one for Roboflow.
+     */
+    public List<ConcurrencyLimitDto> getConcurrencyLimits() {
+        return imageSenderService.getConcurrencyLimits();
+    }
+
+    /**
+     * Retrieves the batch size, and the histograms of batch sizes and latencies, of the live and video-job frame
+     * batchers of every Python server.
+     *
+     * @return A list of {@link FrameBatchStatsDto}, one per server and lane.
+     */
+    public List<FrameBatchStatsDto> getFrameBatchStats() {
+        return imageSenderService.getFrameBatchStats();
+    }
+
+    /**
+     * Retrieves the circuit state, load and latency of every Python instance, as seen by the load balancers.
+     *
+     * @return A list of {@link PythonInstanceHealthDto}, one per instance.
+     */
+    public List<PythonInstanceHealthDto> getPythonInstanceHealth() {
+        return imageSenderService.getPythonInstanceHealth();
+    }
+
+    /**
+     * Reads the resident set size of the process from {@code /proc/self/status}.
+     *
+     * @return the resident set size in bytes, or {@code -1} if it cannot be read (e.g. not on Linux)
+     */
+    private long readResidentMemory() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    // e.g. "VmRSS:	  123456 kB"
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Cannot read the resident set size: {}", e.toString());
+        }
+        return -1;
+    }
 }
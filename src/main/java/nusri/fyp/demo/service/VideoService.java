@@ -1,11 +1,19 @@
 package nusri.fyp.demo.service;
 
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ProgressDetailsDto;
+import nusri.fyp.demo.dto.VideoJobDto;
+import nusri.fyp.demo.entity.PreprocessConfig;
 import nusri.fyp.demo.repository.RoboflowWorkflowRepository;
+import nusri.fyp.demo.service.img_sender.FrameEncoder;
 import nusri.fyp.demo.service.img_sender.ImageSender;
 import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import nusri.fyp.demo.service.img_sender.pipeline.PipelineMetrics;
 import nusri.fyp.demo.service.img_sender.python.ImageSenderOfPython;
 import nusri.fyp.demo.service.img_sender.roboflow.ImageSenderOfRoboflow;
+import nusri.fyp.demo.service.job.VideoJob;
+import nusri.fyp.demo.service.job.VideoJobService;
+import nusri.fyp.demo.service.live.LiveStreamService;
 import nusri.fyp.demo.state_machine.AbstractActionObservation;
 import nusri.fyp.demo.state_machine.StateMachine;
 import org.springframework.core.io.Resource;
@@ -13,19 +21,31 @@ import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * <b>Service class for handling video uploads, processing video frames, and interacting with the state machine.</b>
  * <br> This class provides functionalities to:
  * <ul>
- *     <li>Upload and save video files.</li>
+ *     <li>Upload and save video files, in one request or as resumable chunks.</li>
+ *     <li>Process a batch of uploaded videos as one background job per video.</li>
  *     <li>Process uploaded videos by sending frames for recognition.</li>
  *     <li>Manage recognition results and integrate them with a {@link StateMachine}.</li>
  *     <li>Handle single-frame (image) processing for real-time recognition updates.</li>
@@ -36,12 +56,15 @@ import java.util.concurrent.atomic.AtomicReference;
  * <br> - {@link ConfigService} for retrieving model configurations and file paths.
  * <br> - {@link ImageSenderOfPython} and {@link ImageSenderOfRoboflow} for frame/image processing.
  * <br> - {@link StateMachineService} for integrating recognition results into the state machine.
+ * <br> - {@link VideoJobService} for running video processing in the background.
+ * <br> - {@link LiveStreamService} for server-side live ingestion and pushing live results.
  * <br> - {@link RoboflowWorkflowRepository} for retrieving workflow IDs in a Roboflow environment.
  * </p>
  * @author Liu Binghong
  * @since 1.0
  * @see ConfigService
  * @see StateMachineService
+ * @see VideoJobService
  * @see ImageSenderService
  * @see ImageSenderOfPython
  * @see ImageSenderOfRoboflow
@@ -55,6 +78,19 @@ public class VideoService {
     private final StateMachineService stateMachineService;
     private final RoboflowWorkflowRepository roboflowWorkflowRepository;
     private final ImageSenderService imageSenderService;
+    private final VideoJobService videoJobService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final LiveStreamService liveStreamService;
+
+    /**
+     * The maximum number of bytes copied per channel transfer when saving an upload.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The prefix of the keys batch jobs track their progress under.
+     */
+    private static final String BATCH_KEY_PREFIX = "batch:";
 
     /**
      * Constructs the {@link VideoService} with the required dependencies for video processing.
@@ -65,6 +101,9 @@ public class VideoService {
      * @param stateMachineService          the service for managing state machines
      * @param roboflowWorkflowRepository   the repository for Roboflow workflow data
      * @param imageSenderService           the image sender service.
+     * @param videoJobService              the service running video-processing jobs
+     * @param chunkedUploadService         the service receiving resumable, chunked uploads
+     * @param liveStreamService            the service running live ingestion sessions
      * @see ConfigService
      * @see ImageSenderOfPython
      * @see ImageSenderOfRoboflow
@@ -73,86 +112,176 @@ public class VideoService {
      */
     public VideoService(ConfigService configService,
                         StateMachineService stateMachineService,
-                        RoboflowWorkflowRepository roboflowWorkflowRepository, ImageSenderService imageSenderService) {
+                        RoboflowWorkflowRepository roboflowWorkflowRepository, ImageSenderService imageSenderService,
+                        VideoJobService videoJobService, ChunkedUploadService chunkedUploadService,
+                        LiveStreamService liveStreamService) {
         this.configService = configService;
         this.stateMachineService = stateMachineService;
         this.roboflowWorkflowRepository = roboflowWorkflowRepository;
         this.imageSenderService = imageSenderService;
+        this.videoJobService = videoJobService;
+        this.chunkedUploadService = chunkedUploadService;
+        this.liveStreamService = liveStreamService;
     }
 
     /**
-     * Processes an uploaded video by sending frames to the selected model for recognition.
+     * Submits a background job processing the user's uploaded video with the model of the given preset.
      * <br> The frames are retrieved from a temporary file maintained by the relevant {@link ImageSenderService}.
-     * <br> The results are stored as observations in the {@link StateMachine} corresponding to the given user and preset.
-     * <br>
-     * The method spawns a separate thread to handle the frame-by-frame processing:
-     * <ul>
-     *     <li>The observations are stored in an {@link AtomicReference}.</li>
-     *     <li>The thread is then joined to ensure processing completes before returning.</li>
-     *     <li>The observations are attached to the user's {@link StateMachine} instance.</li>
-     * </ul>
+     * <br> When the job succeeds, a new {@link StateMachine} is started for the user and the observations are attached
+     * to it. The request returns immediately; the job is then polled through {@link VideoJobService}.
      *
      * @param user       the user identifier, used to distinguish different users' sessions
      * @param presetName the preset name corresponding to the desired model/preset configuration
-     * @return a {@link ResponseEntity} containing the resulting observations or an error message in case of failure
-     * @see #buildSenderService(String)
+     * @return a {@link ResponseEntity} with status 202 and the {@link VideoJobDto}, or 404 if no video was uploaded
      * @see #buildConfig(String)
-     * @see StateMachineService#getStateMachineByName(String)
+     * @see VideoJobService#submit(String, String, Callable)
      */
-    public ResponseEntity<? extends Serializable> processVideo(String user, String presetName) {
-        log.info("user start to process video: {}", user);
+    public ResponseEntity<?> submitVideoJob(String user, String presetName) {
+        log.info("user submits a video job: {}", user);
+        File videoFile = imageSenderService.tempFiles.get(user);
+        if (videoFile == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No file uploaded");
+        }
         String modelWithConfig = configService.getUseModel(presetName);
         Map<String, String> config = buildConfig(modelWithConfig);
+        ImageSender imageSender = imageSenderService.getUseImageSender(presetName);
+        PreprocessConfig preprocessConfig = configService.getPreprocessConfig(presetName);
+
+        VideoJob job = videoJobService.submit(user, presetName, () -> {
+            Map<Long, List<? extends AbstractActionObservation>> longListMap =
+                    imageSenderService.sendVideoFile(videoFile, user, config, imageSender, modelWithConfig,
+                            preprocessConfig);
+
+            Map<Long, List<AbstractActionObservation>> listMap = new TreeMap<>();
+            longListMap.forEach((key, value) ->
+                    listMap.put(key, value.stream().map(a -> (AbstractActionObservation) a).toList())
+            );
+            if (listMap.isEmpty()) {
+                throw new IOException("Error processing video");
+            }
+            // Initialize or restart the state machine and attach observations
+            stateMachineService.start(user, presetName);
+            stateMachineService.getStateMachineByName(user).setObservations(listMap);
+            return listMap;
+        });
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(new VideoJobDto(job));
+    }
 
-        if (!imageSenderService.tempFiles.containsKey(user)) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No file uploaded");
+    /**
+     * Saves several videos and submits one background batch job per video, processed with the model of the given preset.
+     * <br> Unlike {@link #submitVideoJob(String, String)}, the videos do not replace the user's current video, the
+     * user's state machine is left untouched and the jobs do not cancel the user's other jobs. Each job's observations
+     * are retrieved from its result once it has succeeded, and its progress under {@link #batchTrackingKey(String)}.
+     * <br> The jobs wait in the per-user fair queue of {@link VideoJobService}, so a large batch does not hold back the
+     * jobs of other users. Each saved video is deleted once its job has finished.
+     *
+     * @param user       the user identifier
+     * @param presetName the preset name corresponding to the desired model/preset configuration
+     * @param videoFiles the uploaded videos, processed in this order
+     * @return a {@link ResponseEntity} with status 202 and one {@link VideoJobDto} per video, or 400 if a video is empty
+     * @throws IOException if a video cannot be saved; no job is submitted then
+     * @see VideoJobService#submitBatch(String, String, List)
+     */
+    public ResponseEntity<?> submitBatch(String user, String presetName, MultipartFile[] videoFiles) throws IOException {
+        log.info("user submits a batch of {} videos: {}", videoFiles.length, user);
+        if (videoFiles.length == 0 || Arrays.stream(videoFiles).anyMatch(MultipartFile::isEmpty)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("No file uploaded");
+        }
+        if (!isValidFilename(user)) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid video file name");
+        }
+
+        List<Path> saved = new ArrayList<>(videoFiles.length);
+        try {
+            for (MultipartFile videoFile : videoFiles) {
+                saved.add(saveUpload(videoFile, user + "-batch-", ".mp4"));
+            }
+        } catch (IOException e) {
+            for (Path path : saved) {
+                Files.deleteIfExists(path);
+            }
+            throw e;
         }
 
-        // Thread-safe container for storing the results (observations) of video processing
-        AtomicReference<Map<Long, List<AbstractActionObservation>>> observations = new AtomicReference<>();
+        String modelWithConfig = configService.getUseModel(presetName);
+        Map<String, String> config = buildConfig(modelWithConfig);
+        ImageSender imageSender = imageSenderService.getUseImageSender(presetName);
+        PreprocessConfig preprocessConfig = configService.getPreprocessConfig(presetName);
 
-        // Thread creation and start
-        Thread thread = new Thread(() -> {
-            try {
+        List<Function<String, Callable<Map<Long, List<AbstractActionObservation>>>>> works = new ArrayList<>();
+        for (Path path : saved) {
+            works.add(jobId -> () -> {
                 Map<Long, List<? extends AbstractActionObservation>> longListMap =
-                        imageSenderService.sendVideoFile(imageSenderService.tempFiles.get(user), user, config, imageSenderService.getUseImageSender(presetName));
+                        imageSenderService.sendVideoFile(path.toFile(), user, batchTrackingKey(jobId), config,
+                                imageSender, modelWithConfig, preprocessConfig);
 
                 Map<Long, List<AbstractActionObservation>> listMap = new TreeMap<>();
                 longListMap.forEach((key, value) ->
                         listMap.put(key, value.stream().map(a -> (AbstractActionObservation) a).toList())
                 );
-                observations.set(listMap);
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        });
+                if (listMap.isEmpty()) {
+                    throw new IOException("Error processing video");
+                }
+                return listMap;
+            });
+        }
+        List<VideoJob> jobs = videoJobService.submitBatch(user, presetName, works);
+        for (int i = 0; i < jobs.size(); i++) {
+            Path path = saved.get(i);
+            // Also covers jobs cancelled before they started
+            jobs.get(i).getCompletion().whenComplete((result, e) -> deleteQuietly(path));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(jobs.stream().map(VideoJobDto::new).toList());
+    }
 
-        log.info("user start to process video- thread.start();: {}", user);
-        thread.start();
-        // Keep track of the thread in case we need to interrupt processing later
-        stateMachineService.addProcess(user, thread);
+    /**
+     * @param jobId the identifier of a batch job
+     * @return the key its progress is tracked under in {@link ImageSenderService#pipelineMetrics}
+     */
+    public static String batchTrackingKey(String jobId) {
+        return BATCH_KEY_PREFIX + jobId;
+    }
 
+    private static void deleteQuietly(Path path) {
         try {
-            thread.join();
-            // Return the observations from the image sender
-            if (observations.get() == null || observations.get().isEmpty()) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing video");
-            }
-            // Initialize or restart the state machine and attach observations
-            stateMachineService.start(user, presetName);
-            stateMachineService.getStateMachineByName(user).setObservations(observations.get());
-            log.info("user start to process video- return ResponseEntity.ok(observations);: {}", user);
-            return ResponseEntity.ok(observations);
-        } catch (InterruptedException | NullPointerException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Interrupted by user");
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete batch video {}: {}", path, e.toString());
         }
     }
 
+    /**
+     * Processes an uploaded video and responds with the observations once done.
+     * <br> This is the request/response form of {@link #submitVideoJob(String, String)}: the job runs in the background
+     * and the returned future completes with it, so the servlet thread is released while the video is processed.
+     *
+     * @param user       the user identifier, used to distinguish different users' sessions
+     * @param presetName the preset name corresponding to the desired model/preset configuration
+     * @return a future of the {@link ResponseEntity} containing the resulting observations or an error message
+     * @see #submitVideoJob(String, String)
+     */
+    public CompletableFuture<ResponseEntity<?>> processVideo(String user, String presetName) {
+        ResponseEntity<?> submitted = submitVideoJob(user, presetName);
+        if (!(submitted.getBody() instanceof VideoJobDto jobDto)) {
+            return CompletableFuture.completedFuture(submitted);
+        }
+        VideoJob job = videoJobService.getJob(jobDto.getId()).orElseThrow();
+        return job.getCompletion().handle((observations, e) -> {
+            if (e == null) {
+                return ResponseEntity.ok(observations);
+            }
+            if (e instanceof CancellationException) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Interrupted by user");
+            }
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing video");
+        });
+    }
+
     /**
      * Uploads and saves a video file to a designated path, then resets the relevant services.
      * <br> The user's existing {@link StateMachine} (if any) is stopped, and all ongoing image-sending processes are interrupted.
      * <br> The video file is saved under a fixed name in the configured location, using the user identifier.
+     * It is streamed to disk through NIO channels, so memory use does not depend on the size of the video.
      *
      * @param videoFile the uploaded {@link MultipartFile} containing video data
      * @param user      the user identifier
@@ -162,30 +291,103 @@ public class VideoService {
      */
     public ResponseEntity<String> uploadAndSave(MultipartFile videoFile, String user) throws IOException {
         stateMachineService.stopStateMachine(user);
-        imageSenderService.interrupt(user);
+        interruptKeepingVideo(user);
 
         if (videoFile.isEmpty()) {
             log.error("video file is empty");
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("No file uploaded");
         }
-
-        // Determine the destination path for the uploaded file
-        String destinationPath = configService.getVideoPath() + File.separator + user + ".mp4";
         if (!isValidFilename(user)) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid video file name");
         }
 
-        // Save the file to disk
-        File destinationFile = new File(destinationPath);
-        try (BufferedOutputStream stream = new BufferedOutputStream(new FileOutputStream(destinationFile))) {
-            stream.write(videoFile.getBytes());
-            stream.flush();
+        // Stream the upload to a part file next to the destination, never holding the whole video in memory
+        Path partFile = saveUpload(videoFile, user + "-", ".part");
+        installVideo(user, partFile);
+        return null;
+    }
+
+    /**
+     * Streams an upload to a new file in the video path through NIO channels.
+     *
+     * @param videoFile the uploaded {@link MultipartFile}
+     * @param prefix    the file name prefix
+     * @param suffix    the file name suffix
+     * @return the written file, with a unique name
+     * @throws IOException if the file cannot be written; nothing is left on disk then
+     */
+    private Path saveUpload(MultipartFile videoFile, String prefix, String suffix) throws IOException {
+        Path file = Files.createTempFile(Path.of(configService.getVideoPath()), prefix, suffix);
+        try (ReadableByteChannel source = Channels.newChannel(videoFile.getInputStream());
+             FileChannel destination = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long position = 0;
+            long transferred;
+            while ((transferred = destination.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0) {
+                position += transferred;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Completes a chunked upload opened with {@link ChunkedUploadService} and makes it the user's current video.
+     * <br> As with {@link #uploadAndSave(MultipartFile, String)}, the user's {@link StateMachine} is stopped and ongoing
+     * image-sending processes are interrupted.
+     *
+     * @param uploadId the upload identifier
+     * @return a {@link ResponseEntity} with a confirmation message; 404 if the upload is unknown, or 409 if chunks are
+     * still missing, in which case the upload stays open
+     * @throws IOException if the part file cannot be moved into place
+     * @see ChunkedUploadService
+     */
+    public ResponseEntity<String> completeChunkedUpload(String uploadId) throws IOException {
+        ChunkedUploadService.UploadSession session;
+        try {
+            session = chunkedUploadService.complete(uploadId);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+        if (session == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Unknown upload");
         }
-        log.info("Saved video file to {}", destinationFile.getAbsolutePath());
+        stateMachineService.stopStateMachine(session.getUser());
+        interruptKeepingVideo(session.getUser());
+        installVideo(session.getUser(), session.getPartFile());
+        return ResponseEntity.ok("File uploaded successfully");
+    }
+
+    /**
+     * Interrupts the user's image-sending processes before a new video is installed.
+     * <br> The current video is unregistered first, so that the interruption does not delete it in the background:
+     * the new video is renamed onto the same path and would be deleted or unregistered in its place.
+     *
+     * @param user the user identifier
+     * @see ImageSenderService#interrupt(String)
+     */
+    private void interruptKeepingVideo(String user) {
+        imageSenderService.tempFiles.remove(user);
+        imageSenderService.interrupt(user);
+    }
+
+    /**
+     * Moves a fully written part file to the user's video path and registers it as the user's current video.
+     * <br> The part file lives in the same directory, so the move is an atomic rename and a job never sees a partly
+     * written video.
+     *
+     * @param user     the user identifier
+     * @param partFile the complete video
+     * @throws IOException if the file cannot be moved
+     */
+    private void installVideo(String user, Path partFile) throws IOException {
+        Path destination = Path.of(configService.getVideoPath(), user + ".mp4");
+        Files.move(partFile, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Saved video file to {}", destination.toAbsolutePath());
 
         // Update references for Python-based and Roboflow-based services
-        imageSenderService.tempFiles.put(user, destinationFile);
-        return null;
+        imageSenderService.tempFiles.put(user, destination.toFile());
     }
 
     /**
@@ -227,14 +429,17 @@ public class VideoService {
      * Processes a single frame (image) from the video stream.
      * <br> The image is passed to the configured model for recognition,
      * and the results are integrated into the user's {@link StateMachine} based on the preset's model.
+     * <br> The frame result is pushed to the user's clients, followed by the progress bars and alarms when they change.
      *
      * @param img       a Base64-encoded string representing the image data
      * @param user      the user identifier
      * @param timestamp the timestamp or frame identifier
      * @return {@code true} if the image was processed successfully; {@code false} if the image data is empty
+     * @throws IOException if the inference of the image failed, was shed or was interrupted; nothing is recorded or
+     *                     pushed for the frame then
      * @see ImageSenderService#processImg(String, String, StateMachine, Map)
      */
-    public boolean processImage(String img, String user, String timestamp) {
+    public boolean processImage(String img, String user, String timestamp) throws IOException {
         if (img.isEmpty()) {
             return false;
         }
@@ -244,16 +449,43 @@ public class VideoService {
         Map<String, String> config = buildConfig(modelWithConfig);
 
         // Delegate image processing to the chosen service
-        imageSenderService.processImg(img, timestamp, stateMachineByName, config);
+        List<AbstractActionObservation> observations =
+                imageSenderService.processImg(img, timestamp, stateMachineByName, config);
+
+        // Push the frame, then the progress bars and alarms if the frame changed them
+        liveStreamService.publishLiveUpdate(user, (long) Double.parseDouble(timestamp), observations);
         return true;
     }
 
+    /**
+     * Starts a server-side live ingestion session for the user with the model of the given preset.
+     * <br> Instead of the client posting frames to {@link #processImage(String, String, String)}, the server reads the
+     * source itself and feeds the sampled frames into a freshly started {@link StateMachine}.
+     *
+     * @param user       the user identifier
+     * @param presetName the preset name corresponding to the desired model/preset configuration
+     * @param source     a camera index, a stream URL (e.g. {@code rtsp://...}) or a video file path
+     * @param targetFps  the number of frames inferred per second, or {@code null} for the configured default
+     * @param replay     whether {@code source} is a file to replay at real-time speed
+     * @return a {@link ResponseEntity} with status 202 and the session status, or an error
+     * @see LiveStreamService#start
+     */
+    public ResponseEntity<?> startLiveStream(String user, String presetName, String source, Double targetFps,
+                                             boolean replay) {
+        log.info("user starts a live stream: {} from {}", user, source);
+        String modelWithConfig = configService.getUseModel(presetName);
+        Map<String, String> config = buildConfig(modelWithConfig);
+        ImageSender imageSender = imageSenderService.getUseImageSender(presetName);
+        return liveStreamService.start(user, presetName, imageSender, config, source, targetFps, replay);
+    }
+
     private final Map<String, String> wfIdCache = new HashMap<>();
 
     /**
      * Builds a configuration map for the selected model.
      * <br> If the model type is 'python', the host is used.
      * <br> If the model type is 'roboflow', the workspace name, workflow name, and workflow ID are used.
+     * <br> The model's frame encoding, if configured, is added under {@link FrameEncoder#CONFIG_KEY}.
      *
      * @param modelWithConfig a string denoting the model type and configuration details (e.g., "python@localhost:5000")
      * @return a {@link Map} containing the relevant configuration
@@ -278,6 +510,10 @@ public class VideoService {
                 wfIdCache.put(split[1] + split[2], workflowId);
             }
         }
+        String encoding = configService.getFrameEncoding(modelWithConfig);
+        if (encoding != null) {
+            config.put(FrameEncoder.CONFIG_KEY, encoding);
+        }
         return config;
     }
 
@@ -296,15 +532,55 @@ public class VideoService {
 
     /**
      * Retrieves the current progress (0 to 1) of video processing for the given user.
-     * <br> The progress is calculated as the ratio of processed frames to total frames.
+     * <br> The progress is calculated as the ratio of processed frames, cached or inferred, to total frames.
      *
      * @param user the user identifier
      * @return a double value representing the processing progress (0 = not started, 1 = completed)
      */
     public Double getProgress(String user) {
-        long processedFrames = imageSenderService.progressMap.getOrDefault(user, new HashMap<>()).size();
-        long totalFrames = imageSenderService.totleFramesMap.getOrDefault(user, 1L);
-        return (double) processedFrames / totalFrames;
+        PipelineMetrics metrics = imageSenderService.pipelineMetrics.get(user);
+        return metrics != null ? metrics.getProgress() : 0.0;
+    }
+
+    /**
+     * Retrieves the detailed progress of the user's latest video job: per-stage counters and frames per second,
+     * moving-average latencies and the estimated time remaining.
+     *
+     * @param user the user identifier
+     * @return a {@link ResponseEntity} containing the {@link ProgressDetailsDto}, or 404 if the user has no video job
+     * @see PipelineMetrics#snapshot()
+     */
+    public ResponseEntity<ProgressDetailsDto> getProgressDetails(String user) {
+        PipelineMetrics metrics = imageSenderService.pipelineMetrics.get(user);
+        if (metrics == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(metrics.snapshot());
+    }
+
+    /**
+     * Retrieves the detailed progress of a video job, see {@link #getProgressDetails(String)}.
+     * <br> For a batch job, this is the progress of the job's own video; otherwise that of the user's latest video job.
+     *
+     * @param jobId the job identifier
+     * @return a {@link ResponseEntity} containing the {@link ProgressDetailsDto}, or 404 if the job is unknown or has
+     * not started processing frames yet
+     */
+    public ResponseEntity<ProgressDetailsDto> getJobProgressDetails(String jobId) {
+        Optional<VideoJob> job = videoJobService.getJob(jobId);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return getProgressDetails(job.get().isBatch() ? batchTrackingKey(jobId) : job.get().getUser());
+    }
+
+    /**
+     * A scheduled task that drops the progress of evicted batch jobs every 60 seconds.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictBatchProgress() {
+        imageSenderService.pipelineMetrics.keySet().removeIf(key -> key.startsWith(BATCH_KEY_PREFIX)
+                && videoJobService.getJob(key.substring(BATCH_KEY_PREFIX.length())).isEmpty());
     }
 
     /**
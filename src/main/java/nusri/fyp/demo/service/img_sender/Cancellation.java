@@ -0,0 +1,80 @@
+package nusri.fyp.demo.service.img_sender;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * <b>Carries the cancellation of a frame down to the work it waits for.</b>
+ * <br>
+ * <p>Cancelling a {@link CompletableFuture} only completes that future: a future derived from it with {@code thenApply}
+ * or {@code thenCompose} is cancelled, but the future it was derived from keeps running, and so does the HTTP call
+ * behind it. The helpers here link a derived future to its source, so that cancelling the future handed to the caller
+ * reaches the request slot, the batch and the call the frame is waiting for.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see InferenceLanes#submit(InferenceLanes.Lane, java.util.function.Supplier)
+ */
+public final class Cancellation {
+
+    private Cancellation() {
+    }
+
+    /**
+     * Cancels {@code source} when {@code dependent} is cancelled.
+     *
+     * @param dependent the future derived from {@code source}, handed to the caller
+     * @param source    the work {@code dependent} waits for
+     * @param <T>       the result type
+     * @return {@code dependent}
+     */
+    public static <T> CompletableFuture<T> propagate(CompletableFuture<T> dependent, Future<?> source) {
+        dependent.whenComplete((value, e) -> {
+            if (dependent.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return dependent;
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenCompose(Function)}, except that cancelling the result cancels whichever of the
+     * two stages is running.
+     *
+     * @param first the first stage
+     * @param next  starts the second stage with the result of the first one
+     * @param <T>   the result type of the first stage
+     * @param <U>   the result type
+     * @return a future completing with the second stage
+     */
+    public static <T, U> CompletableFuture<U> compose(CompletableFuture<T> first,
+                                                      Function<T, CompletableFuture<U>> next) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        first.whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<U> second;
+            try {
+                second = next.apply(value);
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            second.whenComplete((secondValue, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    result.complete(secondValue);
+                }
+            });
+            propagate(result, second);
+        });
+        return propagate(result, first);
+    }
+}
@@ -0,0 +1,191 @@
+package nusri.fyp.demo.service.img_sender;
+
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.service.img_sender.pipeline.Ewma;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * <b>An adaptive limit on the requests in flight to one inference instance, driven by the latency it answers with.</b>
+ * <br>
+ * <p>A fixed limit is either too low for a fast instance or too high for a slow one: past the number of frames an
+ * instance can work on at once, more requests only queue inside it, and every frame gets slower. The limit is therefore
+ * adjusted after each request, following the gradient of the latency:</p>
+ * <ul>
+ *   <li>The <i>baseline</i> is the lowest latency seen, and stands for the latency of the instance when it is not
+ *       overloaded.</li>
+ *   <li>While the recent latency stays within {@code tolerance} times the baseline, the limit grows by a fifth of a
+ *       request per request. Once the latency rises beyond it, the limit shrinks in proportion to the excess.</li>
+ *   <li>A failed request (timeout, connection error, 5xx) cuts the limit by 10%, the multiplicative decrease of
+ *       AIMD.</li>
+ *   <li>The limit only grows while it is used: with fewer than half of it in flight, the latency says nothing about a
+ *       larger limit.</li>
+ * </ul>
+ * <p>The lowest latency seen never rises by itself, and under continuous load no request runs alone to measure it
+ * again. Every {@value #PROBE_EVERY} requests the limit therefore drops to its minimum, one by default, until a request
+ * completes with no more than that many in flight, and that request sets the baseline afresh, e.g. after the model of
+ * the instance was changed for a slower one. The probe never goes below the configured minimum: with a minimum above
+ * one, the baseline is the latency at that concurrency. The probe costs about one request time of throughput. Callers
+ * enforce the limit and queue or shed the requests above it.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ConcurrencyLimitDto
+ */
+public class ConcurrencyLimit {
+
+    /**
+     * The limit of a new instance.
+     */
+    private static final double INITIAL = 4;
+
+    /**
+     * The number of requests between two measurements of the baseline latency.
+     */
+    private static final int PROBE_EVERY = 1000;
+
+    /**
+     * The weight of a new limit against the current one.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * The factor applied to the limit when a request fails.
+     */
+    private static final double BACKOFF = 0.9;
+
+    private final BooleanSupplier enabled;
+    private final IntSupplier min;
+    private final IntSupplier max;
+    private final DoubleSupplier tolerance;
+
+    private double limit = INITIAL;
+    private double baselineMs = Double.NaN;
+    private long samples;
+
+    /**
+     * Whether the limit is held at its minimum until a request completes within it, see {@link #PROBE_EVERY}.
+     */
+    private boolean probing;
+    private volatile int current = (int) INITIAL;
+
+    private final Ewma latencyMs = new Ewma();
+    private final Ewma queueWaitMs = new Ewma();
+
+    /**
+     * Creates a limit.
+     *
+     * @param enabled   whether the limit is enforced, read on every request
+     * @param min       the lowest limit
+     * @param max       the highest limit
+     * @param tolerance how much slower than the baseline requests may get before the limit shrinks, e.g. {@code 2}
+     */
+    public ConcurrencyLimit(BooleanSupplier enabled, IntSupplier min, IntSupplier max, DoubleSupplier tolerance) {
+        this.enabled = enabled;
+        this.min = min;
+        this.max = max;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return whether the limit is enforced
+     */
+    public boolean isEnabled() {
+        return enabled.getAsBoolean();
+    }
+
+    /**
+     * @return the number of requests that may be in flight at the same time
+     */
+    public int get() {
+        return current;
+    }
+
+    /**
+     * Adjusts the limit to a completed request.
+     *
+     * @param latencyNanos the time the request took
+     * @param inFlight     the number of requests in flight when it completed, itself included
+     * @param failed       whether the request failed in a way that points at an overloaded instance
+     */
+    public void onSample(long latencyNanos, int inFlight, boolean failed) {
+        double sampleMs = latencyNanos / 1e6;
+        latencyMs.update(sampleMs);
+        synchronized (this) {
+            int low = Math.max(1, min.getAsInt());
+            int high = Math.max(low, max.getAsInt());
+            samples++;
+            if (probing) {
+                if (inFlight <= low) {
+                    // Completed alone, or within the minimum: no queueing beyond it in this latency
+                    probing = false;
+                    if (!failed) {
+                        baselineMs = sampleMs;
+                    }
+                    limit = clamp(failed ? limit * BACKOFF : limit, low, high);
+                    current = (int) limit;
+                }
+                return;
+            }
+            if (failed) {
+                limit = clamp(limit * BACKOFF, low, high);
+            } else {
+                if (Double.isNaN(baselineMs) || sampleMs < baselineMs) {
+                    baselineMs = sampleMs;
+                }
+                if (inFlight >= limit / 2) {
+                    double recentMs = Math.max(latencyMs.get(), 1e-3);
+                    double gradient = Math.max(0.5, Math.min(1, tolerance.getAsDouble() * baselineMs / recentMs));
+                    double target = limit * gradient + 1;
+                    limit = clamp(limit + SMOOTHING * (target - limit), low, high);
+                } else {
+                    limit = clamp(limit, low, high);
+                }
+            }
+            if (samples % PROBE_EVERY == 0 && limit > low) {
+                probing = true;
+                current = low;
+            } else {
+                current = (int) limit;
+            }
+        }
+    }
+
+    /**
+     * Records how long a request waited for the limit before it was sent.
+     *
+     * @param waitMs the wait, in milliseconds; {@code 0} for a request sent at once
+     */
+    public void recordWait(double waitMs) {
+        queueWaitMs.update(waitMs);
+    }
+
+    /**
+     * @param backend  the name of the backend, e.g. {@code python}
+     * @param server   the server of the instance
+     * @param instance the instance
+     * @param inFlight the number of requests in flight to the instance
+     * @return the state of the limit; {@code waiting} and {@code shed} are left to the caller
+     */
+    public ConcurrencyLimitDto toDto(String backend, String server, String instance, int inFlight) {
+        ConcurrencyLimitDto dto = new ConcurrencyLimitDto();
+        dto.setBackend(backend);
+        dto.setServer(server);
+        dto.setInstance(instance);
+        dto.setEnabled(isEnabled());
+        dto.setLimit(current);
+        dto.setInFlight(inFlight);
+        dto.setQueueWaitMs(queueWaitMs.get());
+        dto.setLatencyMs(latencyMs.get());
+        synchronized (this) {
+            dto.setBaselineLatencyMs(Double.isNaN(baselineMs) ? 0 : baselineMs);
+        }
+        return dto;
+    }
+
+    private static double clamp(double value, int low, int high) {
+        return Math.max(low, Math.min(high, value));
+    }
+}
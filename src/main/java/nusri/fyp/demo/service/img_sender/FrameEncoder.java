@@ -0,0 +1,190 @@
+package nusri.fyp.demo.service.img_sender;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <b>Encodes frames into the image bytes sent to a model, in a configurable format and quality.</b>
+ * <br>
+ * <p>Lossless PNG is the most expensive step of the frame pipeline after inference itself, and produces the largest
+ * payloads. Models trained on camera footage do not need it, so each model may choose its encoding (see
+ * {@code ConfigService#getFrameEncoding(String)}), written {@code format[:quality]}:</p>
+ * <ul>
+ *   <li>{@code png[:level]}: lossless, {@code level} being the zlib compression level from 0 (fastest) to 9.</li>
+ *   <li>{@code jpeg[:quality]}: lossy, {@code quality} from 0 to 100.</li>
+ *   <li>{@code webp[:quality]}: lossy, {@code quality} from 1 to 100; above 100 it is lossless.</li>
+ * </ul>
+ * <p>The encoding of a model travels in its configuration map under {@link #CONFIG_KEY}, so senders resolve their
+ * encoder with {@link #of(Map)}. Encoders are immutable and cached by specification.</p>
+ * <p>Each thread keeps one native output buffer, reused for every frame it encodes instead of being allocated and
+ * freed per frame. Only the final {@code byte[]} is allocated on the Java heap.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ImageSender#encodeFrame(Mat, Map)
+ */
+@Slf4j
+@Getter
+public class FrameEncoder {
+
+    /**
+     * The configuration map key holding the encoding specification.
+     */
+    public static final String CONFIG_KEY = "encoding";
+
+    /**
+     * The encoding used when a model does not configure one, matching the historical behaviour.
+     */
+    public static final FrameEncoder DEFAULT = new FrameEncoder(Format.PNG, Format.PNG.defaultQuality);
+
+    /**
+     * The image formats a frame can be encoded in.
+     */
+    @Getter
+    public enum Format {
+        PNG(".png", "image/png", Imgcodecs.IMWRITE_PNG_COMPRESSION, 1),
+        JPEG(".jpg", "image/jpeg", Imgcodecs.IMWRITE_JPEG_QUALITY, 90),
+        WEBP(".webp", "image/webp", Imgcodecs.IMWRITE_WEBP_QUALITY, 90);
+
+        private final String extension;
+        private final String mediaType;
+        private final int qualityParam;
+        private final int defaultQuality;
+
+        Format(String extension, String mediaType, int qualityParam, int defaultQuality) {
+            this.extension = extension;
+            this.mediaType = mediaType;
+            this.qualityParam = qualityParam;
+            this.defaultQuality = defaultQuality;
+        }
+
+        /**
+         * Recognizes the format of encoded image bytes from their signature.
+         *
+         * @param header at least the first 12 bytes of the image
+         * @return the format, or {@code null} if it is not recognized
+         */
+        public static Format detect(byte[] header) {
+            if (header.length >= 4 && (header[0] & 0xFF) == 0x89
+                    && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+                return PNG;
+            }
+            if (header.length >= 3 && (header[0] & 0xFF) == 0xFF
+                    && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+                return JPEG;
+            }
+            if (header.length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                    && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+                return WEBP;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Encoders already created, keyed by specification.
+     */
+    private static final Map<String, FrameEncoder> ENCODERS = new ConcurrentHashMap<>();
+
+    /**
+     * The native output buffer of each encoding thread.
+     */
+    private static final ThreadLocal<MatOfByte> BUFFERS = ThreadLocal.withInitial(MatOfByte::new);
+
+    private final Format format;
+    private final int quality;
+
+    /**
+     * The {@link Imgcodecs#imencode(String, Mat, MatOfByte, MatOfInt)} parameters; read-only once built.
+     */
+    @Getter(AccessLevel.NONE)
+    private final MatOfInt params;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param format  the image format
+     * @param quality the quality, or compression level for PNG
+     */
+    public FrameEncoder(Format format, int quality) {
+        this.format = format;
+        this.quality = quality;
+        this.params = new MatOfInt(format.qualityParam, quality);
+    }
+
+    /**
+     * Returns the encoder of a model configuration.
+     *
+     * @param config the model configuration, see {@link #CONFIG_KEY}
+     * @return the configured encoder, or {@link #DEFAULT}
+     */
+    public static FrameEncoder of(Map<String, String> config) {
+        return of(config.get(CONFIG_KEY));
+    }
+
+    /**
+     * Returns the encoder of a specification such as {@code jpeg:85}.
+     *
+     * @param spec the encoding specification, or {@code null}
+     * @return the encoder, or {@link #DEFAULT} if the specification is empty or invalid
+     */
+    public static FrameEncoder of(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return DEFAULT;
+        }
+        return ENCODERS.computeIfAbsent(spec.trim().toLowerCase(Locale.ROOT), key -> {
+            try {
+                return parse(key);
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid frame encoding '{}', using {}", key, DEFAULT);
+                return DEFAULT;
+            }
+        });
+    }
+
+    /**
+     * Parses an encoding specification such as {@code jpeg:85}.
+     *
+     * @param spec the encoding specification
+     * @return a new encoder
+     * @throws IllegalArgumentException if the format is unknown or the quality is not a number
+     */
+    public static FrameEncoder parse(String spec) {
+        String[] split = spec.trim().toLowerCase(Locale.ROOT).split(":", 2);
+        Format format = Format.valueOf(split[0].equals("jpg") ? "JPEG" : split[0].toUpperCase(Locale.ROOT));
+        int quality = split.length > 1 ? Integer.parseInt(split[1].trim()) : format.defaultQuality;
+        return new FrameEncoder(format, quality);
+    }
+
+    /**
+     * Encodes a frame.
+     *
+     * @param frame the frame, left untouched
+     * @return the encoded image bytes, empty if OpenCV could not encode the frame
+     */
+    public byte[] encode(Mat frame) {
+        MatOfByte buffer = BUFFERS.get();
+        if (!Imgcodecs.imencode(format.extension, frame, buffer, params)) {
+            log.warn("Error occurred when encoding a frame as {}", this);
+            return new byte[0];
+        }
+        return buffer.toArray();
+    }
+
+    /**
+     * @return the specification of this encoder, e.g. {@code jpeg:90}
+     */
+    @Override
+    public String toString() {
+        return format.name().toLowerCase(Locale.ROOT) + ":" + quality;
+    }
+}
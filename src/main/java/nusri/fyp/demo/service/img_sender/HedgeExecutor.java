@@ -0,0 +1,237 @@
+package nusri.fyp.demo.service.img_sender;
+
+import nusri.fyp.demo.dto.InferenceExecutorStatsDto;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <b>Runs hedged requests: the primary request on the calling thread, the hedge on a small bounded pool.</b>
+ * <br>
+ * <p>The caller already holds a thread of the {@link InferenceExecutor} for the request, so the primary request runs
+ * there. Only when it has not answered after the delay of the {@link HedgePolicy} is a hedge started, on one of
+ * {@code threads} threads named {@code inference-hedge-N}. A hedge that finds every hedge thread busy is not sent:
+ * a late hedge is worth little, and the number of extra requests stays bounded however slow the backend gets.</p>
+ * <p>The first answer wins and cancels the other request. Every hedged request reports its latency to the policy,
+ * and whether the hedge won.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see HedgePolicy
+ * @see InferenceExecutorStatsDto
+ */
+public class HedgeExecutor {
+
+    /**
+     * One request of a hedged pair.
+     *
+     * @param <T> the result type
+     */
+    public interface Attempt<T> {
+        /**
+         * Runs the request on the calling thread.
+         *
+         * @return the result
+         * @throws IOException if the request failed or was cancelled
+         */
+        T run() throws IOException;
+
+        /**
+         * Cancels the request: a running or later {@link #run()} fails soon after.
+         */
+        void cancel();
+    }
+
+    private final HedgePolicy policy;
+    private final int threads;
+
+    /**
+     * The hedge threads; the queue never holds more tasks than {@link #slots} lets through.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * One permit per hedge thread, taken before a hedge is started.
+     */
+    private final Semaphore slots;
+
+    /**
+     * Starts the hedges once their delay has elapsed.
+     */
+    private final ScheduledExecutorService timer;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates the executor.
+     *
+     * @param policy  the policy keeping the hedge budget and the latencies
+     * @param threads the number of hedges that may run at the same time
+     */
+    public HedgeExecutor(HedgePolicy policy, int threads) {
+        this.policy = policy;
+        this.threads = Math.max(1, threads);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("inference-hedge-");
+        threadFactory.setDaemon(true);
+        this.pool = new ThreadPoolExecutor(this.threads, this.threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        this.pool.allowCoreThreadTimeOut(true);
+        this.slots = new Semaphore(this.threads);
+        CustomizableThreadFactory timerFactory = new CustomizableThreadFactory("inference-hedge-timer-");
+        timerFactory.setDaemon(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(timerFactory);
+    }
+
+    /**
+     * Runs {@code primary} on the calling thread, and a hedge from {@code hedges} if it has not answered after
+     * {@code delayMs}.
+     *
+     * @param primary the primary request
+     * @param hedges  creates the hedge, or returns {@code null} if there is no target for it; called at most once, on
+     *                the timer thread
+     * @param delayMs the time after which the hedge is started, see {@link HedgePolicy#delayMs()}
+     * @param <T>     the result type
+     * @return the first successful result
+     * @throws IOException the failure of the primary request, if the hedge was not sent or failed too
+     */
+    public <T> T call(Attempt<T> primary, Supplier<Attempt<T>> hedges, long delayMs) throws IOException {
+        long start = System.nanoTime();
+        Pair<T> pair = new Pair<>();
+        ScheduledFuture<?> hedgeTimer = timer.schedule(() -> startHedge(pair, primary, hedges),
+                delayMs, TimeUnit.MILLISECONDS);
+        T result = null;
+        IOException failure = null;
+        try {
+            result = primary.run();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            hedgeTimer.cancel(false);
+        }
+        Attempt<T> hedge;
+        CompletableFuture<T> hedgeResult;
+        synchronized (pair) {
+            pair.primaryDone = true;
+            hedge = pair.hedge;
+            hedgeResult = pair.result;
+        }
+
+        if (failure == null) {
+            if (hedge != null) {
+                hedge.cancel();
+            }
+            policy.record(elapsedMs(start), false);
+            return result;
+        }
+        if (hedgeResult == null) {
+            throw failure;
+        }
+        try {
+            T hedged = hedgeResult.get();
+            policy.record(elapsedMs(start), true);
+            return hedged;
+        } catch (ExecutionException e) {
+            // The primary request only fails on its own when the hedge did not win
+            throw failure;
+        } catch (InterruptedException e) {
+            hedge.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a hedged request");
+        }
+    }
+
+    /**
+     * Starts the hedge of a request still running, if a hedge thread is free and the budget allows.
+     */
+    private <T> void startHedge(Pair<T> pair, Attempt<T> primary, Supplier<Attempt<T>> hedges) {
+        synchronized (pair) {
+            if (pair.primaryDone) {
+                return;
+            }
+        }
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            return;
+        }
+        Attempt<T> hedge = policy.tryHedge() ? hedges.get() : null;
+        if (hedge == null) {
+            slots.release();
+            return;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        synchronized (pair) {
+            pair.hedge = hedge;
+            pair.result = result;
+            if (pair.primaryDone) {
+                // Answered meanwhile; the hedge still runs, to give back what it holds
+                hedge.cancel();
+            }
+        }
+        try {
+            pool.execute(() -> {
+                active.incrementAndGet();
+                try {
+                    if (result.complete(hedge.run())) {
+                        primary.cancel();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            slots.release();
+            hedge.cancel();
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the current state of the hedge threads; {@code rejected} counts the hedges not sent because every hedge
+     * thread was busy
+     */
+    public InferenceExecutorStatsDto toDto() {
+        InferenceExecutorStatsDto dto = new InferenceExecutorStatsDto();
+        dto.setMode("platform");
+        dto.setPoolSize(pool.getPoolSize());
+        dto.setMaxPoolSize(threads);
+        dto.setActiveTasks(active.get());
+        dto.setQueueDepth(pool.getQueue().size());
+        dto.setQueueCapacity(0);
+        dto.setCompleted(completed.sum());
+        dto.setRejected(rejected.sum());
+        return dto;
+    }
+
+    /**
+     * Stops starting hedges; running ones complete.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        pool.shutdown();
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * The state shared by the caller and the timer of one hedged request.
+     */
+    private static final class Pair<T> {
+        private boolean primaryDone;
+        private Attempt<T> hedge;
+        private CompletableFuture<T> result;
+    }
+}
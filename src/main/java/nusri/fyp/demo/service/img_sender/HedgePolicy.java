@@ -0,0 +1,159 @@
+package nusri.fyp.demo.service.img_sender;
+
+import nusri.fyp.demo.dto.HedgeStatsDto;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * <b>Decides when an inference request is hedged, i.e. duplicated to another instance, and keeps the hedge budget.</b>
+ * <br>
+ * <p>The median latency of a backend is fine, but a request landing on a momentarily slow instance (garbage collection,
+ * a long queue, a cold model) waits for it, and that wait sets the tail latency of live frames. A hedged request is
+ * sent again to a second instance once it has been running longer than the {@code percentile} of the recent latencies;
+ * the first answer wins and the other request is cancelled.</p>
+ * <ul>
+ *   <li>{@link #delayMs()} is the configured percentile of the last {@value #WINDOW} latencies, recomputed every
+ *       {@value #RECOMPUTE_EVERY} samples. Until {@value #MIN_SAMPLES} latencies are known, nothing is hedged.</li>
+ *   <li>Hedges are paid from a token budget: each request earns {@code budgetPercent / 100} of a token and a hedge
+ *       costs one, so at most {@code budgetPercent}% extra requests are sent, however slow the backend gets.</li>
+ * </ul>
+ * <p>The policy is independent of the backend: the caller starts the requests and reports their outcome.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see HedgeStatsDto
+ */
+public class HedgePolicy {
+
+    /**
+     * The number of recent latencies the percentile is computed from.
+     */
+    private static final int WINDOW = 1024;
+
+    /**
+     * The number of latencies recorded between two computations of the percentile.
+     */
+    private static final int RECOMPUTE_EVERY = 64;
+
+    /**
+     * The number of latencies needed before the first hedge.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * The largest number of hedges that can be saved up during a quiet period.
+     */
+    private static final double MAX_TOKENS = 10;
+
+    private final BooleanSupplier enabled;
+    private final DoubleSupplier percentile;
+    private final DoubleSupplier budgetPercent;
+
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private int next;
+    private volatile long delayMs = -1;
+
+    private double tokens;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetDenied = new LongAdder();
+
+    /**
+     * Creates a policy.
+     *
+     * @param enabled       whether hedging is enabled, read on every request
+     * @param percentile    the latency percentile after which a request is hedged, from 50 to 99.9
+     * @param budgetPercent the largest share of extra requests, in percent of all requests
+     */
+    public HedgePolicy(BooleanSupplier enabled, DoubleSupplier percentile, DoubleSupplier budgetPercent) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.budgetPercent = budgetPercent;
+    }
+
+    /**
+     * Counts a request that may be hedged and earns its share of the budget.
+     *
+     * @return the time after which the request should be hedged, in milliseconds, or {@code -1} to not hedge it
+     */
+    public long delayMs() {
+        if (!enabled.getAsBoolean()) {
+            return -1;
+        }
+        requests.increment();
+        synchronized (this) {
+            tokens = Math.min(MAX_TOKENS, tokens + Math.max(0, budgetPercent.getAsDouble()) / 100);
+        }
+        return delayMs;
+    }
+
+    /**
+     * Takes a token from the budget for a hedge.
+     *
+     * @return {@code true} if the hedge may be sent
+     */
+    public boolean tryHedge() {
+        synchronized (this) {
+            if (tokens < 1) {
+                budgetDenied.increment();
+                return false;
+            }
+            tokens--;
+        }
+        hedges.increment();
+        return true;
+    }
+
+    /**
+     * Records the latency of a completed request, hedged or not.
+     *
+     * @param latencyMs the time from the first send to the winning answer, in milliseconds
+     * @param hedgeWon  whether the hedge answered first
+     */
+    public void record(long latencyMs, boolean hedgeWon) {
+        if (hedgeWon) {
+            hedgeWins.increment();
+        }
+        long[] snapshot = null;
+        synchronized (this) {
+            latencies[next] = latencyMs;
+            next = (next + 1) % WINDOW;
+            samples++;
+            if (samples >= MIN_SAMPLES && (delayMs < 0 || samples % RECOMPUTE_EVERY == 0)) {
+                snapshot = Arrays.copyOf(latencies, Math.min(samples, WINDOW));
+            }
+        }
+        if (snapshot != null) {
+            // Sorting happens outside the lock; a concurrent recomputation only overwrites with a similar value
+            Arrays.sort(snapshot);
+            double p = Math.min(99.9, Math.max(50, percentile.getAsDouble())) / 100;
+            delayMs = snapshot[Math.min(snapshot.length - 1, (int) Math.ceil(p * snapshot.length) - 1)];
+        }
+    }
+
+    /**
+     * @param backend the name of the backend, e.g. {@code python}
+     * @return the hedge counters
+     */
+    public HedgeStatsDto toDto(String backend) {
+        HedgeStatsDto dto = new HedgeStatsDto();
+        dto.setBackend(backend);
+        dto.setEnabled(enabled.getAsBoolean());
+        dto.setDelayMs(delayMs);
+        long requestCount = requests.sum();
+        long hedgeCount = hedges.sum();
+        dto.setRequests(requestCount);
+        dto.setHedges(hedgeCount);
+        dto.setHedgeWins(hedgeWins.sum());
+        dto.setBudgetDenied(budgetDenied.sum());
+        dto.setHedgeRate(requestCount > 0 ? (double) hedgeCount / requestCount : 0);
+        dto.setHedgeWinRate(hedgeCount > 0 ? (double) hedgeWins.sum() / hedgeCount : 0);
+        return dto;
+    }
+}
@@ -14,6 +14,8 @@ import java.util.concurrent.CompletableFuture;
 /**
  * This interface defines the operations for sending image frames to a model for recognition.
  * It provides both synchronous and asynchronous methods for sending image frames in different formats.
+ * <br> Requests wait for a slot in the backend's {@link InferenceLanes}: synchronous sends are live frames, and
+ * asynchronous sends use the lane of their configuration, see {@link InferenceLanes.Lane#of(Map)}.
  *
  * @author Liu Binghong
  * @since 1.0
@@ -27,7 +29,7 @@ public interface ImageSender {
      * @param frame  the OpenCV {@link Mat} object representing a single image frame
      * @param config a {@link Map} of relevant configurations (e.g., host, port, or other settings)
      * @return a list of {@link AbstractActionObservation} instances representing the recognized actions/objects
-     * @throws IOException if an I/O problem occurs during sending
+     * @throws IOException if the inference of the frame failed, was shed or was interrupted
      */
     List<? extends AbstractActionObservation> sendFrame(Mat frame, Map<String, String> config) throws IOException;
 
@@ -37,9 +39,11 @@ public interface ImageSender {
      *
      * @param frame  a Base64-encoded image string
      * @param config a {@link Map} of relevant configurations
-     * @return a list of {@link AbstractActionObservation} instances for the recognized actions/objects
+     * @return a list of {@link AbstractActionObservation} instances for the recognized actions/objects; an empty list
+     * always means that nothing was recognized
+     * @throws IOException if the inference of the frame failed, was shed or was interrupted
      */
-    List<? extends AbstractActionObservation> sendFrame(String frame, Map<String, String> config);
+    List<? extends AbstractActionObservation> sendFrame(String frame, Map<String, String> config) throws IOException;
 
     /**
      * Sends an image frame (OpenCV {@link Mat}) to the model asynchronously for recognition.
@@ -48,10 +52,37 @@ public interface ImageSender {
      * @param frame  the OpenCV {@link Mat} representing a single image frame
      * @param user   the user identifier (to track or cancel ongoing tasks)
      * @param config a {@link Map} of relevant configurations
-     * @return a {@link CompletableFuture} containing a list of {@link AbstractActionObservation}
+     * @return a {@link CompletableFuture} containing a list of {@link AbstractActionObservation}; it fails if the
+     * inference of the frame failed, so that an empty list always means that nothing was recognized
      */
     CompletableFuture<List<AbstractActionObservation>> sendFrameAsync(Mat frame, String user, Map<String, String> config);
 
+    /**
+     * Encodes an image frame (OpenCV {@link Mat}) into the image bytes expected by the model.
+     * <br> This is the encode stage of the frame pipeline; the returned bytes no longer depend on the {@link Mat},
+     * so the caller may release or reuse the frame as soon as this method returns.
+     * <br> The format and quality are those of the model configuration, see {@link FrameEncoder#of(Map)}.
+     *
+     * @param frame  the OpenCV {@link Mat} representing a single image frame
+     * @param config a {@link Map} of relevant configurations
+     * @return the encoded image bytes
+     */
+    default byte[] encodeFrame(Mat frame, Map<String, String> config) {
+        return FrameEncoder.of(config).encode(frame);
+    }
+
+    /**
+     * Sends an already encoded frame (see {@link #encodeFrame(Mat, Map)}) to the model asynchronously for recognition.
+     * <br> This is the infer stage of the frame pipeline.
+     *
+     * @param encoded the encoded image bytes
+     * @param user    the user identifier (to track or cancel ongoing tasks)
+     * @param config  a {@link Map} of relevant configurations
+     * @return a {@link CompletableFuture} containing a list of {@link AbstractActionObservation}; it fails if the
+     * inference of the frame failed, so that an empty list always means that nothing was recognized
+     */
+    CompletableFuture<List<AbstractActionObservation>> sendEncodedFrameAsync(byte[] encoded, String user, Map<String, String> config);
+
     /**
      * Interrupts (cancels) the ongoing recognition process for the specified user, if any.
      * <br> Typically cancels any pending or running {@link CompletableFuture} tasks in {@link ImageSenderService}.
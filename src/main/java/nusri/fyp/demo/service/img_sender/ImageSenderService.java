@@ -1,17 +1,33 @@
 package nusri.fyp.demo.service.img_sender;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.dto.FrameBatchStatsDto;
+import nusri.fyp.demo.dto.PythonInstanceHealthDto;
+import nusri.fyp.demo.entity.PreprocessConfig;
 import nusri.fyp.demo.repository.PythonServerRepository;
 import nusri.fyp.demo.service.ConfigService;
+import nusri.fyp.demo.service.InferenceCacheService;
+import nusri.fyp.demo.service.img_sender.pipeline.FramePipeline;
+import nusri.fyp.demo.service.img_sender.pipeline.FramePreprocessor;
+import nusri.fyp.demo.service.img_sender.pipeline.FrameSource;
+import nusri.fyp.demo.service.img_sender.pipeline.InFlightLimits;
+import nusri.fyp.demo.service.img_sender.pipeline.MatPool;
+import nusri.fyp.demo.service.img_sender.pipeline.PipelineMetrics;
+import nusri.fyp.demo.service.img_sender.pipeline.VideoFileFrameSource;
 import nusri.fyp.demo.service.img_sender.python.ImageSenderOfPython;
+import nusri.fyp.demo.service.img_sender.python.PythonHttpClient;
 import nusri.fyp.demo.service.img_sender.roboflow.ImageSenderOfRoboflow;
 import nusri.fyp.demo.service.img_sender.roboflow.RoboflowService;
+import nusri.fyp.demo.service.push.EventPushService;
 import nusri.fyp.demo.state_machine.AbstractActionObservation;
 import nusri.fyp.demo.state_machine.StateMachine;
-import org.opencv.core.Mat;
 import org.opencv.videoio.VideoCapture;
 import org.opencv.videoio.Videoio;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -31,8 +47,12 @@ import java.util.concurrent.*;
  *   split them into frames.</li>
  *   <li><b>Frame Skipping:</b> The number of frames to skip is determined by {@link ConfigService}.
  *   This helps manage performance by not processing every single frame if unnecessary.</li>
+ *   <li><b>Parallel Decoding:</b> A video can be split into segments decoded in parallel by a
+ *   {@link VideoFileFrameSource}, see {@link ConfigService#getDecodeParallelism()}.</li>
  *   <li><b>Asynchronous Processing:</b> Each frame can be sent asynchronously (implementation-defined in
  *   {@code #sendFrameAsync(Mat, String, Map)}) to allow concurrent recognition tasks.</li>
+ *   <li><b>Bounded Pipeline:</b> Videos are processed by a {@link FramePipeline}, whose bounded queues and in-flight
+ *   limits keep the number of frames held in memory constant however long the video is.</li>
  * </ul>
  *
  * <p>The resulting maps and data structures are stored in concurrency-friendly collections like {@link ConcurrentHashMap}
@@ -60,18 +80,42 @@ public class ImageSenderService {
     public final Map<String, File> tempFiles = new ConcurrentHashMap<>();
 
     /**
-     * A mapping from user identifier to the total number of frames (after skipping) in the uploaded video.
-     * <br> Used to track progress in recognition tasks.
+     * Tracks the progress of the latest video job of each user.
+     * <br> The key is the user identifier; the value holds the per-stage counters of the job's {@link FramePipeline}.
      */
-    public final Map<String, Long> totleFramesMap = new ConcurrentHashMap<>();
+    public final Map<String, PipelineMetrics> pipelineMetrics = new ConcurrentHashMap<>();
 
     /**
-     * Tracks the recognition results (inference outcomes) by user.
-     * <br> The outer map key is the user identifier.
-     * <br> The inner map key is the frame timestamp (in milliseconds).
-     * <br> The inner map value is a list of {@link AbstractActionObservation} for that frame.
+     * The pool of frame {@link org.opencv.core.Mat}s shared by every video job and live stream.
+     * <br> Its counters reveal frames that are never handed back, see {@link MatPool#toDto()}.
      */
-    public final Map<String, Map<Long, List<? extends AbstractActionObservation>>> progressMap = new ConcurrentHashMap<>();
+    public final MatPool matPool;
+
+    /**
+     * The priority lanes of each inference backend, keyed by backend name ({@code python}, {@code roboflow}).
+     * <br> Live frames take the backend's free request slots before the frames of video jobs, see {@link InferenceLanes}.
+     */
+    public final Map<String, InferenceLanes> inferenceLanes;
+
+    /**
+     * The pooled, keep-alive HTTP client shared by every request to the Python servers.
+     */
+    public final PythonHttpClient pythonHttpClient;
+
+    /**
+     * The executor running the blocking inference requests, instead of the common pool, see {@link InferenceExecutor}.
+     */
+    public final InferenceExecutor inferenceExecutor;
+
+    /**
+     * The hedging policy of live frames sent to the Python servers, see {@link HedgePolicy}.
+     */
+    public final HedgePolicy pythonHedgePolicy;
+
+    /**
+     * Runs the hedges of live frames sent to the Python servers, on a bounded pool, see {@link HedgeExecutor}.
+     */
+    public final HedgeExecutor pythonHedgeExecutor;
 
     /**
      * A mapping from user identifier to a list of {@link CompletableFuture} tasks representing in-flight recognition processes.
@@ -79,6 +123,8 @@ public class ImageSenderService {
      */
     public final Map<String, List<CompletableFuture<List<AbstractActionObservation>>>> sendingProcesses = new ConcurrentHashMap<>();
     private final RoboflowService roboflowService;
+    private final InferenceCacheService inferenceCacheService;
+    private final EventPushService eventPushService;
 
     /**
      * Constructor that injects the config service.
@@ -88,32 +134,192 @@ public class ImageSenderService {
      * @param objectMapper the object mapper.
      * @param roboflowService the roboflow service.
      * @param pythonServerRepository the python server repo.
+     * @param inferenceCacheService the cache of video inference results.
+     * @param eventPushService the service pushing frame results to WebSocket clients.
      * @see ConfigService
      */
-    public ImageSenderService(ConfigService configService, RoboflowService roboflowService, ObjectMapper objectMapper, PythonServerRepository pythonServerRepository) {
+    public ImageSenderService(ConfigService configService, RoboflowService roboflowService, ObjectMapper objectMapper, PythonServerRepository pythonServerRepository,
+                              InferenceCacheService inferenceCacheService, EventPushService eventPushService) {
         this.configService = configService;
-        this.imageSenderOfRoboflow = new ImageSenderOfRoboflow(roboflowService);
-        this.imageSenderOfPython = new ImageSenderOfPython(this, objectMapper, pythonServerRepository);
+        this.inferenceCacheService = inferenceCacheService;
+        this.eventPushService = eventPushService;
+        this.matPool = new MatPool(() -> Integer.parseInt(configService.getMatPoolCapacity()));
+        // Python instances are limited one by one by their load balancer; Roboflow is a single instance
+        ConcurrencyLimit roboflowLimit = new ConcurrencyLimit(
+                () -> Boolean.parseBoolean(configService.getInferenceLimitEnabled()),
+                () -> Integer.parseInt(configService.getInferenceLimitMin()),
+                () -> Integer.parseInt(configService.getInferenceLimitMax()),
+                () -> Double.parseDouble(configService.getInferenceLimitTolerance()));
+        InferenceLanes pythonLanes = newInferenceLanes(configService, null);
+        InferenceLanes roboflowLanes = newInferenceLanes(configService, roboflowLimit);
+        this.inferenceLanes = Map.of("python", pythonLanes, "roboflow", roboflowLanes);
+        this.imageSenderOfRoboflow = new ImageSenderOfRoboflow(roboflowService, roboflowLanes, roboflowLimit);
+        this.pythonHttpClient = new PythonHttpClient(configService);
+        this.inferenceExecutor = new InferenceExecutor(() -> Integer.parseInt(configService.getInferenceIoThreads()),
+                Integer.parseInt(configService.getInferenceIoQueueCapacity()),
+                Boolean.parseBoolean(configService.getInferenceIoVirtualThreads()));
+        this.pythonHedgePolicy = new HedgePolicy(() -> Boolean.parseBoolean(configService.getInferenceHedgingEnabled()),
+                () -> Double.parseDouble(configService.getInferenceHedgePercentile()),
+                () -> Double.parseDouble(configService.getInferenceHedgeBudgetPercent()));
+        this.pythonHedgeExecutor = new HedgeExecutor(pythonHedgePolicy,
+                Integer.parseInt(configService.getInferenceHedgeThreads()));
+        this.imageSenderOfPython = new ImageSenderOfPython(this, objectMapper, pythonServerRepository, pythonLanes,
+                pythonHttpClient, configService, pythonHedgePolicy, pythonHedgeExecutor, inferenceExecutor);
         this.roboflowService = roboflowService;
     }
 
     private final ImageSenderOfRoboflow imageSenderOfRoboflow;
     private final ImageSenderOfPython imageSenderOfPython;
 
+    /**
+     * The in-flight permits shared by all {@link FramePipeline} runs.
+     */
+    private final InFlightLimits inFlightLimits = new InFlightLimits();
+
+    /**
+     * The worker threads running the encode and infer stages of every {@link FramePipeline}.
+     */
+    private final ExecutorService pipelineWorkers = Executors.newCachedThreadPool(daemonThreadFactory("frame-pipeline-"));
+
+    /**
+     * The pool decoding video segments in parallel, sized to the number of available cores.
+     */
+    private final ExecutorService decodeWorkers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemonThreadFactory("frame-decoder-"));
+
+    /**
+     * Refreshes the instance list of every Python server every 250 ms, see
+     * {@link nusri.fyp.demo.service.img_sender.python.PythonServerLoadBalancer#fetchPythonInstancesAsync()}.
+     */
+    @Scheduled(fixedRate = 250)
+    public void refreshPythonInstances() {
+        imageSenderOfPython.refreshInstances();
+    }
+
+    /**
+     * Health-checks the instances of every Python server every second, see
+     * {@link nusri.fyp.demo.service.img_sender.python.PythonServerLoadBalancer#checkHealth()}.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void checkPythonHealth() {
+        imageSenderOfPython.checkHealth();
+    }
+
+    /**
+     * Picks up Python servers added to or removed from the database every 5 seconds, see
+     * {@link ImageSenderOfPython#syncServers()}.
+     */
+    @Scheduled(fixedRate = 5000)
+    public void syncPythonServers() {
+        imageSenderOfPython.syncServers();
+    }
+
+    /**
+     * Registers a worker of a Python server, or renews its registration.
+     *
+     * @param host       the host of the server's main process
+     * @param port       the port of the server's main process
+     * @param workerPort the port of the worker
+     * @param queueSize  the queue size reported by the worker, or {@code null}
+     */
+    public void registerPythonWorker(String host, String port, int workerPort, String queueSize) {
+        imageSenderOfPython.registerWorker(host, port, workerPort, queueSize);
+    }
+
+    /**
+     * Removes the registration of a worker of a Python server.
+     *
+     * @param host       the host of the server's main process
+     * @param port       the port of the server's main process
+     * @param workerPort the port of the worker
+     * @return {@code true} if the worker was registered
+     */
+    public boolean deregisterPythonWorker(String host, String port, int workerPort) {
+        return imageSenderOfPython.deregisterWorker(host, port, workerPort);
+    }
+
+    /**
+     * @return the concurrency limit of every Python instance and of Roboflow
+     */
+    public List<ConcurrencyLimitDto> getConcurrencyLimits() {
+        List<ConcurrencyLimitDto> limits = new ArrayList<>(imageSenderOfPython.getConcurrencyLimits());
+        limits.add(imageSenderOfRoboflow.getConcurrencyLimit());
+        return limits;
+    }
+
+    /**
+     * @return the state of the live and video-job frame batchers of every Python server
+     */
+    public List<FrameBatchStatsDto> getFrameBatchStats() {
+        return imageSenderOfPython.getFrameBatchStats();
+    }
+
+    /**
+     * @return the health of every instance of every Python server
+     */
+    public List<PythonInstanceHealthDto> getPythonInstanceHealth() {
+        return imageSenderOfPython.getInstanceHealth();
+    }
+
+    /**
+     * Closes the pooled connections to the Python servers and stops the inference threads when the application shuts
+     * down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        pythonHttpClient.close();
+        inferenceExecutor.shutdown();
+        pythonHedgeExecutor.shutdown();
+    }
+
+    /**
+     * Creates the priority lanes of one backend, sized by the configuration.
+     *
+     * @param configService the configuration service providing the capacity and the reserved share
+     * @param limit         the adaptive limit further capping the capacity while enabled, or {@code null}
+     * @return the lanes
+     */
+    private static InferenceLanes newInferenceLanes(ConfigService configService, ConcurrencyLimit limit) {
+        return new InferenceLanes(() -> {
+            int capacity = Integer.parseInt(configService.getInferenceLaneCapacity());
+            return limit != null && limit.isEnabled() ? Math.min(capacity, limit.get()) : capacity;
+        }, () -> Double.parseDouble(configService.getInferenceBatchReservedShare()));
+    }
+
+    /**
+     * Creates a daemon thread factory for the pipeline pools.
+     *
+     * @param prefix the thread name prefix
+     * @return a thread factory naming threads {@code prefix + N}
+     */
+    private static CustomizableThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
     /**
      * Reads a video file from disk and sends each frame to the model for recognition.
      * <br> This process uses:
      * <ul>
      *     <li>OpenCV's {@link VideoCapture} to read frames from the file.</li>
      *     <li>The frame-skip interval from {@link ConfigService} to potentially skip frames.</li>
-     *     <li>An asynchronous sending mechanism:
-     *         see {@code #sendFrameAsync(Mat, String, Map)} for details on how frames are actually recognized.</li>
+     *     <li>A {@link FramePipeline} that decodes, encodes, infers and collects frames in bounded stages; decoding
+     *         slows down whenever inference falls behind.</li>
+     *     <li>The {@link InferenceCacheService}, which provides the results of frames already processed with the same
+     *         model, preprocessing, encoding and frame interval.</li>
+     *     <li>A {@link FramePreprocessor} cropping and scaling every frame before it is encoded; results are mapped
+     *         back to original frame coordinates.</li>
+     *     <li>The {@link EventPushService}, which pushes each frame result and the progress to the user's clients.</li>
      * </ul>
      *
      * @param file  the video {@link File} to process
      * @param user  the user identifier (used for tracking progress and for cancellations)
      * @param config additional configuration parameters (e.g., host and port for the recognition service)
      * @param imageSender the image sender.
+     * @param model the model descriptor (see {@link ConfigService#getUseModel(String)}), part of the cache key.
+     * @param preprocessConfig the preprocessing of the preset (see {@link ConfigService#getPreprocessConfig(String)}),
+     *                         part of the cache key.
      * @return a {@link Map} where each key is the frame timestamp (in ms), and each value is a list of recognition results
      * @throws IOException if the video file cannot be opened or an error occurs in reading frames
      *
@@ -121,7 +327,32 @@ public class ImageSenderService {
      * @see Videoio#CAP_PROP_FRAME_COUNT
      * @see Videoio#CAP_PROP_FPS
      */
-    public Map<Long, List<? extends AbstractActionObservation>> sendVideoFile(File file, String user, Map<String, String> config, ImageSender imageSender) throws IOException {
+    public Map<Long, List<? extends AbstractActionObservation>> sendVideoFile(File file, String user, Map<String, String> config, ImageSender imageSender,
+                                                                     String model, PreprocessConfig preprocessConfig) throws IOException {
+        return sendVideoFile(file, user, user, config, imageSender, model, preprocessConfig);
+    }
+
+    /**
+     * Reads a video file from disk and sends each frame to the model for recognition, tracking it under its own key.
+     * <br> This is {@link #sendVideoFile(File, String, Map, ImageSender, String, PreprocessConfig)} for videos that are
+     * not the user's current video, such as the videos of a batch: the progress is kept in {@link #pipelineMetrics}
+     * under {@code trackingKey}, and frame events are only pushed to the user's clients when {@code trackingKey} is the
+     * user identifier. The in-flight permits are still those of the user.
+     *
+     * @param file             the video {@link File} to process
+     * @param user             the user identifier
+     * @param trackingKey      the key of the progress and of the in-flight requests, e.g. {@code "batch:<job id>"}
+     * @param config           additional configuration parameters (e.g., host and port for the recognition service)
+     * @param imageSender      the image sender.
+     * @param model            the model descriptor, part of the cache key.
+     * @param preprocessConfig the preprocessing of the preset, part of the cache key.
+     * @return a {@link Map} where each key is the frame timestamp (in ms), and each value is a list of recognition results
+     * @throws IOException if the video file cannot be opened or an error occurs in reading frames
+     */
+    public Map<Long, List<? extends AbstractActionObservation>> sendVideoFile(File file, String user, String trackingKey,
+                                                                     Map<String, String> config, ImageSender imageSender,
+                                                                     String model, PreprocessConfig preprocessConfig) throws IOException {
+        boolean pushEvents = trackingKey.equals(user);
         File dir = new File(configService.getVideoPath());
         if (!dir.exists()) {
             //noinspection ResultOfMethodCallIgnored
@@ -136,54 +367,76 @@ public class ImageSenderService {
             throw new IOException("Error opening video file");
         }
 
-        Mat frame = new Mat();
         Map<Long, List<? extends AbstractActionObservation>> observations = new ConcurrentHashMap<>();
 
         // Frame skipping logic
         int jump = Integer.parseInt(configService.getFrameInterval());
 
         // Calculate the total frames after skipping
-        long totalFrames = (long) videoCapture.get(Videoio.CAP_PROP_FRAME_COUNT) / jump;
-        totleFramesMap.put(user, totalFrames);
+        long frameCount = (long) videoCapture.get(Videoio.CAP_PROP_FRAME_COUNT);
+        long totalFrames = frameCount / jump;
         log.info("Total frames: {}", totalFrames);
 
-        progressMap.put(user, observations);
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        PipelineMetrics metrics = new PipelineMetrics(totalFrames);
+        pipelineMetrics.put(trackingKey, metrics);
 
-        int filter = 0; // Used to track skipped frames
-        long frameIndex = 0;
         double fps = videoCapture.get(Videoio.CAP_PROP_FPS);
         log.info("fps: {}", fps);
+        // The frame source opens its own readers
+        videoCapture.release();
 
-        // Read and process frames
-        while (videoCapture.read(frame)) {
-            if (frame.empty()) {
-                break; // End of video
+        // Cropping, scaling and lossy encoding change the results, so they are part of the cache key
+        String cacheModel = preprocessConfig.isEnabled() ? model + '\n' + preprocessConfig : model;
+        FrameEncoder encoder = FrameEncoder.of(config);
+        if (encoder != FrameEncoder.DEFAULT) {
+            cacheModel += '\n' + encoder.toString();
+        }
+        String videoHash = inferenceCacheService.isEnabled() ? inferenceCacheService.hashVideo(file) : null;
+        if (videoHash != null) {
+            observations.putAll(inferenceCacheService.load(videoHash, cacheModel, jump));
+            metrics.recordCached(observations.size());
+            if (pushEvents) {
+                eventPushService.publish(user, "progress", Map.of("processed", observations.size(), "total", totalFrames));
             }
-            filter++;
-            if (filter % jump != 0) {
-                continue;
+            if (totalFrames > 0 && observations.size() >= totalFrames) {
+                log.info("All {} frames of {} served from the inference cache", observations.size(), absolutePath);
+                metrics.finish();
+                return observations;
             }
-            Mat clonedFrame = new Mat();
-            frame.copyTo(clonedFrame);
-
-            CompletableFuture<List<AbstractActionObservation>> futureResult = imageSender.sendFrameAsync(clonedFrame, user, config);
-            long finalFrameIndex = frameIndex;
-
-            // Insert the recognition outcome into 'observations' when ready
-            CompletableFuture<Void> frameCompletion = futureResult.thenAccept(actionObs -> {
-                long frameTimestamp = (long) (finalFrameIndex * 1000 * jump / fps);
-                observations.put(frameTimestamp, actionObs);
-            });
+            log.info("{} frames of {} served from the inference cache", observations.size(), absolutePath);
+        }
 
-            futures.add(frameCompletion);
-            frameIndex++;
+        FrameSource source = new VideoFileFrameSource(absolutePath, jump, frameCount,
+                Integer.parseInt(configService.getDecodeParallelism()),
+                Integer.parseInt(configService.getFrameSeekThreshold()), decodeWorkers, matPool);
+        FramePipeline pipeline = new FramePipeline(imageSender, trackingKey, config,
+                Integer.parseInt(configService.getPipelineQueueCapacity()),
+                Integer.parseInt(configService.getPipelineEncodeParallelism()),
+                new FramePreprocessor(preprocessConfig, matPool),
+                matPool,
+                inFlightLimits.global(Integer.parseInt(configService.getPipelineInferInFlight())),
+                inFlightLimits.forUser(user, Integer.parseInt(configService.getPipelineInferInFlightPerUser())),
+                pipelineWorkers,
+                (timestamp, actionObs) -> {
+                    if (pushEvents) {
+                        eventPushService.publish(user, "frame", Map.of(
+                                "timestamp", timestamp,
+                                "observations", actionObs,
+                                "processed", observations.size(),
+                                "total", totalFrames));
+                    }
+                },
+                metrics);
+        // Decode, encode, infer and collect every sampled frame not served from the cache
+        try {
+            pipeline.run(source, jump, fps, observations);
+        } finally {
+            metrics.finish();
         }
 
-        // Cleanup resources
-        videoCapture.release();
-        // Wait for all recognition tasks to complete
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        if (videoHash != null) {
+            inferenceCacheService.store(videoHash, cacheModel, jump, observations);
+        }
 
         return observations;
     }
@@ -201,18 +454,37 @@ public class ImageSenderService {
      * @param timestamp    the timestamp or frame index (string) for identification
      * @param stateMachine the target state machine to update
      * @param config       additional configuration parameters for the sending logic
+     * @return the observations of the image
+     * @throws IOException if the inference of the image failed, was shed or was interrupted; the state machine is left
+     *                     untouched, since an unknown result is not the same as no detection
      * @see StateMachine
      */
-    public void processImg(String img,
+    public List<AbstractActionObservation> processImg(String img,
                            String timestamp,
                            StateMachine stateMachine,
-                           Map<String, String> config) {
+                           Map<String, String> config) throws IOException {
 
         ImageSender imageSender = getUseImageSender(stateMachine.getPreset().getName());
 
         // Step 1: Send the frame synchronously
         List<? extends AbstractActionObservation> actionObservations = imageSender.sendFrame(img, config);
 
+        // Steps 2 to 5: Record the observations and update the state machine
+        return applyObservations(stateMachine, Double.parseDouble(timestamp), actionObservations);
+    }
+
+    /**
+     * Adds the observations of one live frame to a {@link StateMachine} and updates its state probabilities.
+     *
+     * @param stateMachine       the target state machine to update
+     * @param timestamp          the frame timestamp, in milliseconds
+     * @param actionObservations the observations of the frame
+     * @return the observations, as {@link AbstractActionObservation}s
+     * @see StateMachine#updateStateProbability(List, double, ConfigService)
+     */
+    public List<AbstractActionObservation> applyObservations(StateMachine stateMachine,
+                                                             double timestamp,
+                                                             List<? extends AbstractActionObservation> actionObservations) {
         // Step 2: Retrieve or create the observations map in the state machine
         Map<Long, List<AbstractActionObservation>> existingObs = stateMachine.getObservations();
 
@@ -220,13 +492,14 @@ public class ImageSenderService {
         List<AbstractActionObservation> typedList =
                 actionObservations.stream().map(o -> (AbstractActionObservation) o).toList();
 
-        // Step 4: Use the parsed timestamp as a key
-        long timeKey = (long) Double.parseDouble(timestamp);
+        // Step 4: Use the timestamp as a key
+        long timeKey = (long) timestamp;
         existingObs.put(timeKey, typedList);
 
         // Step 5: Update the state machine's observation and state
         stateMachine.setObservations(existingObs);
-        stateMachine.updateStateProbability(typedList, Double.parseDouble(timestamp), configService);
+        stateMachine.updateStateProbability(typedList, timestamp, configService);
+        return typedList;
     }
 
     /**
@@ -0,0 +1,166 @@
+package nusri.fyp.demo.service.img_sender;
+
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.InferenceExecutorStatsDto;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * <b>The executor running the blocking inference requests, instead of {@link ForkJoinPool#commonPool()}.</b>
+ * <br>
+ * <p>An inference request blocks its thread for the whole HTTP call. On the common pool, a few of them were enough to
+ * take every worker, which starved parallel streams and every other user of the pool, and capped the requests in
+ * flight at the number of cores minus one. Requests run here instead, in one of two modes:</p>
+ * <ul>
+ *   <li><b>Platform threads</b> (default): a pool of {@code threads} threads named {@code inference-io-N}, resized when
+ *       the configured size changes, in front of a queue of {@code queueCapacity} tasks. A task submitted to a full
+ *       queue is rejected, and its future fails.</li>
+ *   <li><b>Virtual threads</b>: one virtual thread per request, when enabled and the runtime is JDK 21 or later;
+ *       otherwise the platform threads are used. Nothing queues then, since a blocked virtual thread costs little.</li>
+ * </ul>
+ * <p>The requests in flight are already bounded by the {@link InferenceLanes} and the concurrency limits, so the
+ * queue only fills if the pool is configured smaller than the lanes. Blocking work must not wait on other tasks of this
+ * executor, or a full pool could deadlock.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see InferenceExecutorStatsDto
+ */
+@Slf4j
+public class InferenceExecutor {
+
+    private final IntSupplier threads;
+    private final int queueCapacity;
+
+    /**
+     * The pool of platform threads; also the fallback of the virtual thread mode.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * The virtual-thread-per-task executor, or {@code null} when platform threads are used.
+     */
+    private final ExecutorService virtualThreads;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates the executor.
+     *
+     * @param threads        the number of platform threads, read on every submission
+     * @param queueCapacity  the number of tasks that may wait for a platform thread
+     * @param virtualThreads whether to run every task on its own virtual thread, if the runtime supports it
+     */
+    public InferenceExecutor(IntSupplier threads, int queueCapacity, boolean virtualThreads) {
+        this.threads = threads;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("inference-io-");
+        threadFactory.setDaemon(true);
+        int size = Math.max(1, threads.getAsInt());
+        this.pool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(this.queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+        this.virtualThreads = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    /**
+     * Runs a blocking task on this executor.
+     *
+     * @param task the task
+     * @param <T>  the result type
+     * @return a future completing with the result of the task, or failing with a {@link RejectedExecutionException} if
+     * the queue is full
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                active.incrementAndGet();
+                try {
+                    return task.get();
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                }
+            }, executor());
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return the current state of the executor
+     */
+    public InferenceExecutorStatsDto toDto() {
+        InferenceExecutorStatsDto dto = new InferenceExecutorStatsDto();
+        dto.setMode(virtualThreads != null ? "virtual" : "platform");
+        dto.setPoolSize(virtualThreads != null ? 0 : pool.getPoolSize());
+        dto.setMaxPoolSize(virtualThreads != null ? 0 : pool.getMaximumPoolSize());
+        dto.setActiveTasks(active.get());
+        dto.setQueueDepth(virtualThreads != null ? 0 : pool.getQueue().size());
+        dto.setQueueCapacity(queueCapacity);
+        dto.setCompleted(completed.sum());
+        dto.setRejected(rejected.sum());
+        return dto;
+    }
+
+    /**
+     * Stops accepting tasks; running ones complete.
+     */
+    public void shutdown() {
+        pool.shutdown();
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+        }
+    }
+
+    private Executor executor() {
+        if (virtualThreads != null) {
+            return virtualThreads;
+        }
+        resize();
+        return pool;
+    }
+
+    /**
+     * Follows the configured number of threads; like the pool of the video jobs, the maximum grows before the core
+     * size and shrinks after it.
+     */
+    private void resize() {
+        int size = Math.max(1, threads.getAsInt());
+        if (size == pool.getMaximumPoolSize()) {
+            return;
+        }
+        synchronized (pool) {
+            if (size > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(size);
+                pool.setCorePoolSize(size);
+            } else if (size < pool.getMaximumPoolSize()) {
+                pool.setCorePoolSize(size);
+                pool.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()}, which the Java 17 build cannot call directly.
+     *
+     * @return the executor, or {@code null} if the runtime has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads need JDK 21 or later (running {}), using platform threads",
+                    Runtime.version());
+            return null;
+        }
+    }
+}
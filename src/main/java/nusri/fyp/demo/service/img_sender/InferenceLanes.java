@@ -0,0 +1,330 @@
+package nusri.fyp.demo.service.img_sender;
+
+import nusri.fyp.demo.dto.InferenceLaneStatsDto;
+import nusri.fyp.demo.service.img_sender.pipeline.Ewma;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * <b>Priority lanes sharing the request slots of one inference backend between live frames and video jobs.</b>
+ * <br>
+ * <p>Live frames (posted to {@code /video/img} or read by a live stream) and the frames of offline video jobs are sent
+ * to the same Python instances or Roboflow connection. Without priorities, a large video job fills the backend and a
+ * live frame waits behind hundreds of video frames. Every request therefore takes one of {@code capacity} slots, in one
+ * of two {@link Lane}s:</p>
+ * <ul>
+ *   <li>{@link Lane#LIVE}: whenever a slot frees up, a waiting live request takes it first.</li>
+ *   <li>{@link Lane#BATCH}: a video-job request only starts when no live request is waiting, except within its
+ *       {@code reserved} share of {@code capacity}, which live requests leave to it while it has work, so that
+ *       video jobs never starve under continuous live load.</li>
+ * </ul>
+ * <p>A request that is already running is never interrupted: live frames preempt video frames at the next free slot.
+ * Requests of the same lane start in submission order. The capacity and reserved share are read on every decision, so
+ * they can be reconfigured while requests are waiting.</p>
+ * <p>Each lane counts its requests and keeps moving averages of the time spent waiting for a slot and running, see
+ * {@link #toDto(String)}.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ImageSender
+ * @see InferenceLaneStatsDto
+ */
+public class InferenceLanes {
+
+    /**
+     * The configuration map key holding the lane of the frames sent with it; absent means {@link Lane#BATCH} for
+     * asynchronous sends.
+     */
+    public static final String CONFIG_KEY = "lane";
+
+    /**
+     * The priority classes of inference requests.
+     */
+    public enum Lane {
+        LIVE, BATCH;
+
+        /**
+         * Returns the lane of a model configuration.
+         *
+         * @param config the model configuration, see {@link #CONFIG_KEY}
+         * @return the configured lane, or {@link #BATCH}
+         */
+        public static Lane of(Map<String, String> config) {
+            return LIVE.name().equalsIgnoreCase(config.get(CONFIG_KEY)) ? LIVE : BATCH;
+        }
+    }
+
+    private final IntSupplier capacity;
+    private final DoubleSupplier batchReservedShare;
+
+    private final LaneState live = new LaneState(Lane.LIVE);
+    private final LaneState batch = new LaneState(Lane.BATCH);
+
+    /**
+     * Creates the lanes of one backend.
+     *
+     * @param capacity           the number of requests the backend may run at the same time
+     * @param batchReservedShare the share of {@code capacity}, from 0 to 1, kept for video jobs while they have work
+     */
+    public InferenceLanes(IntSupplier capacity, DoubleSupplier batchReservedShare) {
+        this.capacity = capacity;
+        this.batchReservedShare = batchReservedShare;
+    }
+
+    /**
+     * Starts an asynchronous request once the lane is granted a slot; the slot is freed when the request completes.
+     * <br> Cancelling the returned future before the request started removes it from the lane; afterwards it cancels
+     * the request's own future.
+     *
+     * @param lane    the lane of the request
+     * @param request starts the request, called at most once, possibly on the thread completing another request
+     * @param <T>     the result type
+     * @return a future completing with the request
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Pending pending = new Pending(lane, startNanos -> {
+            if (result.isDone()) {
+                // Cancelled while waiting, just after being granted a slot
+                release(lane, startNanos);
+                return;
+            }
+            CompletableFuture<T> future;
+            try {
+                future = request.get();
+            } catch (RuntimeException e) {
+                release(lane, startNanos);
+                result.completeExceptionally(e);
+                return;
+            }
+            future.whenComplete((value, e) -> {
+                release(lane, startNanos);
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+            result.whenComplete((value, e) -> {
+                if (result.isCancelled()) {
+                    future.cancel(true);
+                }
+            });
+        });
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled()) {
+                withdraw(pending);
+            }
+        });
+        enqueue(pending);
+        return result;
+    }
+
+    /**
+     * Runs a synchronous request on the calling thread once the lane is granted a slot.
+     *
+     * @param lane    the lane of the request
+     * @param request the request
+     * @param <T>     the result type
+     * @return the result of the request
+     * @throws InterruptedException if interrupted while waiting for a slot; the request did not run then
+     */
+    public <T> T call(Lane lane, Supplier<T> request) throws InterruptedException {
+        CompletableFuture<Long> granted = new CompletableFuture<>();
+        Pending pending = new Pending(lane, startNanos -> {
+            if (!granted.complete(startNanos)) {
+                release(lane, startNanos);
+            }
+        });
+        enqueue(pending);
+        long startNanos;
+        try {
+            startNanos = granted.get();
+        } catch (InterruptedException e) {
+            if (!granted.cancel(false)) {
+                // Granted in the meantime: hand the slot back
+                release(lane, granted.join());
+            } else {
+                withdraw(pending);
+            }
+            throw e;
+        } catch (ExecutionException | CancellationException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            return request.get();
+        } finally {
+            release(lane, startNanos);
+        }
+    }
+
+    /**
+     * @param backend the name of the backend, e.g. {@code python}
+     * @return the state of each lane
+     */
+    public List<InferenceLaneStatsDto> toDto(String backend) {
+        synchronized (this) {
+            int capacity = capacity();
+            int reserved = reserved(capacity);
+            return List.of(live.toDto(backend, capacity, reserved), batch.toDto(backend, capacity, reserved));
+        }
+    }
+
+    private void enqueue(Pending pending) {
+        LaneState state = state(pending.lane);
+        state.submitted.increment();
+        boolean granted;
+        synchronized (this) {
+            // Within a lane, requests start in submission order
+            granted = state.waiting.isEmpty() && canStart(pending.lane);
+            if (granted) {
+                state.running++;
+            } else {
+                state.waiting.addLast(pending);
+            }
+        }
+        if (granted) {
+            pending.start();
+        }
+    }
+
+    private void withdraw(Pending pending) {
+        synchronized (this) {
+            state(pending.lane).waiting.remove(pending);
+        }
+        // The withdrawn request may have been what held video jobs back
+        startWaiting();
+    }
+
+    private void release(Lane lane, long startNanos) {
+        LaneState state = state(lane);
+        state.latencyMs.update((System.nanoTime() - startNanos) / 1e6);
+        state.completed.increment();
+        synchronized (this) {
+            state.running--;
+        }
+        startWaiting();
+    }
+
+    /**
+     * Grants the free slots to waiting requests, live requests first, and starts them outside the lock.
+     */
+    private void startWaiting() {
+        List<Pending> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (true) {
+                if (!live.waiting.isEmpty() && canStart(Lane.LIVE)) {
+                    toStart.add(live.waiting.pollFirst());
+                    live.running++;
+                } else if (!batch.waiting.isEmpty() && canStart(Lane.BATCH)) {
+                    toStart.add(batch.waiting.pollFirst());
+                    batch.running++;
+                } else {
+                    break;
+                }
+            }
+        }
+        toStart.forEach(Pending::start);
+    }
+
+    /**
+     * Must be called with the lock held.
+     *
+     * @param lane the lane
+     * @return whether a request of the lane may take a slot now
+     */
+    private boolean canStart(Lane lane) {
+        int capacity = capacity();
+        if (live.running + batch.running >= capacity) {
+            return false;
+        }
+        int reserved = reserved(capacity);
+        if (lane == Lane.LIVE) {
+            int batchDemand = batch.running + batch.waiting.size();
+            return live.running < capacity - Math.min(reserved, batchDemand);
+        }
+        return live.waiting.isEmpty() || batch.running < reserved;
+    }
+
+    private int capacity() {
+        return Math.max(1, capacity.getAsInt());
+    }
+
+    private int reserved(int capacity) {
+        double share = Math.min(1, Math.max(0, batchReservedShare.getAsDouble()));
+        return (int) Math.floor(capacity * share);
+    }
+
+    private LaneState state(Lane lane) {
+        return lane == Lane.LIVE ? live : batch;
+    }
+
+    /**
+     * The waiting requests and counters of one lane; {@link #waiting} and {@link #running} are guarded by the
+     * {@link InferenceLanes} lock.
+     */
+    private static class LaneState {
+        private final Lane lane;
+        private final Deque<Pending> waiting = new ArrayDeque<>();
+        private int running;
+
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final Ewma waitMs = new Ewma();
+        private final Ewma latencyMs = new Ewma();
+
+        private LaneState(Lane lane) {
+            this.lane = lane;
+        }
+
+        private InferenceLaneStatsDto toDto(String backend, int capacity, int reserved) {
+            InferenceLaneStatsDto dto = new InferenceLaneStatsDto();
+            dto.setBackend(backend);
+            dto.setLane(lane.name());
+            dto.setCapacity(capacity);
+            dto.setReserved(reserved);
+            dto.setWaiting(waiting.size());
+            dto.setRunning(running);
+            dto.setSubmitted(submitted.sum());
+            dto.setCompleted(completed.sum());
+            dto.setWaitMs(waitMs.get());
+            dto.setLatencyMs(latencyMs.get());
+            return dto;
+        }
+    }
+
+    /**
+     * A request waiting for a slot.
+     */
+    private class Pending {
+        private final Lane lane;
+        private final long queuedNanos = System.nanoTime();
+
+        /**
+         * Starts the request, given the time it was granted its slot.
+         */
+        private final LongConsumer starter;
+
+        private Pending(Lane lane, LongConsumer starter) {
+            this.lane = lane;
+            this.starter = starter;
+        }
+
+        /**
+         * Starts the request; its slot must already be counted as running.
+         */
+        private void start() {
+            long startNanos = System.nanoTime();
+            state(lane).waitMs.update((startNanos - queuedNanos) / 1e6);
+            starter.accept(startNanos);
+        }
+    }
+}
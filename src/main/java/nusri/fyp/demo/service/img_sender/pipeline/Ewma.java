@@ -0,0 +1,44 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <b>An exponentially weighted moving average updated with compare-and-set.</b>
+ * <br> Recording a sample never blocks, so it can be updated from every thread completing a frame.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see PipelineMetrics
+ */
+public class Ewma {
+
+    /**
+     * The weight of the newest sample.
+     */
+    private static final double ALPHA = 0.2;
+
+    private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+    /**
+     * Adds a sample to the average.
+     *
+     * @param sample the sample
+     */
+    public void update(double sample) {
+        long previous;
+        long next;
+        do {
+            previous = bits.get();
+            double average = Double.longBitsToDouble(previous);
+            next = Double.doubleToRawLongBits(Double.isNaN(average) ? sample : average + ALPHA * (sample - average));
+        } while (!bits.compareAndSet(previous, next));
+    }
+
+    /**
+     * @return the average, or {@code 0} before the first sample
+     */
+    public double get() {
+        double average = Double.longBitsToDouble(bits.get());
+        return Double.isNaN(average) ? 0 : average;
+    }
+}
@@ -0,0 +1,544 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.service.img_sender.ImageSender;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * <b>Bounded, staged pipeline that turns one video into per-frame recognition results.</b>
+ * <br>
+ * <p>Frames flow through four stages:</p>
+ * <ol>
+ *   <li><b>Decode:</b> a {@link FrameSource} driven by the calling thread produces every {@code jump}-th frame of the
+ *       video, possibly decoding several parts of it in parallel.</li>
+ *   <li><b>Encode:</b> {@code encodeParallelism} workers crop and scale frames with a {@link FramePreprocessor},
+ *       encode them with {@link ImageSender#encodeFrame(Mat, Map)} and hand the decoded {@link Mat} back to the
+ *       {@link MatPool} right after.</li>
+ *   <li><b>Infer:</b> a dispatcher sends encoded frames with
+ *       {@link ImageSender#sendEncodedFrameAsync(byte[], String, Map)}, holding one global and one per-user permit
+ *       (see {@link InFlightLimits}) until the result arrives.</li>
+ *   <li><b>Collect:</b> each result is mapped back to original frame coordinates, stored in the timestamp-keyed
+ *       observation map as soon as it completes, and passed to the result listener.</li>
+ * </ol>
+ * <p>The stages are connected by bounded queues. A full queue blocks the stage that feeds it, so when inference falls
+ * behind the decoder stops reading. At most {@code 2 * queueCapacity + encodeParallelism + inFlight} frames exist at
+ * any time, regardless of the length of the video. Their {@link Mat}s come from a {@link MatPool} and are reused by
+ * later frames, so native memory stays flat across frames and jobs.</p>
+ * <p>Every stage records its progress in a {@link PipelineMetrics}, from which throughput, latency and ETA are
+ * derived while the job runs.</p>
+ * <p>Frames whose timestamp is already present in the observation map are skipped right after decoding.</p>
+ * <p>A frame whose inference failed, e.g. every instance timed out, is counted as failed and left out of the observation
+ * map, so that it is never taken for a frame without detections, nor cached as one; the job goes on with the other
+ * frames. If every frame sent failed, {@link #run(FrameSource, int, double, Map)} throws.</p>
+ * <p>If any stage fails, every stage stops within {@link #POLL_INTERVAL_MS} milliseconds, the remaining frames are
+ * handed back to the {@link MatPool} and {@link #run(FrameSource, int, double, Map)} throws. The frames still in flight
+ * are cancelled at once: a frame waiting for a request slot leaves its lane, and a frame being sent has its HTTP call
+ * aborted, so the inference capacity they held is free for other jobs right away. Interrupting the calling thread, e.g.
+ * by cancelling its video job, or cancelling one of the frames, as {@link ImageSender#interrupt(String)} does, fails the
+ * pipeline the same way.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see InFlightLimits
+ * @see ImageSender
+ */
+@Slf4j
+public class FramePipeline {
+
+    /**
+     * How long a stage waits on a queue before re-checking whether the pipeline has failed.
+     */
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final ImageSender imageSender;
+    private final String user;
+    private final Map<String, String> config;
+    private final int encodeParallelism;
+    private final FramePreprocessor preprocessor;
+    private final MatPool matPool;
+    private final Semaphore inferPermits;
+    private final Semaphore userPermits;
+    private final ExecutorService workers;
+
+    /**
+     * Notified with the timestamp and observations of every frame as soon as its result is collected.
+     */
+    private final BiConsumer<Long, List<AbstractActionObservation>> resultListener;
+
+    /**
+     * The counters of this job, updated by every stage.
+     */
+    private final PipelineMetrics metrics;
+
+    /**
+     * Decoded frames waiting to be encoded.
+     */
+    private final BlockingQueue<DecodedFrame> decodedFrames;
+
+    /**
+     * Encoded frames waiting to be sent.
+     */
+    private final BlockingQueue<EncodedFrame> encodedFrames;
+
+    /**
+     * Tracks the frames that have been sent but whose result has not been collected yet.
+     * <br> The infer stage is registered as one party; every in-flight frame registers another.
+     */
+    private final Phaser inFlight = new Phaser(1);
+
+    /**
+     * The results of the frames that have been sent and not collected yet, cancelled if the pipeline fails.
+     */
+    private final Set<CompletableFuture<?>> sent = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The first error raised by any stage, or {@code null} while the pipeline is healthy.
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * The frames whose inference failed, and the frames whose result was collected.
+     */
+    private final AtomicInteger failedFrames = new AtomicInteger();
+    private final AtomicInteger collectedFrames = new AtomicInteger();
+
+    /**
+     * The first inference failure, reported if every frame failed.
+     */
+    private final AtomicReference<Throwable> firstFrameFailure = new AtomicReference<>();
+
+    /**
+     * Creates a pipeline for a single video job.
+     *
+     * @param imageSender       the sender used to encode and infer frames
+     * @param user              the user identifier, or the tracking key of the job, under which requests are tracked
+     * @param config            the sender configuration (host, workflow, ...)
+     * @param queueCapacity     the capacity of each queue between stages
+     * @param encodeParallelism the number of encode workers
+     * @param preprocessor      the crop and resize applied to every frame before encoding
+     * @param matPool           the pool the decoded frames are handed back to
+     * @param inferPermits      the global in-flight permits
+     * @param userPermits       the in-flight permits of this user
+     * @param workers           the executor running the encode and infer stages
+     * @param resultListener    notified of every collected result, on the thread completing the inference
+     * @param metrics           the counters updated by the stages
+     */
+    public FramePipeline(ImageSender imageSender,
+                         String user,
+                         Map<String, String> config,
+                         int queueCapacity,
+                         int encodeParallelism,
+                         FramePreprocessor preprocessor,
+                         MatPool matPool,
+                         Semaphore inferPermits,
+                         Semaphore userPermits,
+                         ExecutorService workers,
+                         BiConsumer<Long, List<AbstractActionObservation>> resultListener,
+                         PipelineMetrics metrics) {
+        this.imageSender = imageSender;
+        this.user = user;
+        this.config = config;
+        this.encodeParallelism = Math.max(1, encodeParallelism);
+        this.preprocessor = preprocessor;
+        this.matPool = matPool;
+        this.inferPermits = inferPermits;
+        this.userPermits = userPermits;
+        this.workers = workers;
+        this.resultListener = resultListener;
+        this.metrics = metrics;
+        this.decodedFrames = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.encodedFrames = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+
+    /**
+     * Runs the pipeline over the given video until every sampled frame has been collected.
+     *
+     * @param source       the decoder of the video
+     * @param jump         the frame interval the source samples with
+     * @param fps          the frame rate of the video, used to compute frame timestamps
+     * @param observations the map receiving the results, keyed by frame timestamp (ms)
+     * @return {@code observations}, without the frames whose inference failed
+     * @throws IOException if any stage fails, the calling thread is interrupted or the inference of every frame failed
+     */
+    public Map<Long, List<? extends AbstractActionObservation>> run(FrameSource source,
+                                                                    int jump,
+                                                                    double fps,
+                                                                    Map<Long, List<? extends AbstractActionObservation>> observations)
+            throws IOException {
+        List<Future<?>> stages = new ArrayList<>();
+        AtomicInteger liveEncoders = new AtomicInteger(encodeParallelism);
+        for (int i = 0; i < encodeParallelism; i++) {
+            stages.add(workers.submit(() -> encodeStage(liveEncoders)));
+        }
+        stages.add(workers.submit(() -> inferStage(jump, fps, observations)));
+
+        try {
+            decodeStage(source, jump, fps, observations);
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(e);
+        } catch (IOException e) {
+            abort(e);
+        } catch (ExecutionException e) {
+            abort(e.getCause());
+        } finally {
+            stages.forEach(stage -> stage.cancel(true));
+            if (failure.get() != null) {
+                cancelInFlight();
+            }
+            decodedFrames.forEach(this::release);
+            decodedFrames.clear();
+            encodedFrames.clear();
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof InterruptedException) {
+            throw new InterruptedIOException("Frame pipeline of " + user + " was interrupted");
+        }
+        if (error != null) {
+            throw new IOException("Frame pipeline of " + user + " failed: " + error.getMessage(), error);
+        }
+        int failed = failedFrames.get();
+        if (failed > 0 && collectedFrames.get() == 0) {
+            Throwable cause = firstFrameFailure.get();
+            throw new IOException("Inference of all " + failed + " frames of " + user + " failed: "
+                    + cause.getMessage(), cause);
+        }
+        if (failed > 0) {
+            log.warn("Inference of {} frames of {} failed; they are left out of the results", failed, user);
+        }
+        return observations;
+    }
+
+    /**
+     * Decode stage: hands every sampled frame of {@code source} to the encode stage.
+     * <br> Frames whose timestamp is already in {@code observations}, e.g. served from a cache, are dropped here.
+     *
+     * @param source       the decoder of the video
+     * @param jump         the frame interval
+     * @param fps          the frame rate of the video
+     * @param observations the map receiving the results
+     * @throws IOException          if the video cannot be read
+     * @throws InterruptedException if interrupted while waiting for space in the queue
+     */
+    private void decodeStage(FrameSource source,
+                             int jump,
+                             double fps,
+                             Map<Long, List<? extends AbstractActionObservation>> observations)
+            throws IOException, InterruptedException {
+        source.decode((index, frame) -> {
+            if (observations.containsKey(timestamp(index, jump, fps))) {
+                matPool.release(frame);
+                return true;
+            }
+            metrics.recordDecoded();
+            DecodedFrame decoded = new DecodedFrame(index, frame);
+            if (!offer(decodedFrames, decoded)) {
+                release(decoded);
+                return false;
+            }
+            return true;
+        });
+        if (failure.get() != null) {
+            return;
+        }
+        // One end marker per encode worker
+        for (int i = 0; i < encodeParallelism; i++) {
+            if (!offer(decodedFrames, DecodedFrame.END)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encode stage: preprocesses and encodes decoded frames, and hands their {@link Mat} back to the pool.
+     * <br> The last worker to finish tells the infer stage that no more frames will come.
+     *
+     * @param liveEncoders the number of encode workers still running
+     */
+    private void encodeStage(AtomicInteger liveEncoders) {
+        try {
+            DecodedFrame frame;
+            while ((frame = poll(decodedFrames)) != null && frame != DecodedFrame.END) {
+                byte[] encoded;
+                FrameTransform transform;
+                long encodeStart = System.nanoTime();
+                try {
+                    FramePreprocessor.PreprocessedFrame preprocessed = preprocessor.apply(frame.mat);
+                    try {
+                        encoded = imageSender.encodeFrame(preprocessed.getMat(), config);
+                        transform = preprocessed.getTransform();
+                    } finally {
+                        preprocessed.release();
+                    }
+                } finally {
+                    release(frame);
+                }
+                metrics.recordEncoded(System.nanoTime() - encodeStart);
+                if (!offer(encodedFrames, new EncodedFrame(frame.index, encoded, transform))) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(e);
+        } catch (RuntimeException e) {
+            abort(e);
+        } finally {
+            if (liveEncoders.decrementAndGet() == 0) {
+                try {
+                    offer(encodedFrames, EncodedFrame.END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Infer stage: sends encoded frames while permits are available, and collects their results on completion.
+     * <br> Returns once every sent frame has been collected.
+     *
+     * @param jump         the frame interval
+     * @param fps          the frame rate of the video
+     * @param observations the map receiving the results
+     */
+    private void inferStage(int jump, double fps, Map<Long, List<? extends AbstractActionObservation>> observations) {
+        try {
+            EncodedFrame frame;
+            while ((frame = poll(encodedFrames)) != null && frame != EncodedFrame.END) {
+                userPermits.acquire();
+                try {
+                    inferPermits.acquire();
+                } catch (InterruptedException e) {
+                    userPermits.release();
+                    throw e;
+                }
+                inFlight.register();
+
+                long frameTimestamp = timestamp(frame.index, jump, fps);
+                FrameTransform transform = frame.transform;
+                CompletableFuture<List<AbstractActionObservation>> futureResult;
+                long sendStart = System.nanoTime();
+                try {
+                    futureResult = imageSender.sendEncodedFrameAsync(frame.bytes, user, config);
+                } catch (RuntimeException e) {
+                    releasePermits();
+                    throw e;
+                }
+                metrics.recordSent();
+                sent.add(futureResult);
+                // Collect stage: insert the recognition outcome into 'observations' when ready
+                futureResult.whenComplete((actionObs, ex) -> {
+                    try {
+                        if (ex != null) {
+                            metrics.recordFailed();
+                            Throwable cause = ex instanceof CompletionException && ex.getCause() != null
+                                    ? ex.getCause() : ex;
+                            if (cause instanceof CancellationException) {
+                                abort(cause);
+                            } else {
+                                // Not an empty result: leave the frame out, so it is inferred again next time
+                                failedFrames.incrementAndGet();
+                                firstFrameFailure.compareAndSet(null, cause);
+                                log.debug("Inference of frame {} of {} failed: {}", frameTimestamp, user,
+                                        cause.toString());
+                            }
+                        } else {
+                            collectedFrames.incrementAndGet();
+                            metrics.recordCompleted(System.nanoTime() - sendStart);
+                            transform.toOriginal(actionObs);
+                            observations.put(frameTimestamp, actionObs);
+                            notifyResult(frameTimestamp, actionObs);
+                        }
+                    } finally {
+                        sent.remove(futureResult);
+                        releasePermits();
+                    }
+                });
+                if (failure.get() != null) {
+                    // Failed while this frame was being sent, after the others were cancelled
+                    futureResult.cancel(true);
+                }
+            }
+            awaitInFlight();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort(e);
+        } catch (RuntimeException e) {
+            abort(e);
+        }
+    }
+
+    /**
+     * Passes a collected result to the listener; a failing listener never fails the pipeline.
+     *
+     * @param frameTimestamp the timestamp of the frame
+     * @param actionObs      the observations of the frame
+     */
+    private void notifyResult(long frameTimestamp, List<AbstractActionObservation> actionObs) {
+        try {
+            resultListener.accept(frameTimestamp, actionObs);
+        } catch (RuntimeException e) {
+            log.warn("Result listener of {} failed: {}", user, e.toString());
+        }
+    }
+
+    /**
+     * Computes the timestamp of a sampled frame.
+     *
+     * @param index the index of the frame among the sampled frames
+     * @param jump  the frame interval
+     * @param fps   the frame rate of the video
+     * @return the timestamp in milliseconds
+     */
+    private static long timestamp(long index, int jump, double fps) {
+        return (long) (index * 1000 * jump / fps);
+    }
+
+    /**
+     * Waits until every in-flight frame has been collected, or until the pipeline fails.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void awaitInFlight() throws InterruptedException {
+        int phase = inFlight.arrive();
+        while (failure.get() == null) {
+            try {
+                inFlight.awaitAdvanceInterruptibly(phase, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException ignored) {
+                // Check for failure and keep waiting
+            }
+        }
+    }
+
+    /**
+     * Hands the {@link Mat} of a decoded frame back to the pool.
+     *
+     * @param frame the decoded frame, or an end marker
+     */
+    private void release(DecodedFrame frame) {
+        matPool.release(frame.mat);
+    }
+
+    /**
+     * Returns the permits held by one in-flight frame.
+     */
+    private void releasePermits() {
+        inferPermits.release();
+        userPermits.release();
+        inFlight.arriveAndDeregister();
+    }
+
+    /**
+     * Marks the pipeline as failed, keeping the first error.
+     *
+     * @param error the error raised by a stage
+     */
+    private void abort(Throwable error) {
+        if (failure.compareAndSet(null, error)) {
+            log.warn("Frame pipeline of {} aborted: {}", user, error.toString());
+            cancelInFlight();
+        }
+    }
+
+    /**
+     * Cancels every frame in flight; their permits are returned as they complete, which cancelling does at once.
+     */
+    private void cancelInFlight() {
+        for (CompletableFuture<?> future : List.copyOf(sent)) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Puts an item into a queue, waiting for space unless the pipeline fails.
+     *
+     * @param queue the target queue
+     * @param item  the item to put
+     * @param <T>   the item type
+     * @return {@code true} if the item was queued, {@code false} if the pipeline failed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private <T> boolean offer(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (failure.get() == null) {
+            if (queue.offer(item, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes an item from a queue, waiting for one unless the pipeline fails.
+     *
+     * @param queue the source queue
+     * @param <T>   the item type
+     * @return the item, or {@code null} if the pipeline failed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private <T> T poll(BlockingQueue<T> queue) throws InterruptedException {
+        while (failure.get() == null) {
+            T item = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A decoded frame and its index among the sampled frames.
+     */
+    private static class DecodedFrame {
+        /**
+         * Marks the end of the decoded frames.
+         */
+        private static final DecodedFrame END = new DecodedFrame(-1, null);
+
+        private final long index;
+        private final Mat mat;
+
+        private DecodedFrame(long index, Mat mat) {
+            this.index = index;
+            this.mat = mat;
+        }
+    }
+
+    /**
+     * An encoded frame, its index among the sampled frames and its transform back to the decoded frame.
+     */
+    private static class EncodedFrame {
+        /**
+         * Marks the end of the encoded frames.
+         */
+        private static final EncodedFrame END = new EncodedFrame(-1, null, FrameTransform.IDENTITY);
+
+        private final long index;
+        private final byte[] bytes;
+        private final FrameTransform transform;
+
+        private EncodedFrame(long index, byte[] bytes, FrameTransform transform) {
+            this.index = index;
+            this.bytes = bytes;
+            this.transform = transform;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.entity.PreprocessConfig;
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * <b>Crops frames to a region of interest and scales them down to the model input size before encoding.</b>
+ * <br>
+ * <p>Most of a workbench camera frame is background, and models rescale their input anyway, so sending the full
+ * resolution frame only costs encode time and payload size. The preprocessor applies a {@link PreprocessConfig}:</p>
+ * <ol>
+ *   <li>Crop to the fixed region, or to the region detected from motion when {@code autoRoi} is set. Cropping takes a
+ *       view of the frame and copies nothing.</li>
+ *   <li>Scale the region down with {@link Imgproc#INTER_AREA} to fit the target size, keeping its aspect ratio, into
+ *       a {@link Mat} of the {@link MatPool}. Frames already small enough are never scaled up.</li>
+ * </ol>
+ * <p>Automatic detection accumulates, over the first {@code autoRoiFrames} frames, the pixels whose grey level
+ * changes between consecutive frames, on a copy reduced to {@value #MOTION_WIDTH} pixels wide. The bounding box of
+ * the moving pixels, widened by {@code autoRoiMargin}, becomes the region for every later frame. Frames seen during
+ * detection are sent uncropped. If nothing moved, frames are never cropped.</p>
+ * <p>Each result comes with the {@link FrameTransform} mapping prediction coordinates back to the original frame.
+ * One instance serves one video or live stream and may be shared by concurrent encode workers.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see PreprocessConfig
+ * @see FrameTransform
+ */
+@Slf4j
+public class FramePreprocessor {
+
+    /**
+     * The width of the grey frames compared for motion detection.
+     */
+    private static final int MOTION_WIDTH = 320;
+
+    /**
+     * The grey-level change above which a pixel counts as moving.
+     */
+    private static final double MOTION_THRESHOLD = 25;
+
+    /**
+     * A detected region covering more than this fraction of the frame is not worth cropping to.
+     */
+    private static final double MAX_ROI_AREA = 0.9;
+
+    private final PreprocessConfig config;
+    private final MatPool matPool;
+
+    /**
+     * Whether automatic detection has finished; the region is then fixed.
+     */
+    private volatile boolean detected;
+
+    /**
+     * The detected region, or {@code null} for the whole frame.
+     */
+    private volatile Rect detectedRoi;
+
+    private Mat previousGray;
+    private Mat motion;
+    private int motionFrames;
+
+    /**
+     * Creates a preprocessor for one video or live stream.
+     *
+     * @param config  the preprocessing configuration of the preset
+     * @param matPool the pool providing the {@link Mat}s scaled frames are written to
+     */
+    public FramePreprocessor(PreprocessConfig config, MatPool matPool) {
+        this.config = config;
+        this.matPool = matPool;
+        this.detected = !config.isAutoRoi() || config.hasFixedRoi();
+    }
+
+    /**
+     * Crops and scales a frame.
+     *
+     * @param frame the decoded frame, left untouched
+     * @return the frame to encode and its transform, to be released with {@link PreprocessedFrame#release()}
+     */
+    public PreprocessedFrame apply(Mat frame) {
+        if (!config.isEnabled()) {
+            return new PreprocessedFrame(frame, null, false, FrameTransform.IDENTITY);
+        }
+        Rect roi = roi(frame);
+        Mat region = roi == null ? frame : frame.submat(roi);
+        int offsetX = roi == null ? 0 : roi.x;
+        int offsetY = roi == null ? 0 : roi.y;
+
+        double scale = scale(region.cols(), region.rows());
+        if (scale >= 1) {
+            if (region == frame) {
+                return new PreprocessedFrame(frame, null, false, FrameTransform.IDENTITY);
+            }
+            // The cropped view shares the frame's buffer; releasing it frees nothing
+            return new PreprocessedFrame(region, null, true, new FrameTransform(offsetX, offsetY, 1, 1));
+        }
+        Mat output = matPool.acquire();
+        Imgproc.resize(region, output,
+                new Size(Math.max(1, Math.round(region.cols() * scale)), Math.max(1, Math.round(region.rows() * scale))),
+                0, 0, Imgproc.INTER_AREA);
+        FrameTransform transform = new FrameTransform(offsetX, offsetY,
+                (double) output.cols() / region.cols(), (double) output.rows() / region.rows());
+        if (region != frame) {
+            region.release();
+        }
+        return new PreprocessedFrame(output, matPool, true, transform);
+    }
+
+    /**
+     * Computes the factor fitting a region into the target size.
+     *
+     * @param width  the width of the region
+     * @param height the height of the region
+     * @return the scale factor, at most {@code 1}
+     */
+    private double scale(int width, int height) {
+        double scale = 1;
+        if (config.getTargetWidth() > 0) {
+            scale = Math.min(scale, (double) config.getTargetWidth() / width);
+        }
+        if (config.getTargetHeight() > 0) {
+            scale = Math.min(scale, (double) config.getTargetHeight() / height);
+        }
+        return scale;
+    }
+
+    /**
+     * Returns the region of interest of a frame.
+     *
+     * @param frame the decoded frame
+     * @return the region clipped to the frame, or {@code null} for the whole frame
+     */
+    private Rect roi(Mat frame) {
+        Rect roi;
+        if (config.hasFixedRoi()) {
+            roi = new Rect(config.getRoiX(), config.getRoiY(), config.getRoiWidth(), config.getRoiHeight());
+        } else if (detected) {
+            roi = detectedRoi;
+        } else {
+            roi = detect(frame);
+        }
+        return roi == null ? null : clip(roi, frame.cols(), frame.rows());
+    }
+
+    /**
+     * Adds a frame to motion detection, and fixes the region once enough frames have been seen.
+     *
+     * @param frame the decoded frame
+     * @return the detected region, or {@code null} while detecting or if nothing moved
+     */
+    private synchronized Rect detect(Mat frame) {
+        if (detected) {
+            return detectedRoi;
+        }
+        double factor = Math.min(1, (double) MOTION_WIDTH / frame.cols());
+        Mat gray = new Mat();
+        if (frame.channels() == 1) {
+            frame.copyTo(gray);
+        } else {
+            Imgproc.cvtColor(frame, gray, frame.channels() == 4 ? Imgproc.COLOR_BGRA2GRAY : Imgproc.COLOR_BGR2GRAY);
+        }
+        Imgproc.resize(gray, gray, new Size(Math.round(frame.cols() * factor), Math.round(frame.rows() * factor)),
+                0, 0, Imgproc.INTER_AREA);
+
+        if (previousGray != null && previousGray.size().equals(gray.size())) {
+            Mat diff = new Mat();
+            Core.absdiff(gray, previousGray, diff);
+            Imgproc.threshold(diff, diff, MOTION_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+            if (motion == null) {
+                motion = Mat.zeros(diff.size(), CvType.CV_8UC1);
+            }
+            Core.bitwise_or(motion, diff, motion);
+            diff.release();
+        }
+        if (previousGray != null) {
+            previousGray.release();
+        }
+        previousGray = gray;
+
+        if (++motionFrames < config.getAutoRoiFrames()) {
+            return null;
+        }
+        detectedRoi = motionBounds(frame.cols(), frame.rows(), factor);
+        detected = true;
+        previousGray.release();
+        previousGray = null;
+        if (motion != null) {
+            motion.release();
+            motion = null;
+        }
+        log.info("Detected region of interest {} in {}x{} frames", detectedRoi, frame.cols(), frame.rows());
+        return detectedRoi;
+    }
+
+    /**
+     * Computes the region around the accumulated motion.
+     *
+     * @param width  the width of the original frame
+     * @param height the height of the original frame
+     * @param factor the reduction applied to the grey frames
+     * @return the widened region in original pixels, or {@code null} if cropping is not worth it
+     */
+    private Rect motionBounds(int width, int height, double factor) {
+        if (motion == null) {
+            return null;
+        }
+        // Remove isolated noisy pixels before taking the bounding box
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(5, 5));
+        Imgproc.morphologyEx(motion, motion, Imgproc.MORPH_OPEN, kernel);
+        kernel.release();
+        if (Core.countNonZero(motion) == 0) {
+            return null;
+        }
+        Rect bounds = Imgproc.boundingRect(motion);
+
+        double marginX = bounds.width * config.getAutoRoiMargin();
+        double marginY = bounds.height * config.getAutoRoiMargin();
+        int x = (int) Math.floor((bounds.x - marginX) / factor);
+        int y = (int) Math.floor((bounds.y - marginY) / factor);
+        int right = (int) Math.ceil((bounds.x + bounds.width + marginX) / factor);
+        int bottom = (int) Math.ceil((bounds.y + bounds.height + marginY) / factor);
+        Rect roi = clip(new Rect(x, y, right - x, bottom - y), width, height);
+        if (roi == null || roi.area() > MAX_ROI_AREA * width * height) {
+            return null;
+        }
+        return roi;
+    }
+
+    /**
+     * Clips a region to the frame.
+     *
+     * @param roi    the region
+     * @param width  the width of the frame
+     * @param height the height of the frame
+     * @return the clipped region, or {@code null} if it is empty or the whole frame
+     */
+    private static Rect clip(Rect roi, int width, int height) {
+        int x = Math.max(0, roi.x);
+        int y = Math.max(0, roi.y);
+        int right = Math.min(width, roi.x + roi.width);
+        int bottom = Math.min(height, roi.y + roi.height);
+        if (right <= x || bottom <= y || (x == 0 && y == 0 && right == width && bottom == height)) {
+            return null;
+        }
+        return new Rect(x, y, right - x, bottom - y);
+    }
+
+    /**
+     * A frame ready to be encoded, with the transform back to the original frame.
+     */
+    @Getter
+    public static class PreprocessedFrame {
+        /**
+         * The frame to encode.
+         */
+        private final Mat mat;
+
+        /**
+         * The transform mapping coordinates of this frame back to the original frame.
+         */
+        private final FrameTransform transform;
+
+        @Getter(AccessLevel.NONE)
+        private final MatPool pool;
+
+        @Getter(AccessLevel.NONE)
+        private final boolean owned;
+
+        private PreprocessedFrame(Mat mat, MatPool pool, boolean owned, FrameTransform transform) {
+            this.mat = mat;
+            this.pool = pool;
+            this.owned = owned;
+            this.transform = transform;
+        }
+
+        /**
+         * Releases the preprocessed copy, handing it back to its pool if it has one; the original frame is left to its
+         * owner.
+         */
+        public void release() {
+            if (!owned) {
+                return;
+            }
+            if (pool != null) {
+                pool.release(mat);
+            } else {
+                mat.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import org.opencv.core.Mat;
+
+/**
+ * Receives decoded frames from a {@link FrameSource}.
+ * <br> Implementations must be thread-safe, since a source may decode several parts of a video in parallel.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see FramePipeline
+ */
+@FunctionalInterface
+public interface FrameSink {
+    /**
+     * Accepts one sampled frame. Ownership of {@code frame} passes to the sink, even when {@code false} is returned;
+     * the sink hands it back to the source's {@link MatPool} once done with it. If the sink throws, the frame stays
+     * with the source, which releases it.
+     *
+     * @param index the index of the frame among the sampled frames of the whole video
+     * @param frame the decoded frame
+     * @return {@code true} to continue decoding, {@code false} if the consumer has stopped
+     * @throws InterruptedException if interrupted while waiting for the consumer
+     */
+    boolean accept(long index, Mat frame) throws InterruptedException;
+}
@@ -0,0 +1,23 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import java.io.IOException;
+
+/**
+ * The decode stage of a {@link FramePipeline}: produces the sampled frames of a video.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see VideoFileFrameSource
+ */
+@FunctionalInterface
+public interface FrameSource {
+    /**
+     * Decodes the video and hands every sampled frame to {@code sink}.
+     * <br> Returns when the video ends or when {@code sink} asks to stop.
+     *
+     * @param sink the consumer of the decoded frames
+     * @throws IOException          if the video cannot be read
+     * @throws InterruptedException if interrupted while decoding
+     */
+    void decode(FrameSink sink) throws IOException, InterruptedException;
+}
@@ -0,0 +1,68 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import nusri.fyp.demo.roboflow.data.entity.workflow.SinglePrediction;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+
+import java.util.List;
+
+/**
+ * <b>Maps coordinates in a preprocessed frame back to the original frame.</b>
+ * <br>
+ * <p>A preprocessed frame is the region starting at ({@code offsetX}, {@code offsetY}) of the original frame, scaled
+ * by {@code scaleX} and {@code scaleY}. A point {@code (x, y)} of the preprocessed frame is therefore the point
+ * {@code (x / scaleX + offsetX, y / scaleY + offsetY)} of the original frame, and a size is divided by the scale.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see FramePreprocessor
+ */
+public class FrameTransform {
+
+    /**
+     * The transform of a frame sent unchanged.
+     */
+    public static final FrameTransform IDENTITY = new FrameTransform(0, 0, 1, 1);
+
+    private final int offsetX;
+    private final int offsetY;
+    private final double scaleX;
+    private final double scaleY;
+
+    /**
+     * Creates a transform.
+     *
+     * @param offsetX the left edge of the region in the original frame
+     * @param offsetY the top edge of the region in the original frame
+     * @param scaleX  the horizontal scale applied to the region
+     * @param scaleY  the vertical scale applied to the region
+     */
+    public FrameTransform(int offsetX, int offsetY, double scaleX, double scaleY) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+    }
+
+    /**
+     * Maps the bounding boxes of the observations back to the original frame, in place.
+     * <br> Only {@link SinglePrediction}s carry a box; combined predictions without one are left as they are.
+     *
+     * @param observations the observations of the preprocessed frame
+     * @return {@code observations}
+     */
+    public List<AbstractActionObservation> toOriginal(List<AbstractActionObservation> observations) {
+        if (this == IDENTITY) {
+            return observations;
+        }
+        for (AbstractActionObservation observation : observations) {
+            if (observation instanceof SinglePrediction prediction
+                    && (prediction.getWidth() > 0 || prediction.getHeight() > 0)) {
+                prediction.setX((int) Math.round(prediction.getX() / scaleX + offsetX));
+                prediction.setY((int) Math.round(prediction.getY() / scaleY + offsetY));
+                prediction.setWidth((int) Math.round(prediction.getWidth() / scaleX));
+                prediction.setHeight((int) Math.round(prediction.getHeight() / scaleY));
+            }
+        }
+        return observations;
+    }
+}
@@ -0,0 +1,72 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import nusri.fyp.demo.dto.HistogramDto;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <b>A histogram over fixed bucket bounds, recorded without locking.</b>
+ * <br> Unlike an {@link Ewma}, it shows the spread of the samples, e.g. whether a latency budget is met by most
+ * frames or only on average.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see HistogramDto
+ */
+public class Histogram {
+
+    /**
+     * The inclusive upper bound of every bucket but the last, in increasing order.
+     */
+    private final long[] upperBounds;
+
+    /**
+     * One count per bucket, the last one counting the samples above every bound.
+     */
+    private final LongAdder[] counts;
+
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates a histogram.
+     *
+     * @param upperBounds the inclusive upper bounds of the buckets, in increasing order; one more bucket counts the
+     *                    samples above the last bound
+     */
+    public Histogram(long... upperBounds) {
+        this.upperBounds = upperBounds.clone();
+        this.counts = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @param value the sample
+     */
+    public void record(long value) {
+        int bucket = Arrays.binarySearch(upperBounds, value);
+        counts[bucket >= 0 ? bucket : -bucket - 1].increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return the counts of the buckets and a summary of the samples
+     */
+    public HistogramDto toDto() {
+        HistogramDto dto = new HistogramDto();
+        dto.setUpperBounds(Arrays.stream(upperBounds).boxed().toList());
+        dto.setCounts(Arrays.stream(counts).map(LongAdder::sum).toList());
+        long count = dto.getCounts().stream().mapToLong(Long::longValue).sum();
+        dto.setCount(count);
+        dto.setMean(count == 0 ? 0 : (double) sum.sum() / count);
+        dto.setMax(max.get());
+        return dto;
+    }
+}
@@ -0,0 +1,71 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <b>Permits bounding how many frames may wait for an inference result at the same time.</b>
+ * <br> There is one global pool shared by every video job, and one pool per user so that a single user cannot take
+ * all the global permits.
+ * <br> The sizes are read from the configuration when a job starts. If a size has changed, a new {@link Semaphore}
+ * is created; jobs still holding permits of the old one release them there, which is harmless.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see FramePipeline
+ */
+public class InFlightLimits {
+
+    /**
+     * The global pool shared by all users.
+     */
+    private Limit global;
+
+    /**
+     * The per-user pools, keyed by user identifier.
+     */
+    private final Map<String, Limit> users = new HashMap<>();
+
+    /**
+     * Returns the global pool, resized to {@code permits} if the configured size has changed.
+     *
+     * @param permits the configured number of permits
+     * @return the global {@link Semaphore}
+     */
+    public synchronized Semaphore global(int permits) {
+        if (global == null || global.permits != permits) {
+            global = new Limit(permits);
+        }
+        return global.semaphore;
+    }
+
+    /**
+     * Returns the pool of the given user, resized to {@code permits} if the configured size has changed.
+     *
+     * @param user    the user identifier
+     * @param permits the configured number of permits
+     * @return the user's {@link Semaphore}
+     */
+    public synchronized Semaphore forUser(String user, int permits) {
+        Limit limit = users.get(user);
+        if (limit == null || limit.permits != permits) {
+            limit = new Limit(permits);
+            users.put(user, limit);
+        }
+        return limit.semaphore;
+    }
+
+    /**
+     * A semaphore together with the size it was created with.
+     */
+    private static class Limit {
+        private final int permits;
+        private final Semaphore semaphore;
+
+        private Limit(int permits) {
+            this.permits = permits;
+            this.semaphore = new Semaphore(permits);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import nusri.fyp.demo.dto.MatPoolStatsDto;
+import org.opencv.core.Mat;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * <b>A bounded pool of {@link Mat}s reused across frames, with leak accounting.</b>
+ * <br>
+ * <p>A {@link Mat} created per frame holds native memory that is only reclaimed when the garbage collector finalizes
+ * it, so native memory grows with every video even when each frame is {@link Mat#release() released}. Instead, frames
+ * are decoded into pooled {@link Mat}s: OpenCV reuses a {@link Mat}'s buffer as long as the next frame has the same
+ * size and type, so a running pipeline stops allocating native memory once the pool is warm.</p>
+ * <p>Ownership is explicit. Whoever {@link #acquire() acquires} a {@link Mat} owns it, may pass it on (e.g. from the
+ * decoder to an encode worker through a queue), and the last owner hands it back with {@link #release(Mat)}. A
+ * returned {@link Mat} is kept for the next {@link #acquire()} while the pool holds fewer than {@code capacity} idle
+ * {@link Mat}s, and freed otherwise, so the idle memory is bounded no matter how many videos are processed.</p>
+ * <p>The pool counts acquired and returned {@link Mat}s. Once every job has finished, {@code outstanding} must be
+ * {@code 0}; a value that keeps growing reveals a code path that drops frames without returning them.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see FramePipeline
+ * @see VideoFileFrameSource
+ */
+public class MatPool {
+
+    private final IntSupplier capacity;
+
+    /**
+     * The idle {@link Mat}s, most recently returned first so that warm buffers are reused.
+     */
+    private final Deque<Mat> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Creates a pool.
+     *
+     * @param capacity the maximum number of idle {@link Mat}s, read on every return so that it can be reconfigured
+     */
+    public MatPool(IntSupplier capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Takes an idle {@link Mat}, or creates one if the pool is empty.
+     * <br> Its content is undefined; it is meant to be overwritten, e.g. by {@code VideoCapture#retrieve(Mat)}.
+     *
+     * @return a {@link Mat} owned by the caller until it is handed back with {@link #release(Mat)}
+     */
+    public Mat acquire() {
+        Mat mat = idle.pollFirst();
+        if (mat != null) {
+            idleCount.decrementAndGet();
+            reused.increment();
+            return mat;
+        }
+        created.increment();
+        return new Mat();
+    }
+
+    /**
+     * Hands back a {@link Mat} obtained from {@link #acquire()}. The caller must not use it afterwards.
+     *
+     * @param mat the {@link Mat}, or {@code null} for no-op
+     */
+    public void release(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= capacity.getAsInt()) {
+            idle.offerFirst(mat);
+            returned.increment();
+        } else {
+            idleCount.decrementAndGet();
+            mat.release();
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Frees every idle {@link Mat}.
+     */
+    public void clear() {
+        Mat mat;
+        while ((mat = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            mat.release();
+        }
+    }
+
+    /**
+     * @return the number of {@link Mat}s acquired and not handed back yet
+     */
+    public long outstanding() {
+        return created.sum() + reused.sum() - returned.sum() - discarded.sum();
+    }
+
+    /**
+     * @return a snapshot of the pool counters
+     */
+    public MatPoolStatsDto toDto() {
+        long idleBytes = 0;
+        int idleMats = 0;
+        for (Mat mat : idle) {
+            idleBytes += mat.total() * mat.elemSize();
+            idleMats++;
+        }
+        MatPoolStatsDto dto = new MatPoolStatsDto();
+        dto.setCapacity(capacity.getAsInt());
+        dto.setIdle(idleMats);
+        dto.setIdleBytes(idleBytes);
+        dto.setCreated(created.sum());
+        dto.setReused(reused.sum());
+        dto.setReturned(returned.sum());
+        dto.setDiscarded(discarded.sum());
+        dto.setOutstanding(outstanding());
+        return dto;
+    }
+}
@@ -0,0 +1,138 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import nusri.fyp.demo.dto.ProgressDetailsDto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <b>Lock-free counters of one video job flowing through a {@link FramePipeline}.</b>
+ * <br> Every stage increments its own {@link LongAdder}, so recording a frame never contends with other stages or
+ * with readers. Encode and inference latencies are tracked as exponentially weighted moving averages.
+ * <br> {@link #snapshot()} derives per-stage throughput, the backlog between stages and an ETA from the counters.
+ * The stage with a growing backlog in front of it is the bottleneck.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ProgressDetailsDto
+ */
+public class PipelineMetrics {
+
+    private final long totalFrames;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    private final LongAdder cached = new LongAdder();
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final Ewma encodeLatencyMs = new Ewma();
+    private final Ewma inferLatencyMs = new Ewma();
+
+    /**
+     * Creates the counters of a job.
+     *
+     * @param totalFrames the number of frames the job samples
+     */
+    public PipelineMetrics(long totalFrames) {
+        this.totalFrames = totalFrames;
+    }
+
+    /**
+     * Records frames whose result was served from a cache instead of the pipeline.
+     *
+     * @param frames the number of frames
+     */
+    public void recordCached(long frames) {
+        cached.add(frames);
+    }
+
+    void recordDecoded() {
+        decoded.increment();
+    }
+
+    void recordEncoded(long nanos) {
+        encoded.increment();
+        encodeLatencyMs.update(nanos / 1e6);
+    }
+
+    void recordSent() {
+        sent.increment();
+    }
+
+    void recordCompleted(long nanos) {
+        completed.increment();
+        inferLatencyMs.update(nanos / 1e6);
+    }
+
+    void recordFailed() {
+        failed.increment();
+    }
+
+    /**
+     * Stops the clock, so the rates of a finished job stay fixed.
+     */
+    public void finish() {
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return the fraction of frames done, cached or completed, between 0 and 1
+     */
+    public double getProgress() {
+        return totalFrames > 0 ? Math.min(1.0, (double) (cached.sum() + completed.sum()) / totalFrames) : 0;
+    }
+
+    /**
+     * Takes a consistent-enough snapshot of the counters and derives rates and the ETA.
+     * <br> Rates are averages since the job started.
+     *
+     * @return the progress details
+     */
+    public ProgressDetailsDto snapshot() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+        double elapsedSeconds = Math.max(elapsedMs, 1) / 1000.0;
+
+        ProgressDetailsDto details = new ProgressDetailsDto();
+        long cachedFrames = cached.sum();
+        long decodedFrames = decoded.sum();
+        long encodedFrames = encoded.sum();
+        long sentFrames = sent.sum();
+        long completedFrames = completed.sum();
+        long failedFrames = failed.sum();
+        details.setTotalFrames(totalFrames);
+        details.setCachedFrames(cachedFrames);
+        details.setDecodedFrames(decodedFrames);
+        details.setEncodedFrames(encodedFrames);
+        details.setSentFrames(sentFrames);
+        details.setCompletedFrames(completedFrames);
+        details.setFailedFrames(failedFrames);
+        details.setEncodeBacklog(Math.max(0, decodedFrames - encodedFrames));
+        details.setSendBacklog(Math.max(0, encodedFrames - sentFrames));
+        details.setInFlight(Math.max(0, sentFrames - completedFrames - failedFrames));
+        details.setDecodeFps(decodedFrames / elapsedSeconds);
+        details.setEncodeFps(encodedFrames / elapsedSeconds);
+        details.setInferFps(completedFrames / elapsedSeconds);
+        details.setEncodeLatencyMs(encodeLatencyMs.get());
+        details.setInferLatencyMs(inferLatencyMs.get());
+        details.setElapsedMs(elapsedMs);
+        details.setFinished(endNanos != 0);
+        details.setProgress(getProgress());
+
+        long remaining = Math.max(0, totalFrames - cachedFrames - completedFrames);
+        if (endNanos != 0 || remaining == 0) {
+            details.setEtaMs(0);
+        } else if (completedFrames == 0) {
+            details.setEtaMs(-1);
+        } else {
+            details.setEtaMs((long) (remaining / details.getInferFps() * 1000));
+        }
+        return details;
+    }
+}
@@ -0,0 +1,221 @@
+package nusri.fyp.demo.service.img_sender.pipeline;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <b>{@link FrameSource} reading a video file with OpenCV, optionally in parallel segments.</b>
+ * <br>
+ * <p>Frame {@code f} (0-based) is sampled when {@code (f + 1) % jump == 0}, and gets the sample index
+ * {@code (f + 1) / jump - 1}. This is the same numbering as reading the file from start to end and keeping every
+ * {@code jump}-th frame, so the output does not depend on how the file is split.</p>
+ * <p>With {@code segments > 1}, the video is split into that many frame ranges, each aligned to a multiple of
+ * {@code jump}. Every range opens its own {@link VideoCapture}, seeks with {@link Videoio#CAP_PROP_POS_FRAMES} and runs
+ * on {@code decoders}, so decoding scales across cores. The last range reads until the end of the file, so an
+ * inaccurate {@link Videoio#CAP_PROP_FRAME_COUNT} never drops frames.</p>
+ * <p>Only sampled frames are converted into a {@link Mat}: the others are skipped with {@link VideoCapture#grab()},
+ * or, for large intervals, not read at all because the reader seeks straight to the next sampled frame. Sampled frames
+ * are retrieved into {@link Mat}s of a {@link MatPool}, which the sink hands back once done with them.</p>
+ * <p>A seek is only trusted once the timestamp of the frame it lands on matches its index at the nominal frame rate:
+ * backends such as FFmpeg report the requested {@link Videoio#CAP_PROP_POS_FRAMES} back whether or not they reached
+ * it. Containers with a variable frame rate, or whose backend derives the timestamp from the requested position, fail
+ * or evade this check; the former fall back to reading from the start, which is slow but exact.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see FramePipeline
+ */
+@Slf4j
+public class VideoFileFrameSource implements FrameSource {
+
+    private final String path;
+    private final int jump;
+    private final long frameCount;
+    private final int segments;
+    private final int seekThreshold;
+    private final ExecutorService decoders;
+    private final MatPool matPool;
+
+    /**
+     * Creates a source for the given video file.
+     *
+     * @param path          the absolute path of the video file
+     * @param jump          the frame interval; only every {@code jump}-th frame is decoded for the pipeline
+     * @param frameCount    the number of frames reported by the container, or {@code 0} if unknown
+     * @param segments      the number of ranges decoded in parallel; {@code 1} decodes sequentially on the calling thread
+     * @param seekThreshold the frame interval from which the reader seeks to sampled frames; {@code 0} never seeks
+     * @param decoders      the pool running the ranges when {@code segments > 1}
+     * @param matPool       the pool providing the {@link Mat}s frames are decoded into
+     */
+    public VideoFileFrameSource(String path, int jump, long frameCount, int segments, int seekThreshold,
+                                ExecutorService decoders, MatPool matPool) {
+        this.path = path;
+        this.jump = jump;
+        this.frameCount = frameCount;
+        // Never use more ranges than there are sampled frames
+        this.segments = (int) Math.max(1, Math.min(segments, frameCount / jump));
+        this.seekThreshold = seekThreshold;
+        this.decoders = decoders;
+        this.matPool = matPool;
+    }
+
+    /**
+     * Decodes the video, sequentially or in parallel ranges.
+     *
+     * @param sink the consumer of the decoded frames
+     * @throws IOException          if the video cannot be opened or a range fails
+     * @throws InterruptedException if interrupted while decoding
+     */
+    @Override
+    public void decode(FrameSink sink) throws IOException, InterruptedException {
+        if (segments == 1) {
+            decodeRange(0, Long.MAX_VALUE, sink);
+            return;
+        }
+
+        // Frames per range, rounded up to a whole number of sampled frames
+        long samplesPerSegment = (frameCount / jump + segments - 1) / segments;
+        long framesPerSegment = samplesPerSegment * jump;
+        log.info("Decoding {} in {} segments of {} frames", path, segments, framesPerSegment);
+
+        List<Future<Void>> ranges = new ArrayList<>();
+        try {
+            for (int i = 0; i < segments; i++) {
+                long start = i * framesPerSegment;
+                long end = i == segments - 1 ? Long.MAX_VALUE : start + framesPerSegment;
+                ranges.add(decoders.submit(() -> {
+                    decodeRange(start, end, sink);
+                    return null;
+                }));
+            }
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Error decoding video segment: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            ranges.forEach(range -> range.cancel(true));
+        }
+    }
+
+    /**
+     * Decodes the frames in {@code [start, end)} and hands the sampled ones to {@code sink}.
+     * <br> Skipped frames are only {@link VideoCapture#grab() grabbed}; sampled frames are grabbed and then
+     * {@link VideoCapture#retrieve(Mat) retrieved} straight into a pooled {@link Mat}. When the frame interval reaches
+     * {@code seekThreshold}, the reader seeks to each sampled frame instead of grabbing the frames in between.
+     *
+     * @param start the first frame of the range, a multiple of {@code jump}
+     * @param end   the frame after the last one of the range
+     * @param sink  the consumer of the decoded frames
+     * @throws IOException          if the video cannot be opened
+     * @throws InterruptedException if interrupted while decoding
+     */
+    private void decodeRange(long start, long end, FrameSink sink) throws IOException, InterruptedException {
+        VideoCapture videoCapture = new VideoCapture(path);
+        try {
+            if (!videoCapture.isOpened()) {
+                throw new IOException("Error opening video file");
+            }
+            boolean seekToSamples = seek(videoCapture, start) && seekThreshold > 0 && jump >= seekThreshold;
+
+            long f = start;
+            while (true) {
+                // The next sampled frame, i.e. the next f with (f + 1) % jump == 0
+                long sampled = f + (jump - 1 - f % jump);
+                if (sampled >= end) {
+                    return;
+                }
+                if (seekToSamples && sampled > f) {
+                    // Keep seeking only while the backend lands on the exact frame
+                    seekToSamples = seek(videoCapture, sampled);
+                } else {
+                    for (; f < sampled; f++) {
+                        checkInterrupted();
+                        if (!videoCapture.grab()) {
+                            return; // End of video
+                        }
+                    }
+                }
+                f = sampled;
+
+                checkInterrupted();
+                Mat frame = matPool.acquire();
+                boolean accepted;
+                try {
+                    if (!videoCapture.grab() || !videoCapture.retrieve(frame) || frame.empty()) {
+                        matPool.release(frame);
+                        return; // End of video
+                    }
+                    f++;
+                    accepted = sink.accept(sampled / jump, frame);
+                } catch (InterruptedException | RuntimeException e) {
+                    // The sink only owns the frame once it returns
+                    matPool.release(frame);
+                    throw e;
+                }
+                if (!accepted) {
+                    return;
+                }
+            }
+        } finally {
+            videoCapture.release();
+        }
+    }
+
+    /**
+     * Throws if the current thread has been interrupted.
+     *
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    private void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Decoding of " + path + " was interrupted");
+        }
+    }
+
+    /**
+     * Positions {@code videoCapture} so that the next grab returns frame {@code start}.
+     * <br> The reader seeks to the frame before {@code start} and grabs it, and the seek is accepted only if the
+     * {@link Videoio#CAP_PROP_POS_MSEC timestamp} of that frame is within half a frame of its index divided by the
+     * frame rate. Otherwise, or if the frame rate is unknown, the video is re-read from the beginning.
+     *
+     * @param videoCapture the opened video
+     * @param start        the target frame
+     * @return {@code true} if the backend seeks exactly, {@code false} if the slow path had to be used
+     * @throws IOException if the video cannot be re-opened
+     */
+    private boolean seek(VideoCapture videoCapture, long start) throws IOException {
+        if (start == 0) {
+            return true;
+        }
+        // The position read back proves nothing, so check the timestamp of the frame the seek lands on
+        double fps = videoCapture.get(Videoio.CAP_PROP_FPS);
+        if (fps > 0 && videoCapture.set(Videoio.CAP_PROP_POS_FRAMES, start - 1) && videoCapture.grab()) {
+            double expectedMs = (start - 1) * 1000.0 / fps;
+            if (Math.abs(videoCapture.get(Videoio.CAP_PROP_POS_MSEC) - expectedMs) <= 500.0 / fps) {
+                return true;
+            }
+        }
+        log.warn("Inexact seek to frame {} in {}, skipping frames from the start instead", start, path);
+        videoCapture.release();
+        if (!videoCapture.open(path)) {
+            throw new IOException("Error opening video file");
+        }
+        for (long f = 0; f < start && videoCapture.grab(); f++) {
+            // Skip frames without retrieving them
+        }
+        return false;
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * This package contains the staged frame pipeline used to process uploaded videos.
+ * Frames are decoded, encoded, sent for inference and collected in separate stages connected by bounded queues,
+ * so that the number of frames held in memory stays constant no matter how long the video is.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+package nusri.fyp.demo.service.img_sender.pipeline;
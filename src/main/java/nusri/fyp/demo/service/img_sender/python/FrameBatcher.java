@@ -0,0 +1,271 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.FrameBatchStatsDto;
+import nusri.fyp.demo.service.img_sender.pipeline.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * <b>Groups frames sent close together into one multi-frame request.</b>
+ * <br>
+ * <p>Each request to a Python server costs a fixed overhead (HTTP round trip, request parsing, moving the model input
+ * to the device) on top of the per-frame inference. On small frames the overhead dominates, so frames are collected
+ * here and sent together: a batch leaves as soon as it holds {@code batchSize} frames, or {@code windowMs}
+ * milliseconds after its first frame, whichever comes first. Each server has one batcher for the frames of video jobs,
+ * and one for the live frames of every session, whose short window is the latency budget a live frame may spend
+ * waiting for others.</p>
+ * <p>The batch size adapts to the observed latency, additive-increase / multiplicative-decrease: it grows by one frame
+ * after every full batch answered within {@code targetLatencyMs}, and halves after a batch that took longer, never
+ * exceeding {@code maxFrames}. The results of a batch are handed back to each frame's own future, in order.</p>
+ * <p>A frame whose future is cancelled while it waits is left out of its batch; once every frame of a batch in flight
+ * is cancelled, the batch request is cancelled too.</p>
+ * <p>The sizes and latencies of the batches, and the latency of each frame from its submission, are kept in
+ * {@link Histogram}s, see {@link #toDto(String, String)}.</p>
+ *
+ * @param <R> the result type of one frame
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ImageSenderOfPython
+ */
+@Slf4j
+public class FrameBatcher<R> {
+
+    /**
+     * Sends the frames of a batch in one request.
+     *
+     * @param <R> the result type of one frame
+     */
+    @FunctionalInterface
+    public interface BatchSender<R> {
+        /**
+         * @param frames the encoded frames
+         * @return a future of one result per frame, in the same order
+         */
+        CompletableFuture<List<R>> send(List<byte[]> frames);
+    }
+
+    /**
+     * The timer flushing batches whose window has elapsed, shared by every batcher.
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "frame-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The bucket bounds of the latency histograms, in milliseconds.
+     */
+    private static final long[] LATENCY_BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final IntSupplier maxFrames;
+    private final LongSupplier windowMs;
+    private final LongSupplier targetLatencyMs;
+    private final BatchSender<R> sender;
+
+    private final Histogram batchSizes = new Histogram(1, 2, 4, 8, 16, 32, 64);
+    private final Histogram batchLatencyMs = new Histogram(LATENCY_BOUNDS_MS);
+    private final Histogram frameLatencyMs = new Histogram(LATENCY_BOUNDS_MS);
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder sentFrames = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private final List<CompletableFuture<R>> futures = new ArrayList<>();
+    private ScheduledFuture<?> windowTimer;
+
+    /**
+     * The current batch size, between {@code 1} and {@code maxFrames}.
+     */
+    private volatile int batchSize = 1;
+
+    /**
+     * Creates a batcher.
+     *
+     * @param maxFrames       the largest batch, read on every frame; {@code 1} sends every frame alone
+     * @param windowMs        the time the first frame of a batch waits for others, in milliseconds
+     * @param targetLatencyMs the batch latency, in milliseconds, above which the batch size shrinks
+     * @param sender          sends a batch
+     */
+    public FrameBatcher(IntSupplier maxFrames, LongSupplier windowMs, LongSupplier targetLatencyMs,
+                        BatchSender<R> sender) {
+        this.maxFrames = maxFrames;
+        this.windowMs = windowMs;
+        this.targetLatencyMs = targetLatencyMs;
+        this.sender = sender;
+    }
+
+    /**
+     * @return whether frames are currently grouped, i.e. the configured maximum batch exceeds one frame
+     */
+    public boolean isEnabled() {
+        return maxFrames.getAsInt() > 1;
+    }
+
+    /**
+     * Adds a frame to the current batch.
+     *
+     * @param frame the encoded frame
+     * @return a future of the frame's own result
+     */
+    public CompletableFuture<R> submit(byte[] frame) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        future.whenComplete((result, e) -> {
+            if (!future.isCancelled()) {
+                frameLatencyMs.record((System.nanoTime() - submitted) / 1_000_000);
+            }
+        });
+        List<byte[]> batch = null;
+        List<CompletableFuture<R>> batchFutures = null;
+        synchronized (this) {
+            frames.add(frame);
+            futures.add(future);
+            if (frames.size() >= Math.min(batchSize, Math.max(1, maxFrames.getAsInt()))) {
+                batch = new ArrayList<>(frames);
+                batchFutures = new ArrayList<>(futures);
+                reset();
+            } else if (windowTimer == null) {
+                windowTimer = TIMER.schedule(this::flush, windowMs.getAsLong(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch, batchFutures);
+        }
+        return future;
+    }
+
+    /**
+     * @return the current batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param server the server of this batcher
+     * @param lane   the lane whose frames this batcher groups
+     * @return the state of this batcher, with its histograms
+     */
+    public FrameBatchStatsDto toDto(String server, String lane) {
+        FrameBatchStatsDto dto = new FrameBatchStatsDto();
+        dto.setServer(server);
+        dto.setLane(lane);
+        dto.setEnabled(isEnabled());
+        dto.setBatchSize(batchSize);
+        dto.setBatches(batches.sum());
+        dto.setFrames(sentFrames.sum());
+        dto.setDropped(dropped.sum());
+        dto.setBatchSizes(batchSizes.toDto());
+        dto.setBatchLatencyMs(batchLatencyMs.toDto());
+        dto.setFrameLatencyMs(frameLatencyMs.toDto());
+        return dto;
+    }
+
+    /**
+     * Sends the current batch, if any, because its window has elapsed.
+     */
+    private void flush() {
+        List<byte[]> batch;
+        List<CompletableFuture<R>> batchFutures;
+        synchronized (this) {
+            if (frames.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(frames);
+            batchFutures = new ArrayList<>(futures);
+            reset();
+        }
+        send(batch, batchFutures);
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private void reset() {
+        frames.clear();
+        futures.clear();
+        if (windowTimer != null) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+        }
+    }
+
+    private void send(List<byte[]> batch, List<CompletableFuture<R>> batchFutures) {
+        for (int i = batchFutures.size() - 1; i >= 0; i--) {
+            if (batchFutures.get(i).isDone()) {
+                // Cancelled while waiting for the batch
+                batch.remove(i);
+                batchFutures.remove(i);
+                dropped.increment();
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        batches.increment();
+        sentFrames.add(batch.size());
+        batchSizes.record(batch.size());
+        long start = System.nanoTime();
+        CompletableFuture<List<R>> results;
+        try {
+            results = sender.send(batch);
+        } catch (RuntimeException e) {
+            batchFutures.forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(batchFutures.size());
+        for (CompletableFuture<R> future : batchFutures) {
+            future.whenComplete((value, e) -> {
+                if (future.isCancelled() && remaining.decrementAndGet() == 0) {
+                    results.cancel(true);
+                }
+            });
+        }
+        results.whenComplete((values, e) -> {
+            if (!results.isCancelled()) {
+                long latencyMs = (System.nanoTime() - start) / 1_000_000;
+                batchLatencyMs.record(latencyMs);
+                adapt(batch.size(), latencyMs);
+            }
+            if (e == null && values.size() != batchFutures.size()) {
+                e = new IllegalStateException("Expected " + batchFutures.size() + " results, got " + values.size());
+            }
+            for (int i = 0; i < batchFutures.size(); i++) {
+                if (e != null) {
+                    batchFutures.get(i).completeExceptionally(e);
+                } else {
+                    batchFutures.get(i).complete(values.get(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Adjusts the batch size after a batch completed.
+     *
+     * @param size      the number of frames of the batch
+     * @param latencyMs the batch latency, in milliseconds
+     */
+    private synchronized void adapt(int size, long latencyMs) {
+        int max = Math.max(1, maxFrames.getAsInt());
+        int previous = batchSize;
+        if (latencyMs > targetLatencyMs.getAsLong()) {
+            batchSize = Math.max(1, batchSize / 2);
+        } else if (size >= batchSize) {
+            // Only a full batch tells that a larger one would still be fast enough
+            batchSize = Math.min(max, batchSize + 1);
+        }
+        batchSize = Math.min(batchSize, max);
+        if (batchSize != previous) {
+            log.debug("Batch size {} -> {} after {} frames in {} ms", previous, batchSize, size, latencyMs);
+        }
+    }
+}
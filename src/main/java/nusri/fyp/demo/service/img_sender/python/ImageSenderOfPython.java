@@ -1,29 +1,30 @@
 package nusri.fyp.demo.service.img_sender.python;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.Getter;
-import lombok.NoArgsConstructor;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.dto.FrameBatchStatsDto;
+import nusri.fyp.demo.dto.PythonInstanceHealthDto;
 import nusri.fyp.demo.repository.PythonServerRepository;
 import nusri.fyp.demo.service.ConfigService;
+import nusri.fyp.demo.service.img_sender.Cancellation;
+import nusri.fyp.demo.service.img_sender.FrameEncoder;
+import nusri.fyp.demo.service.img_sender.HedgeExecutor;
+import nusri.fyp.demo.service.img_sender.HedgePolicy;
 import nusri.fyp.demo.service.img_sender.ImageSender;
 import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import nusri.fyp.demo.service.img_sender.InferenceExecutor;
+import nusri.fyp.demo.service.img_sender.InferenceLanes;
 import nusri.fyp.demo.state_machine.AbstractActionObservation;
 import nusri.fyp.demo.state_machine.ActionObservation;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.springframework.http.*;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <b>Implementation of {@link ImageSenderService} for sending image frames to a backend Python server (EOID) for inference.</b>
@@ -37,8 +38,22 @@ import java.util.concurrent.*;
  * <br>
  * <p>Core logic includes:</p>
  * <ul>
- *   <li>Acquiring the "best" Python instance (least loaded) through {@link PythonServerLoadBalancer}.</li>
- *   <li>Sending frames (as PNG byte arrays) via HTTP to the chosen Python instance.</li>
+ *   <li>Waiting for a request slot in the {@link InferenceLanes}, where live frames go before video-job frames.</li>
+ *   <li>Running the blocking requests of asynchronous sends on the {@link InferenceExecutor}, never on the common
+ *       pool.</li>
+ *   <li>Acquiring a lightly loaded Python instance through {@link PythonServerLoadBalancer}, which counts the
+ *       requests in flight to it until the response is read and ejects instances that keep failing.</li>
+ *   <li>Retrying a frame once on another instance when its instance cannot be reached or answers 5xx.</li>
+ *   <li>Hedging live frames: a frame slower than usual is sent to a second instance, within the budget of the
+ *       {@link HedgePolicy}, on the bounded threads of the {@link HedgeExecutor}.</li>
+ *   <li>Sending frames (as image bytes encoded by the model's {@link FrameEncoder}) via HTTP to the chosen Python instance,
+ *       over the kept-alive connections of the shared {@link PythonHttpClient}.</li>
+ *   <li>Parsing the responses, JSON or binary, straight from the HTTP stream with an {@link ObservationParser}.</li>
+ *   <li>Grouping the frames of video jobs into multi-frame requests with a {@link FrameBatcher}, if enabled by
+ *       {@link ConfigService#getPythonBatchMaxFrames()}.</li>
+ *   <li>Grouping the live frames of every session into multi-frame requests within a latency budget, with a second
+ *       {@link FrameBatcher}, if enabled by {@link ConfigService#getPythonLiveBatchMaxFrames()}. Each session still
+ *       gets its own frame's result back; batched live frames are not hedged.</li>
  *   <li>Deserializing the JSON response into a list of {@link ActionObservation} objects.</li>
  * </ul>
  *
@@ -63,10 +78,60 @@ public class ImageSenderOfPython implements ImageSender {
 
     private final ImageSenderService imageSenderService;
 
+    /**
+     * The priority lanes shared by every request to the Python servers.
+     */
+    private final InferenceLanes lanes;
+
+    /**
+     * The pooled HTTP client shared by every request to the Python servers.
+     */
+    private final PythonHttpClient httpClient;
+
     /**
      * A map of {@link PythonServerLoadBalancer} instances, keyed by their host+port strings.
+     * <br> Servers join and leave at runtime, see {@link #syncServers()} and {@link #registerWorker(String, String, int, String)}.
+     */
+    private final Map<String, PythonServerLoadBalancer> loadBalancers = new ConcurrentHashMap<>();
+
+    /**
+     * The batcher grouping the video-job frames sent to each server, keyed by its load balancer.
+     */
+    private final Map<PythonServerLoadBalancer, FrameBatcher<List<ActionObservation>>> batchers = new ConcurrentHashMap<>();
+
+    /**
+     * The batcher grouping the live frames of every session sent to each server, keyed by its load balancer.
+     */
+    private final Map<PythonServerLoadBalancer, FrameBatcher<List<ActionObservation>>> liveBatchers = new ConcurrentHashMap<>();
+
+    private final PythonServerRepository pythonServerRepository;
+
+    /**
+     * The servers that answered that they have no batch endpoint; their frames are sent one by one.
+     */
+    private final Set<PythonServerLoadBalancer> batchUnsupported = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Parses the responses straight from the HTTP stream.
+     */
+    private final ObservationParser observationParser;
+
+    private final ConfigService configService;
+
+    /**
+     * Decides when a live frame is hedged to a second instance.
+     */
+    private final HedgePolicy hedgePolicy;
+
+    /**
+     * Runs the blocking requests, off the common pool.
+     */
+    private final InferenceExecutor ioExecutor;
+
+    /**
+     * Runs the primary request of a hedged frame on the caller's thread, and its hedge on a bounded pool.
      */
-    private final Map<String, PythonServerLoadBalancer> loadBalancers;
+    private final HedgeExecutor hedgeExecutor;
 
     /**
      * Constructs this service, initializing load balancers from entries in the {@link PythonServerRepository}.
@@ -74,41 +139,147 @@ public class ImageSenderOfPython implements ImageSender {
      * Each record in the repository provides a host/port, and a corresponding {@link PythonServerLoadBalancer} is created.
      *
      * @param imageSenderService image sender service.
-     * @param objectMapper  the Jackson {@link ObjectMapper} for JSON parsing
+     * @param objectMapper  the Jackson {@link ObjectMapper} for JSON parsing, whose factory creates the streaming parsers
      * @param pythonServerRepository the repository that holds Python server info (host, port, etc.)
+     * @param lanes the priority lanes of the Python backend, giving live frames precedence over video jobs
+     * @param httpClient the pooled HTTP client used for frames and instance polls
+     * @param configService the configuration service providing the batch and instance health settings
+     * @param hedgePolicy the policy deciding when a live frame is hedged
+     * @param hedgeExecutor the executor running the hedged requests
+     * @param ioExecutor the executor running the blocking requests
      * @see PythonServerRepository
      */
     public ImageSenderOfPython(ImageSenderService imageSenderService,
                                ObjectMapper objectMapper,
-                               PythonServerRepository pythonServerRepository) {
+                               PythonServerRepository pythonServerRepository,
+                               InferenceLanes lanes,
+                               PythonHttpClient httpClient,
+                               ConfigService configService,
+                               HedgePolicy hedgePolicy,
+                               HedgeExecutor hedgeExecutor,
+                               InferenceExecutor ioExecutor) {
         this.imageSenderService = imageSenderService;
         this.objectMapper = objectMapper;
-        this.loadBalancers = new HashMap<>();
+        this.lanes = lanes;
+        this.httpClient = httpClient;
+        this.hedgePolicy = hedgePolicy;
+        this.hedgeExecutor = hedgeExecutor;
+        this.ioExecutor = ioExecutor;
+        this.configService = configService;
+        this.observationParser = new ObservationParser(objectMapper.getFactory());
+        this.pythonServerRepository = pythonServerRepository;
 
         // Initialize load balancers for each server in the repository
+        syncServers();
+    }
+
+    /**
+     * Returns the load balancer of a server, creating it on first use, e.g. for a server added since the last
+     * {@link #syncServers()} or one whose workers register before it is stored.
+     *
+     * @param host the host of the server's main process (e.g., "http://localhost")
+     * @param port the port of the server's main process
+     * @return the load balancer of the server
+     */
+    private PythonServerLoadBalancer balancer(String host, String port) {
+        String key = host + ":" + port;
+        PythonServerLoadBalancer existing = loadBalancers.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        // Created outside the map: the constructor fetches the instance list over HTTP
+        PythonServerLoadBalancer created = new PythonServerLoadBalancer(host, port, httpClient, objectMapper,
+                configService);
+        existing = loadBalancers.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        // A batch takes a single request slot of the batch lane
+        batchers.put(created, new FrameBatcher<>(
+                () -> Integer.parseInt(configService.getPythonBatchMaxFrames()),
+                () -> Long.parseLong(configService.getPythonBatchWindowMs()),
+                () -> Long.parseLong(configService.getPythonBatchTargetLatencyMs()),
+                frames -> lanes.submit(InferenceLanes.Lane.BATCH, () ->
+                        supplyCancellable(handle -> sendByteArrays(frames, created, false, handle)))));
+        // Live batches keep the precedence of live frames
+        liveBatchers.put(created, new FrameBatcher<>(
+                () -> Integer.parseInt(configService.getPythonLiveBatchMaxFrames()),
+                () -> Long.parseLong(configService.getPythonLiveBatchWindowMs()),
+                () -> Long.parseLong(configService.getPythonLiveBatchTargetLatencyMs()),
+                frames -> lanes.submit(InferenceLanes.Lane.LIVE, () ->
+                        supplyCancellable(handle -> sendByteArrays(frames, created, true, handle)))));
+        log.info("Python server {} added", key);
+        return created;
+    }
+
+    /**
+     * Reconciles the load balancers with the servers stored in the {@link PythonServerRepository}, so that servers
+     * added or removed at runtime are picked up without a restart.
+     * <br> A server no longer stored is kept while some of its workers are still registered through
+     * {@link #registerWorker(String, String, int, String)}. Requests already sent to a removed server complete normally.
+     */
+    public void syncServers() {
+        Set<String> stored = new HashSet<>();
         pythonServerRepository.findAll().forEach(pythonServer -> {
-            String port = pythonServer.getPort();
-            String host = pythonServer.getHost();
-            loadBalancers.put(host + ":" + port, new PythonServerLoadBalancer(host, port));
+            stored.add(pythonServer.getHost() + ":" + pythonServer.getPort());
+            balancer(pythonServer.getHost(), pythonServer.getPort());
+        });
+        loadBalancers.entrySet().removeIf(entry -> {
+            PythonServerLoadBalancer balancer = entry.getValue();
+            if (stored.contains(entry.getKey()) || balancer.hasRegisteredWorkers()) {
+                return false;
+            }
+            batchers.remove(balancer);
+            liveBatchers.remove(balancer);
+            batchUnsupported.remove(balancer);
+            log.info("Python server {} removed", entry.getKey());
+            return true;
         });
     }
 
+    /**
+     * Registers a worker of a Python server, or renews its registration, see
+     * {@link PythonServerLoadBalancer#heartbeat(int, String)}.
+     *
+     * @param host       the host of the server's main process, which the worker runs on
+     * @param port       the port of the server's main process
+     * @param workerPort the port of the worker
+     * @param queueSize  the queue size reported by the worker, or {@code null}
+     */
+    public void registerWorker(String host, String port, int workerPort, String queueSize) {
+        balancer(host, port).heartbeat(workerPort, queueSize);
+    }
+
+    /**
+     * Removes the registration of a worker of a Python server.
+     *
+     * @param host       the host of the server's main process
+     * @param port       the port of the server's main process
+     * @param workerPort the port of the worker
+     * @return {@code true} if the worker was registered
+     */
+    public boolean deregisterWorker(String host, String port, int workerPort) {
+        PythonServerLoadBalancer balancer = loadBalancers.get(host + ":" + port);
+        return balancer != null && balancer.deregister(workerPort);
+    }
+
     /**
      * Sends an OpenCV {@link Mat} frame synchronously to a Python server for inference.
-     * <br> Converts the frame to a PNG byte array internally before sending.
+     * <br> Encodes the frame with the model's {@link FrameEncoder} before sending.
      *
      * @param frame  the OpenCV Mat image frame
      * @param config a map containing configuration details (e.g., "host", "port")
      * @return a list of {@link ActionObservation} representing the predictions from the Python server
+     * @throws IOException if the request failed, was shed or was interrupted
      */
     @Override
-    public List<ActionObservation> sendFrame(Mat frame, Map<String, String> config) {
+    public List<ActionObservation> sendFrame(Mat frame, Map<String, String> config) throws IOException {
         String host = config.getOrDefault("host", "http://localhost");
         String port = config.getOrDefault("port", "5000");
-        PythonServerLoadBalancer loadBalancer = loadBalancers.get(host + ":" + port);
+        PythonServerLoadBalancer loadBalancer = balancer(host, port);
 
-        byte[] frameBytes = matToByteArray(frame);
-        return sendByteArray(frameBytes, loadBalancer);
+        byte[] frameBytes = encodeFrame(frame, config);
+        return sendLive(frameBytes, loadBalancer);
     }
 
     /**
@@ -117,15 +288,67 @@ public class ImageSenderOfPython implements ImageSender {
      * @param frame  a Base64-encoded image string
      * @param config a map containing configuration details (e.g., "host", "port")
      * @return a list of {@link ActionObservation} representing the predictions from the Python server
+     * @throws IOException if the request failed, was shed or was interrupted
      */
     @Override
-    public List<ActionObservation> sendFrame(String frame, Map<String, String> config) {
+    public List<ActionObservation> sendFrame(String frame, Map<String, String> config) throws IOException {
         String host = config.getOrDefault("host", "http://localhost");
         String port = config.getOrDefault("port", "5000");
-        PythonServerLoadBalancer loadBalancer = loadBalancers.get(host + ":" + port);
+        PythonServerLoadBalancer loadBalancer = balancer(host, port);
 
         byte[] decodedBytes = Base64.getDecoder().decode(frame);
-        return sendByteArray(decodedBytes, loadBalancer);
+        return sendLive(decodedBytes, loadBalancer);
+    }
+
+    /**
+     * Sends a frame synchronously through the {@link InferenceLanes.Lane#LIVE live} lane, in a batch with the live
+     * frames of other sessions when live batching is enabled.
+     *
+     * @param frameBytes an encoded image
+     * @param balancer   the load balancer of the target server
+     * @return the predictions
+     * @throws IOException if the request failed, was shed or was interrupted; a live frame is only worth its result
+     *                     while it is recent, so a failed one is skipped by the caller rather than retried
+     */
+    private List<ActionObservation> sendLive(byte[] frameBytes, PythonServerLoadBalancer balancer) throws IOException {
+        try {
+            FrameBatcher<List<ActionObservation>> liveBatcher = liveBatcher(balancer);
+            if (liveBatcher != null) {
+                CompletableFuture<List<ActionObservation>> result = liveBatcher.submit(frameBytes);
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    result.cancel(true);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a live batch");
+                } catch (ExecutionException e) {
+                    throw ioCause(e.getCause());
+                }
+            }
+            try {
+                return lanes.call(InferenceLanes.Lane.LIVE, () -> {
+                    try {
+                        return sendByteArray(frameBytes, balancer, true, null);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            } catch (CompletionException e) {
+                throw ioCause(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the live lane");
+            }
+        } catch (PythonServerLoadBalancer.LimitExceededException e) {
+            // Counted by the balancer, see PythonServerLoadBalancer#toLimitDto()
+            log.debug("Live frame shed: {}", e.getMessage());
+            throw e;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            log.warn("Error processing live frame: {}", e.getMessage());
+            throw e;
+        }
     }
 
     /**
@@ -142,26 +365,136 @@ public class ImageSenderOfPython implements ImageSender {
     public CompletableFuture<List<AbstractActionObservation>> sendFrameAsync(Mat frame, String user, Map<String, String> config) {
         String host = config.getOrDefault("host", "http://localhost");
         String port = config.getOrDefault("port", "5000");
-        PythonServerLoadBalancer loadBalancer = loadBalancers.get(host + ":" + port);
+        PythonServerLoadBalancer loadBalancer = balancer(host, port);
+
+        CompletableFuture<List<AbstractActionObservation>> futureResult = Cancellation.compose(
+                ioExecutor.supplyAsync(() -> encodeFrame(frame, config)),
+                frameBytes -> sendAsync(frameBytes, loadBalancer, InferenceLanes.Lane.of(config)));
+
+        trackSendingProcess(user, futureResult);
+        return futureResult;
+    }
 
-        CompletableFuture<List<AbstractActionObservation>> futureResult = CompletableFuture.supplyAsync(() -> {
+    /**
+     * Sends an already encoded frame asynchronously to a Python server for inference.
+     *
+     * @param encoded the encoded frame, see {@link #encodeFrame(Mat, Map)}
+     * @param user    the user identifier (to correlate tasks and allow interruption)
+     * @param config  a map containing configuration details (e.g., "host", "port")
+     * @return a {@link CompletableFuture} containing a list of {@link AbstractActionObservation}
+     */
+    @Override
+    public CompletableFuture<List<AbstractActionObservation>> sendEncodedFrameAsync(byte[] encoded, String user, Map<String, String> config) {
+        String host = config.getOrDefault("host", "http://localhost");
+        String port = config.getOrDefault("port", "5000");
+        PythonServerLoadBalancer loadBalancer = balancer(host, port);
+
+        CompletableFuture<List<AbstractActionObservation>> futureResult =
+                sendAsync(encoded, loadBalancer, InferenceLanes.Lane.of(config));
+
+        trackSendingProcess(user, futureResult);
+        return futureResult;
+    }
+
+    /**
+     * Sends a frame asynchronously once its lane is granted a request slot.
+     * <br> Video-job frames are grouped by the server's {@link FrameBatcher} when batching is enabled; live frames are
+     * grouped with the live frames of every session by the server's live batcher, only when live batching is enabled,
+     * since waiting for other frames delays them by up to the live latency budget.
+     * <br> Cancelling the returned future withdraws the frame from its lane or batch, or aborts its HTTP call.
+     *
+     * @param frameBytes an encoded image
+     * @param balancer   the load balancer of the target server
+     * @param lane       the lane of the frame, see {@link InferenceLanes.Lane#of(Map)}
+     * @return a {@link CompletableFuture} containing the predictions
+     */
+    private CompletableFuture<List<AbstractActionObservation>> sendAsync(byte[] frameBytes,
+                                                                        PythonServerLoadBalancer balancer,
+                                                                        InferenceLanes.Lane lane) {
+        FrameBatcher<List<ActionObservation>> batcher = lane == InferenceLanes.Lane.LIVE
+                ? liveBatcher(balancer)
+                : batchers.get(balancer);
+        if (batcher != null && batcher.isEnabled() && !batchUnsupported.contains(balancer)) {
+            CompletableFuture<List<ActionObservation>> batched = batcher.submit(frameBytes);
+            return Cancellation.propagate(batched.thenApply(observations ->
+                    observations.stream().map(o -> (AbstractActionObservation) o).toList()), batched);
+        }
+        // Convert List<ActionObservation> -> List<AbstractActionObservation>
+        return lanes.submit(lane, () -> supplyCancellable(handle ->
+                sendByteArray(frameBytes, balancer, lane == InferenceLanes.Lane.LIVE, handle).stream()
+                        .map(o -> (AbstractActionObservation) o).toList()));
+    }
+
+    /**
+     * @param balancer the load balancer of a server
+     * @return the live batcher of the server, or {@code null} if live frames are sent alone
+     */
+    private FrameBatcher<List<ActionObservation>> liveBatcher(PythonServerLoadBalancer balancer) {
+        FrameBatcher<List<ActionObservation>> liveBatcher = liveBatchers.get(balancer);
+        if (liveBatcher == null || !liveBatcher.isEnabled() || batchUnsupported.contains(balancer)) {
+            return null;
+        }
+        return liveBatcher;
+    }
+
+    /**
+     * Runs a blocking request on the {@link #ioExecutor} with its own {@link PythonHttpClient.CallHandle}.
+     * <br> Cancelling the returned future aborts the HTTP call, so that the instance and its connection are freed at
+     * once instead of when the server answers.
+     *
+     * @param request the request, given the handle of its call
+     * @param <T>     the result type
+     * @return a future completing with the result of the request, or failing with its {@link IOException}
+     */
+    private <T> CompletableFuture<T> supplyCancellable(CancellableRequest<T> request) {
+        PythonHttpClient.CallHandle handle = new PythonHttpClient.CallHandle();
+        CompletableFuture<T> future = ioExecutor.supplyAsync(() -> {
             try {
-                byte[] frameBytes = matToByteArray(frame);
-                // Convert List<ActionObservation> -> List<AbstractActionObservation>
-                return sendByteArray(frameBytes, loadBalancer).stream().map(o -> (AbstractActionObservation) o).toList();
-            } catch (CompletionException | CancellationException e) {
-                log.info("Task was cancelled by user");
-                return new ArrayList<>();
+                return request.run(handle);
+            } catch (IOException e) {
+                if (handle.isCancelled()) {
+                    log.debug("Request cancelled: {}", e.getMessage());
+                } else {
+                    log.warn("Request to the Python server failed: {}", e.getMessage());
+                }
+                throw new CompletionException(e);
+            }
+        });
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                handle.cancel();
             }
         });
+        return future;
+    }
 
-        // Track this future in the map for possible interruption later
-        List<CompletableFuture<List<AbstractActionObservation>>> userFutures =
-                imageSenderService.sendingProcesses.getOrDefault(user, new ArrayList<>());
-        userFutures.add(futureResult);
-        imageSenderService.sendingProcesses.put(user, userFutures);
+    /**
+     * A blocking request run by {@link #supplyCancellable(CancellableRequest)}.
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    private interface CancellableRequest<T> {
+        /**
+         * @param handle the handle cancelling the HTTP call of the request
+         * @return the result of the request
+         * @throws IOException if the request failed, was shed or was cancelled
+         */
+        T run(PythonHttpClient.CallHandle handle) throws IOException;
+    }
 
-        return futureResult;
+    /**
+     * Tracks a future in {@link ImageSenderService#sendingProcesses} for possible interruption later.
+     *
+     * @param user   the user identifier
+     * @param future the future to track
+     */
+    private void trackSendingProcess(String user, CompletableFuture<List<AbstractActionObservation>> future) {
+        List<CompletableFuture<List<AbstractActionObservation>>> futures = imageSenderService.sendingProcesses
+                .computeIfAbsent(user, k -> Collections.synchronizedList(new ArrayList<>()));
+        futures.add(future);
+        // Completed futures have nothing left to cancel; dropping them keeps long-running sessions from leaking
+        future.whenComplete((result, e) -> futures.remove(future));
     }
 
     /**
@@ -176,7 +509,8 @@ public class ImageSenderOfPython implements ImageSender {
         }
         List<CompletableFuture<List<AbstractActionObservation>>> futures = imageSenderService.sendingProcesses.get(user);
         try {
-            futures.forEach(future -> future.cancel(true));
+            // Cancelling removes the future from the list, so iterate over a copy
+            List.copyOf(futures).forEach(future -> future.cancel(true));
         } catch (Exception ignored) {
             // Nothing special to handle; the futures are being canceled
         }
@@ -192,13 +526,12 @@ public class ImageSenderOfPython implements ImageSender {
     @Override
     public void interrupt(String user) {
         interruptSendingProcesses(user);
-        imageSenderService.totleFramesMap.remove(user);
-        imageSenderService.progressMap.remove(user);
+        imageSenderService.pipelineMetrics.remove(user);
         imageSenderService.sendingProcesses.remove(user);
 
-        // Delete the temporary video file if present
-        if (imageSenderService.tempFiles.containsKey(user)) {
-            File file = imageSenderService.tempFiles.get(user);
+        // Delete the temporary video file if present; unregistered at once, so a video registered later is kept
+        File file = imageSenderService.tempFiles.remove(user);
+        if (file != null) {
             new Thread(() -> {
                 int cnt = 0;
                 while (!file.delete()) {
@@ -207,85 +540,390 @@ public class ImageSenderOfPython implements ImageSender {
                         break;
                     }
                 }
-                imageSenderService.tempFiles.remove(user);
             }).start();
         }
     }
 
     /**
-     * Converts an OpenCV {@link Mat} object to a PNG-encoded byte array.
+     * Sends a byte array (encoded image) to the selected Python server instance and processes the response into
+     * {@link ActionObservation} objects.
      *
-     * @param mat the OpenCV Mat image
-     * @return a PNG-encoded byte array
+     * @param frameBytes an encoded image, see {@link FrameEncoder}
+     * @param balancer   the {@link PythonServerLoadBalancer} to select the best instance for load balancing
+     * @return a list of {@link ActionObservation} returned by the Python server
+     * @throws IOException if the request failed on every attempt, e.g. its instances timed out or were ejected
+     * @see #callInstance(PythonServerLoadBalancer, InstanceCall, PythonServerLoadBalancer.Endpoint, int)
      */
-    private byte[] matToByteArray(Mat mat) {
-        MatOfByte buf = new MatOfByte();
-        if (!Imgcodecs.imencode(".png", mat, buf)) {
-            log.warn("Error occurred when converting Mat to byte array");
-        }
-        return buf.toArray();
+    public List<ActionObservation> sendByteArray(byte[] frameBytes, PythonServerLoadBalancer balancer)
+            throws IOException {
+        return sendByteArray(frameBytes, balancer, false, null);
     }
 
     /**
-     * Sends a byte array (PNG-encoded image) to the selected Python server instance and processes the response into
-     * {@link ActionObservation} objects.
+     * Sends a byte array (encoded image) to the selected Python server instance, hedged if live, and processes the
+     * response into {@link ActionObservation} objects.
      *
-     * @param frameBytes a PNG-encoded byte array
+     * @param frameBytes an encoded image, see {@link FrameEncoder}
      * @param balancer   the {@link PythonServerLoadBalancer} to select the best instance for load balancing
+     * @param live       whether the frame is live: a slow request may be duplicated to another instance (see
+     *                   {@link HedgePolicy}), and the request is shed if every instance stays at its concurrency limit
+     * @param handle     the handle cancelling the request, or {@code null}
      * @return a list of {@link ActionObservation} returned by the Python server
-     * @see PythonServerLoadBalancer#getBestInstance()
+     * @throws IOException if the request failed on every attempt, was shed or was cancelled; a failed frame is never
+     *                     reported as a frame without observations
      */
-    public List<ActionObservation> sendByteArray(byte[] frameBytes, PythonServerLoadBalancer balancer) {
-        balancer.resetUnusedTime();
-        String bestInstanceUrl = balancer.getBestInstance();
+    private List<ActionObservation> sendByteArray(byte[] frameBytes, PythonServerLoadBalancer balancer,
+                                                  boolean live, PythonHttpClient.CallHandle handle)
+            throws IOException {
+        InstanceCall<List<ActionObservation>> call = (url, callHandle) -> {
+            log.debug("Sending image to {}", url);
+            return httpClient.postBytes(url + "/process_image", frameBytes, callHandle, accept(),
+                    observationParser::parseFrame);
+        };
+        return live ? callHedged(balancer, call, handle) : callInstance(balancer, call, handle, null, 2, false);
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-        HttpEntity<byte[]> requestEntity = new HttpEntity<>(frameBytes, headers);
+    /**
+     * Sends several encoded frames in one request to the batch endpoint {@code /process_images} of the selected Python
+     * server instance.
+     * <br> The frames are posted as {@code multipart/form-data} parts named {@code frames}; the server answers with
+     * {@code {"results": [{"actionObservations": [...]}, ...]}}, one entry per frame in the same order.
+     * <br> A server without the batch endpoint (404 or 405) is remembered and its frames are sent one by one from then
+     * on, starting with these ones.
+     *
+     * @param frames   encoded images, see {@link FrameEncoder}
+     * @param balancer the {@link PythonServerLoadBalancer} to select the best instance for load balancing
+     * @return the {@link ActionObservation}s of each frame, in order
+     * @throws IOException if the request failed on every attempt, or the answer does not hold one result per frame
+     */
+    public List<List<ActionObservation>> sendByteArrays(List<byte[]> frames, PythonServerLoadBalancer balancer)
+            throws IOException {
+        return sendByteArrays(frames, balancer, false, null);
+    }
 
+    /**
+     * {@link #sendByteArrays(List, PythonServerLoadBalancer)}, cancelled through a handle.
+     *
+     * @param frames   encoded images, see {@link FrameEncoder}
+     * @param balancer the {@link PythonServerLoadBalancer} to select the best instance for load balancing
+     * @param live     whether the frames are live, and the request is shed if every instance stays at its concurrency
+     *                 limit; video-job frames wait instead
+     * @param handle   the handle cancelling the request, or {@code null}
+     * @return the {@link ActionObservation}s of each frame, in order
+     * @throws IOException if the request failed on every attempt, was shed or was cancelled, or the answer does not
+     *                     hold one result per frame
+     */
+    private List<List<ActionObservation>> sendByteArrays(List<byte[]> frames, PythonServerLoadBalancer balancer,
+                                                         boolean live, PythonHttpClient.CallHandle handle)
+            throws IOException {
         try {
-            log.info("Sending image to {}", bestInstanceUrl);
-            RestTemplate restTemplate = new RestTemplate();
-            ResponseEntity<String> response = restTemplate.postForEntity(
-                    bestInstanceUrl + "/process_image",
-                    requestEntity,
-                    String.class
-            );
-
-            if (response.getBody() != null) {
-                // Clean up single quotes, if any, and parse the JSON
-                String responseBody = response.getBody().replace("'", "");
-                return objectMapper.readValue(responseBody, ImageProcessResult.class).getActionObservations();
+            return callInstance(balancer, (url, callHandle) -> {
+                log.debug("Sending {} images to {}", frames.size(), url);
+                List<List<ActionObservation>> results = httpClient.postFrames(url + "/process_images", frames,
+                        callHandle, accept(), observationParser::parseBatch);
+                if (results.size() != frames.size()) {
+                    throw new JsonMappingException(null, "Expected " + frames.size() + " results from " + url
+                            + ", got " + results.size());
+                }
+                return results;
+            }, handle, null, 2, live);
+        } catch (PythonHttpClient.StatusException e) {
+            if (e.getCode() != 404 && e.getCode() != 405) {
+                throw e;
             }
-        } catch (RestClientException e) {
-            log.warn("Error processing image on best instance: {}", e.getMessage());
-        } catch (JsonMappingException e) {
-            log.warn("Error mapping JSON response: {}", e.getMessage());
-        } catch (JsonProcessingException e) {
-            log.error("Error processing JSON response: {}", e.getMessage());
+            log.warn("No batch endpoint ({}), sending frames one by one", e.getMessage());
+            batchUnsupported.add(balancer);
+            List<List<ActionObservation>> results = new ArrayList<>();
+            for (byte[] frame : frames) {
+                results.add(sendByteArray(frame, balancer, live, handle));
+            }
+            return results;
         }
-
-        return new ArrayList<>();
     }
 
     /**
-     * <b>Internal helper class</b> used to parse the recognition results returned by the Python server.
-     * <br> Contains a list of {@link ActionObservation} and a timestamp {@code t}.
+     * A request to one Python instance.
+     *
+     * @param <T> the result type
      */
-    @Getter
-    @Setter
-    @NoArgsConstructor
-    static class ImageProcessResult {
-
+    @FunctionalInterface
+    interface InstanceCall<T> {
         /**
-         * The list of recognized actions from the Python server.
+         * @param url    the base URL of the instance
+         * @param handle the handle cancelling the HTTP call, e.g. when a hedge answered first
+         * @return the parsed response
+         * @throws IOException if the request fails or the response cannot be parsed
          */
-        @JsonProperty("actionObservations")
-        private List<ActionObservation> actionObservations = new ArrayList<>();
+        T call(String url, PythonHttpClient.CallHandle handle) throws IOException;
+    }
 
-        /**
-         * A timestamp (optional), indicating when the inference occurred.
-         */
-        private Long t;
+    /**
+     * Runs a request on an instance chosen by the load balancer and reports its outcome to the instance's circuit
+     * breaker.
+     * <br> If the instance cannot be reached, times out or answers 5xx, the request is retried on another instance, so
+     * with two attempts a frame is only lost if two instances fail it. A 4xx status or an unreadable response is not
+     * retried: another instance would answer the same.
+     *
+     * @param balancer the load balancer of the target server
+     * @param call     the request
+     * @param failed   an instance the request already failed on, or {@code null}
+     * @param attempts the number of attempts
+     * @param <T>      the result type
+     * @return the result of the request
+     * @throws IOException the failure of the last attempt
+     */
+    private <T> T callInstance(PythonServerLoadBalancer balancer, InstanceCall<T> call,
+                               PythonServerLoadBalancer.Endpoint failed, int attempts) throws IOException {
+        return callInstance(balancer, call, null, failed, attempts, false);
+    }
+
+    /**
+     * {@link #callInstance(PythonServerLoadBalancer, InstanceCall, PythonServerLoadBalancer.Endpoint, int)}, cancelled
+     * through a handle.
+     * <br> A cancelled request is not retried, and its instance is released without a sample: the aborted call says
+     * nothing about the health or latency of the instance.
+     * <br> Only a live request is shed when every instance stays at its concurrency limit; a video-job request waits
+     * for an instance until it is cancelled, see
+     * {@link PythonServerLoadBalancer#acquire(PythonServerLoadBalancer.Endpoint, boolean, java.util.function.BooleanSupplier)}.
+     *
+     * @param balancer the load balancer of the target server
+     * @param call     the request
+     * @param handle   the handle cancelling the request, or {@code null}
+     * @param failed   an instance the request already failed on, or {@code null}
+     * @param attempts the number of attempts
+     * @param live     whether the request is live and may be shed
+     * @param <T>      the result type
+     * @return the result of the request
+     * @throws IOException the failure of the last attempt, or an {@link InterruptedIOException} if cancelled
+     */
+    private <T> T callInstance(PythonServerLoadBalancer balancer, InstanceCall<T> call,
+                               PythonHttpClient.CallHandle handle, PythonServerLoadBalancer.Endpoint failed,
+                               int attempts, boolean live) throws IOException {
+        balancer.resetUnusedTime();
+        IOException failure = null;
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            if (cancelled(handle)) {
+                throw new InterruptedIOException("Request was cancelled");
+            }
+            PythonServerLoadBalancer.Endpoint endpoint = balancer.acquire(failed, live, () -> cancelled(handle));
+            if (endpoint == null) {
+                break;
+            }
+            long start = System.nanoTime();
+            boolean healthy = false;
+            try {
+                T result = call.call(endpoint.getUrl(), handle);
+                healthy = true;
+                return result;
+            } catch (PythonHttpClient.StatusException e) {
+                if (e.getCode() < 500) {
+                    healthy = true;
+                    throw e;
+                }
+                failure = e;
+            } catch (JsonProcessingException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                if (cancelled(handle)) {
+                    endpoint.release();
+                } else {
+                    endpoint.release(healthy, System.nanoTime() - start);
+                }
+            }
+            if (cancelled(handle)) {
+                throw failure;
+            }
+            log.debug("Request to {} failed, retrying on another instance: {}", endpoint.getUrl(), failure.getMessage());
+            failed = endpoint;
+        }
+        throw failure != null ? failure : new InterruptedIOException("Interrupted while waiting for a Python instance");
     }
+
+    /**
+     * Runs a request, hedged: if it has not answered after {@link HedgePolicy#delayMs()}, and the hedge budget allows,
+     * the same request is sent to another instance. The first successful answer wins and the other call is cancelled.
+     * <br> The first request runs on the calling thread, the hedge on the bounded pool of the {@link HedgeExecutor}.
+     * <br> Without enough latency samples, with hedging disabled or with a single instance, this is
+     * {@link #callInstance(PythonServerLoadBalancer, InstanceCall, PythonServerLoadBalancer.Endpoint, int)}, whose
+     * latency is recorded all the same: it is what the hedge delay is computed from.
+     *
+     * @param balancer the load balancer of the target server
+     * @param call     the request
+     * @param handle   the handle cancelling both requests, or {@code null}
+     * @param <T>      the result type
+     * @return the first successful result
+     * @throws IOException if both requests failed, or the only one did
+     */
+    private <T> T callHedged(PythonServerLoadBalancer balancer, InstanceCall<T> call,
+                             PythonHttpClient.CallHandle handle) throws IOException {
+        long delayMs = hedgePolicy.delayMs();
+        if (delayMs < 0 || balancer.getEndpoints().size() < 2) {
+            // Unhedged requests still feed the latency percentile, or hedging could never start
+            long start = System.nanoTime();
+            T result = callInstance(balancer, call, handle, null, 2, true);
+            hedgePolicy.record(elapsedMs(start), false);
+            return result;
+        }
+        balancer.resetUnusedTime();
+        PythonServerLoadBalancer.Endpoint primaryEndpoint = balancer.acquire(null, true, () -> cancelled(handle));
+        if (primaryEndpoint == null) {
+            throw new InterruptedIOException("Interrupted while waiting for a Python instance");
+        }
+        Attempt<T> primary = new Attempt<>(primaryEndpoint, call);
+        if (handle != null) {
+            handle.onCancel(primary::cancel);
+        }
+        AtomicBoolean hedged = new AtomicBoolean();
+        try {
+            return hedgeExecutor.call(primary, () -> {
+                PythonServerLoadBalancer.Endpoint hedgeEndpoint = balancer.tryAcquire(primaryEndpoint);
+                if (hedgeEndpoint == primaryEndpoint) {
+                    hedgeEndpoint.release();
+                    return null;
+                }
+                if (hedgeEndpoint == null) {
+                    return null;
+                }
+                Attempt<T> hedge = new Attempt<>(hedgeEndpoint, call);
+                if (handle != null) {
+                    handle.onCancel(hedge::cancel);
+                }
+                hedged.set(true);
+                return hedge;
+            }, delayMs);
+        } catch (IOException e) {
+            if (hedged.get() || cancelled(handle) || !retryable(e)) {
+                throw e;
+            }
+            return callInstance(balancer, call, handle, primaryEndpoint, 1, true);
+        }
+    }
+
+    private static boolean cancelled(PythonHttpClient.CallHandle handle) {
+        return handle != null && handle.isCancelled();
+    }
+
+    private static boolean retryable(IOException failure) {
+        if (failure instanceof PythonHttpClient.StatusException statusException) {
+            return statusException.getCode() >= 500;
+        }
+        return !(failure instanceof JsonProcessingException);
+    }
+
+    private static IOException ioCause(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof IOException ioException ? ioException : new IOException(cause);
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * One request of a hedged pair, run by the {@link HedgeExecutor}: the primary on the caller's thread, the hedge on
+     * a hedge thread.
+     * <br> The instance is released with the outcome of the request, unless the request was cancelled because the
+     * other one answered first, which says nothing about the instance.
+     *
+     * @param <T> the result type
+     */
+    private static final class Attempt<T> implements HedgeExecutor.Attempt<T> {
+        private final PythonServerLoadBalancer.Endpoint endpoint;
+        private final InstanceCall<T> call;
+        private final PythonHttpClient.CallHandle handle = new PythonHttpClient.CallHandle();
+
+        private Attempt(PythonServerLoadBalancer.Endpoint endpoint, InstanceCall<T> call) {
+            this.endpoint = endpoint;
+            this.call = call;
+        }
+
+        @Override
+        public T run() throws IOException {
+            long start = System.nanoTime();
+            boolean healthy = false;
+            try {
+                T result = call.call(endpoint.getUrl(), handle);
+                healthy = true;
+                return result;
+            } catch (PythonHttpClient.StatusException e) {
+                healthy = e.getCode() < 500;
+                throw e;
+            } finally {
+                if (handle.isCancelled()) {
+                    endpoint.release();
+                } else {
+                    endpoint.release(healthy, System.nanoTime() - start);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * Refreshes the instance list of every Python server, see
+     * {@link PythonServerLoadBalancer#fetchPythonInstancesAsync()}.
+     */
+    public void refreshInstances() {
+        loadBalancers.values().forEach(PythonServerLoadBalancer::fetchPythonInstancesAsync);
+    }
+
+    /**
+     * Checks the instances of every Python server, see {@link PythonServerLoadBalancer#checkHealth()}.
+     */
+    public void checkHealth() {
+        loadBalancers.values().forEach(PythonServerLoadBalancer::checkHealth);
+    }
+
+    /**
+     * @return the concurrency limit of every instance of every Python server
+     */
+    public List<ConcurrencyLimitDto> getConcurrencyLimits() {
+        List<ConcurrencyLimitDto> limits = new ArrayList<>();
+        loadBalancers.values().forEach(balancer -> limits.addAll(balancer.toLimitDto()));
+        return limits;
+    }
+
+    /**
+     * @return the state of the live and video-job batchers of every Python server
+     */
+    public List<FrameBatchStatsDto> getFrameBatchStats() {
+        List<FrameBatchStatsDto> stats = new ArrayList<>();
+        loadBalancers.forEach((server, balancer) -> {
+            FrameBatcher<List<ActionObservation>> liveBatcher = liveBatchers.get(balancer);
+            if (liveBatcher != null) {
+                stats.add(liveBatcher.toDto(server, "live"));
+            }
+            FrameBatcher<List<ActionObservation>> batcher = batchers.get(balancer);
+            if (batcher != null) {
+                stats.add(batcher.toDto(server, "batch"));
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * @return the health of every instance of every Python server
+     */
+    public List<PythonInstanceHealthDto> getInstanceHealth() {
+        List<PythonInstanceHealthDto> health = new ArrayList<>();
+        loadBalancers.values().forEach(balancer -> health.addAll(balancer.toDto()));
+        return health;
+    }
+
+    /**
+     * @return the {@code Accept} header asking for the binary response format, if enabled, see
+     * {@link ConfigService#getPythonBinaryResponses()}
+     */
+    private String accept() {
+        return Boolean.parseBoolean(configService.getPythonBinaryResponses()) ? ObservationParser.ACCEPT_BINARY : null;
+    }
+
 }
@@ -0,0 +1,203 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import nusri.fyp.demo.state_machine.ActionObservation;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <b>Parses the responses of the Python servers straight from the response stream into {@link ActionObservation}s.</b>
+ * <br>
+ * <p>Reading the body into a {@code String}, stripping quotes over the whole of it and mapping it through a Jackson
+ * tree made several copies of every response on the hot path. Here the body is read once, token by token, and only the
+ * observations themselves are allocated. Two formats are understood:</p>
+ * <ul>
+ *   <li><b>JSON</b> ({@code application/json}): {@code {"actionObservations": [{"actionAndObject": "...",
+ *       "probability": 0.9}, ...], "t": ...}} for one frame, and {@code {"results": [<one frame>, ...]}} for a batch.
+ *       Unknown fields are skipped. Single quotes inside labels are dropped, as the servers used to send some labels
+ *       quoted.</li>
+ *   <li><b>Binary</b> ({@value #BINARY_TYPE}), sent by servers that support it when the request accepts it. All
+ *       numbers are big-endian:
+ *       <pre>
+ * "EOB1"                              4 bytes, magic and version
+ * u16 labelCount, labelCount times:   u16 byteLength, UTF-8 bytes
+ * u16 frameCount, frameCount times:   u16 observationCount, observationCount times: u16 labelIndex, f32 probability
+ *       </pre>
+ *       Each label is sent and decoded once per response, however many observations share it. A single-frame
+ *       response has {@code frameCount} 1.</li>
+ * </ul>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ImageSenderOfPython
+ */
+public class ObservationParser {
+
+    /**
+     * The media type of the binary format.
+     */
+    public static final String BINARY_TYPE = "application/x-eoid-observations";
+
+    /**
+     * The {@code Accept} header of requests preferring the binary format; servers that do not know it answer JSON.
+     */
+    public static final String ACCEPT_BINARY = BINARY_TYPE + ", application/json;q=0.9";
+
+    private static final byte[] MAGIC = {'E', 'O', 'B', '1'};
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * @param jsonFactory the factory of the streaming JSON parsers, e.g. the one of the application's
+     *                    {@link com.fasterxml.jackson.databind.ObjectMapper}
+     */
+    public ObservationParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Parses the response to one frame.
+     *
+     * @param contentType the {@code Content-Type} of the response, or {@code null}
+     * @param body        the response body
+     * @return the observations of the frame; empty for an empty body
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    public List<ActionObservation> parseFrame(String contentType, InputStream body) throws IOException {
+        if (isBinary(contentType)) {
+            List<List<ActionObservation>> frames = parseBinary(body);
+            return frames.isEmpty() ? new ArrayList<>() : frames.get(0);
+        }
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() == null) {
+                return new ArrayList<>();
+            }
+            return readFrame(parser);
+        }
+    }
+
+    /**
+     * Parses the response to a batch of frames.
+     *
+     * @param contentType the {@code Content-Type} of the response, or {@code null}
+     * @param body        the response body
+     * @return the observations of each frame, in order
+     * @throws IOException if the body cannot be read or is malformed
+     */
+    public List<List<ActionObservation>> parseBatch(String contentType, InputStream body) throws IOException {
+        if (isBinary(contentType)) {
+            return parseBinary(body);
+        }
+        List<List<ActionObservation>> frames = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("results".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        frames.add(readFrame(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Reads one frame object; the parser is on its {@code START_OBJECT} and is left on its {@code END_OBJECT}.
+     */
+    private static List<ActionObservation> readFrame(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        List<ActionObservation> observations = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("actionObservations".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    observations.add(readObservation(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return observations;
+    }
+
+    private static ActionObservation readObservation(JsonParser parser) throws IOException {
+        ActionObservation observation = new ActionObservation();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("actionAndObject".equals(field) && value == JsonToken.VALUE_STRING) {
+                String label = parser.getText();
+                observation.setActionAndObject(label.indexOf('\'') >= 0 ? label.replace("'", "") : label);
+            } else if ("probability".equals(field) && value.isScalarValue()) {
+                // Also accepts probabilities sent as strings, like the data binding did
+                observation.setProbability(parser.getValueAsDouble());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return observation;
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static List<List<ActionObservation>> parseBinary(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(body);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not a " + BINARY_TYPE + " response");
+            }
+        }
+        String[] labels = new String[in.readUnsignedShort()];
+        byte[] buffer = new byte[64];
+        for (int i = 0; i < labels.length; i++) {
+            int length = in.readUnsignedShort();
+            if (length > buffer.length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            labels[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+        int frameCount = in.readUnsignedShort();
+        List<List<ActionObservation>> frames = new ArrayList<>(frameCount);
+        for (int f = 0; f < frameCount; f++) {
+            int count = in.readUnsignedShort();
+            List<ActionObservation> observations = new ArrayList<>(count);
+            for (int o = 0; o < count; o++) {
+                int label = in.readUnsignedShort();
+                if (label >= labels.length) {
+                    throw new IOException("Label index " + label + " out of " + labels.length);
+                }
+                ActionObservation observation = new ActionObservation();
+                observation.setActionAndObject(labels[label]);
+                observation.setProbability(in.readFloat());
+                observations.add(observation);
+            }
+            frames.add(observations);
+        }
+        return frames;
+    }
+
+    private static boolean isBinary(String contentType) {
+        return contentType != null && contentType.startsWith(BINARY_TYPE);
+    }
+}
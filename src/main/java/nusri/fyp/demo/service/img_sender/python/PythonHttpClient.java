@@ -0,0 +1,425 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import jakarta.annotation.Nonnull;
+import lombok.Getter;
+import nusri.fyp.demo.dto.HttpClientStatsDto;
+import nusri.fyp.demo.service.ConfigService;
+import nusri.fyp.demo.service.img_sender.pipeline.Ewma;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <b>The shared, connection-pooled HTTP client used for every call to the Python servers.</b>
+ * <br>
+ * <p>Creating a client per frame opens a new TCP connection for every frame, so each frame pays for the handshake
+ * and the server for a new socket. All frames and instance polls instead go through one {@link OkHttpClient}:</p>
+ * <ul>
+ *   <li>Connections are kept alive and reused from a {@link ConnectionPool} of
+ *       {@link ConfigService#getPythonHttpMaxIdleConnections()} idle connections, each kept
+ *       {@link ConfigService#getPythonHttpKeepAliveSeconds()} seconds.</li>
+ *   <li>At most {@link ConfigService#getPythonHttpMaxPerRoute()} requests run at the same time against one
+ *       {@code host:port}, so a single worker is never flooded with connections.</li>
+ *   <li>Connect and read timeouts come from {@link ConfigService#getPythonHttpConnectTimeoutMs()} and
+ *       {@link ConfigService#getPythonHttpReadTimeoutMs()}; a change is picked up by the next request.</li>
+ *   <li>HTTP/2 is negotiated with workers served over TLS that support it; plain-text workers keep HTTP/1.1 with
+ *       keep-alive.</li>
+ * </ul>
+ * <p>An {@link EventListener} counts new connections and the time spent in TCP and TLS setup, so the effect of
+ * connection reuse can be checked with {@link #toDto()}.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see ImageSenderOfPython
+ * @see PythonServerLoadBalancer
+ */
+public class PythonHttpClient {
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    /**
+     * Reads the whole response into a string.
+     */
+    private static final ResponseReader<String> STRING = (contentType, body) ->
+            new String(body.readAllBytes(), StandardCharsets.UTF_8);
+
+    private final ConfigService configService;
+    private final int maxIdleConnections;
+    private final ConnectionPool connectionPool;
+    private final OkHttpClient baseClient;
+
+    /**
+     * The client with the current timeouts, sharing the pool and dispatcher of {@link #baseClient}.
+     */
+    private volatile Timed client;
+
+    /**
+     * The in-flight limit of each route, keyed by {@code host:port}.
+     */
+    private final Map<String, RouteLimit> routes = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder tlsHandshakes = new LongAdder();
+    private final LongAdder connectNanos = new LongAdder();
+    private final Ewma latencyMs = new Ewma();
+
+    /**
+     * Creates the client; the pool size and keep-alive time are read once, at startup.
+     *
+     * @param configService the configuration service providing the pool settings and timeouts
+     */
+    public PythonHttpClient(ConfigService configService) {
+        this.configService = configService;
+        this.maxIdleConnections = Integer.parseInt(configService.getPythonHttpMaxIdleConnections());
+        this.connectionPool = new ConnectionPool(maxIdleConnections,
+                Long.parseLong(configService.getPythonHttpKeepAliveSeconds()), TimeUnit.SECONDS);
+        this.baseClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .eventListener(new ConnectionListener())
+                .build();
+    }
+
+    /**
+     * Posts an encoded frame.
+     *
+     * @param url   the endpoint, e.g. {@code http://localhost:5001/process_image}
+     * @param bytes the request body
+     * @return the response body
+     * @throws IOException if the request fails, times out or the response status is not 2xx
+     */
+    public String postBytes(String url, byte[] bytes) throws IOException {
+        return postBytes(url, bytes, null, null, STRING);
+    }
+
+    /**
+     * Posts an encoded frame and hands the response stream to a reader, without copying the body into a string.
+     *
+     * @param url    the endpoint, e.g. {@code http://localhost:5001/process_image}
+     * @param bytes  the request body
+     * @param handle the handle cancelling the call, or {@code null}
+     * @param accept the {@code Accept} header, or {@code null}
+     * @param reader reads the response
+     * @param <T>    the type of the parsed response
+     * @return the parsed response
+     * @throws IOException if the request fails, is cancelled, times out, the response status is not 2xx or the reader
+     *                     fails
+     */
+    public <T> T postBytes(String url, byte[] bytes, CallHandle handle, String accept, ResponseReader<T> reader)
+            throws IOException {
+        Request.Builder request = new Request.Builder().url(url).post(RequestBody.create(bytes, OCTET_STREAM));
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        return execute(request.build(), client(), handle, reader);
+    }
+
+    /**
+     * Posts several encoded frames in one {@code multipart/form-data} request, as parts named {@code frames}, and
+     * hands the response stream to a reader.
+     *
+     * @param url    the endpoint, e.g. {@code http://localhost:5001/process_images}
+     * @param frames the encoded frames, in order
+     * @param handle the handle cancelling the call, or {@code null}
+     * @param accept the {@code Accept} header, or {@code null}
+     * @param reader reads the response
+     * @param <T>    the type of the parsed response
+     * @return the parsed response
+     * @throws IOException if the request fails, is cancelled, times out, the response status is not 2xx or the reader
+     *                     fails
+     */
+    public <T> T postFrames(String url, List<byte[]> frames, CallHandle handle, String accept, ResponseReader<T> reader)
+            throws IOException {
+        MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (int i = 0; i < frames.size(); i++) {
+            body.addFormDataPart("frames", "frame" + i, RequestBody.create(frames.get(i), OCTET_STREAM));
+        }
+        Request.Builder request = new Request.Builder().url(url).post(body.build());
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        return execute(request.build(), client(), handle, reader);
+    }
+
+    /**
+     * Sends a GET request.
+     *
+     * @param url the endpoint, e.g. {@code http://localhost:5000/instances}
+     * @return the response body
+     * @throws IOException if the request fails, times out or the response status is not 2xx
+     */
+    public String get(String url) throws IOException {
+        return execute(new Request.Builder().url(url).get().build());
+    }
+
+    /**
+     * Sends a GET request that gives up after {@code timeoutMs}, e.g. a health check.
+     *
+     * @param url       the endpoint, e.g. {@code http://localhost:5001/health}
+     * @param timeoutMs the time allowed for the whole call, connection included, in milliseconds
+     * @return the response body
+     * @throws IOException if the request fails, times out or the response status is not 2xx
+     */
+    public String get(String url, long timeoutMs) throws IOException {
+        return execute(new Request.Builder().url(url).get().build(),
+                client().newBuilder().callTimeout(timeoutMs, TimeUnit.MILLISECONDS).build(), null, STRING);
+    }
+
+    private String execute(Request request) throws IOException {
+        return execute(request, client(), null, STRING);
+    }
+
+    private <T> T execute(Request request, OkHttpClient client, CallHandle handle, ResponseReader<T> reader)
+            throws IOException {
+        if (handle != null && handle.isCancelled()) {
+            throw new InterruptedIOException("Call to " + request.url() + " was cancelled");
+        }
+        RouteLimit limit = routeLimit(request.url());
+        try {
+            limit.semaphore().acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + limit.route());
+        }
+        requests.increment();
+        long start = System.nanoTime();
+        Call call = client.newCall(request);
+        if (handle != null) {
+            handle.attach(call);
+        }
+        try (Response response = call.execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful()) {
+                throw new StatusException(response.code(),
+                        response.code() + " " + response.message() + " from " + request.url());
+            }
+            if (body == null) {
+                return reader.read(null, InputStream.nullInputStream());
+            }
+            MediaType contentType = body.contentType();
+            return reader.read(contentType != null ? contentType.toString() : null, body.byteStream());
+        } catch (IOException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            latencyMs.update((System.nanoTime() - start) / 1e6);
+            limit.semaphore().release();
+        }
+    }
+
+    /**
+     * @return the client with the configured timeouts, rebuilt only when they change
+     */
+    private OkHttpClient client() {
+        long connectTimeout = Long.parseLong(configService.getPythonHttpConnectTimeoutMs());
+        long readTimeout = Long.parseLong(configService.getPythonHttpReadTimeoutMs());
+        Timed current = client;
+        if (current == null || current.connectTimeout() != connectTimeout || current.readTimeout() != readTimeout) {
+            current = new Timed(connectTimeout, readTimeout, baseClient.newBuilder()
+                    .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                    .writeTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                    .build());
+            client = current;
+        }
+        return current.client();
+    }
+
+    /**
+     * @param url the request URL
+     * @return the in-flight limit of its route, resized if the configured size has changed
+     */
+    private RouteLimit routeLimit(HttpUrl url) {
+        String route = url.host() + ':' + url.port();
+        int permits = Math.max(1, Integer.parseInt(configService.getPythonHttpMaxPerRoute()));
+        // Requests still holding permits of a replaced limit release them there, which is harmless
+        return routes.compute(route, (k, limit) ->
+                limit == null || limit.permits() != permits ? new RouteLimit(route, permits) : limit);
+    }
+
+    /**
+     * Closes the idle connections and stops the client's threads.
+     */
+    public void close() {
+        connectionPool.evictAll();
+        baseClient.dispatcher().executorService().shutdown();
+    }
+
+    /**
+     * @return a snapshot of the pool utilisation and connection counters
+     */
+    public HttpClientStatsDto toDto() {
+        HttpClientStatsDto dto = new HttpClientStatsDto();
+        dto.setConnections(connectionPool.connectionCount());
+        dto.setIdleConnections(connectionPool.idleConnectionCount());
+        dto.setMaxIdleConnections(maxIdleConnections);
+        Map<String, Integer> inFlight = new ConcurrentHashMap<>();
+        routes.values().forEach(limit -> inFlight.put(limit.route(),
+                limit.permits() - limit.semaphore().availablePermits()));
+        dto.setInFlightPerRoute(inFlight);
+        long requestCount = requests.sum();
+        long opened = connectionsOpened.sum();
+        dto.setRequests(requestCount);
+        dto.setFailures(failures.sum());
+        dto.setConnectionsOpened(opened);
+        dto.setTlsHandshakes(tlsHandshakes.sum());
+        dto.setConnectionReuseRatio(requestCount > 0 ? Math.max(0, 1 - (double) opened / requestCount) : 0);
+        dto.setAverageConnectMs(opened > 0 ? connectNanos.sum() / 1e6 / opened : 0);
+        dto.setLatencyMs(latencyMs.get());
+        return dto;
+    }
+
+    /**
+     * Counts the connections opened and the time spent establishing them, TLS included.
+     */
+    private class ConnectionListener extends EventListener {
+        private final Map<Call, Long> connectStarts = new ConcurrentHashMap<>();
+
+        @Override
+        public void connectStart(@Nonnull Call call, @Nonnull InetSocketAddress address, @Nonnull Proxy proxy) {
+            connectStarts.put(call, System.nanoTime());
+        }
+
+        @Override
+        public void secureConnectEnd(@Nonnull Call call, Handshake handshake) {
+            tlsHandshakes.increment();
+        }
+
+        @Override
+        public void connectEnd(@Nonnull Call call, @Nonnull InetSocketAddress address, @Nonnull Proxy proxy,
+                               Protocol protocol) {
+            recordConnect(call);
+        }
+
+        @Override
+        public void connectFailed(@Nonnull Call call, @Nonnull InetSocketAddress address, @Nonnull Proxy proxy,
+                                  Protocol protocol, @Nonnull IOException e) {
+            recordConnect(call);
+        }
+
+        private void recordConnect(Call call) {
+            Long start = connectStarts.remove(call);
+            if (start != null) {
+                connectionsOpened.increment();
+                connectNanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Reads a successful response while the connection is still held.
+     *
+     * @param <T> the type of the parsed response
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+        /**
+         * @param contentType the {@code Content-Type} of the response, or {@code null}
+         * @param body        the response body, closed by the client afterwards
+         * @return the parsed response
+         * @throws IOException if the body cannot be read or parsed
+         */
+        T read(String contentType, InputStream body) throws IOException;
+    }
+
+    /**
+     * Cancels a call from another thread, e.g. the losing request of a hedged pair, or a frame whose job was cancelled.
+     * <br> A handle cancelled before its call started cancels the call as soon as it starts.
+     */
+    public static class CallHandle {
+        private Call call;
+        private boolean cancelled;
+        private final List<Runnable> onCancel = new ArrayList<>();
+
+        private synchronized void attach(Call call) {
+            this.call = call;
+            if (cancelled) {
+                call.cancel();
+            }
+        }
+
+        /**
+         * Cancels the call; it fails with an {@link IOException}.
+         */
+        public void cancel() {
+            List<Runnable> actions;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (call != null) {
+                    call.cancel();
+                }
+                actions = List.copyOf(onCancel);
+                onCancel.clear();
+            }
+            actions.forEach(Runnable::run);
+        }
+
+        /**
+         * Runs an action when the handle is cancelled, e.g. to cancel the calls of a hedged pair along with it.
+         *
+         * @param action the action; run at once if the handle is already cancelled
+         */
+        public void onCancel(Runnable action) {
+            synchronized (this) {
+                if (!cancelled) {
+                    onCancel.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        /**
+         * @return whether {@link #cancel()} was called
+         */
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Thrown when a server answers with a non-2xx status.
+     */
+    @Getter
+    public static class StatusException extends IOException {
+        private final int code;
+
+        private StatusException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    /**
+     * A client together with the timeouts it was built with.
+     */
+    private record Timed(long connectTimeout, long readTimeout, OkHttpClient client) {
+    }
+
+    /**
+     * A semaphore bounding the requests in flight to one route, together with its size.
+     */
+    private record RouteLimit(String route, int permits, Semaphore semaphore) {
+        private RouteLimit(String route, int permits) {
+            this(route, permits, new Semaphore(permits));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import nusri.fyp.demo.dto.PythonInstanceHealthDto;
+import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * <b>Reports the Python instances under {@code /actuator/health}, as the {@code pythonInstances} component.</b>
+ * <br>
+ * <p>The status is:</p>
+ * <ul>
+ *   <li>{@code UP} when no instance is ejected;</li>
+ *   <li>{@code DEGRADED} when some instances are ejected or recovering, but every server still has a healthy one;</li>
+ *   <li>{@code DOWN} when every instance of a server is ejected;</li>
+ *   <li>{@code UNKNOWN} when no instance is known yet.</li>
+ * </ul>
+ * <p>The details list every instance, see {@link PythonInstanceHealthDto}.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see PythonServerLoadBalancer#checkHealth()
+ */
+@Component("pythonInstances")
+public class PythonInstancesHealthIndicator implements HealthIndicator {
+
+    private final ImageSenderService imageSenderService;
+
+    /**
+     * @param imageSenderService the service holding the load balancers of the Python servers
+     */
+    public PythonInstancesHealthIndicator(ImageSenderService imageSenderService) {
+        this.imageSenderService = imageSenderService;
+    }
+
+    @Override
+    public Health health() {
+        List<PythonInstanceHealthDto> instances = imageSenderService.getPythonInstanceHealth();
+        if (instances.isEmpty()) {
+            return Health.unknown().build();
+        }
+        Map<String, List<PythonInstanceHealthDto>> byServer = instances.stream()
+                .collect(Collectors.groupingBy(PythonInstanceHealthDto::getServer));
+        boolean serverDown = byServer.values().stream().anyMatch(server -> server.stream()
+                .allMatch(instance -> PythonServerLoadBalancer.State.EJECTED.name().equals(instance.getState())));
+        boolean degraded = instances.stream()
+                .anyMatch(instance -> !PythonServerLoadBalancer.State.HEALTHY.name().equals(instance.getState()));
+        Health.Builder builder = serverDown ? Health.down() : degraded ? Health.status("DEGRADED") : Health.up();
+        return builder.withDetail("instances", instances).build();
+    }
+}
@@ -1,19 +1,28 @@
 package nusri.fyp.demo.service.img_sender.python;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.http.*;
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.dto.PythonInstanceHealthDto;
+import nusri.fyp.demo.service.ConfigService;
+import nusri.fyp.demo.service.img_sender.ConcurrencyLimit;
+import nusri.fyp.demo.service.img_sender.pipeline.Ewma;
 import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
 import static nusri.fyp.demo.service.img_sender.python.ImageSenderOfPython.USE_PYTHON;
 
@@ -21,24 +30,41 @@ import static nusri.fyp.demo.service.img_sender.python.ImageSenderOfPython.USE_P
  * <b>Service responsible for load balancing among multiple Python server instances.</b>
  * <br>
  * This class maintains a list of Python server instances (each with its own queue size and port) and
- * periodically fetches updated information about them. It then selects the best instance based on the smallest queue
- * size for forwarding image processing tasks.
+ * periodically fetches updated information about them. Each frame is then sent to the instance chosen by the
+ * <i>power of two choices</i>: two instances are drawn at random and the one with fewer requests in flight from this
+ * client wins.
  * <p>
  * Key responsibilities:
  * <ul>
  *     <li>Periodically fetch and update available Python instances (via {@link #fetchPythonInstancesAsync()}).</li>
- *     <li>Provide a method to obtain the "best" (least-loaded) instance (via {@link #getBestInstance()}).</li>
- *     <li>Lock-based synchronization to update and read shared state safely.</li>
- *     <li>Support for an adaptive grouping mechanism to move through instances in increasing queue-size order.</li>
+ *     <li>Accept workers that register themselves ({@link #heartbeat(int, String)}) next to the fetched ones, and drop
+ *         them once their heartbeats stop for {@link ConfigService#getPythonWorkerHeartbeatTtlMs()}.</li>
+ *     <li>Count the requests in flight to each instance, from {@link #acquire(Endpoint)} to
+ *         {@link Endpoint#release(boolean, long)}.</li>
+ *     <li>Select an instance without locking: the instances are read from an immutable snapshot and the counters are
+ *         atomic, so concurrent senders never wait for each other.</li>
+ *     <li>Keep frames away from misbehaving instances: each {@link Endpoint} is a circuit breaker, fed by the outcome
+ *         of the requests and by active health checks ({@link #checkHealth()}). An instance failing repeatedly, or
+ *         much slower than the others, is ejected for a while, then re-admitted gradually.</li>
+ *     <li>Keep each instance within its adaptive {@link ConcurrencyLimit}: an instance at its limit is not chosen, and
+ *         while every instance is, senders queue until a request completes, and are shed after
+ *         {@link ConfigService#getInferenceLimitQueueTimeoutMs()}.</li>
  * </ul>
  * <br>
+ * The queue size reported by {@code /instances} is up to 250 ms old and shared by every client of the instance, so it
+ * only breaks ties between instances with as many requests in flight. Comparing two random instances instead of
+ * taking the least loaded one also keeps a burst of senders from all picking the same instance before the counters
+ * catch up.
+ * <br>
  * Usage scenario:
  * <br> - This service is typically used by {@link ImageSenderOfPython} (and others) to balance
  * the load among multiple Python servers when sending images for processing.
  * <p>
  * Note:
  * <br> - The fetch interval is 250 ms, which can be adjusted based on performance needs.
- * <br> - If no instances are available, {@link #getBestInstance()} will block, retrying until an instance appears.
+ * <br> - If no instances are available, {@link #acquire(Endpoint)} blocks until the next fetch finds one.
+ * <br> - At most {@link ConfigService#getPythonMaxEjectionPercent()} of the instances are ejected at the same time, so
+ *        a single instance is never ejected: there would be nowhere else to send its frames.
  *
  * @author Liu Binghong
  * @since 1.0
@@ -54,25 +80,30 @@ public class PythonServerLoadBalancer {
     private static final boolean DEBUG = false;
 
     /**
-     * RestTemplate for making HTTP calls to the main server that provides the Python instance list.
+     * The shared HTTP client for calls to the main server that provides the Python instance list.
      */
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final PythonHttpClient httpClient;
+
+    private final ObjectMapper objectMapper;
+
+    private final ConfigService configService;
 
     /**
-     * The list of currently available Python instances, sorted by ascending queue size.
-     * <br> Updated periodically in {@link #fetchPythonInstancesAsync()}.
+     * The currently available Python instances, replaced as a whole in {@link #fetchPythonInstancesAsync()}.
+     * <br> An instance keeps its {@link Endpoint}, and thus its in-flight count, across fetches.
      */
-    private List<Instance> pythonInstances;
+    private volatile Endpoint[] endpoints = new Endpoint[0];
 
     /**
-     * The current group size for distributing load. Defaults to 2 (meaning we group the instances in sets of 2).
+     * The instances last reported by the main server. A failed fetch keeps them, so that a transient error does not
+     * take every instance away.
      */
-    private int currentGroupSize = 2;
+    private volatile List<Instance> fetched = List.of();
 
     /**
-     * The current index within the group (from 0 to {@code currentGroupSize - 1}) for selecting instances.
+     * The workers that registered themselves through {@link #heartbeat(int, String)}, by port.
      */
-    private int indexWithinGroup = 0;
+    private final Map<Integer, Registration> registered = new ConcurrentHashMap<>();
 
     /**
      * The number of consecutive idle intervals (i.e., times no requests have come in).
@@ -81,9 +112,19 @@ public class PythonServerLoadBalancer {
     private final AtomicInteger unusedTime = new AtomicInteger(0);
 
     /**
-     * A lock to protect modifications to shared state variables: {@link #pythonInstances}, {@link #currentGroupSize}, and {@link #indexWithinGroup}.
+     * The monitor senders wait on while no instance is available; notified when a fetch finds some.
+     */
+    private final Object available = new Object();
+
+    /**
+     * The number of senders waiting on {@link #available} for an instance below its limit.
      */
-    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * The number of requests shed after waiting {@link ConfigService#getInferenceLimitQueueTimeoutMs()}.
+     */
+    private final LongAdder shed = new LongAdder();
 
     /**
      * Host of the main server where Python instances are registered (e.g., "http://127.0.0.1").
@@ -101,42 +142,119 @@ public class PythonServerLoadBalancer {
      *
      * @param pythonHost The host URL (e.g., "http://127.0.0.1") where instance info is served
      * @param mainPort   The port on that host where the /instances endpoint can be accessed
+     * @param httpClient The pooled HTTP client shared with the frame requests
+     * @param objectMapper The Jackson {@link ObjectMapper} for parsing the instance list
+     * @param configService The configuration service providing the health check and ejection settings
      */
-    public PythonServerLoadBalancer(String pythonHost, String mainPort) {
+    public PythonServerLoadBalancer(String pythonHost, String mainPort, PythonHttpClient httpClient,
+                                    ObjectMapper objectMapper, ConfigService configService) {
         this.pythonHost = pythonHost;
         this.mainPort = mainPort;
-        this.pythonInstances = getPythonInstances();
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.configService = configService;
+        fetched = getPythonInstances();
+        update();
     }
 
     /**
-     * Scheduled method that periodically updates {@link #pythonInstances} by fetching the /instances endpoint.
-     * <br> Runs every 250 ms. If the system has been idle (i.e., no requests) for more than 5 cycles, it stops fetching
-     * to reduce overhead until load resumes.
-     * <br>
-     * Once the new list is fetched, it is sorted by ascending queue size. The group size is reset based on the new
-     * available instance count (with a minimum of 2).
+     * Periodically updates {@link #endpoints} by fetching the /instances endpoint.
+     * <br> Called every 250 ms by {@link nusri.fyp.demo.service.img_sender.ImageSenderService#refreshPythonInstances()}.
+     * If the system has been idle (i.e., no requests) for more than 5 cycles, it stops fetching
+     * to reduce overhead until load resumes; registrations keep expiring meanwhile.
      */
-    @Scheduled(fixedRate = 250)
     public void fetchPythonInstancesAsync() {
         if (!USE_PYTHON) {
             return;
         }
-        if (unusedTime.getAndAdd(1) > 5) {
-            return;
+        if (unusedTime.getAndAdd(1) <= 5) {
+            List<Instance> instances = getPythonInstances();
+            if (!instances.isEmpty()) {
+                fetched = instances;
+            }
+        }
+        update();
+    }
+
+    /**
+     * Registers a worker of this server, or renews its registration. A worker joins the instances at its first
+     * heartbeat and leaves them once no heartbeat came for {@link ConfigService#getPythonWorkerHeartbeatTtlMs()}.
+     *
+     * @param port       the port of the worker on {@link #pythonHost}
+     * @param queueSize  the queue size reported by the worker, or {@code null}
+     */
+    public void heartbeat(int port, String queueSize) {
+        Instance instance = new Instance();
+        instance.setPort(port);
+        instance.setQueueSize(queueSize);
+        if (registered.put(port, new Registration(instance, System.currentTimeMillis())) == null) {
+            log.info("Python worker {}:{} registered", pythonHost, port);
+            update();
         }
+    }
 
-        List<Instance> instances = getPythonInstances();
-        if (!instances.isEmpty()) {
-            // Sort instances by ascending queue size
-            instances.sort(Comparator.comparingInt(instance -> Integer.parseInt(instance.getQueueSize())));
+    /**
+     * Removes the registration of a worker, e.g. when it shuts down. A worker also listed by the main server stays.
+     *
+     * @param port the port of the worker on {@link #pythonHost}
+     * @return {@code true} if the worker was registered
+     */
+    public boolean deregister(int port) {
+        if (registered.remove(port) == null) {
+            return false;
+        }
+        log.info("Python worker {}:{} deregistered", pythonHost, port);
+        update();
+        return true;
+    }
 
-            lock.lock();
-            try {
-                this.pythonInstances = instances;
-                currentGroupSize = Math.min(instances.size(), 2);
-                indexWithinGroup = 0;
-            } finally {
-                lock.unlock();
+    /**
+     * @return {@code true} if some worker of this server is registered through {@link #heartbeat(int, String)}
+     */
+    public boolean hasRegisteredWorkers() {
+        return !registered.isEmpty();
+    }
+
+    /**
+     * Replaces the instance snapshot with the fetched instances and the registered workers, dropping expired
+     * registrations and keeping the endpoints of the instances still listed.
+     */
+    private synchronized void update() {
+        long expiredBefore = System.currentTimeMillis() - Long.parseLong(configService.getPythonWorkerHeartbeatTtlMs());
+        registered.entrySet().removeIf(entry -> {
+            boolean expired = entry.getValue().lastSeen() < expiredBefore;
+            if (expired) {
+                log.info("Python worker {}:{} missed its heartbeats and was removed", pythonHost, entry.getKey());
+            }
+            return expired;
+        });
+        List<Instance> instances = new ArrayList<>(fetched);
+        Set<Integer> ports = new HashSet<>();
+        instances.forEach(instance -> ports.add(instance.getPort()));
+        for (Registration registration : registered.values()) {
+            if (ports.add(registration.instance().getPort())) {
+                instances.add(registration.instance());
+            }
+        }
+
+        Map<Integer, Endpoint> previous = new HashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            previous.put(endpoint.getPort(), endpoint);
+        }
+        Endpoint[] updated = new Endpoint[instances.size()];
+        for (int i = 0; i < updated.length; i++) {
+            Instance instance = instances.get(i);
+            Endpoint endpoint = previous.get(instance.getPort());
+            if (endpoint == null) {
+                endpoint = new Endpoint(pythonHost + ':' + instance.getPort(), instance.getPort());
+            }
+            endpoint.queueHint = parseQueueSize(instance.getQueueSize());
+            updated[i] = endpoint;
+        }
+        endpoints = updated;
+        if (updated.length > 0) {
+            synchronized (available) {
+                available.notifyAll();
             }
         }
     }
@@ -145,77 +263,354 @@ public class PythonServerLoadBalancer {
      * Retrieves the list of Python server instances from the main server's /instances endpoint.
      * <br> If an error occurs, returns an empty list.
      *
-     * @return A {@link List} of {@link Instance} objects, sorted by ascending queue size.
+     * @return A {@link List} of {@link Instance} objects
      */
     public List<Instance> getPythonInstances() {
         try {
+            String body = httpClient.get(pythonHost + ':' + mainPort + "/instances");
             if (DEBUG) {
-                // Debug-level retrieval of the raw String response
-                ResponseEntity<String> response = restTemplate.exchange(
-                        pythonHost + ':' + mainPort + "/instances",
-                        HttpMethod.GET,
-                        null,
-                        String.class
-                );
-                System.out.println(response.getBody());
+                // Debug-level output of the raw String response
+                System.out.println(body);
             }
 
-            // Actual typed retrieval of the InstancesResponse
-            ResponseEntity<InstancesResponse> response = restTemplate.exchange(
-                    pythonHost + ':' + mainPort + "/instances",
-                    HttpMethod.GET,
-                    null,
-                    InstancesResponse.class
-            );
-
-            if (response.getBody() != null) {
-                return response.getBody().getInstances();
+            InstancesResponse response = objectMapper.readValue(body, InstancesResponse.class);
+            if (response != null && response.getInstances() != null) {
+                return response.getInstances();
             }
-        } catch (RestClientException e) {
+        } catch (IOException e) {
             log.warn("Error while fetching Python instances: {}", e.getMessage());
         }
         return new ArrayList<>();
     }
 
     /**
-     * Returns the host/port URL of the "best" Python instance for image processing.
-     * <br> Selection is based on an adaptive grouping mechanism:
+     * Chooses the Python instance for a request and counts the request as in flight to it, until
+     * {@link Endpoint#release(boolean, long)}.
      * <ul>
-     *   <li>We group the instances in sets of size {@link #currentGroupSize}, sorted by queue size.</li>
-     *   <li>We pick the instance at {@link #indexWithinGroup} in the current group.</li>
-     *   <li>Once the group is exhausted (i.e., {@code indexWithinGroup >= currentGroupSize}), we increment {@link #currentGroupSize}
-     *       to move on to the next group and reset {@code indexWithinGroup} to 0.</li>
+     *   <li>Two distinct instances are drawn at random, and the one with fewer requests in flight is chosen.</li>
+     *   <li>If both have as many, the one with the smaller reported queue size is chosen.</li>
+     *   <li>Ejected instances are never drawn, and recovering ones only with their {@link Endpoint#admitWeight}.</li>
+     *   <li>Instances at their {@link ConcurrencyLimit} are never chosen.</li>
      * </ul>
      * <br>
-     * If no instances are available at the moment, the method will sleep and retry until it finds one.
+     * If no instances are available at the moment, the method waits until a fetch finds one. If every instance is
+     * ejected, frames are still spread over them rather than dropped. If every instance is at its limit, the method
+     * waits for a request to complete, at most {@link ConfigService#getInferenceLimitQueueTimeoutMs()}.
      *
-     * @return A string of the form "{@code http://host:port}" representing the chosen Python instance
+     * @param exclude an instance to avoid, e.g. the one a retried request just failed on, or {@code null}
+     * @return the chosen instance, or {@code null} if interrupted while waiting for one
+     * @throws LimitExceededException if every instance stayed at its limit for the queue timeout
      */
-    public String getBestInstance() {
-        while (true) {
-            lock.lock();
+    public Endpoint acquire(Endpoint exclude) throws LimitExceededException {
+        return acquire(exclude, true, () -> false);
+    }
+
+    /**
+     * Chooses the Python instance for a request like {@link #acquire(Endpoint)}; only a request that may be shed gives
+     * up after the queue timeout.
+     * <br> Live frames are shed: a late result is worth little, and waiting would delay the next frames. Video-job
+     * frames have no latency budget and wait for an instance below its limit instead, for as long as it takes.
+     *
+     * @param exclude   an instance to avoid, e.g. the one a retried request just failed on, or {@code null}
+     * @param sheddable whether the request is shed after the queue timeout
+     * @param cancelled whether the request was cancelled meanwhile, checked while waiting
+     * @return the chosen instance, or {@code null} if interrupted or cancelled while waiting for one
+     * @throws LimitExceededException if the request may be shed and every instance stayed at its limit for the queue
+     *                                timeout
+     */
+    public Endpoint acquire(Endpoint exclude, boolean sheddable, BooleanSupplier cancelled) throws LimitExceededException {
+        Endpoint[] snapshot = endpoints;
+        while (snapshot.length == 0) {
+            // Keep the fetch task running while senders wait
+            resetUnusedTime();
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
             try {
-                if (!pythonInstances.isEmpty()) {
-                    int effectiveGroupSize = Math.min(currentGroupSize, pythonInstances.size());
-                    if (indexWithinGroup >= effectiveGroupSize) {
-                        currentGroupSize++;
-                        indexWithinGroup = 0;
+                synchronized (available) {
+                    if (endpoints.length == 0) {
+                        available.wait(250);
                     }
-                    Instance chosen = pythonInstances.get(indexWithinGroup);
-                    indexWithinGroup++;
-                    return pythonHost + ':' + chosen.getPort();
                 }
-            } finally {
-                lock.unlock();
-            }
-            // If no instances are available, wait briefly and retry
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException ignored) {
+            } catch (InterruptedException e) {
                 // Restore the interrupt status
                 Thread.currentThread().interrupt();
                 return null;
             }
+            snapshot = endpoints;
+        }
+
+        boolean limited = Boolean.parseBoolean(configService.getInferenceLimitEnabled());
+        Endpoint chosen = choose(snapshot, exclude, limited);
+        if (chosen != null) {
+            chosen.limit.recordWait(0);
+            return chosen;
+        }
+
+        long start = System.nanoTime();
+        long timeoutMs = sheddable ? Long.parseLong(configService.getInferenceLimitQueueTimeoutMs()) : 0;
+        waiting.incrementAndGet();
+        try {
+            synchronized (available) {
+                while (true) {
+                    chosen = choose(endpoints, exclude, limited);
+                    long waitedMs = (System.nanoTime() - start) / 1_000_000;
+                    if (chosen != null) {
+                        chosen.limit.recordWait(waitedMs);
+                        return chosen;
+                    }
+                    if (cancelled.getAsBoolean()) {
+                        return null;
+                    }
+                    if (timeoutMs > 0 && waitedMs >= timeoutMs) {
+                        shed.increment();
+                        throw new LimitExceededException("Every instance of " + pythonHost + ':' + mainPort
+                                + " stayed at its concurrency limit for " + timeoutMs + " ms");
+                    }
+                    // Also wakes up for limits that grew or instances that joined meanwhile
+                    available.wait(timeoutMs > 0 ? Math.max(1, Math.min(50, timeoutMs - waitedMs)) : 50);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Chooses an instance like {@link #acquire(Endpoint)}, but never waits: used for hedges, which are only worth
+     * sending to an instance with room for them.
+     *
+     * @param exclude an instance to avoid, or {@code null}
+     * @return the chosen instance, or {@code null} if none is available or below its limit
+     */
+    public Endpoint tryAcquire(Endpoint exclude) {
+        Endpoint chosen = choose(endpoints, exclude, Boolean.parseBoolean(configService.getInferenceLimitEnabled()));
+        if (chosen != null) {
+            chosen.limit.recordWait(0);
+        }
+        return chosen;
+    }
+
+    /**
+     * Draws an instance and counts the request as in flight to it.
+     *
+     * @param limited whether instances at their limit are skipped
+     * @return the chosen instance, or {@code null} if there is none, or every instance is at its limit
+     */
+    private static Endpoint choose(Endpoint[] snapshot, Endpoint exclude, boolean limited) {
+        if (snapshot.length == 0) {
+            return null;
+        }
+        if (snapshot.length == 1) {
+            return snapshot[0].tryReserve(limited) ? snapshot[0] : null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.currentTimeMillis();
+        for (int attempt = 0; attempt < 3; attempt++) {
+            int first = random.nextInt(snapshot.length);
+            int second = random.nextInt(snapshot.length - 1);
+            if (second >= first) {
+                second++;
+            }
+            Endpoint a = snapshot[first];
+            Endpoint b = snapshot[second];
+            boolean admitA = a != exclude && a.admits(now, random) && a.belowLimit(limited);
+            boolean admitB = b != exclude && b.admits(now, random) && b.belowLimit(limited);
+            Endpoint chosen = admitA && admitB ? lessLoaded(a, b) : admitA ? a : admitB ? b : null;
+            if (chosen != null && chosen.tryReserve(limited)) {
+                return chosen;
+            }
+        }
+        Endpoint chosen = leastLoaded(snapshot, exclude, now, limited);
+        return chosen != null && chosen.tryReserve(limited) ? chosen : null;
+    }
+
+    /**
+     * Scans every instance when random draws kept hitting unavailable ones, e.g. when most of them are ejected.
+     *
+     * @return the least loaded instance, preferring admitted ones and avoiding {@code exclude}; {@code null} if every
+     * instance is at its limit
+     */
+    private static Endpoint leastLoaded(Endpoint[] snapshot, Endpoint exclude, long now, boolean limited) {
+        Endpoint admitted = null;
+        Endpoint any = null;
+        Endpoint excluded = null;
+        for (Endpoint endpoint : snapshot) {
+            if (!endpoint.belowLimit(limited)) {
+                continue;
+            }
+            if (endpoint == exclude) {
+                excluded = endpoint;
+                continue;
+            }
+            if (endpoint.admitWeight(now) > 0) {
+                admitted = admitted == null ? endpoint : lessLoaded(admitted, endpoint);
+            }
+            any = any == null ? endpoint : lessLoaded(any, endpoint);
+        }
+        return admitted != null ? admitted : any != null ? any : excluded;
+    }
+
+    private static Endpoint lessLoaded(Endpoint a, Endpoint b) {
+        int inFlightA = a.inFlight.get();
+        int inFlightB = b.inFlight.get();
+        if (inFlightA != inFlightB) {
+            return inFlightA < inFlightB ? a : b;
+        }
+        return a.queueHint <= b.queueHint ? a : b;
+    }
+
+    /**
+     * Actively checks the instances and ejects latency outliers. Called every second by
+     * {@link nusri.fyp.demo.service.img_sender.ImageSenderService#checkPythonHealth()}.
+     * <ul>
+     *   <li>Every instance is sent a GET to {@link ConfigService#getPythonHealthCheckPath()}; a connection failure, a
+     *       timeout or a 5xx status counts as a failure. Any other answer, even a 404 from a worker without a health
+     *       route, shows that the instance is responsive.</li>
+     *   <li>An ejected instance is only checked once its ejection time is over. If it answers, it starts recovering;
+     *       otherwise it is ejected again, for longer.</li>
+     *   <li>A recovering instance becomes healthy once {@link ConfigService#getPythonRecoveryRampMs()} has passed.</li>
+     *   <li>With three or more healthy instances, one whose average latency exceeds
+     *       {@link ConfigService#getPythonEjectionLatencyFactor()} times the median is ejected.</li>
+     * </ul>
+     * Checks are skipped while the system is idle, like instance fetches.
+     */
+    public void checkHealth() {
+        if (!USE_PYTHON || unusedTime.get() > 5) {
+            return;
+        }
+        Endpoint[] snapshot = endpoints;
+        for (Endpoint endpoint : snapshot) {
+            if (endpoint.state == State.EJECTED && System.currentTimeMillis() < endpoint.ejectedUntil) {
+                continue;
+            }
+            endpoint.onProbe(probe(endpoint));
+        }
+        ejectLatencyOutliers(snapshot);
+    }
+
+    private boolean probe(Endpoint endpoint) {
+        try {
+            httpClient.get(endpoint.getUrl() + configService.getPythonHealthCheckPath(),
+                    Long.parseLong(configService.getPythonHealthCheckTimeoutMs()));
+            return true;
+        } catch (PythonHttpClient.StatusException e) {
+            return e.getCode() < 500;
+        } catch (IOException e) {
+            log.debug("Health check of {} failed: {}", endpoint.getUrl(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void ejectLatencyOutliers(Endpoint[] snapshot) {
+        List<Endpoint> healthy = new ArrayList<>();
+        for (Endpoint endpoint : snapshot) {
+            if (endpoint.state == State.HEALTHY && endpoint.latencyMs.get() > 0) {
+                healthy.add(endpoint);
+            }
+        }
+        if (healthy.size() < 3) {
+            return;
+        }
+        double[] latencies = healthy.stream().mapToDouble(endpoint -> endpoint.latencyMs.get()).sorted().toArray();
+        double median = latencies[latencies.length / 2];
+        double limit = median * Double.parseDouble(configService.getPythonEjectionLatencyFactor());
+        for (Endpoint endpoint : healthy) {
+            if (endpoint.latencyMs.get() > limit) {
+                tryEject(endpoint, String.format("latency %.0f ms, median %.0f ms", endpoint.latencyMs.get(), median));
+            }
+        }
+    }
+
+    /**
+     * Ejects an instance, unless {@link ConfigService#getPythonMaxEjectionPercent()} of the instances already are.
+     *
+     * @param endpoint the instance
+     * @param reason   the reason, for the log
+     */
+    private synchronized void tryEject(Endpoint endpoint, String reason) {
+        Endpoint[] snapshot = endpoints;
+        int ejected = 0;
+        for (Endpoint other : snapshot) {
+            if (other.state == State.EJECTED) {
+                ejected++;
+            }
+        }
+        int maxEjected = snapshot.length * Integer.parseInt(configService.getPythonMaxEjectionPercent()) / 100;
+        if (endpoint.state == State.EJECTED || ejected >= maxEjected) {
+            return;
+        }
+        endpoint.eject(System.currentTimeMillis());
+        log.warn("Ejected Python instance {} for {} ms: {}", endpoint.getUrl(),
+                endpoint.ejectedUntil - System.currentTimeMillis(), reason);
+    }
+
+    /**
+     * @return the currently available instances
+     */
+    public List<Endpoint> getEndpoints() {
+        return List.of(endpoints);
+    }
+
+    /**
+     * @return the concurrency limit of each instance, with the requests waiting for one and shed by this server
+     */
+    public List<ConcurrencyLimitDto> toLimitDto() {
+        List<ConcurrencyLimitDto> dtos = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            ConcurrencyLimitDto dto = endpoint.limit.toDto("python", pythonHost + ':' + mainPort, endpoint.getUrl(),
+                    endpoint.getInFlight());
+            dto.setWaiting(waiting.get());
+            dto.setShed(shed.sum());
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
+    /**
+     * Wakes up the senders waiting for an instance below its limit, if any.
+     */
+    private void signalCompletion() {
+        if (waiting.get() > 0) {
+            synchronized (available) {
+                available.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the health of each instance
+     */
+    public List<PythonInstanceHealthDto> toDto() {
+        long now = System.currentTimeMillis();
+        List<PythonInstanceHealthDto> dtos = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            PythonInstanceHealthDto dto = new PythonInstanceHealthDto();
+            dto.setServer(pythonHost + ':' + mainPort);
+            dto.setUrl(endpoint.getUrl());
+            dto.setState(endpoint.state.name());
+            dto.setAdmitWeight(endpoint.admitWeight(now));
+            dto.setInFlight(endpoint.getInFlight());
+            dto.setQueueHint(endpoint.getQueueHint());
+            dto.setConsecutiveFailures(endpoint.consecutiveFailures);
+            dto.setRequests(endpoint.requests.sum());
+            dto.setFailures(endpoint.failures.sum());
+            dto.setEjections(endpoint.ejectionCount.sum());
+            dto.setEjectedForMs(endpoint.state == State.EJECTED ? Math.max(0, endpoint.ejectedUntil - now) : 0);
+            dto.setLatencyMs(endpoint.latencyMs.get());
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
+    private static int parseQueueSize(String queueSize) {
+        try {
+            return queueSize == null ? 0 : Integer.parseInt(queueSize.trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -228,6 +623,255 @@ public class PythonServerLoadBalancer {
         unusedTime.set(0);
     }
 
+    /**
+     * The circuit state of an instance.
+     */
+    public enum State {
+        /**
+         * Receives its share of the frames.
+         */
+        HEALTHY,
+        /**
+         * Receives no frames until its ejection time is over and a health check passes.
+         */
+        EJECTED,
+        /**
+         * Receives a share of the frames growing from 10% to 100% over {@link ConfigService#getPythonRecoveryRampMs()};
+         * a single failure ejects it again.
+         */
+        RECOVERING
+    }
+
+    /**
+     * <b>A Python instance as seen by this client.</b>
+     * <br> Tracks the requests this client has in flight to the instance, next to the queue size it last reported,
+     * and acts as the instance's circuit breaker: the outcome of every request and health check moves it between the
+     * {@link State}s.
+     */
+    public class Endpoint {
+
+        /**
+         * The base URL of the instance, e.g. {@code http://127.0.0.1:5001}.
+         */
+        @Getter
+        private final String url;
+
+        /**
+         * The port of the instance, identifying it across fetches.
+         */
+        @Getter
+        private final int port;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * The adaptive limit of {@link #inFlight}.
+         */
+        private final ConcurrencyLimit limit = new ConcurrencyLimit(
+                () -> Boolean.parseBoolean(configService.getInferenceLimitEnabled()),
+                () -> Integer.parseInt(configService.getInferenceLimitMin()),
+                () -> Integer.parseInt(configService.getInferenceLimitMax()),
+                () -> Double.parseDouble(configService.getInferenceLimitTolerance()));
+
+        /**
+         * The queue size last reported by {@code /instances}; only a tie-breaker.
+         */
+        private volatile int queueHint;
+
+        private volatile State state = State.HEALTHY;
+        private volatile long ejectedUntil;
+        private volatile long recoveringSince;
+
+        /**
+         * The number of ejections in a row without a full recovery, which lengthens the next ejection.
+         */
+        private int ejections;
+
+        private volatile int consecutiveFailures;
+        private volatile Ewma latencyMs = new Ewma();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder ejectionCount = new LongAdder();
+
+        private Endpoint(String url, int port) {
+            this.url = url;
+            this.port = port;
+        }
+
+        /**
+         * Ends a request started by {@link PythonServerLoadBalancer#acquire(Endpoint)}; must be called exactly once per
+         * request.
+         *
+         * @param healthy      whether the instance answered properly; {@code false} for connection failures,
+         *                     timeouts, 5xx statuses and unreadable responses
+         * @param latencyNanos the time the request took
+         */
+        public void release(boolean healthy, long latencyNanos) {
+            limit.onSample(latencyNanos, inFlight.getAndDecrement(), !healthy);
+            signalCompletion();
+            requests.increment();
+            boolean eject;
+            synchronized (this) {
+                if (healthy) {
+                    consecutiveFailures = 0;
+                    latencyMs.update(latencyNanos / 1e6);
+                    return;
+                }
+                failures.increment();
+                consecutiveFailures++;
+                eject = state == State.RECOVERING || consecutiveFailures
+                        >= Integer.parseInt(configService.getPythonEjectionConsecutiveFailures());
+            }
+            if (eject) {
+                tryEject(this, consecutiveFailures + " failures in a row");
+            }
+        }
+
+        /**
+         * Ends a request started by {@link PythonServerLoadBalancer#acquire(Endpoint)} without judging the instance,
+         * e.g. because the request was cancelled.
+         */
+        public void release() {
+            inFlight.decrementAndGet();
+            signalCompletion();
+        }
+
+        /**
+         * @param limited whether the limit is enforced
+         * @return whether another request may be sent to the instance
+         */
+        private boolean belowLimit(boolean limited) {
+            return !limited || inFlight.get() < limit.get();
+        }
+
+        /**
+         * Counts a request as in flight, unless the instance reached its limit meanwhile.
+         *
+         * @param limited whether the limit is enforced
+         * @return whether the request was counted
+         */
+        private boolean tryReserve(boolean limited) {
+            if (!limited) {
+                inFlight.incrementAndGet();
+                return true;
+            }
+            int max = limit.get();
+            int current;
+            do {
+                current = inFlight.get();
+                if (current >= max) {
+                    return false;
+                }
+            } while (!inFlight.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * Applies the result of a health check.
+         *
+         * @param alive whether the instance answered
+         */
+        private void onProbe(boolean alive) {
+            long now = System.currentTimeMillis();
+            boolean eject = false;
+            synchronized (this) {
+                if (state == State.EJECTED) {
+                    if (alive) {
+                        state = State.RECOVERING;
+                        recoveringSince = now;
+                        consecutiveFailures = 0;
+                        // The latency that got it ejected must not eject it again
+                        latencyMs = new Ewma();
+                        log.info("Python instance {} is recovering", url);
+                    } else {
+                        eject(now);
+                    }
+                } else if (!alive) {
+                    consecutiveFailures++;
+                    eject = state == State.RECOVERING || consecutiveFailures
+                            >= Integer.parseInt(configService.getPythonEjectionConsecutiveFailures());
+                } else if (state == State.RECOVERING && admitWeight(now) >= 1) {
+                    state = State.HEALTHY;
+                    ejections = Math.max(0, ejections - 1);
+                    log.info("Python instance {} is healthy again", url);
+                }
+            }
+            if (eject) {
+                tryEject(this, "health check failed");
+            }
+        }
+
+        /**
+         * Ejects the instance for the base ejection time, doubled for every ejection in a row, up to 32 times.
+         */
+        private synchronized void eject(long now) {
+            long base = Long.parseLong(configService.getPythonEjectionBaseMs());
+            ejectedUntil = now + (base << Math.min(ejections, 5));
+            ejections++;
+            ejectionCount.increment();
+            state = State.EJECTED;
+        }
+
+        /**
+         * @param now the current time in milliseconds
+         * @return the share of the frames the instance may receive, from 0 to 1
+         */
+        public double admitWeight(long now) {
+            return switch (state) {
+                case HEALTHY -> 1;
+                case EJECTED -> 0;
+                case RECOVERING -> {
+                    long ramp = Math.max(1, Long.parseLong(configService.getPythonRecoveryRampMs()));
+                    yield Math.min(1, 0.1 + 0.9 * (now - recoveringSince) / ramp);
+                }
+            };
+        }
+
+        private boolean admits(long now, ThreadLocalRandom random) {
+            double weight = admitWeight(now);
+            return weight >= 1 || weight > 0 && random.nextDouble() < weight;
+        }
+
+        /**
+         * @return the circuit state of the instance
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return the number of requests this client has in flight to the instance
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return the queue size last reported by the instance
+         */
+        public int getQueueHint() {
+            return queueHint;
+        }
+    }
+
+    /**
+     * A worker registered through {@link #heartbeat(int, String)}, with the time of its last heartbeat.
+     */
+    private record Registration(Instance instance, long lastSeen) {
+    }
+
+    /**
+     * Thrown when a request is shed because every instance of the server stayed at its concurrency limit.
+     */
+    public static class LimitExceededException extends IOException {
+        /**
+         * @param message the detail message
+         */
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
     /**
      * <b>Represents the response structure returned by the /instances endpoint.</b>
      * <br> Contains a list of {@link Instance} objects detailing queue sizes and ports for each Python instance.
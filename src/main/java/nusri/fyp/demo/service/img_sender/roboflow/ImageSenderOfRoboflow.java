@@ -1,17 +1,25 @@
 package nusri.fyp.demo.service.img_sender.roboflow;
 
 import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.ConcurrencyLimitDto;
+import nusri.fyp.demo.dto.InferenceLaneStatsDto;
 import nusri.fyp.demo.roboflow.data.entity.workflow.SinglePrediction;
+import nusri.fyp.demo.service.img_sender.Cancellation;
+import nusri.fyp.demo.service.img_sender.ConcurrencyLimit;
+import nusri.fyp.demo.service.img_sender.FrameEncoder;
 import nusri.fyp.demo.service.img_sender.ImageSender;
 import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import nusri.fyp.demo.service.img_sender.InferenceLanes;
 import nusri.fyp.demo.state_machine.AbstractActionObservation;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.imgcodecs.Imgcodecs;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implementation of the {@link ImageSenderService} for sending image frames to Roboflow for object detection and recognition.
@@ -22,7 +30,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * <ul>
  *    <li>Concurrency: The service uses a ConcurrentHashMap to manage ongoing image processing tasks for different users, allowing asynchronous task management.</li>
  *    <li>Image Encoding: The service provides methods to encode images in Base64 format (both synchronously and asynchronously) before sending them to Roboflow.</li>
- *    <li>Interrupt Handling: It supports the ability to interrupt or cancel ongoing image processing tasks for specific users, useful for stopping long-running or unwanted tasks.</li>
+ *    <li>Interrupt Handling: It supports the ability to interrupt or cancel ongoing image processing tasks for specific users, useful for stopping long-running or unwanted tasks.
+ *        Every in-flight request of the user is cancelled, down to its HTTP call, and frames still waiting in a lane leave it.</li>
+ *    <li>Concurrency Limit: Every request feeds its latency to the Roboflow {@link ConcurrencyLimit}, which caps the capacity of the lanes, so excess frames wait in their lane.</li>
  * </ul>
  **/
 @Slf4j
@@ -30,19 +40,38 @@ public class ImageSenderOfRoboflow implements ImageSender {
 
     private final RoboflowService roboflowService;
 
+    /**
+     * The priority lanes shared by every request to Roboflow.
+     */
+    private final InferenceLanes lanes;
+
+    /**
+     * The adaptive limit of the requests in flight to Roboflow; enforced by the lanes, fed here.
+     */
+    private final ConcurrencyLimit limit;
+
+    /**
+     * The number of requests in flight to Roboflow.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
     /**
      * A concurrent map that stores the ongoing image processing tasks for different users.
-     * The key is the user identifier, and the value is a {@link CompletableFuture} representing the result of the image processing.
+     * The key is the user identifier, and the value is the set of {@link CompletableFuture}s of the user's requests not completed yet.
      */
-    public static final Map<String, CompletableFuture<List<AbstractActionObservation>>> processes = new ConcurrentHashMap<>();
+    public static final Map<String, Set<CompletableFuture<List<AbstractActionObservation>>>> processes = new ConcurrentHashMap<>();
 
     /**
      * Constructor that injects the necessary services.
      *
      * @param roboflowService The service responsible for sending images to Roboflow for processing.
+     * @param lanes The priority lanes of the Roboflow backend, giving live frames precedence over video jobs.
+     * @param limit The adaptive concurrency limit capping the capacity of the lanes.
      */
-    public ImageSenderOfRoboflow(RoboflowService roboflowService) {
+    public ImageSenderOfRoboflow(RoboflowService roboflowService, InferenceLanes lanes, ConcurrencyLimit limit) {
         this.roboflowService = roboflowService;
+        this.lanes = lanes;
+        this.limit = limit;
     }
 
     /**
@@ -50,13 +79,11 @@ public class ImageSenderOfRoboflow implements ImageSender {
      *
      * @param frame The image frame in OpenCV Mat format to be sent to Roboflow.
      * @return A list of {@link SinglePrediction} objects representing the predictions made by the Roboflow model.
+     * @throws IOException if the request failed or was interrupted
      */
     @Override
-    public List<SinglePrediction> sendFrame(Mat frame, Map<String, String> config) {
-        return roboflowService.sendImg(matToBase64(frame),
-                config.getOrDefault("workspace_name", "tomcai"),
-                config.getOrDefault("workflow_name", "detect-count-and-visualize-2"),
-                config.getOrDefault("workflow_id", "KVPLmLosVn1uvCCTbCfq"));
+    public List<SinglePrediction> sendFrame(Mat frame, Map<String, String> config) throws IOException {
+        return sendFrame(Base64.getEncoder().encodeToString(encodeFrame(frame, config)), config);
     }
 
     /**
@@ -64,13 +91,34 @@ public class ImageSenderOfRoboflow implements ImageSender {
      *
      * @param frame The image in Base64 format to be sent to Roboflow.
      * @return A list of {@link SinglePrediction} objects representing the predictions made by the Roboflow model.
+     * @throws IOException if the request failed or was interrupted
      */
     @Override
-    public List<SinglePrediction> sendFrame(String frame, Map<String, String> config) {
-        return roboflowService.sendImg(frame,
-                config.getOrDefault("workspace_name", "tomcai"),
-                config.getOrDefault("workflow_name", "detect-count-and-visualize-2"),
-                config.getOrDefault("workflow_id", "KVPLmLosVn1uvCCTbCfq"));
+    public List<SinglePrediction> sendFrame(String frame, Map<String, String> config) throws IOException {
+        long queued = System.nanoTime();
+        try {
+            return lanes.call(InferenceLanes.Lane.LIVE, () -> {
+                long start = started(queued);
+                boolean failed = true;
+                try {
+                    List<SinglePrediction> predictions = roboflowService.sendImg(frame,
+                            config.getOrDefault("workspace_name", "tomcai"),
+                            config.getOrDefault("workflow_name", "detect-count-and-visualize-2"),
+                            config.getOrDefault("workflow_id", "KVPLmLosVn1uvCCTbCfq"));
+                    failed = false;
+                    return predictions;
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    completed(start, failed);
+                }
+            });
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the live lane");
+        }
     }
 
     /**
@@ -83,24 +131,117 @@ public class ImageSenderOfRoboflow implements ImageSender {
      */
     @Override
     public CompletableFuture<List<AbstractActionObservation>> sendFrameAsync(Mat frame, String user, Map<String, String> config) {
-        CompletableFuture<List<AbstractActionObservation>> listCompletableFuture = roboflowService.sendImgAsync(matToBase64(frame),
-                config.getOrDefault("workspace_name", "tomcai"),
-                config.getOrDefault("workflow_name", "detect-count-and-visualize-2"),
-                config.getOrDefault("workflow_id", "KVPLmLosVn1uvCCTbCfq"));
-        processes.put(user, listCompletableFuture);
+        CompletableFuture<List<AbstractActionObservation>> listCompletableFuture =
+                sendAsync(Base64.getEncoder().encodeToString(encodeFrame(frame, config)), config);
+        track(user, listCompletableFuture);
+        return listCompletableFuture;
+    }
+
+    /**
+     * Asynchronously sends an already encoded frame to Roboflow for predictions.
+     *
+     * @param encoded The encoded frame, see {@link #encodeFrame(Mat, Map)}.
+     * @param user The user identifier to distinguish different video processing tasks.
+     * @return A {@link CompletableFuture} that will contain a list of {@link AbstractActionObservation} objects, representing the predictions.
+     */
+    @Override
+    public CompletableFuture<List<AbstractActionObservation>> sendEncodedFrameAsync(byte[] encoded, String user, Map<String, String> config) {
+        CompletableFuture<List<AbstractActionObservation>> listCompletableFuture =
+                sendAsync(Base64.getEncoder().encodeToString(encoded), config);
+        track(user, listCompletableFuture);
         return listCompletableFuture;
     }
 
     /**
-     * Interrupts the ongoing image sending process for a specific user, effectively canceling the associated asynchronous task.
+     * Sends a Base64 encoded image to Roboflow once its lane is granted a request slot.
+     *
+     * @param base64 The image in Base64 format.
+     * @param config The model configuration, including its lane (see {@link InferenceLanes.Lane#of(Map)}).
+     * @return A {@link CompletableFuture} that will contain the predictions.
+     */
+    private CompletableFuture<List<AbstractActionObservation>> sendAsync(String base64, Map<String, String> config) {
+        long queued = System.nanoTime();
+        return lanes.submit(InferenceLanes.Lane.of(config), () -> {
+            long start = started(queued);
+            CompletableFuture<List<AbstractActionObservation>> future;
+            try {
+                future = roboflowService.sendImgAsync(base64,
+                        config.getOrDefault("workspace_name", "tomcai"),
+                        config.getOrDefault("workflow_name", "detect-count-and-visualize-2"),
+                        config.getOrDefault("workflow_id", "KVPLmLosVn1uvCCTbCfq"));
+            } catch (RuntimeException e) {
+                completed(start, true);
+                throw e;
+            }
+            // The lane slot is freed after the sample, so a grown limit is seen by the next waiting request
+            return Cancellation.propagate(future.whenComplete((observations, e) -> {
+                if (future.isCancelled()) {
+                    // An aborted request says nothing about the latency of Roboflow
+                    inFlight.decrementAndGet();
+                } else {
+                    completed(start, e != null);
+                }
+            }), future);
+        });
+    }
+
+    /**
+     * Tracks a request of a user in {@link #processes} until it completes, for {@link #interrupt(String)}.
+     *
+     * @param user   The user identifier.
+     * @param future The future of the request.
+     */
+    private static void track(String user, CompletableFuture<List<AbstractActionObservation>> future) {
+        Set<CompletableFuture<List<AbstractActionObservation>>> futures =
+                processes.computeIfAbsent(user, k -> ConcurrentHashMap.newKeySet());
+        futures.add(future);
+        future.whenComplete((observations, e) -> futures.remove(future));
+    }
+
+    /**
+     * Counts a request granted its lane slot as in flight.
+     *
+     * @param queuedNanos the time the request was submitted
+     * @return the time the request started
+     */
+    private long started(long queuedNanos) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        limit.recordWait((start - queuedNanos) / 1e6);
+        return start;
+    }
+
+    /**
+     * Feeds the latency of a completed request to the limit.
      *
-     * @param user The user identifier whose image sending process is to be interrupted.
+     * @param startNanos the time the request started
+     * @param failed     whether the request failed
+     */
+    private void completed(long startNanos, boolean failed) {
+        limit.onSample(System.nanoTime() - startNanos, inFlight.getAndDecrement(), failed);
+    }
+
+    /**
+     * @return the concurrency limit of the Roboflow backend
+     */
+    public ConcurrencyLimitDto getConcurrencyLimit() {
+        ConcurrencyLimitDto dto = limit.toDto("roboflow", "roboflow", "roboflow", inFlight.get());
+        dto.setWaiting(lanes.toDto("roboflow").stream().mapToInt(InferenceLaneStatsDto::getWaiting).sum());
+        return dto;
+    }
+
+    /**
+     * Interrupts the ongoing image sending processes for a specific user, effectively canceling every associated asynchronous task.
+     * <br> Requests waiting for a lane slot are withdrawn, and the HTTP calls of running ones are cancelled, so their slots are free at once.
+     *
+     * @param user The user identifier whose image sending processes are to be interrupted.
      */
     @Override
     public void interrupt(String user) {
-        CompletableFuture<List<AbstractActionObservation>> listCompletableFuture = processes.get(user);
-        if (listCompletableFuture != null) {
-            listCompletableFuture.cancel(true);
+        Set<CompletableFuture<List<AbstractActionObservation>>> futures = processes.remove(user);
+        if (futures != null) {
+            // Cancelling removes the future from the set, so iterate over a copy
+            List.copyOf(futures).forEach(future -> future.cancel(true));
         }
     }
 
@@ -112,11 +253,7 @@ public class ImageSenderOfRoboflow implements ImageSender {
      * @return The Base64 encoded string representing the Mat object as a PNG image.
      */
     public static String matToBase64(Mat mat) {
-        // Encode the Mat as a PNG image and store it in a byte buffer.
-        MatOfByte buffer = new MatOfByte();
-        Imgcodecs.imencode(".png", mat, buffer);
-
-        // Convert the byte buffer to a Base64 string.
-        return Base64.getEncoder().encodeToString(buffer.toArray());
+        // Convert the PNG bytes to a Base64 string.
+        return Base64.getEncoder().encodeToString(FrameEncoder.DEFAULT.encode(mat));
     }
 }
@@ -16,13 +16,18 @@ import nusri.fyp.demo.roboflow.data.request.PredefinedWorkflowDescribeInterfaceR
 import nusri.fyp.demo.roboflow.data.request.PredefinedWorkflowInferenceRequest;
 import nusri.fyp.demo.roboflow.data.response.*;
 import nusri.fyp.demo.roboflow.request.RequestSenderOfOKHttp;
+import nusri.fyp.demo.service.img_sender.Cancellation;
+import nusri.fyp.demo.service.img_sender.FrameEncoder;
 import nusri.fyp.demo.state_machine.AbstractActionObservation;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 import static nusri.fyp.demo.roboflow.request.RoboflowRequest.*;
@@ -120,6 +125,7 @@ public class RoboflowService {
      * @param workflow_name The workflow name used in the Roboflow API request
      * @param workflow_id The specific workflow ID used for inference
      * @return A list of {@link SinglePrediction} objects extracted from Roboflow's response
+     * @throws IOException if the request failed, was interrupted or Roboflow answered with an error
      * @see #runPredefineWorkflowOnImage(RequestSenderOfOKHttp, RoboflowConfig, String, String, String, String)
      * @see #objectRepository
      * @see #actionRepository
@@ -127,7 +133,7 @@ public class RoboflowService {
     public List<SinglePrediction> sendImg(String base64String,
                                           String workspace_name,
                                           String workflow_name,
-                                          String workflow_id) {
+                                          String workflow_id) throws IOException {
         try {
             // Perform the synchronous request
             RoboflowResponseData send = runPredefineWorkflowOnImage(requestSenderOfOKHttp,
@@ -174,11 +180,13 @@ public class RoboflowService {
                 return predictions;
             }
 
-        } catch (ExecutionException | InterruptedException | IOException e) {
-            log.error(e.getMessage());
+            throw new IOException("Unexpected Roboflow response: " + send);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Roboflow");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
         }
-        log.error("sendImg exception");
-        return new ArrayList<>();
     }
 
     /**
@@ -190,7 +198,8 @@ public class RoboflowService {
      * @param workspace_name The workspace name used in the Roboflow API request
      * @param workflow_name The workflow name used in the Roboflow API request
      * @param workflow_id The specific workflow ID used for inference
-     * @return a {@link CompletableFuture} holding a list of {@link AbstractActionObservation} after inference
+     * @return a {@link CompletableFuture} holding a list of {@link AbstractActionObservation} after inference; it fails
+     * if the request or the response does, so that a failed frame is never taken for a frame without predictions
      * @see #runPredefineWorkflowOnImageAsync(RequestSenderOfOKHttp, RoboflowConfig, String, String, String, String)
      * @see #objectRepository
      * @see #actionRepository
@@ -205,15 +214,13 @@ public class RoboflowService {
             completableFuture = runPredefineWorkflowOnImageAsync(
                     requestSenderOfOKHttp, roboflowConfig, workspace_name, workflow_name, base64String, workflow_id);
         } catch (IOException | ExecutionException | InterruptedException e) {
-            // In case of any error upfront, return a completed future with empty data
+            // In case of any error upfront, return a failed future
             log.error(e.getMessage());
-            CompletableFuture<List<AbstractActionObservation>> completableFutureEx = new CompletableFuture<>();
-            completableFutureEx.complete(new ArrayList<>());
-            return completableFutureEx;
+            return CompletableFuture.failedFuture(e);
         }
 
-        // Process the asynchronous Roboflow response
-        return completableFuture.thenApply(send -> {
+        // Process the asynchronous Roboflow response; cancelling the result cancels the HTTP call
+        return Cancellation.propagate(completableFuture.thenApply(send -> {
             if (send instanceof HTTPValidationError) {
                 log.error("HTTPValidationError when async sending img: {}", send);
             }
@@ -253,9 +260,9 @@ public class RoboflowService {
                 }).toList();
             }
 
-            // If we get here, something went wrong or no predictions
-            return new ArrayList<>();
-        });
+            // If we get here, Roboflow answered with an error or an unreadable response
+            throw new CompletionException(new IOException("Unexpected Roboflow response: " + send));
+        }), completableFuture);
     }
 
     /**
@@ -345,10 +352,17 @@ public class RoboflowService {
         image.setType("base64");
         image.setValue(base64);
         log.debug("test image size: {}", base64.length());
-        image.setPath("test2.png");
-        image.setPrefix("data:image/png;base64,");
-        image.setNewDimensions(new InferenceImageDimensions(2048, 1114));
-        image.setOriginalDimensions(new InferenceImageDimensions(2560, 1392));
+        // Describe the image in the format it was encoded in, see FrameEncoder
+        byte[] header = imageHeader(base64);
+        FrameEncoder.Format format = Optional.ofNullable(FrameEncoder.Format.detect(header))
+                .orElse(FrameEncoder.Format.PNG);
+        image.setPath("test2" + format.getExtension());
+        image.setPrefix("data:" + format.getMediaType() + ";base64,");
+        // The frame is sent as it is; cropping and scaling already happened before encoding
+        InferenceImageDimensions dimensions = FrameEncoder.Format.detect(header) == FrameEncoder.Format.PNG
+                ? pngDimensions(header) : null;
+        image.setNewDimensions(dimensions);
+        image.setOriginalDimensions(dimensions);
         image.setResized(false);
 
         // Attach image to the request
@@ -356,6 +370,35 @@ public class RoboflowService {
         return data3;
     }
 
+    /**
+     * Decodes the first 24 bytes of a Base64-encoded image, without decoding the rest of the image.
+     *
+     * @param base64 the base64-encoded image
+     * @return the header bytes, or an empty array if the string is too short or not plain Base64
+     */
+    private static byte[] imageHeader(String base64) {
+        if (base64.length() < 32) {
+            return new byte[0];
+        }
+        try {
+            return Base64.getDecoder().decode(base64.substring(0, 32));
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Reads the dimensions of a PNG image from its header.
+     * <br> The width and height are the first two fields of the IHDR chunk, at bytes 16 to 23 of the file.
+     *
+     * @param header the first 24 bytes of a PNG image, see {@link #imageHeader(String)}
+     * @return the dimensions of the image
+     */
+    private static InferenceImageDimensions pngDimensions(byte[] header) {
+        ByteBuffer buffer = ByteBuffer.wrap(header, 16, 8);
+        return new InferenceImageDimensions(buffer.getInt(), buffer.getInt());
+    }
+
     /**
      * Tests inference by loading a local file, converting it to Base64, and running the workflow.
      * <br> This is primarily used for debugging and demonstration purposes.
@@ -0,0 +1,156 @@
+package nusri.fyp.demo.service.job;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * <b>Per-user queues of waiting jobs, served by weighted round-robin.</b>
+ * <br>
+ * <p>Each user with waiting jobs has a turn in a ring. On its turn a user may start up to {@code weight} jobs in a row
+ * before its turn passes to the next user, so a user with a long backlog gets {@code weight} job slots for every slot
+ * of a user with weight {@code 1}, whatever the length of the backlogs.</p>
+ * <p>Jobs are long, so taking turns is not enough on its own: a user whose jobs fill every running slot would still
+ * block a newcomer until one of them ends. A user is therefore first skipped while it already runs {@code weight} jobs
+ * or more, as long as another user with waiting jobs runs fewer. Slots never stay idle: when every waiting user is at
+ * its share, the user whose turn it is gets the slot anyway.</p>
+ * <p>Within a user, jobs start in submission order. This class is thread-safe.</p>
+ *
+ * @param <T> the job type
+ * @author Liu Binghong
+ * @since 1.0
+ * @see VideoJobService
+ */
+public class FairJobQueue<T> {
+
+    /**
+     * The waiting jobs of each user, in ring order: the first user is the one whose turn it is.
+     */
+    private final LinkedHashMap<String, Deque<T>> waiting = new LinkedHashMap<>();
+
+    /**
+     * The number of running jobs of each user.
+     */
+    private final Map<String, Integer> running = new HashMap<>();
+
+    /**
+     * The number of jobs started during the current turn of the first user.
+     */
+    private int turnStarts;
+
+    private int runningTotal;
+
+    /**
+     * Adds a job at the end of the user's queue.
+     *
+     * @param user the user identifier
+     * @param job  the job
+     */
+    public synchronized void add(String user, T job) {
+        waiting.computeIfAbsent(user, k -> new ArrayDeque<>()).addLast(job);
+    }
+
+    /**
+     * Removes a waiting job, e.g. because it was cancelled before it started.
+     *
+     * @param user the user identifier
+     * @param job  the job
+     * @return {@code true} if the job was waiting
+     */
+    public synchronized boolean remove(String user, T job) {
+        Deque<T> jobs = waiting.get(user);
+        if (jobs == null || !jobs.remove(job)) {
+            return false;
+        }
+        if (jobs.isEmpty()) {
+            if (user.equals(waiting.keySet().iterator().next())) {
+                turnStarts = 0;
+            }
+            waiting.remove(user);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next job to start and counts it as running, if fewer than {@code parallelism} jobs run.
+     *
+     * @param parallelism the maximum number of running jobs
+     * @param weights     the weight of each user, at least {@code 1}
+     * @return the job to start, or {@code null} if no slot is free or no job is waiting
+     */
+    public synchronized T poll(int parallelism, ToIntFunction<String> weights) {
+        if (runningTotal >= parallelism || waiting.isEmpty()) {
+            return null;
+        }
+        String head = waiting.keySet().iterator().next();
+        String user = head;
+        for (String candidate : waiting.keySet()) {
+            if (running.getOrDefault(candidate, 0) < weight(weights, candidate)) {
+                user = candidate;
+                break;
+            }
+        }
+
+        Deque<T> jobs = waiting.get(user);
+        T job = jobs.pollFirst();
+        running.merge(user, 1, Integer::sum);
+        runningTotal++;
+
+        if (user.equals(head)) {
+            turnStarts++;
+        }
+        if (jobs.isEmpty()) {
+            waiting.remove(user);
+        } else if (!user.equals(head) || turnStarts >= weight(weights, user)) {
+            // Move the user to the end of the ring; users skipped at their share keep their place
+            waiting.remove(user);
+            waiting.put(user, jobs);
+        }
+        if (user.equals(head) && (jobs.isEmpty() || turnStarts >= weight(weights, user))) {
+            turnStarts = 0;
+        }
+        return job;
+    }
+
+    /**
+     * Records the end of a job started by {@link #poll(int, ToIntFunction)}.
+     *
+     * @param user the user identifier
+     */
+    public synchronized void done(String user) {
+        if (running.containsKey(user)) {
+            running.computeIfPresent(user, (k, count) -> count > 1 ? count - 1 : null);
+            runningTotal--;
+        }
+    }
+
+    /**
+     * @return the total number of waiting jobs
+     */
+    public synchronized int waitingCount() {
+        return waiting.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    /**
+     * @param user the user identifier
+     * @param job  the job
+     * @return the position of the job in its user's queue, or {@code -1} if it is not waiting
+     */
+    public synchronized int position(String user, T job) {
+        Deque<T> jobs = waiting.get(user);
+        if (jobs == null) {
+            return -1;
+        }
+        int position = 0;
+        for (T waitingJob : jobs) {
+            if (waitingJob == job) {
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    private static int weight(ToIntFunction<String> weights, String user) {
+        return Math.max(1, weights.applyAsInt(user));
+    }
+}
@@ -0,0 +1,155 @@
+package nusri.fyp.demo.service.job;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * <b>A video-processing job submitted to the {@link VideoJobService}.</b>
+ * <br> A job moves from {@link Status#QUEUED} to {@link Status#RUNNING} and ends in exactly one of
+ * {@link Status#SUCCEEDED}, {@link Status#FAILED} or {@link Status#CANCELLED}. Once finished, its status never changes
+ * again and its result stays available until the job is evicted.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see VideoJobService
+ */
+@Getter
+public class VideoJob {
+
+    /**
+     * The lifecycle states of a {@link VideoJob}.
+     */
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        /**
+         * @return {@code true} if a job in this state will not change state again
+         */
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String user;
+    private final String preset;
+
+    /**
+     * Whether the job is part of a batch, which runs alongside the user's other jobs instead of replacing them.
+     */
+    private final boolean batch;
+
+    private final long submittedAt = System.currentTimeMillis();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    /**
+     * The failure message, set when the job {@link Status#FAILED failed}.
+     */
+    private volatile String error;
+
+    /**
+     * The observations keyed by frame timestamp in milliseconds, set when the job {@link Status#SUCCEEDED succeeded}.
+     */
+    private volatile Map<Long, List<AbstractActionObservation>> result;
+
+    /**
+     * Completes together with the job, for callers that want to wait for it without polling.
+     */
+    private final CompletableFuture<Map<Long, List<AbstractActionObservation>>> completion = new CompletableFuture<>();
+
+    /**
+     * The processing to run once the job is dispatched.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Callable<Map<Long, List<AbstractActionObservation>>> work;
+
+    /**
+     * The task running the job on the executor, interrupted on cancellation.
+     */
+    @Getter(AccessLevel.NONE)
+    private Future<?> future;
+
+    VideoJob(String id, String user, String preset, boolean batch,
+             Callable<Map<Long, List<AbstractActionObservation>>> work) {
+        this.id = id;
+        this.user = user;
+        this.preset = preset;
+        this.batch = batch;
+        this.work = work;
+    }
+
+    Map<Long, List<AbstractActionObservation>> call() throws Exception {
+        return work.call();
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Marks the job as running.
+     *
+     * @return {@code false} if the job was cancelled while queued and must not run
+     */
+    synchronized boolean start() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        status = Status.RUNNING;
+        startedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized void succeed(Map<Long, List<AbstractActionObservation>> result) {
+        if (status.isFinished()) {
+            return;
+        }
+        this.result = result;
+        finish(Status.SUCCEEDED);
+        completion.complete(result);
+    }
+
+    synchronized void fail(Throwable cause) {
+        if (status.isFinished()) {
+            return;
+        }
+        this.error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        finish(Status.FAILED);
+        completion.completeExceptionally(cause);
+    }
+
+    /**
+     * Cancels the job, interrupting it if it is running.
+     *
+     * @return {@code false} if the job had already finished
+     */
+    synchronized boolean cancel() {
+        if (status.isFinished()) {
+            return false;
+        }
+        boolean running = status == Status.RUNNING;
+        finish(Status.CANCELLED);
+        // A dispatched job that has not started yet still runs, sees the cancellation and frees its slot
+        if (running && future != null) {
+            future.cancel(true);
+        }
+        completion.completeExceptionally(new CancellationException("Job " + id + " was cancelled"));
+        return true;
+    }
+
+    private void finish(Status status) {
+        this.status = status;
+        this.finishedAt = System.currentTimeMillis();
+    }
+}
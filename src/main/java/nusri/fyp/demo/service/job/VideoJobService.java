@@ -0,0 +1,260 @@
+package nusri.fyp.demo.service.job;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.VideoJobDto;
+import nusri.fyp.demo.service.ConfigService;
+import nusri.fyp.demo.service.push.EventPushService;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * <b>Service running video-processing jobs in the background.</b>
+ * <br> This class provides functionalities to:
+ * <ul>
+ *     <li>Submit a job and return its identifier immediately, without blocking the request thread.</li>
+ *     <li>Submit a batch of jobs for several videos of the same user at once.</li>
+ *     <li>Run up to {@link ConfigService#getVideoJobParallelism()} jobs at a time; extra jobs wait in a
+ *         {@link FairJobQueue}, so a user submitting a large batch does not hold back the other users' jobs.</li>
+ *     <li>Report the status and result of a job until it is evicted, {@link ConfigService#getVideoJobRetentionMinutes()}
+ *         after it finished.</li>
+ *     <li>Cancel a job by identifier, or the active job of a user.</li>
+ * </ul>
+ * <br> Every status change is pushed to the user's clients as a {@code "job"} event.
+ * <br> A user has at most one active job besides batch jobs: submitting a new one cancels the previous one, since both
+ * would write the same per-user progress. Batch jobs track their progress under their own key and never replace
+ * another job.
+ * <br> Waiting jobs are served by weighted round-robin across users, see {@link ConfigService#getVideoJobUserWeight(String)}.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see VideoJob
+ * @see FairJobQueue
+ */
+@Service
+@Slf4j
+public class VideoJobService {
+
+    private final ConfigService configService;
+    private final EventPushService eventPushService;
+
+    /**
+     * All jobs that have not been evicted yet, keyed by job identifier.
+     */
+    private final Map<String, VideoJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * The queued or running job of each user, keyed by user identifier.
+     */
+    private final Map<String, VideoJob> activeJobs = new ConcurrentHashMap<>();
+
+    /**
+     * The jobs waiting for a free slot, per user.
+     */
+    private final FairJobQueue<VideoJob> queue = new FairJobQueue<>();
+
+    /**
+     * The executor running the jobs, resized whenever the configured parallelism changes.
+     * <br> Jobs are only handed to it once the {@link #queue} grants them a slot, so its own queue stays short.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructs the {@link VideoJobService}.
+     *
+     * @param configService    the configuration service providing the executor size and the retention time
+     * @param eventPushService the service pushing job status changes to the user's clients
+     */
+    public VideoJobService(ConfigService configService, EventPushService eventPushService) {
+        this.configService = configService;
+        this.eventPushService = eventPushService;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("video-job-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    /**
+     * Submits a job for the given user, cancelling the user's previous active job if any.
+     *
+     * @param user   the user identifier
+     * @param preset the preset name the job runs with
+     * @param work   the processing to run, returning the observations keyed by frame timestamp
+     * @return the submitted {@link VideoJob}
+     */
+    public VideoJob submit(String user, String preset, Callable<Map<Long, List<AbstractActionObservation>>> work) {
+        VideoJob job = new VideoJob(UUID.randomUUID().toString(), user, preset, false, work);
+        jobs.put(job.getId(), job);
+        VideoJob previous = activeJobs.put(user, job);
+        if (previous != null && previous.cancel()) {
+            queue.remove(user, previous);
+            log.info("Cancelled job {} of user {}, replaced by job {}", previous.getId(), user, job.getId());
+            publish(previous);
+        }
+        enqueue(job);
+        return job;
+    }
+
+    /**
+     * Submits one batch job per video for the given user; the user's other jobs are left running.
+     * <br> Within the user's queue, the jobs start in the order of {@code works}.
+     *
+     * @param user   the user identifier
+     * @param preset the preset name the jobs run with
+     * @param works  for each video, a function of the job identifier returning the processing to run, which returns
+     *               the observations keyed by frame timestamp
+     * @return the submitted {@link VideoJob}s, in the same order
+     */
+    public List<VideoJob> submitBatch(String user, String preset,
+                                      List<Function<String, Callable<Map<Long, List<AbstractActionObservation>>>>> works) {
+        List<VideoJob> batch = new ArrayList<>(works.size());
+        for (Function<String, Callable<Map<Long, List<AbstractActionObservation>>>> work : works) {
+            String id = UUID.randomUUID().toString();
+            VideoJob job = new VideoJob(id, user, preset, true, work.apply(id));
+            jobs.put(id, job);
+            batch.add(job);
+            enqueue(job);
+        }
+        return batch;
+    }
+
+    /**
+     * Retrieves a job by identifier.
+     *
+     * @param jobId the job identifier
+     * @return the job, or empty if unknown or evicted
+     */
+    public Optional<VideoJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * Cancels a job by identifier.
+     *
+     * @param jobId the job identifier
+     * @return {@code true} if the job was queued or running and is now cancelled
+     */
+    public boolean cancel(String jobId) {
+        VideoJob job = jobs.get(jobId);
+        if (job == null || !job.cancel()) {
+            return false;
+        }
+        queue.remove(job.getUser(), job);
+        activeJobs.remove(job.getUser(), job);
+        log.info("Cancelled job {} of user {}", jobId, job.getUser());
+        publish(job);
+        return true;
+    }
+
+    /**
+     * Cancels the queued or running job of a user, if any.
+     *
+     * @param user the user identifier
+     */
+    public void cancelActive(String user) {
+        VideoJob job = activeJobs.remove(user);
+        if (job != null && job.cancel()) {
+            queue.remove(user, job);
+            log.info("Cancelled job {} of user {}", job.getId(), user);
+            publish(job);
+        }
+    }
+
+    /**
+     * A scheduled task that evicts finished jobs older than the configured retention time every 60 seconds.
+     */
+    @Scheduled(fixedRate = 60000)
+    public void evictFinishedJobs() {
+        long deadline = System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(Long.parseLong(configService.getVideoJobRetentionMinutes()));
+        jobs.values().removeIf(job -> job.getStatus().isFinished() && job.getFinishedAt() < deadline);
+    }
+
+    /**
+     * Interrupts the running jobs when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void enqueue(VideoJob job) {
+        queue.add(job.getUser(), job);
+        publish(job);
+        log.info("Submitted job {} for user {}", job.getId(), job.getUser());
+        dispatch();
+    }
+
+    /**
+     * Starts waiting jobs while slots are free, in the order chosen by the {@link #queue}.
+     */
+    private synchronized void dispatch() {
+        int parallelism = resizeExecutor();
+        VideoJob job;
+        while ((job = queue.poll(parallelism, configService::getVideoJobUserWeight)) != null) {
+            VideoJob next = job;
+            // Hand the task to the job before it can start, so that a cancellation always finds it to interrupt
+            FutureTask<Void> task = new FutureTask<>(() -> run(next), null);
+            next.setFuture(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                queue.done(next.getUser());
+                return;
+            }
+        }
+    }
+
+    private void run(VideoJob job) {
+        try {
+            if (!job.start()) {
+                return;
+            }
+            publish(job);
+            job.succeed(job.call());
+            log.info("Job {} of user {} succeeded", job.getId(), job.getUser());
+        } catch (Exception e) {
+            // A cancelled job is already finished, so this only records genuine failures
+            job.fail(e);
+            if (job.getStatus() == VideoJob.Status.FAILED) {
+                log.error("Job {} of user {} failed", job.getId(), job.getUser(), e);
+            }
+        } finally {
+            activeJobs.remove(job.getUser(), job);
+            if (job.getStartedAt() != 0 && job.getStatus() != VideoJob.Status.CANCELLED) {
+                // Cancellation is published by whoever cancelled the job
+                publish(job);
+            }
+            queue.done(job.getUser());
+            dispatch();
+        }
+    }
+
+    private void publish(VideoJob job) {
+        eventPushService.publish(job.getUser(), "job", new VideoJobDto(job));
+    }
+
+    /**
+     * Applies the configured parallelism to the executor, keeping {@code core <= max} at every step.
+     *
+     * @return the configured parallelism
+     */
+    private synchronized int resizeExecutor() {
+        int parallelism = Math.max(1, Integer.parseInt(configService.getVideoJobParallelism()));
+        if (parallelism > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(parallelism);
+            executor.setCorePoolSize(parallelism);
+        } else if (parallelism < executor.getMaximumPoolSize()) {
+            executor.setCorePoolSize(parallelism);
+            executor.setMaximumPoolSize(parallelism);
+        }
+        return parallelism;
+    }
+}
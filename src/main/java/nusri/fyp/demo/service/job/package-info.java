@@ -0,0 +1,9 @@
+/**
+ * This package contains the background job subsystem used to process uploaded videos.
+ * A job is submitted with a request, alone or in a batch, waits in a per-user fair queue, runs on a sized executor
+ * and keeps its status and result available for polling after the request that started it has returned.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+package nusri.fyp.demo.service.job;
@@ -0,0 +1,316 @@
+package nusri.fyp.demo.service.live;
+
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.LiveStreamStatusDto;
+import nusri.fyp.demo.service.img_sender.ImageSender;
+import nusri.fyp.demo.service.img_sender.pipeline.FramePreprocessor;
+import nusri.fyp.demo.service.img_sender.pipeline.FrameTransform;
+import nusri.fyp.demo.service.img_sender.pipeline.MatPool;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <b>One live ingestion session: a reader sampling a video source and a worker inferring the samples.</b>
+ * <br>
+ * <p>The reader grabs every frame of the source, so a stream's buffer never fills up, and retrieves one frame per
+ * {@code 1 / targetFps} seconds. In replay mode the source is a file read at the pace of its own timestamps, as if it
+ * were a camera.</p>
+ * <p>Sampled frames are retrieved into {@link Mat}s of the shared {@link MatPool} and go through a single-slot
+ * mailbox. If the worker is still busy when a new sample arrives, the waiting sample is dropped and handed back to the
+ * pool, so the state machine always receives the freshest frame and latency never builds up.</p>
+ * <p>The worker crops and scales each frame with the preset's {@link FramePreprocessor}, encodes it, sends it through
+ * the {@link ImageSender} and hands the result to a {@link FrameHandler} in original frame coordinates, one frame at a
+ * time, in timestamp order.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see LiveStreamService
+ */
+@Slf4j
+public class LiveStream {
+
+    /**
+     * Receives the observations of each processed frame.
+     */
+    @FunctionalInterface
+    public interface FrameHandler {
+        /**
+         * Handles the observations of one frame.
+         *
+         * @param timestamp    the frame timestamp in milliseconds since the session started
+         * @param observations the observations of the frame
+         */
+        void handle(long timestamp, List<AbstractActionObservation> observations);
+    }
+
+    /**
+     * The lifecycle states of a {@link LiveStream}.
+     */
+    public enum Status {
+        RUNNING, ENDED, STOPPED, FAILED
+    }
+
+    /**
+     * How long the worker waits for a frame before re-checking whether the session is still running.
+     */
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final String user;
+    private final String preset;
+    private final String source;
+    private final double targetFps;
+    private final boolean replay;
+    private final long startedAt = System.currentTimeMillis();
+
+    private volatile Status status = Status.RUNNING;
+    private volatile String error;
+
+    private final LongAdder grabbed = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final ImageSender imageSender;
+    private final Map<String, String> config;
+    private final FramePreprocessor preprocessor;
+    private final MatPool matPool;
+    private final FrameHandler frameHandler;
+
+    /**
+     * The single-slot mailbox between reader and worker.
+     */
+    private final BlockingQueue<LiveFrame> latestFrame = new ArrayBlockingQueue<>(1);
+
+    private Future<?> reader;
+    private Future<?> worker;
+
+    LiveStream(String user, String preset, String source, double targetFps, boolean replay,
+               ImageSender imageSender, Map<String, String> config, FramePreprocessor preprocessor,
+               MatPool matPool, FrameHandler frameHandler) {
+        this.user = user;
+        this.preset = preset;
+        this.source = source;
+        this.targetFps = targetFps;
+        this.replay = replay;
+        this.imageSender = imageSender;
+        this.config = config;
+        this.preprocessor = preprocessor;
+        this.matPool = matPool;
+        this.frameHandler = frameHandler;
+    }
+
+    /**
+     * Starts the reader and the worker.
+     *
+     * @param threads the executor running them
+     */
+    synchronized void start(ExecutorService threads) {
+        reader = threads.submit(this::read);
+        worker = threads.submit(this::work);
+    }
+
+    /**
+     * Stops the session and releases the waiting frame.
+     */
+    synchronized void stop() {
+        finish(Status.STOPPED, null);
+    }
+
+    /**
+     * @return {@code true} while the session is reading frames
+     */
+    public boolean isRunning() {
+        return status == Status.RUNNING;
+    }
+
+    /**
+     * @return a snapshot of the session state and counters
+     */
+    public LiveStreamStatusDto toDto() {
+        LiveStreamStatusDto dto = new LiveStreamStatusDto();
+        dto.setUser(user);
+        dto.setPreset(preset);
+        dto.setSource(source);
+        dto.setTargetFps(targetFps);
+        dto.setReplay(replay);
+        dto.setStatus(status.name());
+        dto.setError(error);
+        dto.setStartedAt(startedAt);
+        dto.setGrabbedFrames(grabbed.sum());
+        dto.setSampledFrames(sampled.sum());
+        dto.setDroppedFrames(dropped.sum());
+        dto.setProcessedFrames(processed.sum());
+        dto.setFailedFrames(failed.sum());
+        return dto;
+    }
+
+    private synchronized void finish(Status status, String error) {
+        if (this.status != Status.RUNNING) {
+            return;
+        }
+        this.status = status;
+        this.error = error;
+        if (reader != null) {
+            reader.cancel(true);
+        }
+        if (worker != null) {
+            worker.cancel(true);
+        }
+        LiveFrame frame = latestFrame.poll();
+        if (frame != null) {
+            matPool.release(frame.mat);
+        }
+        log.info("Live stream of {} from {} finished: {}", user, source, status);
+    }
+
+    /**
+     * Reader loop: grabs every frame, retrieves the ones due at the target rate and posts them to the mailbox.
+     */
+    private void read() {
+        VideoCapture capture = open();
+        try {
+            if (!capture.isOpened()) {
+                finish(Status.FAILED, "Cannot open " + source);
+                return;
+            }
+            long periodNanos = (long) (1_000_000_000L / targetFps);
+            long startNanos = System.nanoTime();
+            long nextDue = startNanos;
+            while (isRunning() && !Thread.currentThread().isInterrupted()) {
+                if (!capture.grab()) {
+                    finish(replay ? Status.ENDED : Status.FAILED, replay ? null : "Stream " + source + " ended");
+                    return;
+                }
+                grabbed.increment();
+
+                long timestamp;
+                if (replay) {
+                    // Wait until the frame is due in real time
+                    timestamp = (long) capture.get(Videoio.CAP_PROP_POS_MSEC);
+                    long waitNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timestamp) - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                } else {
+                    timestamp = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                }
+
+                long now = System.nanoTime();
+                if (now < nextDue) {
+                    continue;
+                }
+                // Never try to catch up on missed samples
+                nextDue = Math.max(nextDue + periodNanos, now);
+
+                Mat frame = matPool.acquire();
+                if (!capture.retrieve(frame) || frame.empty()) {
+                    matPool.release(frame);
+                    continue;
+                }
+                sampled.increment();
+                post(new LiveFrame(timestamp, frame));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Live stream reader of {} failed", user, e);
+            finish(Status.FAILED, e.getMessage());
+        } finally {
+            capture.release();
+        }
+    }
+
+    /**
+     * Puts a frame in the mailbox, dropping the frame still waiting there.
+     *
+     * @param frame the new frame
+     */
+    private void post(LiveFrame frame) {
+        while (!latestFrame.offer(frame)) {
+            LiveFrame stale = latestFrame.poll();
+            if (stale != null) {
+                matPool.release(stale.mat);
+                dropped.increment();
+            }
+        }
+        if (!isRunning()) {
+            // The session stopped while posting; do not leave the frame behind
+            LiveFrame left = latestFrame.poll();
+            if (left != null) {
+                matPool.release(left.mat);
+            }
+        }
+    }
+
+    /**
+     * Worker loop: infers the freshest frame and hands its result to the handler.
+     */
+    private void work() {
+        try {
+            while (isRunning()) {
+                LiveFrame frame = latestFrame.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                byte[] encoded;
+                FrameTransform transform;
+                try {
+                    FramePreprocessor.PreprocessedFrame preprocessed = preprocessor.apply(frame.mat);
+                    try {
+                        encoded = imageSender.encodeFrame(preprocessed.getMat(), config);
+                        transform = preprocessed.getTransform();
+                    } finally {
+                        preprocessed.release();
+                    }
+                } finally {
+                    matPool.release(frame.mat);
+                }
+                try {
+                    List<AbstractActionObservation> observations =
+                            transform.toOriginal(imageSender.sendEncodedFrameAsync(encoded, user, config).get());
+                    frameHandler.handle(frame.timestamp, observations);
+                    processed.increment();
+                } catch (ExecutionException | RuntimeException e) {
+                    // A live stream keeps going past a failed frame
+                    failed.increment();
+                    log.warn("Live frame {} of {} failed: {}", frame.timestamp, user, e.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Opens the source: a device index, or a file path or stream URL.
+     *
+     * @return the capture, which may not be opened
+     */
+    private VideoCapture open() {
+        if (source.matches("\\d+")) {
+            return new VideoCapture(Integer.parseInt(source));
+        }
+        return new VideoCapture(source);
+    }
+
+    /**
+     * A sampled frame and its timestamp in milliseconds since the session started.
+     */
+    private static class LiveFrame {
+        private final long timestamp;
+        private final Mat mat;
+
+        private LiveFrame(long timestamp, Mat mat) {
+            this.timestamp = timestamp;
+            this.mat = mat;
+        }
+    }
+}
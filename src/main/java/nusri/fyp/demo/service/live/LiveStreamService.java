@@ -0,0 +1,173 @@
+package nusri.fyp.demo.service.live;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.LiveStreamStatusDto;
+import nusri.fyp.demo.service.ConfigService;
+import nusri.fyp.demo.service.StateMachineService;
+import nusri.fyp.demo.service.img_sender.ImageSender;
+import nusri.fyp.demo.service.img_sender.ImageSenderService;
+import nusri.fyp.demo.service.img_sender.InferenceLanes;
+import nusri.fyp.demo.service.img_sender.pipeline.FramePreprocessor;
+import nusri.fyp.demo.service.push.EventPushService;
+import nusri.fyp.demo.state_machine.AbstractActionObservation;
+import nusri.fyp.demo.state_machine.StateMachine;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <b>Service running live ingestion sessions, one per user.</b>
+ * <br>
+ * <p>A session reads a camera, an RTSP/HTTP stream or a video file replayed at real-time speed on the server,
+ * samples it at a target frame rate and feeds every inferred frame straight into the user's {@link StateMachine},
+ * exactly as frames posted to {@code /video/img} are. Each result is pushed to WebSocket subscribers, followed by the
+ * progress bars and alarms when they change.</p>
+ * <p>Starting a session restarts the user's state machine with the chosen preset and stops the user's previous
+ * session, if any.</p>
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see LiveStream
+ * @see EventPushService
+ */
+@Slf4j
+@Service
+public class LiveStreamService {
+
+    private final StateMachineService stateMachineService;
+    private final ImageSenderService imageSenderService;
+    private final EventPushService eventPushService;
+    private final ConfigService configService;
+
+    /**
+     * The sessions by user, including finished ones until the user starts another.
+     */
+    private final Map<String, LiveStream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the reader and worker threads of every session.
+     */
+    private final ExecutorService threads = Executors.newCachedThreadPool(daemonThreadFactory());
+
+    /**
+     * Constructs the {@link LiveStreamService}.
+     *
+     * @param stateMachineService the service managing the state machines fed by the sessions
+     * @param imageSenderService  the service applying observations to state machines
+     * @param eventPushService    the service pushing results and state changes to WebSocket clients
+     * @param configService       the configuration service providing the default target frame rate
+     */
+    public LiveStreamService(StateMachineService stateMachineService, ImageSenderService imageSenderService,
+                             EventPushService eventPushService, ConfigService configService) {
+        this.stateMachineService = stateMachineService;
+        this.imageSenderService = imageSenderService;
+        this.eventPushService = eventPushService;
+        this.configService = configService;
+    }
+
+    private static CustomizableThreadFactory daemonThreadFactory() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("live-stream-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    /**
+     * Starts a live session for the user, replacing the previous one.
+     *
+     * @param user        the user identifier
+     * @param preset      the preset the state machine is started with
+     * @param imageSender the image sender of the preset's model
+     * @param config      the model configuration, see {@link ImageSender#sendEncodedFrameAsync}
+     * @param source      a camera index, a stream URL or a video file path
+     * @param targetFps   the number of frames inferred per second, or {@code null} for the configured default
+     * @param replay      whether {@code source} is a file to read at the pace of its own timestamps
+     * @return a {@link ResponseEntity} containing the {@link LiveStreamStatusDto}, 404 if the preset does not exist,
+     * or 400 if the target rate is not positive
+     */
+    public ResponseEntity<?> start(String user, String preset, ImageSender imageSender, Map<String, String> config,
+                                   String source, Double targetFps, boolean replay) {
+        double fps = targetFps != null ? targetFps : Double.parseDouble(configService.getLiveTargetFps());
+        if (!(fps > 0)) {
+            return ResponseEntity.badRequest().body("Target frame rate must be positive");
+        }
+        stop(user);
+        ResponseEntity<String> notFound = stateMachineService.getStartResponse(user, preset);
+        if (notFound != null) {
+            return notFound;
+        }
+
+        // Live frames go before the frames of video jobs sent to the same backend
+        Map<String, String> liveConfig = new HashMap<>(config);
+        liveConfig.put(InferenceLanes.CONFIG_KEY, InferenceLanes.Lane.LIVE.name());
+        LiveStream stream = new LiveStream(user, preset, source, fps, replay, imageSender, liveConfig,
+                new FramePreprocessor(configService.getPreprocessConfig(preset), imageSenderService.matPool),
+                imageSenderService.matPool,
+                (timestamp, observations) -> {
+                    StateMachine stateMachine = stateMachineService.getStateMachineByName(user);
+                    imageSenderService.applyObservations(stateMachine, timestamp, observations);
+                    publishLiveUpdate(user, timestamp, observations);
+                });
+        streams.put(user, stream);
+        stream.start(threads);
+        log.info("Live stream of {} started from {} at {} fps", user, source, fps);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(stream.toDto());
+    }
+
+    /**
+     * Stops the user's live session, if running.
+     *
+     * @param user the user identifier
+     * @return {@code true} if a running session was stopped
+     */
+    public boolean stop(String user) {
+        LiveStream stream = streams.get(user);
+        if (stream == null || !stream.isRunning()) {
+            return false;
+        }
+        stream.stop();
+        return true;
+    }
+
+    /**
+     * Returns the user's latest live session.
+     *
+     * @param user the user identifier
+     * @return the session status, or empty if the user never started one
+     */
+    public Optional<LiveStreamStatusDto> status(String user) {
+        return Optional.ofNullable(streams.get(user)).map(LiveStream::toDto);
+    }
+
+    /**
+     * Pushes the result of one live frame, then the progress bars and alarms if the frame changed them.
+     * <br> Used for both server-side sessions and frames posted by the client.
+     *
+     * @param user         the user identifier
+     * @param timestamp    the frame timestamp in milliseconds
+     * @param observations the observations of the frame
+     */
+    public void publishLiveUpdate(String user, long timestamp, List<AbstractActionObservation> observations) {
+        eventPushService.publish(user, "frame", Map.of("timestamp", timestamp, "observations", observations));
+        eventPushService.publishIfChanged(user, "progress_bars", stateMachineService.getProgressBars(user));
+        eventPushService.publishIfChanged(user, "alarms", stateMachineService.getAlarms(user));
+    }
+
+    /**
+     * Stops every session on shutdown.
+     */
+    @PreDestroy
+    public void shutdown() {
+        streams.values().forEach(LiveStream::stop);
+        threads.shutdownNow();
+    }
+}
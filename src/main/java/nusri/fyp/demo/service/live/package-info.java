@@ -0,0 +1,8 @@
+/**
+ * This package contains the server-side live ingestion mode: a camera, a stream URL or a video file replayed at
+ * real-time speed is read on the server, sampled at a target rate and fed continuously into the user's state machine.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+package nusri.fyp.demo.service.live;
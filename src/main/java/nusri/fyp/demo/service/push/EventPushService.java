@@ -0,0 +1,225 @@
+package nusri.fyp.demo.service.push;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import nusri.fyp.demo.dto.PushEvent;
+import nusri.fyp.demo.service.ConfigService;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <b>Service pushing events to the WebSocket clients of each user.</b>
+ * <br> Every user has a channel holding:
+ * <ul>
+ *     <li>a sequence counter, incremented for every event published to the user;</li>
+ *     <li>a replay buffer with the last {@link ConfigService#getPushReplayBufferSize()} events, sent again to a client
+ *         that reconnects with the last sequence number it saw;</li>
+ *     <li>the connected sessions, each wrapped in a {@link ConcurrentWebSocketSessionDecorator} so that a slow client
+ *         is disconnected instead of stalling the publisher.</li>
+ * </ul>
+ * <br> If a client asks for events older than the replay buffer, it first receives a {@code "reset"} event and should
+ * reload the full state through the REST endpoints.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see PushEventHandler
+ * @see PushEvent
+ */
+@Service
+@Slf4j
+public class EventPushService {
+
+    /**
+     * How long a single send may block before the client is disconnected.
+     */
+    private static final int SEND_TIME_LIMIT_MS = 2000;
+
+    /**
+     * How many bytes may be buffered for a client that is still receiving a previous message.
+     */
+    private static final int SEND_BUFFER_SIZE_LIMIT = 512 * 1024;
+
+    private final ObjectMapper objectMapper;
+    private final ConfigService configService;
+
+    /**
+     * The channels, keyed by user identifier.
+     */
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the {@link EventPushService}.
+     *
+     * @param objectMapper  the JSON mapper used to serialize events
+     * @param configService the configuration service providing the replay buffer size
+     */
+    public EventPushService(ObjectMapper objectMapper, ConfigService configService) {
+        this.objectMapper = objectMapper;
+        this.configService = configService;
+    }
+
+    /**
+     * Publishes an event to every client of a user and keeps it for replay.
+     *
+     * @param user    the user identifier
+     * @param type    the event type
+     * @param payload the event content
+     */
+    public void publish(String user, String type, Object payload) {
+        Channel channel = channel(user);
+        synchronized (channel) {
+            publish(channel, type, payload);
+        }
+    }
+
+    /**
+     * Publishes an event only if its content differs from the last one published with this method for the same type,
+     * e.g. to push alarms only when they change.
+     *
+     * @param user    the user identifier
+     * @param type    the event type
+     * @param payload the event content
+     */
+    public void publishIfChanged(String user, String type, Object payload) {
+        Channel channel = channel(user);
+        synchronized (channel) {
+            String json;
+            try {
+                json = objectMapper.writeValueAsString(payload);
+            } catch (JsonProcessingException e) {
+                log.warn("Cannot serialize {} event for {}: {}", type, user, e.toString());
+                return;
+            }
+            if (json.equals(channel.lastPayloads.put(type, json))) {
+                return;
+            }
+            publish(channel, type, payload);
+        }
+    }
+
+    /**
+     * Connects a client to a user's channel, replaying the events it missed.
+     *
+     * @param user    the user identifier
+     * @param session the WebSocket session of the client
+     * @param since   the last sequence number the client saw, or {@code -1} for a fresh connection
+     */
+    public void subscribe(String user, WebSocketSession session, long since) {
+        Channel channel = channel(user);
+        WebSocketSession client = new ConcurrentWebSocketSessionDecorator(
+                session, SEND_TIME_LIMIT_MS, SEND_BUFFER_SIZE_LIMIT);
+        synchronized (channel) {
+            if (since >= 0) {
+                long oldest = channel.buffer.isEmpty() ? channel.seq + 1 : channel.buffer.peekFirst().seq;
+                if (since + 1 < oldest && since < channel.seq) {
+                    // Part of what the client missed is gone: tell it to reload instead of replaying a gap
+                    send(channel, client, message(new PushEvent(channel.seq, "reset", System.currentTimeMillis(), null)));
+                }
+                for (BufferedEvent event : channel.buffer) {
+                    if (event.seq > since) {
+                        send(channel, client, event.message);
+                    }
+                }
+            }
+            channel.sessions.put(session.getId(), client);
+        }
+        log.info("Client {} of {} subscribed from seq {}", session.getId(), user, since);
+    }
+
+    /**
+     * Disconnects a client from a user's channel.
+     *
+     * @param user    the user identifier
+     * @param session the WebSocket session of the client
+     */
+    public void unsubscribe(String user, WebSocketSession session) {
+        Channel channel = channels.get(user);
+        if (channel != null) {
+            synchronized (channel) {
+                channel.sessions.remove(session.getId());
+            }
+        }
+    }
+
+    /**
+     * Assigns the next sequence number to an event, buffers it and sends it to the connected clients.
+     * Must hold the channel's lock.
+     */
+    private void publish(Channel channel, String type, Object payload) {
+        PushEvent event = new PushEvent(++channel.seq, type, System.currentTimeMillis(), payload);
+        TextMessage message = message(event);
+        if (message == null) {
+            return;
+        }
+        channel.buffer.addLast(new BufferedEvent(event.getSeq(), message));
+        int capacity = Math.max(1, Integer.parseInt(configService.getPushReplayBufferSize()));
+        while (channel.buffer.size() > capacity) {
+            channel.buffer.removeFirst();
+        }
+        for (WebSocketSession client : List.copyOf(channel.sessions.values())) {
+            send(channel, client, message);
+        }
+    }
+
+    private void send(Channel channel, WebSocketSession client, TextMessage message) {
+        if (message == null) {
+            return;
+        }
+        try {
+            client.sendMessage(message);
+        } catch (IOException | RuntimeException e) {
+            // Includes a client exceeding the send limits: drop it, it will reconnect and resume
+            log.info("Dropping push client {}: {}", client.getId(), e.toString());
+            channel.sessions.remove(client.getId());
+            try {
+                client.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException ignored) {
+                // Already closed
+            }
+        }
+    }
+
+    private TextMessage message(PushEvent event) {
+        try {
+            return new TextMessage(objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            log.warn("Cannot serialize push event {}: {}", event.getType(), e.toString());
+            return null;
+        }
+    }
+
+    private Channel channel(String user) {
+        return channels.computeIfAbsent(user, k -> new Channel());
+    }
+
+    /**
+     * The push state of one user. Guarded by its own lock.
+     */
+    private static class Channel {
+        private long seq;
+        private final Deque<BufferedEvent> buffer = new ArrayDeque<>();
+        private final Map<String, WebSocketSession> sessions = new LinkedHashMap<>();
+        private final Map<String, String> lastPayloads = new HashMap<>();
+    }
+
+    /**
+     * A serialized event kept for replay.
+     */
+    private static class BufferedEvent {
+        private final long seq;
+        private final TextMessage message;
+
+        private BufferedEvent(long seq, TextMessage message) {
+            this.seq = seq;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package nusri.fyp.demo.service.push;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * <b>WebSocket handler of the push channel.</b>
+ * <br> Clients connect to {@code /ws/events?user=<user>[&since=<seq>]}. Without {@code since}, only new events are sent;
+ * with it, the events published after that sequence number are replayed first. Clients do not send messages.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ * @see EventPushService
+ */
+@Component
+@Slf4j
+public class PushEventHandler extends TextWebSocketHandler {
+
+    private final EventPushService eventPushService;
+
+    /**
+     * Constructs the {@link PushEventHandler}.
+     *
+     * @param eventPushService the service holding the channels
+     */
+    public PushEventHandler(EventPushService eventPushService) {
+        this.eventPushService = eventPushService;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+        MultiValueMap<String, String> params = UriComponentsBuilder
+                .fromUri(Objects.requireNonNull(session.getUri())).build().getQueryParams();
+        String user = params.getFirst("user");
+        if (user == null || user.isBlank()) {
+            session.close(CloseStatus.BAD_DATA.withReason("Missing user"));
+            return;
+        }
+        long since;
+        try {
+            since = params.containsKey("since") ? Long.parseLong(Objects.requireNonNull(params.getFirst("since"))) : -1;
+        } catch (NumberFormatException e) {
+            session.close(CloseStatus.BAD_DATA.withReason("Invalid since"));
+            return;
+        }
+        session.getAttributes().put("user", user);
+        eventPushService.subscribe(user, session, since);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Object user = session.getAttributes().get("user");
+        if (user != null) {
+            eventPushService.unsubscribe(user.toString(), session);
+        }
+    }
+}
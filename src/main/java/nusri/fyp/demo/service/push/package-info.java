@@ -0,0 +1,8 @@
+/**
+ * This package contains the server-push channel that streams per-frame results, progress, job and alarm changes to
+ * connected clients over WebSocket, so they do not need to poll the REST endpoints.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+package nusri.fyp.demo.service.push;
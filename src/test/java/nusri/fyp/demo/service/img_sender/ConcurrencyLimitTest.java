@@ -0,0 +1,140 @@
+package nusri.fyp.demo.service.img_sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests how a {@link ConcurrencyLimit} grows, backs off, probes its baseline latency and stays within its bounds.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+class ConcurrencyLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicInteger min = new AtomicInteger(1);
+    private final AtomicInteger max = new AtomicInteger(16);
+    private final ConcurrencyLimit limit = new ConcurrencyLimit(() -> true, min::get, max::get, () -> 2);
+
+    @Test
+    void growsWhileFullyUsedAndFast() {
+        int initial = limit.get();
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        assertTrue(limit.get() > initial, "limit " + limit.get() + " should exceed " + initial);
+    }
+
+    @Test
+    void doesNotGrowWhileMostlyIdle() {
+        int initial = limit.get();
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(FAST, 1, false);
+        }
+        assertEquals(initial, limit.get());
+    }
+
+    @Test
+    void backsOffOnFailure() {
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        int grown = limit.get();
+
+        limit.onSample(FAST, grown, true);
+
+        assertTrue(limit.get() < grown, "limit " + limit.get() + " should drop below " + grown);
+    }
+
+    @Test
+    void shrinksWhenLatencyRisesBeyondTolerance() {
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        int grown = limit.get();
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(FAST * 10, limit.get(), false);
+        }
+
+        assertTrue(limit.get() < grown, "limit " + limit.get() + " should drop below " + grown);
+    }
+
+    @Test
+    void probeHoldsLimitAtOneAndResetsBaseline() {
+        for (int i = 1; i < 1000; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        int grown = limit.get();
+        assertTrue(grown > 1);
+
+        // The 1000th request starts the probe
+        limit.onSample(FAST, grown, false);
+        assertEquals(1, limit.get());
+
+        // Requests still in flight from before the probe do not end it
+        limit.onSample(FAST, 3, false);
+        assertEquals(1, limit.get());
+
+        // A request completed alone sets the baseline afresh, even above the lowest latency seen
+        long slower = TimeUnit.MILLISECONDS.toNanos(50);
+        limit.onSample(slower, 1, false);
+        assertEquals(grown, limit.get());
+        assertEquals(50, limit.toDto("python", "server", "instance", 0).getBaselineLatencyMs(), 1e-6);
+    }
+
+    @Test
+    void probeNeverGoesBelowTheMinimum() {
+        min.set(3);
+        for (int i = 1; i < 1000; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        int grown = limit.get();
+        assertTrue(grown > 3);
+
+        limit.onSample(FAST, grown, false);
+        assertEquals(3, limit.get());
+
+        limit.onSample(FAST, 4, false);
+        assertEquals(3, limit.get());
+
+        // A request completed within the minimum ends the probe
+        long slower = TimeUnit.MILLISECONDS.toNanos(50);
+        limit.onSample(slower, 3, false);
+        assertEquals(grown, limit.get());
+        assertEquals(50, limit.toDto("python", "server", "instance", 0).getBaselineLatencyMs(), 1e-6);
+    }
+
+    @Test
+    void staysWithinMinAndMax() {
+        min.set(2);
+        max.set(5);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        assertEquals(5, limit.get());
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(FAST, limit.get(), true);
+        }
+        assertEquals(2, limit.get());
+    }
+
+    @Test
+    void followsALoweredMaximum() {
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(FAST, limit.get(), false);
+        }
+        assertEquals(16, limit.get());
+
+        max.set(6);
+        limit.onSample(FAST, limit.get(), false);
+
+        assertEquals(6, limit.get());
+    }
+}
@@ -0,0 +1,173 @@
+package nusri.fyp.demo.service.img_sender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests when a {@link HedgeExecutor} starts a hedge, which answer wins and how it bounds the hedges running.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+class HedgeExecutorTest {
+
+    /**
+     * The number of latencies needed before the first hedge, see {@code HedgePolicy.MIN_SAMPLES}.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    private final HedgePolicy policy = new HedgePolicy(() -> true, () -> 90, () -> 100);
+    private final HedgeExecutor executor = new HedgeExecutor(policy, 1);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A request answering after {@code sleepMs}, or never if negative; it fails once cancelled.
+     */
+    private static final class FakeAttempt implements HedgeExecutor.Attempt<String> {
+        private final String value;
+        private final long sleepMs;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+
+        private FakeAttempt(String value, long sleepMs) {
+            this.value = value;
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public String run() throws IOException {
+            started.countDown();
+            try {
+                if (cancelled.await(sleepMs < 0 ? 1_000 : sleepMs, TimeUnit.MILLISECONDS)) {
+                    throw new IOException(value + " cancelled");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (sleepMs < 0) {
+                throw new IOException(value + " never answered");
+            }
+            return value;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.countDown();
+        }
+
+        private boolean isCancelled() {
+            return cancelled.getCount() == 0;
+        }
+    }
+
+    /**
+     * Gives the policy enough latencies of 5 ms to hedge after; the delay of each request is then taken from
+     * {@link HedgePolicy#delayMs()}, which also earns the hedge budget.
+     */
+    private void recordFastRequests() {
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            policy.record(5, false);
+        }
+    }
+
+    @Test
+    void hedgesASlowRequestOnceEnoughLatenciesWereRecorded() throws Exception {
+        AtomicInteger hedges = new AtomicInteger();
+        // The way a sender uses it: requests without a delay run alone and report their latency
+        int unhedged = 0;
+        while (policy.delayMs() < 0) {
+            policy.record(5, false);
+            unhedged++;
+        }
+        assertEquals(MIN_SAMPLES, unhedged);
+
+        FakeAttempt primary = new FakeAttempt("primary", -1);
+        FakeAttempt hedge = new FakeAttempt("hedge", 0);
+        String result = executor.call(primary, () -> {
+            hedges.incrementAndGet();
+            return hedge;
+        }, policy.delayMs());
+
+        assertEquals("hedge", result);
+        assertEquals(1, hedges.get());
+        assertTrue(primary.isCancelled());
+        assertEquals(1, policy.toDto("python").getHedgeWins());
+    }
+
+    @Test
+    void doesNotHedgeARequestAnsweringInTime() throws Exception {
+        recordFastRequests();
+        AtomicInteger hedges = new AtomicInteger();
+
+        String result = executor.call(new FakeAttempt("primary", 0), () -> {
+            hedges.incrementAndGet();
+            return new FakeAttempt("hedge", 0);
+        }, 1_000);
+
+        assertEquals("primary", result);
+        assertEquals(0, hedges.get());
+    }
+
+    @Test
+    void cancelsTheHedgeWhenThePrimaryAnswersFirst() throws Exception {
+        recordFastRequests();
+        FakeAttempt hedge = new FakeAttempt("hedge", -1);
+
+        String result = executor.call(new FakeAttempt("primary", 200), () -> hedge, policy.delayMs());
+
+        assertEquals("primary", result);
+        assertTrue(hedge.started.await(5, TimeUnit.SECONDS));
+        assertTrue(hedge.isCancelled());
+    }
+
+    @Test
+    void throwsThePrimaryFailureWithoutAHedgeTarget() {
+        recordFastRequests();
+
+        IOException failure = assertThrows(IOException.class,
+                () -> executor.call(new FakeAttempt("primary", -1), () -> null, policy.delayMs()));
+
+        assertEquals("primary never answered", failure.getMessage());
+    }
+
+    @Test
+    void skipsTheHedgeWhileEveryHedgeThreadIsBusy() throws Exception {
+        recordFastRequests();
+        FakeAttempt busy = new FakeAttempt("busy", -1);
+        FakeAttempt first = new FakeAttempt("first", -1);
+        Thread blocked = new Thread(() -> {
+            try {
+                executor.call(first, () -> busy, policy.delayMs());
+            } catch (IOException ignored) {
+                // Cancelled below
+            }
+        });
+        blocked.start();
+        assertTrue(busy.started.await(5, TimeUnit.SECONDS));
+
+        AtomicInteger hedges = new AtomicInteger();
+        String result = executor.call(new FakeAttempt("primary", 100), () -> {
+            hedges.incrementAndGet();
+            return new FakeAttempt("hedge", 0);
+        }, policy.delayMs());
+
+        assertEquals("primary", result);
+        assertEquals(0, hedges.get());
+        assertEquals(1, executor.toDto().getRejected());
+
+        first.cancel();
+        busy.cancel();
+        blocked.join(5_000);
+    }
+}
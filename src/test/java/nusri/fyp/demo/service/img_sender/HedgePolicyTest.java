@@ -0,0 +1,73 @@
+package nusri.fyp.demo.service.img_sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests when a {@link HedgePolicy} starts hedging, the delay it hedges after and the budget it keeps.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+class HedgePolicyTest {
+
+    /**
+     * The number of latencies needed before the first hedge, see {@code HedgePolicy.MIN_SAMPLES}.
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    private final AtomicBoolean enabled = new AtomicBoolean(true);
+    private final HedgePolicy policy = new HedgePolicy(enabled::get, () -> 90, () -> 100);
+
+    @Test
+    void startsHedgingOnceUnhedgedRequestsGaveEnoughLatencies() {
+        // The way a sender uses the policy: requests without a delay run alone and report their latency
+        int unhedged = 0;
+        while (policy.delayMs() < 0) {
+            assertTrue(unhedged < MIN_SAMPLES, "still no hedge delay after " + unhedged + " requests");
+            policy.record(10, false);
+            unhedged++;
+        }
+
+        assertEquals(MIN_SAMPLES, unhedged);
+        assertEquals(10, policy.delayMs());
+        assertTrue(policy.tryHedge());
+    }
+
+    @Test
+    void hedgesAfterTheConfiguredPercentile() {
+        for (int latencyMs = 1; latencyMs <= MIN_SAMPLES; latencyMs++) {
+            policy.record(latencyMs, false);
+        }
+
+        // The 90th percentile of 1..20 ms
+        assertEquals(18, policy.delayMs());
+    }
+
+    @Test
+    void neverHedgesWhileDisabled() {
+        for (int i = 0; i < MIN_SAMPLES; i++) {
+            policy.record(10, false);
+        }
+        enabled.set(false);
+
+        assertEquals(-1, policy.delayMs());
+    }
+
+    @Test
+    void hedgesNoMoreThanTheBudget() {
+        HedgePolicy halfBudget = new HedgePolicy(() -> true, () -> 90, () -> 50);
+
+        halfBudget.delayMs();
+        assertFalse(halfBudget.tryHedge());
+
+        halfBudget.delayMs();
+        assertTrue(halfBudget.tryHedge());
+        assertFalse(halfBudget.tryHedge());
+
+        assertEquals(2, halfBudget.toDto("python").getBudgetDenied());
+    }
+}
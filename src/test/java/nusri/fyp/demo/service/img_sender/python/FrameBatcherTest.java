@@ -0,0 +1,161 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests when a {@link FrameBatcher} sends its batches, how it hands the results back and how it cancels them.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+class FrameBatcherTest {
+
+    private static final long LONG_WINDOW_MS = 60_000;
+
+    /**
+     * The batches sent, in order.
+     */
+    private final List<List<byte[]>> sent = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * The pending answers of the batches sent while {@link #hold} is set.
+     */
+    private final List<CompletableFuture<List<String>>> pending = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile boolean hold;
+
+    /**
+     * Answers each frame with its first byte, at once unless {@link #hold} is set.
+     */
+    private CompletableFuture<List<String>> send(List<byte[]> frames) {
+        sent.add(frames);
+        if (hold) {
+            CompletableFuture<List<String>> answer = new CompletableFuture<>();
+            pending.add(answer);
+            return answer;
+        }
+        return CompletableFuture.completedFuture(answer(frames));
+    }
+
+    private static List<String> answer(List<byte[]> frames) {
+        return frames.stream().map(frame -> "result " + frame[0]).toList();
+    }
+
+    private FrameBatcher<String> batcher(int maxFrames, long windowMs) {
+        return new FrameBatcher<>(() -> maxFrames, () -> windowMs, () -> 1000, this::send);
+    }
+
+    /**
+     * Grows the batch size of a batcher by sending full batches answered at once.
+     */
+    private void grow(FrameBatcher<String> batcher, int size) {
+        while (batcher.getBatchSize() < size) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = batcher.getBatchSize(); i > 0; i--) {
+                futures.add(batcher.submit(new byte[]{0}));
+            }
+            futures.forEach(CompletableFuture::join);
+        }
+        sent.clear();
+    }
+
+    @Test
+    void sendsAFullBatchAtOnceAndGrowsUpToTheMaximum() {
+        FrameBatcher<String> batcher = batcher(3, LONG_WINDOW_MS);
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(batcher.submit(new byte[]{(byte) i}));
+        }
+
+        // 1 frame, then 2 once the first batch answered in time, then 3, the maximum
+        assertEquals(List.of(1, 2, 3), sent.stream().map(List::size).toList());
+        assertEquals(3, batcher.getBatchSize());
+        futures.forEach(future -> assertTrue(future.isDone()));
+    }
+
+    @Test
+    void sendsAPartialBatchOnceItsWindowElapsed() throws Exception {
+        FrameBatcher<String> batcher = batcher(8, 50);
+        grow(batcher, 2);
+
+        CompletableFuture<String> future = batcher.submit(new byte[]{7});
+        assertTrue(sent.isEmpty());
+
+        assertEquals("result 7", future.get(5, TimeUnit.SECONDS));
+        assertEquals(1, sent.size());
+        assertEquals(1, sent.get(0).size());
+    }
+
+    @Test
+    void handsEachFrameItsOwnResult() throws Exception {
+        FrameBatcher<String> batcher = batcher(3, LONG_WINDOW_MS);
+        grow(batcher, 3);
+        hold = true;
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(batcher.submit(new byte[]{(byte) i}));
+        }
+        assertEquals(1, pending.size());
+        pending.get(0).complete(answer(sent.get(0)));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("result " + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void failsEveryFrameOfAFailedBatch() {
+        FrameBatcher<String> batcher = batcher(2, LONG_WINDOW_MS);
+        grow(batcher, 2);
+        hold = true;
+
+        CompletableFuture<String> first = batcher.submit(new byte[]{0});
+        CompletableFuture<String> second = batcher.submit(new byte[]{1});
+        pending.get(0).completeExceptionally(new IllegalStateException("worker down"));
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+    }
+
+    @Test
+    void cancelsTheBatchOnceEveryFrameIsCancelled() {
+        FrameBatcher<String> batcher = batcher(2, LONG_WINDOW_MS);
+        grow(batcher, 2);
+        hold = true;
+
+        CompletableFuture<String> first = batcher.submit(new byte[]{0});
+        CompletableFuture<String> second = batcher.submit(new byte[]{1});
+        CompletableFuture<List<String>> request = pending.get(0);
+
+        first.cancel(true);
+        assertFalse(request.isCancelled());
+
+        second.cancel(true);
+        assertTrue(request.isCancelled());
+    }
+
+    @Test
+    void leavesFramesCancelledWhileWaitingOutOfTheBatch() throws Exception {
+        FrameBatcher<String> batcher = batcher(8, 50);
+        grow(batcher, 3);
+
+        CompletableFuture<String> cancelled = batcher.submit(new byte[]{0});
+        CompletableFuture<String> kept = batcher.submit(new byte[]{1});
+        cancelled.cancel(true);
+
+        assertEquals("result 1", kept.get(5, TimeUnit.SECONDS));
+        assertEquals(1, sent.size());
+        assertEquals(1, sent.get(0).size());
+        assertEquals(1, batcher.toDto("server", "batch").getDropped());
+    }
+}
@@ -0,0 +1,162 @@
+package nusri.fyp.demo.service.img_sender.python;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import nusri.fyp.demo.state_machine.ActionObservation;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests how an {@link ObservationParser} reads the JSON and binary responses of the Python servers.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+class ObservationParserTest {
+
+    private static final String JSON = "application/json";
+
+    private final ObservationParser parser = new ObservationParser(new JsonFactory());
+
+    private static InputStream body(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> labels(List<ActionObservation> observations) {
+        return observations.stream().map(ActionObservation::s).toList();
+    }
+
+    /**
+     * Writes a binary response, see the format in {@link ObservationParser}.
+     *
+     * @param magic  the first four bytes, {@code "EOB1"} in a valid response
+     * @param labels the labels of the response
+     * @param frames per frame, the label index and probability of each observation, in pairs
+     */
+    private static InputStream binary(String magic, String[] labels, double[]... frames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes(magic);
+        out.writeShort(labels.length);
+        for (String label : labels) {
+            byte[] utf8 = label.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(utf8.length);
+            out.write(utf8);
+        }
+        out.writeShort(frames.length);
+        for (double[] frame : frames) {
+            out.writeShort(frame.length / 2);
+            for (int i = 0; i < frame.length; i += 2) {
+                out.writeShort((int) frame[i]);
+                out.writeFloat((float) frame[i + 1]);
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    @Test
+    void readsTheObservationsOfOneFrame() throws IOException {
+        List<ActionObservation> observations = parser.parseFrame(JSON, body("""
+                {"actionObservations": [
+                    {"actionAndObject": "pick up screw", "probability": 0.9},
+                    {"actionAndObject": "place lid", "probability": 0.25}
+                ], "t": 1700000000}"""));
+
+        assertEquals(List.of("pick up screw", "place lid"), labels(observations));
+        assertEquals(0.9, observations.get(0).getProbability(), 1e-9);
+        assertEquals(0.25, observations.get(1).getProbability(), 1e-9);
+    }
+
+    @Test
+    void readsEachFrameOfABatchInOrder() throws IOException {
+        List<List<ActionObservation>> frames = parser.parseBatch(JSON, body("""
+                {"results": [
+                    {"actionObservations": [{"actionAndObject": "open box", "probability": 0.5}]},
+                    {"actionObservations": []},
+                    {"actionObservations": [{"actionAndObject": "place lid", "probability": 0.75}]}
+                ]}"""));
+
+        assertEquals(3, frames.size());
+        assertEquals(List.of("open box"), labels(frames.get(0)));
+        assertTrue(frames.get(1).isEmpty());
+        assertEquals(List.of("place lid"), labels(frames.get(2)));
+    }
+
+    @Test
+    void skipsUnknownFields() throws IOException {
+        List<List<ActionObservation>> frames = parser.parseBatch(JSON, body("""
+                {"worker": {"id": 3, "gpu": [0, 1]}, "results": [
+                    {"t": 1, "boxes": [[1, 2, 3, 4]], "actionObservations": [
+                        {"score": {"raw": 2.5}, "actionAndObject": "open box", "tags": ["a"], "probability": 0.5}
+                    ]}
+                ], "elapsedMs": 12}"""));
+
+        assertEquals(1, frames.size());
+        assertEquals(List.of("open box"), labels(frames.get(0)));
+        assertEquals(0.5, frames.get(0).get(0).getProbability(), 1e-9);
+    }
+
+    @Test
+    void acceptsProbabilitiesSentAsStrings() throws IOException {
+        List<ActionObservation> observations = parser.parseFrame(JSON, body("""
+                {"actionObservations": [{"actionAndObject": "open box", "probability": "0.625"}]}"""));
+
+        assertEquals(0.625, observations.get(0).getProbability(), 1e-9);
+    }
+
+    @Test
+    void dropsSingleQuotesFromLabels() throws IOException {
+        List<ActionObservation> observations = parser.parseFrame(JSON, body("""
+                {"actionObservations": [{"actionAndObject": "'pick up' 'screw'", "probability": 0.5}]}"""));
+
+        assertEquals(List.of("pick up screw"), labels(observations));
+    }
+
+    @Test
+    void readsNoObservationsFromAnEmptyBody() throws IOException {
+        assertTrue(parser.parseFrame(JSON, body("")).isEmpty());
+        assertTrue(parser.parseFrame(null, body("")).isEmpty());
+    }
+
+    @Test
+    void readsTheBinaryFormatBack() throws IOException {
+        String[] labels = {"pick up screw", "place lid", "\u00f6ffnen"};
+
+        List<List<ActionObservation>> frames = parser.parseBatch(ObservationParser.BINARY_TYPE,
+                binary("EOB1", labels, new double[]{0, 0.5, 2, 0.25}, new double[]{}, new double[]{1, 0.75, 0, 0.125}));
+
+        assertEquals(3, frames.size());
+        assertEquals(List.of("pick up screw", "\u00f6ffnen"), labels(frames.get(0)));
+        assertTrue(frames.get(1).isEmpty());
+        assertEquals(List.of("place lid", "pick up screw"), labels(frames.get(2)));
+        assertEquals(0.75, frames.get(2).get(0).getProbability(), 1e-6);
+        assertEquals(0.125, frames.get(2).get(1).getProbability(), 1e-6);
+
+        // A single-frame response, with parameters in its content type
+        List<ActionObservation> frame = parser.parseFrame(ObservationParser.BINARY_TYPE + "; charset=binary",
+                binary("EOB1", labels, new double[]{1, 0.5}));
+        assertEquals(List.of("place lid"), labels(frame));
+    }
+
+    @Test
+    void rejectsABinaryBodyWithoutTheMagic() {
+        assertThrows(IOException.class, () -> parser.parseFrame(ObservationParser.BINARY_TYPE,
+                binary("EOB2", new String[]{"place lid"}, new double[]{0, 0.5})));
+    }
+
+    @Test
+    void rejectsALabelIndexOutOfRange() {
+        IOException failure = assertThrows(IOException.class, () -> parser.parseFrame(ObservationParser.BINARY_TYPE,
+                binary("EOB1", new String[]{"place lid"}, new double[]{1, 0.5})));
+
+        assertEquals("Label index 1 out of 1", failure.getMessage());
+    }
+}
@@ -0,0 +1,107 @@
+package nusri.fyp.demo.service.job;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the weighted round-robin order and the per-user share of {@link FairJobQueue}.
+ *
+ * @author Liu Binghong
+ * @since 1.0
+ */
+class FairJobQueueTest {
+
+    private final FairJobQueue<String> queue = new FairJobQueue<>();
+
+    @Test
+    void usersTakeTurnsInProportionToTheirWeight() {
+        ToIntFunction<String> weights = Map.of("a", 2, "b", 1)::get;
+        for (int i = 1; i <= 6; i++) {
+            queue.add("a", "a" + i);
+        }
+        for (int i = 1; i <= 4; i++) {
+            queue.add("b", "b" + i);
+        }
+
+        List<String> order = new ArrayList<>();
+        String job;
+        while ((job = queue.poll(1, weights)) != null) {
+            order.add(job);
+            queue.done(job.substring(0, 1));
+        }
+
+        assertEquals(List.of("a1", "a2", "b1", "a3", "a4", "b2", "a5", "a6", "b3", "b4"), order);
+    }
+
+    @Test
+    void jobsOfOneUserStartInSubmissionOrder() {
+        queue.add("a", "a1");
+        queue.add("a", "a2");
+        queue.add("a", "a3");
+
+        assertEquals("a1", queue.poll(3, user -> 1));
+        assertEquals("a2", queue.poll(3, user -> 1));
+        assertEquals("a3", queue.poll(3, user -> 1));
+    }
+
+    @Test
+    void noJobStartsWithoutAFreeSlot() {
+        queue.add("a", "a1");
+        queue.add("a", "a2");
+
+        assertEquals("a1", queue.poll(1, user -> 1));
+        assertNull(queue.poll(1, user -> 1));
+        assertEquals(1, queue.waitingCount());
+
+        queue.done("a");
+        assertEquals("a2", queue.poll(1, user -> 1));
+    }
+
+    @Test
+    void userAtItsShareIsSkippedForANewcomer() {
+        queue.add("a", "a1");
+        queue.add("a", "a2");
+        queue.add("a", "a3");
+        assertEquals("a1", queue.poll(3, user -> 1));
+        // Alone, a user gets the free slots beyond its share
+        assertEquals("a2", queue.poll(3, user -> 1));
+
+        queue.add("b", "b1");
+
+        assertEquals("b1", queue.poll(3, user -> 1));
+        assertNull(queue.poll(3, user -> 1));
+    }
+
+    @Test
+    void userAtItsShareStillGetsTheSlotWhenEveryUserIsAtItsShare() {
+        queue.add("a", "a1");
+        queue.add("a", "a2");
+        queue.add("b", "b1");
+        queue.add("b", "b2");
+
+        assertEquals("a1", queue.poll(4, user -> 1));
+        assertEquals("b1", queue.poll(4, user -> 1));
+        assertEquals("a2", queue.poll(4, user -> 1));
+        assertEquals("b2", queue.poll(4, user -> 1));
+    }
+
+    @Test
+    void removedJobNeverStarts() {
+        queue.add("a", "a1");
+        queue.add("a", "a2");
+
+        assertEquals(1, queue.position("a", "a2"));
+        assertTrue(queue.remove("a", "a1"));
+        assertFalse(queue.remove("a", "a1"));
+        assertEquals(0, queue.position("a", "a2"));
+
+        assertEquals("a2", queue.poll(1, user -> 1));
+        assertEquals(-1, queue.position("a", "a2"));
+    }
+}